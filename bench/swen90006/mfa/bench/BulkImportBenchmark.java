@@ -0,0 +1,83 @@
+package swen90006.mfa.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.bulk.BulkImporter;
+
+/**
+ * Times importing a CSV file of new users with BulkImporter against
+ * reading the same file a line at a time and calling MFA.register for
+ * each.
+ *
+ * Usage: BulkImportBenchmark [users [threads [rounds]]]
+ *
+ * The defaults are 1,000,000 users, one thread per processor and five
+ * rounds, the first of which mostly measure the JIT compiler. One user
+ * in a hundred shares a kiosk; every tenth row is invalid. The heap is
+ * collected before each is timed, so neither pays for the garbage the
+ * other left.
+ */
+public class BulkImportBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File file = File.createTempFile("users", ".csv");
+        file.deleteOnExit();
+        try (Writer out = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < users; i++) {
+                String password = i % 10 == 9 ? "short" : Names.password(i);
+                out.write(Names.username(i) + "," + password + (i % 100 == 0 ? ",kiosk" : "")
+                          + "\n");
+            }
+        }
+
+        MFA mfa = null;
+        for (int round = 0; round < rounds; round++) {
+            mfa = null;
+            System.gc();
+            long start = System.nanoTime();
+            mfa = new MFA(users, 0.01);
+            int registered = 0;
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    String[] fields = line.split(",");
+                    try {
+                        mfa.register(fields[0], fields[1], fields.length > 2 ? fields[2] : null);
+                        registered++;
+                    }
+                    catch (Exception e) {
+                        //Rejected
+                    }
+                }
+            }
+            long register = System.nanoTime() - start;
+
+            mfa = null;
+            System.gc();
+            start = System.nanoTime();
+            mfa = new MFA(users, 0.01);
+            BulkImporter.Report report = new BulkImporter(mfa, threads,
+                                                          BulkImporter.DEFAULT_CHUNK_SIZE)
+                .importFile(file);
+            long bulk = System.nanoTime() - start;
+
+            System.out.printf("register: %,d users in %,d ms; BulkImporter (%d threads): "
+                              + "%,d users in %,d ms; %.1fx%n",
+                              registered, TimeUnit.NANOSECONDS.toMillis(register), threads,
+                              report.getImported(), TimeUnit.NANOSECONDS.toMillis(bulk),
+                              (double) register / bulk);
+        }
+    }
+}
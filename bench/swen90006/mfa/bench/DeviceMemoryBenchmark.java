@@ -0,0 +1,71 @@
+package swen90006.mfa.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import swen90006.mfa.DeviceRegistry;
+
+/**
+ * Measures the heap held per user for users' devices: a map from each
+ * user to their own copy of the device ID, as decoded from a request,
+ * against a DeviceRegistry, which holds each device once and also
+ * indexes each device's users.
+ *
+ * Usage: DeviceMemoryBenchmark [users [devices]]
+ *
+ * The defaults are 1,000,000 users sharing 1,000 kiosks. Run with a
+ * heap large enough for both, such as -Djvmargs=-Xmx1g.
+ */
+public class DeviceMemoryBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        List<String> usernames = new ArrayList<String>(users);
+        for (int i = 0; i < users; i++) {
+            usernames.add(Names.username(i));
+        }
+
+        long before = usedMemory();
+        Map<String, String> strings = new HashMap<String, String>();
+        for (int i = 0; i < users; i++) {
+            strings.put(usernames.get(i), deviceID(i % devices));
+        }
+        long mapBytes = usedMemory() - before;
+        strings = null;
+
+        before = usedMemory();
+        DeviceRegistry registry = new DeviceRegistry();
+        for (int i = 0; i < users; i++) {
+            registry.assign(usernames.get(i), deviceID(i % devices));
+        }
+        long registryBytes = usedMemory() - before;
+
+        System.out.printf("%,d users on %,d devices%n", users, registry.deviceCount());
+        System.out.printf("HashMap of device IDs: %,d bytes, %.1f per user%n",
+                          mapBytes, (double) mapBytes / users);
+        System.out.printf("DeviceRegistry:        %,d bytes, %.1f per user%n",
+                          registryBytes, (double) registryBytes / users);
+        System.out.printf("Saving: %.0f%%%n", 100.0 * (mapBytes - registryBytes) / mapBytes);
+    }
+
+    //A fresh String each time, as if decoded from a request
+    private static String deviceID(int device)
+    {
+        return new String("kiosk-" + device);
+    }
+
+    static long usedMemory() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
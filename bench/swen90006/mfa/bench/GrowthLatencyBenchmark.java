@@ -0,0 +1,86 @@
+package swen90006.mfa.bench;
+
+import java.util.Arrays;
+
+import swen90006.mfa.DeviceRegistry;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserDirectory;
+import swen90006.mfa.UserTable;
+
+/**
+ * Measures the latency of each addition to a table that starts empty
+ * and grows to hold every user: a UserTable, which rehashes every user
+ * at once when it grows, a UserDirectory, which grows its index a few
+ * slots at a time and its columns a chunk at a time, and MFA.register,
+ * which adds to a UserDirectory.
+ *
+ * Usage: GrowthLatencyBenchmark [users]
+ *
+ * The default is 4,000,000 users. Latencies include the cost of
+ * reading the clock, and any collections that happen to fall during an
+ * addition; run with -Xms4g -Xmx4g -Xmn3g -XX:+AlwaysPreTouch to keep
+ * collections out of the tail.
+ */
+public class GrowthLatencyBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = Names.username(i);
+        }
+        long[] latencies = new long[users];
+
+        for (int round = 0; round < 2; round++) {
+            UserTable<String> table = new UserTable<String>();
+            for (int i = 0; i < users; i++) {
+                long start = System.nanoTime();
+                table.put(names[i], names[i]);
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("UserTable.put", latencies);
+            table = null;
+
+            UserDirectory directory = new UserDirectory(new DeviceRegistry());
+            for (int i = 0; i < users; i++) {
+                long start = System.nanoTime();
+                directory.add(names[i]);
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("UserDirectory.add", latencies);
+            directory = null;
+
+            MFA mfa = new MFA(users, 0.01);
+            for (int i = 0; i < users; i++) {
+                long start = System.nanoTime();
+                mfa.register(names[i], "password1!", null);
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("MFA.register", latencies);
+            mfa = null;
+            System.gc();
+        }
+    }
+
+    //Prints the percentiles of a sample of latencies, in nanoseconds
+    static void report(String name, long[] latencies)
+    {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        int slow = 0;
+        while (slow < sorted.length && sorted[sorted.length - 1 - slow] > 1000000) {
+            slow++;
+        }
+        System.out.printf("%-18s p50 %,6d ns  p99 %,6d ns  p99.9 %,7d ns  p99.99 %,8d ns  "
+                          + "max %,11d ns  over 1 ms: %d%n",
+                          name, percentile(sorted, 0.5), percentile(sorted, 0.99),
+                          percentile(sorted, 0.999), percentile(sorted, 0.9999),
+                          sorted[sorted.length - 1], slow);
+    }
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (fraction * sorted.length))];
+    }
+}
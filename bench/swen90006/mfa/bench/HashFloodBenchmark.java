@@ -0,0 +1,106 @@
+package swen90006.mfa.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import swen90006.mfa.KeyedUserTable;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserTable;
+
+/**
+ * Compares the time to add and then look up users in a HashMap, a
+ * KeyedUserTable, a UserTable and MFA.register, for ordinary usernames
+ * and for a flood of usernames that all share a String.hashCode.
+ *
+ * Usage: HashFloodBenchmark [log2 of users]
+ *
+ * The default is 2^17 users. The flood is every name of 17 blocks each
+ * "Aa" or "BB", too long to be packed. Lookups use fresh copies of the
+ * names, as a server parsing requests would, so no String arrives with
+ * its hashCode already cached.
+ */
+public class HashFloodBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int bits = args.length > 0 ? Integer.parseInt(args[0]) : 17;
+        List<String> normal = new ArrayList<String>();
+        for (int i = 0; i < 1 << bits; i++) {
+            normal.add(Names.username(i));
+        }
+        List<String> flood = new ArrayList<String>();
+        for (int i = 0; i < 1 << bits; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int b = 0; b < bits; b++) {
+                name.append((i >>> b & 1) == 0 ? "Aa" : "BB");
+            }
+            flood.add(name.toString());
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (String workload : new String[] {"normal", "flood"}) {
+                List<String> names = workload.equals("normal") ? normal : flood;
+                time(workload, "HashMap", new HashMap<String, Integer>(), names);
+                time(workload, "KeyedUserTable", new KeyedUserTable<Integer>(), names);
+                time(workload, "UserTable", new UserTable<Integer>(), names);
+                timeRegister(workload, names);
+            }
+        }
+    }
+
+    private static void time(String workload, String name, Map<String, Integer> map,
+                             List<String> names)
+    {
+        String[] copies = copies(names);
+        long start = System.nanoTime();
+        for (int i = 0; i < copies.length; i++) {
+            map.put(copies[i], i);
+        }
+        long put = System.nanoTime() - start;
+        copies = copies(names);
+        long sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < copies.length; i++) {
+            sum += map.get(copies[i]);
+        }
+        long get = System.nanoTime() - start;
+        report(workload, name, copies.length, put, get, sum);
+    }
+
+    private static void timeRegister(String workload, List<String> names) throws Exception
+    {
+        MFA mfa = new MFA(names.size(), 0.01);
+        String[] copies = copies(names);
+        long start = System.nanoTime();
+        for (int i = 0; i < copies.length; i++) {
+            mfa.register(copies[i], "password1!", null);
+        }
+        long put = System.nanoTime() - start;
+        copies = copies(names);
+        long sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < copies.length; i++) {
+            sum += mfa.getUserID(copies[i]);
+        }
+        long get = System.nanoTime() - start;
+        report(workload, "MFA", copies.length, put, get, sum);
+    }
+
+    private static String[] copies(List<String> names)
+    {
+        String[] copies = new String[names.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = new String(names.get(i).toCharArray());
+        }
+        return copies;
+    }
+
+    private static void report(String workload, String name, int users, long put, long get,
+                               long sum)
+    {
+        System.out.printf("%-6s %-14s put %,8.1f ns  get %,8.1f ns  (%d)%n",
+                          workload, name, (double) put / users, (double) get / users, sum);
+    }
+}
@@ -0,0 +1,60 @@
+package swen90006.mfa.bench;
+
+import java.util.Map;
+
+import swen90006.mfa.MFA;
+
+/**
+ * Measures the heap held per registered user who has no device,
+ * records or session, and prints MFA's own estimate of it part by
+ * part.
+ *
+ * Usage: IdleUserBenchmark [users]
+ *
+ * The default is 1,000,000 users.
+ */
+public class IdleUserBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        //The usernames are made first, as callers hold their own
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = Names.username(i);
+        }
+        long before = used();
+        MFA mfa = new MFA(users, 0.01);
+        for (int i = 0; i < users; i++) {
+            mfa.register(names[i], Names.password(i), null);
+        }
+        long measured = used() - before;
+
+        Map<String, Long> footprint = mfa.getFootprint();
+        long total = 0;
+        System.out.printf("%,d idle users, bytes per user:%n", users);
+        for (Map.Entry<String, Long> part : footprint.entrySet()) {
+            System.out.printf("  %-22s %6.1f%n", part.getKey(), (double) part.getValue() / users);
+            total += part.getValue();
+        }
+        long passwords = footprint.get("passwords");
+        System.out.printf("  %-22s %6.1f%n", "estimated", (double) total / users);
+        System.out.printf("  %-22s %6.1f%n", "measured", (double) measured / users);
+        System.out.printf("  %-22s %6.1f%n", "excluding passwords",
+                          (double) (measured - passwords) / users);
+        if (!mfa.isUser(names[users - 1])) {
+            throw new AssertionError("Missing user");
+        }
+    }
+
+    private static long used() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
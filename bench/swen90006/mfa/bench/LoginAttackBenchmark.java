@@ -0,0 +1,136 @@
+package swen90006.mfa.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.limit.LoginLimitedException;
+import swen90006.mfa.limit.LoginLimiter;
+
+/**
+ * Measures logins by real users while attackers guess passwords, with
+ * and without a LoginLimiter with the default limits.
+ *
+ * Usage: LoginAttackBenchmark [users [attackers [seconds]]]
+ *
+ * The defaults are 100,000 users, 4 attacking threads and 5 seconds.
+ * Each attacker guesses at random users from one of 16 addresses; one
+ * thread logs real users in, each from their own address. Reported are
+ * the attempts made, how many of them reached MFA.login, the real
+ * logins completed, and the bytes allocated per refused tryAcquire.
+ */
+public class LoginAttackBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int attackers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        MFA mfa = new MFA(users, 0.01);
+        for (int i = 0; i < users; i++) {
+            mfa.register(Names.username(i), Names.password(i), null);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            run("unlimited", mfa, null, users, attackers, seconds);
+            run("limited", mfa, new LoginLimiter(), users, attackers, seconds);
+        }
+        allocation();
+    }
+
+    private static void run(String name, MFA mfa, LoginLimiter limiter, int users,
+                            int attackers, int seconds)
+        throws InterruptedException
+    {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder attempts = new LongAdder();
+        LongAdder reached = new LongAdder();
+        LongAdder logins = new LongAdder();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int a = 0; a < attackers; a++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    String username = Names.username(random.nextInt(users));
+                    String source = "10.0.0." + random.nextInt(16);
+                    attempts.increment();
+                    if (limiter != null && limiter.tryAcquire(username, source) != 0) {
+                        continue;
+                    }
+                    reached.increment();
+                    try {
+                        synchronized (mfa) {
+                            mfa.login(username, "guess" + random.nextInt() + "!");
+                        }
+                    }
+                    catch (Exception e) {
+                        if (limiter != null) {
+                            limiter.failed(username, source);
+                        }
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop.get()) {
+                int i = random.nextInt(users);
+                try {
+                    if (limiter != null) {
+                        limiter.login(mfa, Names.username(i), Names.password(i), "192.168.0." + i);
+                    }
+                    else {
+                        synchronized (mfa) {
+                            mfa.login(Names.username(i), Names.password(i));
+                        }
+                    }
+                    logins.increment();
+                }
+                catch (LoginLimitedException e) {
+                    //Locked out by the attack
+                }
+                catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%-9s: %,12d attempts/s, %,12d reached login/s, %,10d real logins/s%n",
+                          name, attempts.sum() / seconds, reached.sum() / seconds,
+                          logins.sum() / seconds);
+    }
+
+    //Bytes allocated by this thread per refused attempt, once the
+    //limiter has warmed up
+    private static void allocation()
+    {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LoginLimiter limiter = new LoginLimiter();
+        String username = Names.username(1);
+        long refused = 0;
+        for (int i = 0; i < 1000000; i++) {
+            refused += limiter.tryAcquire(username, "10.0.0.1") != 0 ? 1 : 0;
+        }
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 1000000; i++) {
+            refused += limiter.tryAcquire(username, "10.0.0.1") != 0 ? 1 : 0;
+        }
+        long after = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        System.out.printf("tryAcquire: %.3f bytes allocated per attempt (%,d refused)%n",
+                          (after - before) / 1e6, refused);
+    }
+}
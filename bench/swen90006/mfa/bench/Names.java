@@ -0,0 +1,36 @@
+package swen90006.mfa.bench;
+
+/**
+ * Valid, distinct usernames and passwords for benchmarks.
+ */
+final class Names
+{
+    private static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private Names()
+    {
+    }
+
+    /**
+     * @param i  a non-negative number
+     * @return a username of letters only, different for each number
+     */
+    static String username(int i)
+    {
+        StringBuilder name = new StringBuilder("user");
+        do {
+            name.append(LETTERS.charAt(i % LETTERS.length()));
+            i /= LETTERS.length();
+        } while (i > 0);
+        return name.toString();
+    }
+
+    /**
+     * @param i  a non-negative number
+     * @return a valid password
+     */
+    static String password(int i)
+    {
+        return "password" + i + "!";
+    }
+}
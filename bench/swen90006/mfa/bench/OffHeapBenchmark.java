@@ -0,0 +1,69 @@
+package swen90006.mfa.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.offheap.OffHeapArena;
+
+/**
+ * Compares the heap held, and the time a full collection takes, with
+ * records on the heap and off it in an OffHeapArena.
+ *
+ * Usage: OffHeapBenchmark [users [records]]
+ *
+ * The defaults are 200,000 users with 20 records of 8 ints each.
+ */
+public class OffHeapBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        for (int round = 0; round < 2; round++) {
+            run("heap", users, records, null);
+            try (OffHeapArena arena = new OffHeapArena()) {
+                run("off-heap", users, records, arena);
+                System.out.println("  " + arena);
+            }
+        }
+    }
+
+    private static void run(String name, int users, int records, OffHeapArena arena)
+        throws Exception
+    {
+        long before = used();
+        MFA mfa = new MFA(users, 0.01, arena);
+        for (int i = 0; i < users; i++) {
+            mfa.register(Names.username(i), Names.password(i), null);
+            mfa.login(Names.username(i), Names.password(i));
+            for (int r = 0; r < records; r++) {
+                //Boxed afresh, as records parsed from a request would be
+                List<Integer> record = Arrays.asList(new Integer[] {
+                    i + 1000, r + 1000, i * 7, r * 7, i - r, i + r, 1 << 20, -(1 << 20)});
+                mfa.addData(Names.username(i), record);
+            }
+        }
+        long heap = used() - before;
+        long start = System.nanoTime();
+        System.gc();
+        long gc = System.nanoTime() - start;
+        System.out.printf("%-8s: %,d users x %d records: %,.0f heap bytes per user, "
+                          + "full GC %,d ms%n",
+                          name, users, records, (double) heap / users, gc / 1000000);
+        if (mfa.getData(Names.username(users - 1), records - 1).get(4) != users - records) {
+            throw new AssertionError("Wrong record");
+        }
+    }
+
+    private static long used() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,65 @@
+package swen90006.mfa.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import swen90006.mfa.MFA;
+
+/**
+ * Measures the heap held per caller waiting in MFA.awaitPushResponse,
+ * and the time to wake them all.
+ *
+ * Usage: PushWaiterBenchmark [users]
+ *
+ * The default is 1,000,000 users, each with a device, each logged in
+ * and awaited with a timeout of an hour.
+ */
+public class PushWaiterBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        MFA mfa = new MFA(users, 0.01);
+        for (int i = 0; i < users; i++) {
+            mfa.register(Names.username(i), Names.password(i), "phone" + i);
+            mfa.login(Names.username(i), Names.password(i));
+        }
+
+        long before = used();
+        List<CompletableFuture<MFA.AuthenticationStatus>> waiters =
+            new ArrayList<CompletableFuture<MFA.AuthenticationStatus>>(users);
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            waiters.add(mfa.awaitPushResponse(Names.username(i), 1, TimeUnit.HOURS));
+        }
+        long await = System.nanoTime() - start;
+        long after = used();
+        System.out.printf("%,d waiters: %.0f bytes each (less the list), %,d ns each to await%n",
+                          users, (double) (after - before) / users - 4, await / users);
+
+        start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            mfa.respondToPushNotification(Names.username(i), "phone" + i);
+        }
+        long respond = System.nanoTime() - start;
+        for (CompletableFuture<MFA.AuthenticationStatus> waiter : waiters) {
+            if (waiter.getNow(null) != MFA.AuthenticationStatus.DOUBLE) {
+                throw new AssertionError("Waiter not woken");
+            }
+        }
+        System.out.printf("respondToPushNotification: %,d ns each, waking its waiter%n",
+                          respond / users);
+    }
+
+    private static long used() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
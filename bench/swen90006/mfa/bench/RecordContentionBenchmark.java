@@ -0,0 +1,103 @@
+package swen90006.mfa.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.RecordLog;
+
+/**
+ * Measures the rate at which 1 to 64 threads, all adding records for
+ * one user at once, add them: to an ArrayList under a lock, to a
+ * RecordLog without one, and through MFA.addData by ID, under a lock
+ * on the server as the HTTP server takes and without one.
+ *
+ * Usage: RecordContentionBenchmark [records]
+ *
+ * The default is 4,000,000 records for each run, shared among its
+ * threads. The rates depend on how many processors there are: with one,
+ * they show only the cost of each kind of add, not how adds contend.
+ */
+public class RecordContentionBenchmark
+{
+    //How one thread adds one record
+    private interface Adder
+    {
+        void add(List<Integer> record) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+
+        for (int round = 0; round < 2; round++) {
+            for (int threads = 1; threads <= 64; threads *= 4) {
+                List<List<Integer>> list = new ArrayList<List<Integer>>();
+                run("ArrayList, locked", threads, records, record -> {
+                    synchronized (list) {
+                        list.add(record);
+                    }
+                });
+
+                RecordLog log = new RecordLog();
+                run("RecordLog", threads, records, log::add);
+
+                MFA locked = user();
+                int lockedID = locked.getUserID("heavy");
+                run("MFA.addData, locked", threads, records, record -> {
+                    synchronized (locked) {
+                        locked.addData(lockedID, record);
+                    }
+                });
+
+                MFA mfa = user();
+                int id = mfa.getUserID("heavy");
+                run("MFA.addData", threads, records, record -> mfa.addData(id, record));
+                System.gc();
+            }
+        }
+    }
+
+    private static MFA user() throws Exception
+    {
+        MFA mfa = new MFA();
+        mfa.register("heavy", "password1!", null);
+        mfa.login("heavy", "password1!");
+        return mfa;
+    }
+
+    private static void run(String name, int threads, int records, Adder adder)
+        throws Exception
+    {
+        List<Integer> record = Arrays.asList(1, 2, 3);
+        int each = records / threads;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < each; i++) {
+                        adder.add(record);
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("%-20s %2d threads: %,6.1f M records/s%n",
+                          name, threads, (double) each * threads * 1000 / elapsed);
+    }
+}
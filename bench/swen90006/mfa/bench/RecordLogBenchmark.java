@@ -0,0 +1,81 @@
+package swen90006.mfa.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.RecordLog;
+
+/**
+ * Measures the latency of each record added by one heavy user, and the
+ * bytes allocated for all of them, with an ArrayList, which copies all
+ * of its records when it grows, a RecordLog, and MFA.addData, which
+ * adds to a RecordLog.
+ *
+ * Usage: RecordLogBenchmark [records]
+ *
+ * The default is 8,000,000 records, all the same record, so that only
+ * the lists grow. Latencies include the cost of reading the clock, and
+ * any collections that happen to fall during an addition; run with
+ * -Xms3g -Xmx3g -Xmn2g -XX:+AlwaysPreTouch to keep them out of the tail.
+ */
+public class RecordLogBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 8000000;
+        List<Integer> record = Arrays.asList(1, 2, 3);
+        long[] latencies = new long[records];
+
+        for (int round = 0; round < 3; round++) {
+            long allocated = allocated();
+            List<List<Integer>> list = new ArrayList<List<Integer>>();
+            for (int i = 0; i < records; i++) {
+                long start = System.nanoTime();
+                list.add(record);
+                latencies[i] = System.nanoTime() - start;
+            }
+            allocated = allocated() - allocated;
+            GrowthLatencyBenchmark.report("ArrayList.add", latencies);
+            System.out.printf("  %,d bytes allocated%n", allocated);
+            list = null;
+
+            allocated = allocated();
+            RecordLog log = new RecordLog();
+            for (int i = 0; i < records; i++) {
+                long start = System.nanoTime();
+                log.add(record);
+                latencies[i] = System.nanoTime() - start;
+            }
+            allocated = allocated() - allocated;
+            GrowthLatencyBenchmark.report("RecordLog.add", latencies);
+            System.out.printf("  %,d bytes allocated%n", allocated);
+            log = null;
+
+            allocated = allocated();
+            MFA mfa = new MFA();
+            mfa.register("heavy", "password1!", null);
+            mfa.login("heavy", "password1!");
+            int id = mfa.getUserID("heavy");
+            for (int i = 0; i < records; i++) {
+                long start = System.nanoTime();
+                mfa.addData(id, record);
+                latencies[i] = System.nanoTime() - start;
+            }
+            allocated = allocated() - allocated;
+            GrowthLatencyBenchmark.report("MFA.addData", latencies);
+            System.out.printf("  %,d bytes allocated%n", allocated);
+            mfa = null;
+            System.gc();
+        }
+    }
+
+    //The bytes this thread has allocated so far
+    private static long allocated()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,143 @@
+package swen90006.mfa.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.snapshot.SnapshotMFA;
+
+/**
+ * Measures the rate of isUser from 1 to 16 reader threads, and the
+ * bytes each read allocates, while one more thread registers users as
+ * fast as it can: through MFA under the lock on the server, as the
+ * HTTP server takes, and through a SnapshotMFA without one. The rate at
+ * which that thread registers users is reported alongside, as the
+ * snapshot's reads are paid for by publishing its registrations.
+ *
+ * Usage: SnapshotReadBenchmark [users] [reads]
+ *
+ * The defaults are 100,000 users and 4,000,000 reads for each run,
+ * shared among its readers, half of them of users that do not exist.
+ * The rates depend on how many processors there are: with one, they
+ * show only the cost of each read and of waiting for the registering
+ * thread's lock, not how readers contend.
+ */
+public class SnapshotReadBenchmark
+{
+    //How one thread reads whether one user exists
+    private interface Reader
+    {
+        boolean isUser(String username);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 4000000;
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+
+        String[] names = new String[2 * users];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = Names.username(i);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int threads = 1; threads <= 16; threads *= 4) {
+                MFA locked = new MFA();
+                SnapshotMFA snapshots = new SnapshotMFA(new MFA());
+                for (int i = 0; i < users; i++) {
+                    locked.register(names[i], Names.password(i), null);
+                    snapshots.register(names[i], Names.password(i), null);
+                }
+                run("MFA.isUser, locked", threads, reads, names, username -> {
+                    synchronized (locked) {
+                        return locked.isUser(username);
+                    }
+                }, username -> {
+                    synchronized (locked) {
+                        locked.register(username, "password1!", null);
+                    }
+                });
+                run("SnapshotMFA.isUser", threads, reads, names, snapshots::isUser,
+                    username -> snapshots.register(username, "password1!", null));
+                System.gc();
+            }
+        }
+    }
+
+    //How the registering thread registers one user
+    private interface Registrar
+    {
+        void register(String username) throws Exception;
+    }
+
+    private static void run(String name, int threads, int reads, String[] names, Reader reader,
+                            Registrar registrar)
+        throws Exception
+    {
+        int each = reads / threads;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean reading = new AtomicBoolean(true);
+        AtomicLong allocated = new AtomicLong();
+        AtomicLong found = new AtomicLong();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 7919;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    long before = allocated();
+                    long hits = 0;
+                    for (int i = 0; i < each; i++) {
+                        if (reader.isUser(names[(offset + i) % names.length])) {
+                            hits++;
+                        }
+                    }
+                    allocated.addAndGet(allocated() - before);
+                    found.addAndGet(hits);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            readers.add(thread);
+        }
+        AtomicLong registered = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            try {
+                start.await();
+                while (reading.get()) {
+                    registrar.register("writer" + Names.username((int) registered.getAndIncrement()));
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : readers) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        reading.set(false);
+        writer.join();
+        System.out.printf("%-20s %2d readers: %,6.1f M reads/s  %,.2f bytes/read"
+                          + "  %,9.0f registrations/s  (%d found)%n",
+                          name, threads, (double) each * threads * 1000 / elapsed,
+                          (double) allocated.get() / ((long) each * threads),
+                          registered.get() * 1e9 / elapsed, found.get());
+    }
+
+    //The bytes this thread has allocated so far
+    private static long allocated()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+}
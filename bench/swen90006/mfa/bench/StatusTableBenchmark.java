@@ -0,0 +1,84 @@
+package swen90006.mfa.bench;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.PackedStatusTable;
+import swen90006.mfa.UserTable;
+
+/**
+ * Compares the heap taken by every user's authentication status held
+ * in a map from username, as MFA held them before users had IDs, with
+ * a byte per user and with a PackedStatusTable, and times reads of
+ * whether each user is authenticated from the packed table.
+ *
+ * Usage: StatusTableBenchmark [users]
+ *
+ * The default is 10,000,000 users, whose map alone takes over 300 MB
+ * of heap.
+ */
+public class StatusTableBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        MFA.AuthenticationStatus[] statuses = MFA.AuthenticationStatus.values();
+
+        long before = used();
+        UserTable<MFA.AuthenticationStatus> map = new UserTable<MFA.AuthenticationStatus>();
+        for (int i = 0; i < users; i++) {
+            map.put(Names.username(i), statuses[i % 3]);
+        }
+        long mapBytes = used() - before;
+        if (map.size() != users) {
+            throw new AssertionError("Wrong size");
+        }
+        map = null;
+
+        before = used();
+        byte[] column = new byte[users];
+        for (int i = 0; i < users; i++) {
+            column[i] = (byte) (statuses[i % 3].ordinal() + 1);
+        }
+        long columnBytes = used() - before;
+        column = null;
+
+        before = used();
+        PackedStatusTable table = new PackedStatusTable(users);
+        for (int i = 0; i < users; i++) {
+            table.set(i, statuses[i % 3]);
+            table.setDevice(i, i % 5 == 0);
+        }
+        long tableBytes = used() - before;
+
+        System.out.printf("%,d users%n", users);
+        System.out.printf("  map from username: %,d bytes (%.1f per user)%n",
+                          mapBytes, (double) mapBytes / users);
+        System.out.printf("  byte per user:     %,d bytes (%.1f per user)%n",
+                          columnBytes, (double) columnBytes / users);
+        System.out.printf("  packed table:      %,d bytes (%.2f per user), with devices%n",
+                          tableBytes, (double) tableBytes / users);
+        System.out.printf("  saved over the map: %,d bytes%n", mapBytes - tableBytes);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int authenticated = 0;
+            for (int i = 0; i < users; i++) {
+                if (table.isAuthenticated(i)) {
+                    authenticated++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  isAuthenticated: %.2f ns each (%,d authenticated)%n",
+                              (double) elapsed / users, authenticated);
+        }
+    }
+
+    private static long used() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
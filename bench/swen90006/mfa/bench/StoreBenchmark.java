@@ -0,0 +1,99 @@
+package swen90006.mfa.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserStore;
+import swen90006.mfa.UserStores;
+
+/**
+ * Runs the same workload on an MFA server over each store in
+ * UserStores: registering users, logging each in by name, checking
+ * and adding to their records by ID, and removing them. Reports the
+ * time of each step per user and the heap held per idle user, measured
+ * and as the store estimates it.
+ *
+ * Usage: StoreBenchmark [users [store]]
+ *
+ * The default is 1,000,000 users, on every store; naming a store runs
+ * only that one.
+ */
+public class StoreBenchmark
+{
+    //One step of the workload, for the user with the given index
+    private interface Step
+    {
+        void run(MFA mfa, int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String only = args.length > 1 ? args[1] : null;
+
+        String[] names = new String[users];
+        int[] ids = new int[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = Names.username(i);
+        }
+        List<Integer> record = Arrays.asList(1, 2, 3);
+
+        for (int round = 0; round < 3; round++) {
+            for (Map.Entry<String, Supplier<UserStore>> store : UserStores.all().entrySet()) {
+                if (only != null && !only.equals(store.getKey())) {
+                    continue;
+                }
+                long before = used();
+                MFA mfa = new MFA(store.getValue().get(), users, 0.01, null);
+                System.out.printf("%s, %,d users:%n", store.getKey(), users);
+                time("register", mfa, users,
+                     (server, i) -> server.register(names[i], Names.password(i), null));
+                long measured = used() - before;
+                long estimated = 0;
+                for (long part : mfa.getFootprint().values()) {
+                    estimated += part;
+                }
+                System.out.printf("  %-20s %8.1f bytes/user measured, %.1f estimated%n",
+                                  "idle heap", (double) measured / users,
+                                  (double) estimated / users);
+
+                time("getUserID", mfa, users, (server, i) -> ids[i] = server.getUserID(names[i]));
+                time("login", mfa, users,
+                     (server, i) -> server.login(names[i], Names.password(i)));
+                time("isAuthenticated(id)", mfa, users, (server, i) -> {
+                    if (!server.isAuthenticated(ids[i])) {
+                        throw new AssertionError(names[i]);
+                    }
+                });
+                time("addData(id)", mfa, users, (server, i) -> server.addData(ids[i], record));
+                time("getData(id)", mfa, users, (server, i) -> server.getData(ids[i], 0));
+                time("removeUser", mfa, users, (server, i) -> server.removeUser(names[i]));
+                mfa = null;
+                System.gc();
+            }
+        }
+    }
+
+    private static void time(String name, MFA mfa, int users, Step step) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            step.run(mfa, i);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("  %-20s %8.1f ns/user%n", name, (double) elapsed / users);
+    }
+
+    private static long used() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
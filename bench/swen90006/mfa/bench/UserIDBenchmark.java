@@ -0,0 +1,61 @@
+package swen90006.mfa.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+import swen90006.mfa.MFA;
+
+/**
+ * Compares the time of isAuthenticated and getData called by username,
+ * which hash the username on every call, with the same calls made by
+ * an ID resolved once with getUserID.
+ *
+ * Usage: UserIDBenchmark [users [rounds]]
+ *
+ * The defaults are 1,000,000 users, each read 10 times a round.
+ */
+public class UserIDBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        MFA mfa = new MFA(users, 0.01);
+        String[] names = new String[users];
+        int[] ids = new int[users];
+        List<Integer> record = Arrays.asList(1, 2, 3);
+        for (int i = 0; i < users; i++) {
+            names[i] = Names.username(i);
+            mfa.register(names[i], Names.password(i), null);
+            mfa.login(names[i], Names.password(i));
+            mfa.addData(names[i], record);
+            ids[i] = mfa.getUserID(names[i]);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < users; i++) {
+                    if (mfa.isAuthenticated(names[i])) {
+                        sum += mfa.getData(names[i], 0).size();
+                    }
+                }
+            }
+            long byName = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < users; i++) {
+                    if (mfa.isAuthenticated(ids[i])) {
+                        sum += mfa.getData(ids[i], 0).size();
+                    }
+                }
+            }
+            long byID = System.nanoTime() - start;
+            long calls = 2L * users * rounds;
+            System.out.printf("by username: %.1f ns/call, by ID: %.1f ns/call (%d)%n",
+                              (double) byName / calls, (double) byID / calls, sum);
+        }
+    }
+}
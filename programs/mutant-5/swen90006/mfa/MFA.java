@@ -1,11 +1,16 @@
 package swen90006.mfa;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import swen90006.mfa.offheap.OffHeapArena;
+import swen90006.mfa.offheap.OffHeapRecords;
 
 /**
  *
@@ -53,12 +58,29 @@ public class MFA
     /** The minimum length of a password */
     public final static int MINIMUM_PASSWORD_LENGTH = 8;
 
+    /** The number of users the username filter is sized for by default */
+    public final static int DEFAULT_EXPECTED_USERS = 10000;
+
+    /** The username filter's default false-positive rate at that size */
+    public final static double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
     /**
      * The authentication status of a user: not authenticated,
      * single-factor only, or double-factor.
      */
     public enum AuthenticationStatus {NONE, SINGLE, DOUBLE};
 
+    /**
+     * Whether a username and password meet the requirements of
+     * register, and if not, which is found first not to.
+     */
+    public enum Validity {VALID, INVALID_USERNAME, INVALID_PASSWORD};
+
+    //Every user, numbered with a dense ID, with what is held for
+    //them, in the store given at construction. Each map is a view of
+    //one part of it, keyed by username
+    private UserStore directory;
+
     //The passwords for all users (non encrypted!!!)
     //I'm not claiming this code maintains privacy! :)
     private Map<String, String> passwords;
@@ -73,20 +95,96 @@ public class MFA
     //The authentication status of each user
     private Map<String, AuthenticationStatus> authenticationStatus;
 
+    //A filter of every username ever registered, checked before
+    //the maps so that unknown usernames are rejected cheaply
+    private UsernameBloomFilter usernames;
+
+    //The callers waiting for each user to respond to a push
+    //notification
+    private PushWaiters pushes;
+
+    //The arena holding every user's records off the heap, or null if
+    //they are held on the heap
+    private OffHeapArena arena;
+
     /**
      * Constructs a new MFA server with no users
      */
     public MFA()
     {
-	passwords = new HashMap<String, String>();
-        deviceIDs = new HashMap<String, String>();
-	data = new HashMap<String, List<List<Integer>>>();
-        authenticationStatus = new HashMap<String, AuthenticationStatus>();
+	this(DEFAULT_EXPECTED_USERS, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Constructs a new MFA server with no users, sizing its username
+     * filter for the number of users expected.
+     *
+     * @param expectedUsers      the number of users expected
+     * @param falsePositiveRate  the rate at which the filter should let
+     *          unknown usernames through to the user table once that
+     *          many users are registered
+     */
+    public MFA(int expectedUsers, double falsePositiveRate)
+    {
+	this(expectedUsers, falsePositiveRate, null);
+    }
+
+    /**
+     * Constructs a new MFA server with no users, which holds records
+     * off the heap if given an arena. Records are then copied in by
+     * addData and out by getData, and must not contain nulls, and a
+     * removed user's records are returned to the arena.
+     *
+     * @param expectedUsers      the number of users expected
+     * @param falsePositiveRate  the username filter's false-positive
+     *          rate once that many users are registered
+     * @param arena  the arena to hold records in, or null to hold them
+     *          on the heap
+     */
+    public MFA(int expectedUsers, double falsePositiveRate, OffHeapArena arena)
+    {
+	this(new UserDirectory(new DeviceRegistry()), expectedUsers, falsePositiveRate, arena);
+    }
+
+    /**
+     * Constructs a new MFA server with no users, held in the given
+     * store rather than a UserDirectory.
+     *
+     * @param store  an empty store, used by this server alone
+     */
+    public MFA(UserStore store)
+    {
+	this(store, DEFAULT_EXPECTED_USERS, DEFAULT_FALSE_POSITIVE_RATE, null);
+    }
+
+    /**
+     * Constructs a new MFA server with no users, held in the given
+     * store, and records held as the arena given, if any.
+     *
+     * @param store              an empty store, used by this server alone
+     * @param expectedUsers      the number of users expected
+     * @param falsePositiveRate  the username filter's false-positive
+     *          rate once that many users are registered
+     * @param arena  the arena to hold records in, or null to hold them
+     *          on the heap
+     */
+    public MFA(UserStore store, int expectedUsers, double falsePositiveRate,
+	       OffHeapArena arena)
+    {
+	this.arena = arena;
+	usernames = new UsernameBloomFilter(expectedUsers, falsePositiveRate);
+        directory = store;
+	passwords = directory.passwords();
+        deviceIDs = directory.deviceIDs();
+	data = directory.records();
+        authenticationStatus = directory.statuses();
+        pushes = new PushWaiters();
     }
 
     /**
      * Registers a new user with authentication status NONE and with
-     * empty data records.
+     * empty data records. No storage is given to their records until
+     * they add one.
      *
      * The username must be at least four characters long and contain
      * only lower and upper-cass letters
@@ -115,18 +213,67 @@ public class MFA
 	if (passwords.containsKey(username)) {
 	    throw new DuplicateUserException(username);
 	}
-	//Check that the username and password are long enough
-	else if (username.length() < MINIMUM_USERNAME_LENGTH) {
+	validate(username, password);
+
+	passwords.put(username, password);
+	usernames.add(username);
+	authenticationStatus.put(username, AuthenticationStatus.NONE);
+
+	if (deviceID != null) {
+	    deviceIDs.put(username, deviceID);
+	}
+    }
+
+    /**
+     * Checks that a username and password meet the requirements of
+     * register, without registering them.
+     *
+     * @param username   the username
+     * @param password   the password
+     * @throws InvalidUsernameException  if the username does not fit
+     *          the requirements
+     * @throws InvalidPasswordException  if the password does not fit
+     *          the requirements
+     *
+     * Assumption: username and password are non-null
+     */
+    public static void validate(String username, String password)
+	throws InvalidUsernameException, InvalidPasswordException
+    {
+	Validity validity = validity(username, password);
+	if (validity == Validity.INVALID_USERNAME) {
 	    throw new InvalidUsernameException(username);
 	}
+	else if (validity == Validity.INVALID_PASSWORD) {
+	    throw new InvalidPasswordException(password);
+	}
+    }
+
+    /**
+     * Checks a username and password as validate does, without throwing
+     * an exception, for callers that check many.
+     *
+     * @param username   the username
+     * @param password   the password
+     * @return VALID, or which of the two does not fit the requirements
+     *
+     * Assumption: username and password are non-null
+     */
+    public static Validity validity(CharSequence username, CharSequence password)
+    {
+	//Check that the username and password are long enough
+	if (username.length() < MINIMUM_USERNAME_LENGTH) {
+	    return Validity.INVALID_USERNAME;
+	}
         else if (password.length() < MINIMUM_PASSWORD_LENGTH) {
-            throw new InvalidPasswordException(password);
+            return Validity.INVALID_PASSWORD;
         }
 	else {
 	    //check the username contains only lower- and upper-case letters
-	    for (char c : username.toCharArray()) {
+	    for (int i = 0; i < username.length(); i++) {
+		char c = username.charAt(i);
 		if (!('a' <= c && c <= 'z' || 'A' <= c && c <= 'Z')) {
-		    throw new InvalidUsernameException(username);
+		    return Validity.INVALID_USERNAME;
 		}
 	    }
 
@@ -134,7 +281,8 @@ public class MFA
 	    boolean letter = false;
 	    boolean digit = false;
             boolean special = false;
-	    for (char c : password.toCharArray()) {
+	    for (int i = 0; i < password.length(); i++) {
+		char c = password.charAt(i);
 		if ('a' <= c && c <= 'z' || 'A' <= c && c <= 'Z') {
 		    letter = true;
 		}
@@ -146,17 +294,10 @@ public class MFA
 		}
 	    }
             if (!(letter && digit && special)) {
-                throw new InvalidPasswordException(password);
+                return Validity.INVALID_PASSWORD;
             }
 	}
-
-	passwords.put(username, password);
-        data.put(username, new ArrayList<List<Integer>>());
-	authenticationStatus.put(username, AuthenticationStatus.NONE);
-
-	if (deviceID != null) {
-	    deviceIDs.put(username, deviceID);
-	}
+	return Validity.VALID;
     }
 
     /**
@@ -168,7 +309,31 @@ public class MFA
      */
     public boolean isUser(String username)
     {
-	return passwords.containsKey(username);
+	return usernames.mightContain(username) && passwords.containsKey(username);
+    }
+
+    /**
+     * @return the filter of registered usernames, for its occupancy
+     *         and false-positive rate
+     */
+    public UsernameBloomFilter getUsernameFilter()
+    {
+	return usernames;
+    }
+
+    /**
+     * Estimates the heap held for the registered users, part by part,
+     * as reported by UserStore.footprint, with the username filter.
+     * Users' records, and the devices, are not included; dividing by
+     * the number of users gives the cost of a user with neither.
+     *
+     * @return the bytes taken by each part, by name, in a fixed order
+     */
+    public Map<String, Long> getFootprint()
+    {
+	Map<String, Long> parts = directory.footprint();
+	parts.put("username filter", 16 + (long) usernames.bitSize() / 8);
+	return parts;
     }
 
     /**
@@ -224,16 +389,56 @@ public class MFA
 	    throw new NoSuchUserException(username);
 	}
 	else if (authenticationStatus.get(username) == AuthenticationStatus.SINGLE) {
-	    if (deviceIDs.get(username) != null && deviceIDs.get(username) != deviceID) {
+	    if (deviceIDs.get(username) != null && !directory.isDeviceOf(directory.id(username), deviceID)) {
 		throw new IncorrectDeviceIDException(username, deviceID);
 	    }
 	    else if (deviceIDs.get(username) != null) {
 		authenticationStatus.put(deviceID, AuthenticationStatus.DOUBLE);    /* Scalar Variable Replacement */
+		pushes.complete(username, AuthenticationStatus.DOUBLE);
 	    }
 	}
 	return authenticationStatus.get(username);
     }
 
+    /**
+     * Waits, without polling, for a user who has logged in with their
+     * password to respond to the push notification sent to their
+     * device.
+     *
+     * The future is completed exactly once: with DOUBLE when the user
+     * responds from the right device, with NONE if their device is
+     * revoked or they are removed, or with SINGLE if the timeout passes
+     * first. If the user is not waiting for a response, because they
+     * have no device or their status is not SINGLE, it is already
+     * complete with their status.
+     *
+     * Actions attached to the future without an executor run in the
+     * thread that completes it, which may hold the lock on this server,
+     * so they should be short.
+     *
+     * @param username  the username
+     * @param timeout   the longest time to wait
+     * @param unit      the unit of the timeout
+     * @return the user's status once they respond or the wait ends
+     *
+     * @throws  NoSuchUserException if the user does not have an account
+     *
+     * Assumption: username and unit are non-null
+     */
+    public CompletableFuture<AuthenticationStatus> awaitPushResponse(String username, long timeout,
+								     TimeUnit unit)
+	throws NoSuchUserException
+    {
+	if (!isUser(username)) {
+	    throw new NoSuchUserException(username);
+	}
+	AuthenticationStatus status = authenticationStatus.get(username);
+	if (deviceIDs.get(username) == null || status != AuthenticationStatus.SINGLE) {
+	    return CompletableFuture.completedFuture(status);
+	}
+	return pushes.await(username, timeout, unit);
+    }
+
     /**
      * @param username the username
      * @return true if and only if the user is correctly authenticated
@@ -280,7 +485,7 @@ public class MFA
 	}
 	else {
 	    //Add the new record
-	    data.get(username).add(record);
+	    recordsForAdding(directory.id(username)).add(record);
 	}
     }
 
@@ -310,6 +515,409 @@ public class MFA
 	}
     }
 
+    /**
+     * Resolves a username to the user's ID, so that the operations
+     * below can be called without hashing the username again. The ID
+     * is that user's for as long as they are registered, and is not
+     * given to anyone else if they are removed; the ID-based operations
+     * then throw NoSuchUserException. An ID is only meaningful to the
+     * server that issued it, so a user moved to another server with
+     * importUser has a new one.
+     *
+     * @param username  the username
+     * @return the user's ID
+     *
+     * @throws  NoSuchUserException if the user does not have an account
+     *
+     * Assumption: username is non-null
+     */
+    public int getUserID(String username)
+	throws NoSuchUserException
+    {
+	int userID = usernames.mightContain(username) ? directory.id(username) : UserStore.NO_USER;
+	if (userID == UserStore.NO_USER) {
+	    throw new NoSuchUserException(username);
+	}
+	return userID;
+    }
+
+    /**
+     * As login, for the user with the given ID.
+     *
+     * @param userID    the user's ID, from getUserID
+     * @param password  the password
+     * @return SINGLE, as the password is correct
+     *
+     * @throws  NoSuchUserException if the ID is not a registered user's
+     * @throws  IncorrectPasswordException if the password is incorrect for this user
+     */
+    public AuthenticationStatus login(int userID, String password)
+	throws NoSuchUserException, IncorrectPasswordException
+    {
+	checkUserID(userID);
+	if (!directory.passwordMatches(userID, password)) {
+	    throw new IncorrectPasswordException(directory.username(userID), password);
+	}
+	directory.setStatus(userID, AuthenticationStatus.SINGLE);
+	if (directory.hasDevice(userID)) {
+	    sendPushNotification(directory.username(userID), directory.deviceID(userID));
+	}
+	return AuthenticationStatus.SINGLE;
+    }
+
+    /**
+     * As respondToPushNotification, for the user with the given ID.
+     *
+     * @param userID    the user's ID, from getUserID
+     * @param deviceID  the physical device ID the response came from
+     * @return the user's authentication status
+     *
+     * @throws  NoSuchUserException if the ID is not a registered user's
+     * @throws  IncorrectDeviceIDException if the device is not the user's
+     */
+    public AuthenticationStatus respondToPushNotification(int userID, String deviceID)
+	throws NoSuchUserException, IncorrectDeviceIDException
+    {
+	checkUserID(userID);
+	if (directory.status(userID) == AuthenticationStatus.SINGLE
+	    && directory.hasDevice(userID)) {
+	    if (!directory.isDeviceOf(userID, deviceID)) {
+		throw new IncorrectDeviceIDException(directory.username(userID), deviceID);
+	    }
+	    directory.setStatus(userID, AuthenticationStatus.DOUBLE);
+	    pushes.complete(directory.username(userID), AuthenticationStatus.DOUBLE);
+	}
+	return directory.status(userID);
+    }
+
+    /**
+     * As isAuthenticated, for the user with the given ID.
+     *
+     * @param userID  the user's ID, from getUserID
+     * @return true if and only if the user is correctly authenticated
+     *
+     * @throws  NoSuchUserException if the ID is not a registered user's
+     */
+    public boolean isAuthenticated(int userID)
+	throws NoSuchUserException
+    {
+	checkUserID(userID);
+	return directory.isAuthenticated(userID);
+    }
+
+    /**
+     * As isUser, for the user with the given ID. This may be called
+     * without a lock, from any thread, for an ID the caller was given
+     * after the user was registered, while users are registered and
+     * removed.
+     *
+     * @param userID  a user's ID, from getUserID
+     * @return true if and only if the ID is a registered user's
+     */
+    public boolean isUser(int userID)
+    {
+	return directory.contains(userID);
+    }
+
+    /**
+     * As addData, for the user with the given ID.
+     *
+     * Unlike the rest of the server, this may be called from many
+     * threads at once, for the same user or different ones, without a
+     * lock, and with getData by ID, as long as no user is registered or
+     * removed at the same time and records are not held off the heap.
+     * Adds to one user take no lock: each reserves a slot in the
+     * user's RecordLog and publishes its record there, and getData
+     * sees only records published whole.
+     *
+     * @param userID  the user's ID, from getUserID
+     * @param record  a list of integers, the record to be added
+     *
+     * @throws  NoSuchUserException if the ID is not a registered user's
+     * @throws  UnauthenticatedUserException if the user is not
+     *          correctly authenticated
+     */
+    public void addData(int userID, List<Integer> record)
+	throws NoSuchUserException, UnauthenticatedUserException
+    {
+	if (!isAuthenticated(userID)) {
+	    throw new UnauthenticatedUserException(directory.username(userID));
+	}
+	recordsForAdding(userID).add(record);
+    }
+
+    /**
+     * As getData, for the user with the given ID.
+     *
+     * @param userID  the user's ID, from getUserID
+     * @param index   the index of the record to be read
+     * @return the record
+     *
+     * @throws  NoSuchUserException if the ID is not a registered user's
+     * @throws  UnauthenticatedUserException if the user is not
+     *          correctly authenticated
+     */
+    public List<Integer> getData(int userID, int index)
+	throws NoSuchUserException, UnauthenticatedUserException
+    {
+	if (!isAuthenticated(userID)) {
+	    throw new UnauthenticatedUserException(directory.username(userID));
+	}
+	return directory.records(userID).get(index);
+    }
+
+    //Throws unless the ID is a registered user's
+    private void checkUserID(int userID)
+	throws NoSuchUserException
+    {
+	if (!directory.contains(userID)) {
+	    throw new NoSuchUserException("#" + userID);
+	}
+    }
+
+    /**
+     * @return the usernames of all registered users
+     */
+    public Set<String> getUsers()
+    {
+	return new HashSet<String>(passwords.keySet());
+    }
+
+    /**
+     * @param deviceID  a device ID
+     * @return the users who have registered the device
+     */
+    public Set<String> getDeviceUsers(String deviceID)
+    {
+	return directory.deviceUsers(deviceID);
+    }
+
+    /**
+     * Removes a device from every user who registered it, such as
+     * when it is lost or stolen, and logs those users out. They are
+     * then single-factor users until they are given a new device.
+     *
+     * @param deviceID  the device ID
+     * @return the users who had the device
+     */
+    public Set<String> revokeDevice(String deviceID)
+    {
+	Set<String> users = directory.revokeDevice(deviceID);
+	for (String username : users) {
+	    authenticationStatus.put(username, AuthenticationStatus.NONE);
+	    pushes.complete(username, AuthenticationStatus.NONE);
+	}
+	return users;
+    }
+
+    /**
+     * Returns a copy of everything held for a user. The user is
+     * unchanged.
+     *
+     * @param username  the username
+     * @return the user's password, device, status and records
+     *
+     * @throws  NoSuchUserException if the user does not have an account
+     */
+    public UserState exportUser(String username)
+	throws NoSuchUserException
+    {
+	if (!isUser(username)) {
+	    throw new NoSuchUserException(username);
+	}
+	return new UserState(username, passwords.get(username), deviceIDs.get(username),
+			     authenticationStatus.get(username),
+			     new ArrayList<List<Integer>>(data.get(username)));
+    }
+
+    /**
+     * Returns every user as they are now, without copying any records.
+     * Each user's records are a view of the records they have now:
+     * records added later are not seen, and users removed later still
+     * have theirs, unless their records were held off the heap, which
+     * are released on removal. Passwords are not included.
+     *
+     * The views read the server's own lists of records, so if other
+     * threads use the server, the views must be read under the same
+     * lock as those threads use.
+     *
+     * @return the users, in no particular order
+     */
+    public List<UserState> snapshot()
+    {
+	List<UserState> users = new ArrayList<UserState>(passwords.size());
+	for (Map.Entry<String, List<List<Integer>>> entry : data.entrySet()) {
+	    String username = entry.getKey();
+	    users.add(new UserState(username, null, deviceIDs.get(username),
+				    authenticationStatus.get(username),
+				    new RecordPrefix(entry.getValue(), entry.getValue().size())));
+	}
+	return users;
+    }
+
+    /**
+     * Removes a user and everything held for them, so that they can be
+     * moved to another server with importUser.
+     *
+     * @param username  the username
+     * @return the user's password, device, status and records
+     *
+     * @throws  NoSuchUserException if the user does not have an account
+     */
+    public UserState removeUser(String username)
+	throws NoSuchUserException
+    {
+	UserState user = exportUser(username);
+	delete(username);
+	return user;
+    }
+
+    //Removes everything held for a user
+    private void delete(String username)
+    {
+	int userID = directory.id(username);
+	List<List<Integer>> records = directory.records(userID);
+	directory.remove(userID);
+	if (records instanceof OffHeapRecords) {
+	    ((OffHeapRecords) records).free();
+	}
+	pushes.complete(username, AuthenticationStatus.NONE);
+    }
+
+    /**
+     * Adds a user exactly as exported from another server, keeping
+     * their authentication status and records. The username and
+     * password are not re-validated.
+     *
+     * @param user  the user's state
+     *
+     * @throws  DuplicateUserException if the username is already registered
+     */
+    public void importUser(UserState user)
+	throws DuplicateUserException
+    {
+	String username = user.getUsername();
+	if (isUser(username)) {
+	    throw new DuplicateUserException(username);
+	}
+	insert(user);
+    }
+
+    //A new list of records for a user, holding copies of the given ones
+    private List<List<Integer>> newRecords(List<List<Integer>> records)
+    {
+	if (arena != null) {
+	    return OffHeapRecords.copyOf(arena, records);
+	}
+	return new RecordLog(records);
+    }
+
+    //A user's records, given a list of their own, if they had none,
+    //so that one can be added; if several threads give them one at
+    //once, all use the first given
+    private List<List<Integer>> recordsForAdding(int userID)
+    {
+	List<List<Integer>> records = directory.records(userID);
+	if (records == UserStore.NO_RECORDS) {
+	    List<List<Integer>> created = newRecords(records);
+	    if (directory.compareAndSetRecords(userID, records, created)) {
+		return created;
+	    }
+	    if (created instanceof OffHeapRecords) {
+		((OffHeapRecords) created).free();
+	    }
+	    records = directory.records(userID);
+	}
+	return records;
+    }
+
+    //Adds a user who is known not to be registered
+    private void insert(UserState user)
+    {
+	String username = user.getUsername();
+	passwords.put(username, user.getPassword());
+	usernames.add(username);
+	if (!user.getRecords().isEmpty()) {
+	    data.put(username, newRecords(user.getRecords()));
+	}
+	authenticationStatus.put(username, user.getStatus());
+	if (user.getDeviceID() != null) {
+	    deviceIDs.put(username, user.getDeviceID());
+	}
+    }
+
+    /**
+     * Adds many users at once, as importUser does for one. The users
+     * are gathered into a batch and added to the directory in one step
+     * (see importNewUsers).
+     * Either every user is added or, if any is already registered or
+     * appears twice, none is.
+     *
+     * @param users  the users' states
+     *
+     * @throws  DuplicateUserException if a username is already
+     *          registered or appears more than once
+     */
+    public void importUsers(Collection<UserState> users)
+	throws DuplicateUserException
+    {
+	UserBatch batch = new UserBatch(users.size());
+	for (UserState user : users) {
+	    batch.add(user);
+	}
+	int[] ids = add(batch);
+	for (int i = 0; i < ids.length; i++) {
+	    if (ids[i] < 0) {
+		//Either already registered or given earlier in the batch
+		for (int id : ids) {
+		    if (id >= 0) {
+			directory.remove(id);
+		    }
+		}
+		throw new DuplicateUserException(batch.username(i));
+	    }
+	}
+	fill(batch, ids);
+    }
+
+    /**
+     * Adds a batch of users at once, as importUsers does, but skipping
+     * any whose username is already registered or appears earlier in
+     * the batch rather than adding none. The directory builds its
+     * tables straight from the batch's columns (see UserStore.addAll),
+     * so no object is made per user but their records and device.
+     *
+     * @param users  the users
+     * @return for each user, in order, the ID they were given, or, as
+     *         -1 - id, the ID of the user already holding their
+     *         username, registered before or earlier in the batch
+     */
+    public int[] importNewUsers(UserBatch users)
+    {
+	int[] ids = add(users);
+	fill(users, ids);
+	return ids;
+    }
+
+    //Adds the users to the directory in one step, growing it once
+    private int[] add(UserBatch users)
+    {
+	directory.ensureCapacity(directory.size() + users.size());
+	return directory.addAll(users);
+    }
+
+    //Gives each user just added to the directory their records, as
+    //insert does, and adds the batch to the filter together
+    private void fill(UserBatch users, int[] ids)
+    {
+	for (int i = 0; i < ids.length; i++) {
+	    if (ids[i] >= 0 && !users.records(i).isEmpty()) {
+		directory.setRecords(ids[i], newRecords(users.records(i)));
+	    }
+	}
+	usernames.addAll(users);
+    }
+
     /**
      * Check a username and password combination, returning true if the
      * username and password are correct and throwing an exception otherwise.
@@ -0,0 +1,345 @@
+package swen90006.mfa;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map views of a UserStore, read and written through its methods
+ * by ID, so that a store need only implement those, and addAll, as a
+ * call of add for each user.
+ *
+ * A view's entries are found by walking the IDs issued, skipping those
+ * of removed users and of users for whom the view holds nothing.
+ *
+ * As with any map, a view other than passwords() may be put a username
+ * that is not a user's. Such entries are kept aside from the store, and
+ * taken on by the user if one of that name is put in passwords().
+ */
+public abstract class AbstractUserStore implements UserStore
+{
+    //Entries put in the views for usernames not in the store, shared by
+    //every view of this store; a user added other than through
+    //passwords() shadows any for their username, until pruneStrays
+    private final Map<String, String> strayDeviceIDs = new HashMap<String, String>();
+    private final Map<String, MFA.AuthenticationStatus> strayStatuses =
+        new HashMap<String, MFA.AuthenticationStatus>();
+    private final Map<String, List<List<Integer>>> strayRecords =
+        new HashMap<String, List<List<Integer>>>();
+
+    @Override
+    public int[] addAll(UserBatch users)
+    {
+        ensureCapacity(size() + users.size());
+        int[] ids = new int[users.size()];
+        for (int i = 0; i < ids.length; i++) {
+            String username = users.username(i);
+            int id = id(username);
+            if (id != NO_USER) {
+                ids[i] = -1 - id;
+                continue;
+            }
+            id = add(username);
+            setPassword(id, users.password(i));
+            if (users.status(i) != MFA.AuthenticationStatus.NONE) {
+                setStatus(id, users.status(i));
+            }
+            if (users.deviceID(i) != null) {
+                setDevice(id, users.deviceID(i));
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    @Override
+    public Map<String, String> passwords()
+    {
+        return new Column<String>(Collections.<String, String>emptyMap()) {
+            @Override
+            String read(int id)
+            {
+                return password(id);
+            }
+
+            @Override
+            void write(int id, String password)
+            {
+                setPassword(id, password);
+            }
+
+            @Override
+            public String put(String username, String password)
+            {
+                pruneStrays();
+                int id = AbstractUserStore.this.id(username);
+                if (id == NO_USER) {
+                    id = add(username);
+                    setPassword(id, password);
+                    adopt(id, username);
+                    return null;
+                }
+                return super.put(username, password);
+            }
+
+            @Override
+            public String remove(Object username)
+            {
+                pruneStrays();
+                int id = idOf(username);
+                String previous = id == NO_USER ? null : password(id);
+                AbstractUserStore.this.remove(id);
+                return previous;
+            }
+        };
+    }
+
+    @Override
+    public Map<String, String> deviceIDs()
+    {
+        return new Column<String>(strayDeviceIDs) {
+            @Override
+            String read(int id)
+            {
+                return deviceID(id);
+            }
+
+            @Override
+            void write(int id, String deviceID)
+            {
+                setDevice(id, deviceID);
+            }
+
+            @Override
+            int held()
+            {
+                return deviceUserCount();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, MFA.AuthenticationStatus> statuses()
+    {
+        return new Column<MFA.AuthenticationStatus>(strayStatuses) {
+            @Override
+            MFA.AuthenticationStatus read(int id)
+            {
+                return status(id);
+            }
+
+            @Override
+            void write(int id, MFA.AuthenticationStatus status)
+            {
+                if (status != null) {
+                    setStatus(id, status);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Map<String, List<List<Integer>>> records()
+    {
+        return new Column<List<List<Integer>>>(strayRecords) {
+            @Override
+            List<List<Integer>> read(int id)
+            {
+                return records(id);
+            }
+
+            @Override
+            void write(int id, List<List<Integer>> list)
+            {
+                setRecords(id, list);
+            }
+        };
+    }
+
+    //Gives a user just put in passwords() whatever the other views held
+    //for their username before they were added
+    private void adopt(int id, String username)
+    {
+        String deviceID = strayDeviceIDs.remove(username);
+        if (deviceID != null) {
+            setDevice(id, deviceID);
+        }
+        MFA.AuthenticationStatus status = strayStatuses.remove(username);
+        if (status != null) {
+            setStatus(id, status);
+        }
+        List<List<Integer>> list = strayRecords.remove(username);
+        if (list != null) {
+            setRecords(id, list);
+        }
+    }
+
+    //Drops the strays shadowed by users, before passwords() adds or
+    //removes one, so that a user removed does not bring theirs back
+    private void pruneStrays()
+    {
+        for (Map<String, ?> strays : Arrays.asList(strayDeviceIDs, strayStatuses, strayRecords)) {
+            if (!strays.isEmpty()) {
+                strays.keySet().removeIf(username -> id(username) != NO_USER);
+            }
+        }
+    }
+
+    //A column as a map from username, holding the users for whom the
+    //column is not null, then the strays put for usernames not in the
+    //store
+    private abstract class Column<V> extends AbstractMap<String, V>
+    {
+        private final Map<String, V> strays;
+
+        Column(Map<String, V> strays)
+        {
+            this.strays = strays;
+        }
+
+        abstract V read(int id);
+
+        abstract void write(int id, V value);
+
+        //The number of users in the column
+        int held()
+        {
+            return AbstractUserStore.this.size();
+        }
+
+        int idOf(Object key)
+        {
+            return key instanceof String ? id((String) key) : NO_USER;
+        }
+
+        //True if and only if a stray's username is not a user's, who
+        //would shadow it
+        boolean isStray(String username)
+        {
+            return id(username) == NO_USER;
+        }
+
+        @Override
+        public int size()
+        {
+            int size = held();
+            for (String username : strays.keySet()) {
+                if (isStray(username)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object username)
+        {
+            int id = idOf(username);
+            return id == NO_USER ? strays.containsKey(username) : read(id) != null;
+        }
+
+        @Override
+        public V get(Object username)
+        {
+            int id = idOf(username);
+            return id == NO_USER ? strays.get(username) : read(id);
+        }
+
+        @Override
+        public V put(String username, V value)
+        {
+            int id = id(username);
+            if (id == NO_USER) {
+                return strays.put(username, value);
+            }
+            V previous = read(id);
+            write(id, value);
+            return previous;
+        }
+
+        @Override
+        public V remove(Object username)
+        {
+            int id = idOf(username);
+            if (id == NO_USER) {
+                return strays.remove(username);
+            }
+            V previous = read(id);
+            write(id, null);
+            return previous;
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet()
+        {
+            return new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public int size()
+                {
+                    return Column.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator()
+                {
+                    Iterator<Map.Entry<String, V>> rest = strays.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, V>>() {
+                        private int next = advance(0);
+                        private Map.Entry<String, V> stray;
+
+                        private int advance(int from)
+                        {
+                            while (from < issued()
+                                   && (!AbstractUserStore.this.contains(from) || read(from) == null)) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        //The next stray not shadowed, or null
+                        private Map.Entry<String, V> nextStray()
+                        {
+                            while (stray == null && rest.hasNext()) {
+                                Map.Entry<String, V> entry = rest.next();
+                                if (isStray(entry.getKey())) {
+                                    stray = entry;
+                                }
+                            }
+                            return stray;
+                        }
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next < issued() || nextStray() != null;
+                        }
+
+                        @Override
+                        public Map.Entry<String, V> next()
+                        {
+                            if (next >= issued()) {
+                                if (nextStray() == null) {
+                                    throw new NoSuchElementException();
+                                }
+                                Map.Entry<String, V> entry = stray;
+                                stray = null;
+                                return new AbstractMap.SimpleImmutableEntry<String, V>(entry);
+                            }
+                            int id = next;
+                            next = advance(id + 1);
+                            return new AbstractMap.SimpleImmutableEntry<String, V>(
+                                username(id), read(id));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
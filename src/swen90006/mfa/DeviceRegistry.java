@@ -0,0 +1,381 @@
+package swen90006.mfa;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The devices that users have registered for two-factor
+ * authentication.
+ *
+ * Each distinct device ID is interned once, as a small integer handle,
+ * however many users share the device, so a user costs one reference
+ * to the shared device rather than a String of their own. Two device
+ * IDs are the same device exactly when their handles are equal, whether
+ * or not the Strings are the same object. Device IDs, like usernames,
+ * are chosen by users, so they are interned in a KeyedUserTable.
+ *
+ * Each device also knows its users, so that all of them can be found,
+ * or the device revoked, without scanning every user. A handle is
+ * released, and may be reused for another device, once the device has
+ * no users.
+ *
+ * The saving is in sharing: for a fleet of kiosks each used by many
+ * users, a user costs roughly 40% less than a map to their own copy of
+ * the device ID, but a device with a single user costs about twice as
+ * much (see DeviceMemoryBenchmark).
+ *
+ * Like MFA, a DeviceRegistry is not thread-safe.
+ */
+public class DeviceRegistry
+{
+    /** The handle of no device */
+    public static final int NO_DEVICE = -1;
+
+    //One shared object per device, with its users packed two longs
+    //each in an unordered array; the few users whose names cannot be
+    //packed are kept as Strings
+    private static final class Device
+    {
+        final String id;
+        final int handle;
+        long[] packed = new long[2];
+        int packedCount;
+        List<String> unpackable;
+
+        Device(String id, int handle)
+        {
+            this.id = id;
+            this.handle = handle;
+        }
+
+        void add(String username)
+        {
+            if (!UsernameCodec.isPackable(username)) {
+                if (unpackable == null) {
+                    unpackable = new ArrayList<String>(1);
+                }
+                unpackable.add(username);
+                return;
+            }
+            if (2 * packedCount == packed.length) {
+                packed = Arrays.copyOf(packed, 2 * packed.length);
+            }
+            packed[2 * packedCount] = UsernameCodec.pack(username, 0);
+            packed[2 * packedCount + 1] = UsernameCodec.pack(username, 1);
+            packedCount++;
+        }
+
+        //Linear in the device's users, which is only paid when a user
+        //leaves a device
+        void remove(String username)
+        {
+            if (!UsernameCodec.isPackable(username)) {
+                unpackable.remove(username);
+                return;
+            }
+            long first = UsernameCodec.pack(username, 0);
+            long second = UsernameCodec.pack(username, 1);
+            for (int i = 0; i < packedCount; i++) {
+                if (packed[2 * i] == first && packed[2 * i + 1] == second) {
+                    packedCount--;
+                    packed[2 * i] = packed[2 * packedCount];
+                    packed[2 * i + 1] = packed[2 * packedCount + 1];
+                    return;
+                }
+            }
+        }
+
+        boolean isEmpty()
+        {
+            return packedCount == 0 && (unpackable == null || unpackable.isEmpty());
+        }
+
+        Set<String> users()
+        {
+            Set<String> users = new HashSet<String>();
+            for (int i = 0; i < packedCount; i++) {
+                users.add(UsernameCodec.unpack(packed[2 * i], packed[2 * i + 1]));
+            }
+            if (unpackable != null) {
+                users.addAll(unpackable);
+            }
+            return users;
+        }
+    }
+
+    private final Map<String, Device> byID = new KeyedUserTable<Device>();
+    private final List<Device> byHandle = new ArrayList<Device>();
+    private final List<Integer> freeHandles = new ArrayList<Integer>();
+    private final UserTable<Device> assignments = new UserTable<Device>();
+
+    /**
+     * Records that a user has a device, replacing any device they had.
+     *
+     * @param username  the username
+     * @param deviceID  the device ID, or null for no device
+     * @return the device's handle, or NO_DEVICE
+     */
+    public int assign(String username, String deviceID)
+    {
+        unassign(username);
+        if (deviceID == null) {
+            return NO_DEVICE;
+        }
+        int handle = attach(username, deviceID);
+        assignments.put(username, byHandle.get(handle));
+        return handle;
+    }
+
+    /**
+     * Adds a user to a device's users, interning the device if it is
+     * new, without recording which device the user has. This is for
+     * callers that keep each user's handle themselves, such as
+     * UserDirectory: the user is found by usersOf and revoke, but not
+     * by handleOf, isDeviceOf or the map view.
+     *
+     * @param username  the username
+     * @param deviceID  the device ID
+     * @return the device's handle
+     */
+    public int attach(String username, String deviceID)
+    {
+        Device device = byID.get(deviceID);
+        if (device == null) {
+            int handle = freeHandles.isEmpty() ? byHandle.size()
+                : freeHandles.remove(freeHandles.size() - 1);
+            device = new Device(deviceID, handle);
+            byID.put(deviceID, device);
+            if (handle == byHandle.size()) {
+                byHandle.add(device);
+            }
+            else {
+                byHandle.set(handle, device);
+            }
+        }
+        device.add(username);
+        return device.handle;
+    }
+
+    /**
+     * Removes a user from a device's users, as added by attach,
+     * releasing the device's handle if it has no users left.
+     *
+     * @param username  the username
+     * @param handle    the device's handle
+     */
+    public void detach(String username, int handle)
+    {
+        Device device = byHandle.get(handle);
+        device.remove(username);
+        if (device.isEmpty()) {
+            release(device);
+        }
+    }
+
+    /**
+     * Makes room for the given number of users with devices, so that
+     * assigning them does not grow the registry's tables one step at a
+     * time.
+     *
+     * @param users  the number of users to make room for
+     */
+    public void ensureCapacity(int users)
+    {
+        assignments.ensureCapacity(users);
+    }
+
+    /**
+     * Removes a user's device, if they have one.
+     *
+     * @param username  the username
+     * @return the device's handle, or NO_DEVICE if they had none
+     */
+    public int unassign(String username)
+    {
+        Device device = assignments.remove(username);
+        if (device == null) {
+            return NO_DEVICE;
+        }
+        detach(username, device.handle);
+        return device.handle;
+    }
+
+    /**
+     * Removes a device from every user who has it.
+     *
+     * @param deviceID  the device ID
+     * @return the users who had the device, which is empty if none did
+     */
+    public Set<String> revoke(String deviceID)
+    {
+        Device device = byID.get(deviceID);
+        if (device == null) {
+            return new HashSet<String>();
+        }
+        Set<String> users = device.users();
+        for (String username : users) {
+            assignments.remove(username);
+        }
+        release(device);
+        return users;
+    }
+
+    /**
+     * @param deviceID  a device ID
+     * @return its handle, or NO_DEVICE if no user has the device
+     */
+    public int handle(String deviceID)
+    {
+        Device device = deviceID == null ? null : byID.get(deviceID);
+        return device == null ? NO_DEVICE : device.handle;
+    }
+
+    /**
+     * @param username  a username
+     * @return the handle of the user's device, or NO_DEVICE
+     */
+    public int handleOf(String username)
+    {
+        Device device = assignments.get(username);
+        return device == null ? NO_DEVICE : device.handle;
+    }
+
+    /**
+     * @param handle  a device's handle
+     * @return the device ID, or null if the handle is not in use
+     */
+    public String deviceID(int handle)
+    {
+        Device device = 0 <= handle && handle < byHandle.size() ? byHandle.get(handle) : null;
+        return device == null ? null : device.id;
+    }
+
+    /**
+     * @param username  a username
+     * @param deviceID  a device ID, which may be null
+     * @return true if and only if the user has a device and it is the
+     *         device with that ID, compared by handle
+     */
+    public boolean isDeviceOf(String username, String deviceID)
+    {
+        int handle = handleOf(username);
+        return handle != NO_DEVICE && handle == handle(deviceID);
+    }
+
+    /**
+     * @param deviceID  a device ID
+     * @return the users who have the device
+     */
+    public Set<String> usersOf(String deviceID)
+    {
+        Device device = byID.get(deviceID);
+        return device == null ? new HashSet<String>() : device.users();
+    }
+
+    /**
+     * @return the number of distinct devices in use
+     */
+    public int deviceCount()
+    {
+        return byID.size();
+    }
+
+    /**
+     * Returns a view of the registry as a map from each user with a
+     * device to their device ID. Putting a user in the map assigns them
+     * a device and removing them unassigns it. The IDs in the map are
+     * the registry's own copies, so the same device always has the same
+     * String object.
+     *
+     * @return the map view
+     */
+    public Map<String, String> asMap()
+    {
+        return new AbstractMap<String, String>() {
+            @Override
+            public int size()
+            {
+                return assignments.size();
+            }
+
+            @Override
+            public boolean containsKey(Object username)
+            {
+                return assignments.containsKey(username);
+            }
+
+            @Override
+            public String get(Object username)
+            {
+                Device device = assignments.get(username);
+                return device == null ? null : device.id;
+            }
+
+            @Override
+            public String put(String username, String deviceID)
+            {
+                String previous = get(username);
+                assign(username, deviceID);
+                return previous;
+            }
+
+            @Override
+            public String remove(Object username)
+            {
+                String previous = get(username);
+                if (previous != null) {
+                    unassign((String) username);
+                }
+                return previous;
+            }
+
+            @Override
+            public Set<Map.Entry<String, String>> entrySet()
+            {
+                return new AbstractSet<Map.Entry<String, String>>() {
+                    @Override
+                    public int size()
+                    {
+                        return assignments.size();
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator()
+                    {
+                        Iterator<Map.Entry<String, Device>> entries
+                            = assignments.entrySet().iterator();
+                        return new Iterator<Map.Entry<String, String>>() {
+                            @Override
+                            public boolean hasNext()
+                            {
+                                return entries.hasNext();
+                            }
+
+                            @Override
+                            public Map.Entry<String, String> next()
+                            {
+                                Map.Entry<String, Device> entry = entries.next();
+                                return new AbstractMap.SimpleImmutableEntry<String, String>(
+                                    entry.getKey(), entry.getValue().id);
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    private void release(Device device)
+    {
+        byID.remove(device.id);
+        byHandle.set(device.handle, null);
+        freeHandles.add(device.handle);
+    }
+}
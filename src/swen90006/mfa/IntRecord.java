@@ -0,0 +1,112 @@
+package swen90006.mfa;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable record backed by a primitive int array.
+ *
+ * MFA stores records as lists of integers. Records decoded from the
+ * network are held as IntRecords so that they cost one int array
+ * rather than one boxed Integer per element; elements are only boxed
+ * if a caller reads them through the List interface.
+ */
+public final class IntRecord extends AbstractList<Integer> implements RandomAccess
+{
+    private final int[] values;
+
+    /**
+     * Wraps an array without copying it. The caller must not modify
+     * the array afterwards.
+     *
+     * @param values  the elements of the record
+     */
+    public IntRecord(int[] values)
+    {
+        this.values = values;
+    }
+
+    /**
+     * @param values  the elements of the record, which are copied
+     * @return a record with the given elements
+     */
+    public static IntRecord of(int... values)
+    {
+        return new IntRecord(values.clone());
+    }
+
+    /**
+     * @param record  a record, which must not contain nulls
+     * @return the record itself if it is an IntRecord, or else a copy
+     */
+    public static IntRecord copyOf(List<Integer> record)
+    {
+        if (record instanceof IntRecord) {
+            return (IntRecord) record;
+        }
+        int[] values = new int[record.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = record.get(i);
+        }
+        return new IntRecord(values);
+    }
+
+    @Override
+    public Integer get(int index)
+    {
+        return values[index];
+    }
+
+    /**
+     * @param index  the index of an element
+     * @return the element, without boxing
+     */
+    public int getInt(int index)
+    {
+        return values[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return values.length;
+    }
+
+    /**
+     * @return a copy of the elements
+     */
+    public int[] toIntArray()
+    {
+        return values.clone();
+    }
+
+    /**
+     * Writes the elements to a buffer at its position, in the buffer's
+     * byte order, and advances the position.
+     *
+     * @param buffer  a buffer with at least 4 * size() bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer)
+    {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    /**
+     * Reads 'count' elements from a buffer at its position, in the
+     * buffer's byte order, and advances the position.
+     *
+     * @param buffer  a buffer with at least 4 * count bytes remaining
+     * @param count   the number of elements
+     * @return the record
+     */
+    public static IntRecord readFrom(ByteBuffer buffer, int count)
+    {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return new IntRecord(values);
+    }
+}
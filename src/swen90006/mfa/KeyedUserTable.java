@@ -0,0 +1,317 @@
+package swen90006.mfa;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from usernames to values, hashing each username with SipHash
+ * under a secret key of its own, in an open-addressing table.
+ *
+ * Usernames are chosen by whoever registers them, and many Strings
+ * share a hashCode ("Aa" and "BB", and so every name made of those
+ * pairs), so a HashMap can be made to put any number of new users in
+ * one bin, where each lookup then walks a tree of them. Here the key is
+ * drawn from SecureRandom when the table is constructed and never
+ * leaves it, so names that collide in one table are no more likely to
+ * collide in any other than names chosen at random, and runs stay as
+ * short as load alone makes them (see HashFloodBenchmark).
+ *
+ * Each slot holds a username, the low 32 bits of its hash and a value.
+ * Probes compare hashes before Strings, growing rehashes from the
+ * stored hashes, and removal shifts later entries back, as in
+ * UserTable, so the table needs no tombstones. Like HashMap, a
+ * KeyedUserTable is not thread-safe, and its iterators do not support
+ * removal.
+ */
+public class KeyedUserTable<V> extends AbstractMap<String, V>
+{
+    private static final int MINIMUM_CAPACITY = 16;
+
+    //The table is grown when more than three quarters full
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private final long k0 = SipHash.randomKey();
+    private final long k1 = SipHash.randomKey();
+
+    private String[] usernames;
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructs an empty table.
+     */
+    public KeyedUserTable()
+    {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty table that holds the given number of users
+     * without growing.
+     *
+     * @param expectedUsers  the number of users expected
+     */
+    public KeyedUserTable(int expectedUsers)
+    {
+        allocate(capacityFor(expectedUsers));
+    }
+
+    /**
+     * Grows the table, if need be, in one step to hold the given number
+     * of users without growing again.
+     *
+     * @param users  the number of users to make room for
+     */
+    public void ensureCapacity(int users)
+    {
+        int capacity = capacityFor(users);
+        if (capacity > usernames.length) {
+            resize(capacity);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof String && slot((String) key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = slot((String) key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(String username, V value)
+    {
+        int hash = hash(username);
+        int mask = usernames.length - 1;
+        int slot = hash & mask;
+        while (usernames[slot] != null) {
+            if (hashes[slot] == hash && usernames[slot].equals(username)) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = slot + 1 & mask;
+        }
+        usernames[slot] = username;
+        hashes[slot] = hash;
+        values[slot] = value;
+        size++;
+        if ((long) size * LOAD_DENOMINATOR > (long) usernames.length * LOAD_NUMERATOR) {
+            resize(usernames.length << 1);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = slot((String) key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        delete(slot);
+        return previous;
+    }
+
+    @Override
+    public void clear()
+    {
+        allocate(MINIMUM_CAPACITY);
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public int size()
+            {
+                return KeyedUserTable.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator()
+            {
+                return new Entries();
+            }
+        };
+    }
+
+    /**
+     * @return the number of slots in the table
+     */
+    public int capacity()
+    {
+        return usernames.length;
+    }
+
+    /**
+     * @return the most slots probed to find any user in the table, one
+     *         for a user in their home slot
+     */
+    public int longestProbe()
+    {
+        int mask = usernames.length - 1;
+        int longest = 0;
+        for (int slot = 0; slot < usernames.length; slot++) {
+            if (usernames[slot] != null) {
+                longest = Math.max(longest, (slot - hashes[slot] & mask) + 1);
+            }
+        }
+        return longest;
+    }
+
+    private static int capacityFor(int users)
+    {
+        int capacity = MINIMUM_CAPACITY;
+        while ((long) capacity * LOAD_NUMERATOR / LOAD_DENOMINATOR < users) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private int hash(String username)
+    {
+        return (int) SipHash.hash(k0, k1, username);
+    }
+
+    //The slot holding a username, or -1
+    private int slot(String username)
+    {
+        int hash = hash(username);
+        int mask = usernames.length - 1;
+        for (int slot = hash & mask; usernames[slot] != null; slot = slot + 1 & mask) {
+            if (hashes[slot] == hash && usernames[slot].equals(username)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    //Empties a slot, moving back any later entry in the same run that
+    //would otherwise no longer be found from its home slot
+    private void delete(int slot)
+    {
+        int mask = usernames.length - 1;
+        int hole = slot;
+        for (int next = hole + 1 & mask; usernames[next] != null; next = next + 1 & mask) {
+            int home = hashes[next] & mask;
+            //Move the entry unless its home lies cyclically in (hole, next]
+            if ((next - home & mask) >= (next - hole & mask)) {
+                usernames[hole] = usernames[next];
+                hashes[hole] = hashes[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        usernames[hole] = null;
+        hashes[hole] = 0;
+        values[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity)
+    {
+        String[] oldUsernames = usernames;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldUsernames.length; i++) {
+            if (oldUsernames[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (usernames[slot] != null) {
+                    slot = slot + 1 & mask;
+                }
+                usernames[slot] = oldUsernames[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        usernames = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    //Iterates over the occupied slots
+    private class Entries implements Iterator<Map.Entry<String, V>>
+    {
+        private int next = advance(0);
+
+        private int advance(int from)
+        {
+            while (from < usernames.length && usernames[from] == null) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next < usernames.length;
+        }
+
+        @Override
+        public Map.Entry<String, V> next()
+        {
+            if (next >= usernames.length) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, V> entry = new Entry(next);
+            next = advance(next + 1);
+            return entry;
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<String, V>
+    {
+        private final int slot;
+
+        @SuppressWarnings("unchecked")
+        Entry(int slot)
+        {
+            super(usernames[slot], (V) values[slot]);
+            this.slot = slot;
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            values[slot] = value;
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package swen90006.mfa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A UserStore that holds each user as an object, found through hash
+ * maps by username and by ID, and each device as the set of its users'
+ * names, much as the server first held its users in a HashMap for each
+ * of their password, device, status and records.
+ *
+ * It is simpler than a UserDirectory, and larger and slower: each user
+ * costs their username as a String, an object and two map entries, and
+ * each lookup by ID boxes the ID (see StoreBenchmark). It is the
+ * reference the other stores are checked against (see UserStoreTest).
+ *
+ * The users by ID are in a ConcurrentHashMap, and each user's status,
+ * device and records are volatile, so the methods that UserStore
+ * allows to be called without a lock may be. Otherwise, like MFA, a
+ * MapUserStore is not thread-safe.
+ */
+public final class MapUserStore extends AbstractUserStore
+{
+    private static final VarHandle RECORDS;
+
+    static
+    {
+        try {
+            RECORDS = MethodHandles.lookup().findVarHandle(User.class, "records", List.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    //Everything held for one user
+    private static final class User
+    {
+        final int id;
+        final String username;
+        String password;
+        volatile String deviceID;
+        volatile MFA.AuthenticationStatus status = MFA.AuthenticationStatus.NONE;
+        volatile List<List<Integer>> records = NO_RECORDS;
+
+        User(int id, String username)
+        {
+            this.id = id;
+            this.username = username;
+        }
+    }
+
+    private final Map<String, User> byName = new HashMap<String, User>();
+    private final Map<Integer, User> byID = new ConcurrentHashMap<Integer, User>();
+    private final Map<String, Set<String>> devices = new HashMap<String, Set<String>>();
+    private int issued;
+    private int withDevices;
+
+    /**
+     * Does nothing, as a hash map cannot be grown ahead of time once
+     * made.
+     */
+    @Override
+    public void ensureCapacity(int users)
+    {
+    }
+
+    @Override
+    public int id(String username)
+    {
+        User user = byName.get(username);
+        return user == null ? NO_USER : user.id;
+    }
+
+    @Override
+    public int add(String username)
+    {
+        if (byName.containsKey(username)) {
+            throw new IllegalArgumentException("User already added: " + username);
+        }
+        User user = new User(issued++, username);
+        byName.put(username, user);
+        byID.put(user.id, user);
+        return user.id;
+    }
+
+    @Override
+    public void remove(int id)
+    {
+        if (!contains(id)) {
+            return;
+        }
+        setDevice(id, null);
+        byName.remove(byID.remove(id).username);
+    }
+
+    @Override
+    public boolean contains(int id)
+    {
+        return byID.containsKey(id);
+    }
+
+    @Override
+    public String username(int id)
+    {
+        User user = byID.get(id);
+        return user == null ? null : user.username;
+    }
+
+    @Override
+    public int size()
+    {
+        return byName.size();
+    }
+
+    @Override
+    public int issued()
+    {
+        return issued;
+    }
+
+    @Override
+    public boolean passwordMatches(int id, String password)
+    {
+        return password.equals(byID.get(id).password);
+    }
+
+    @Override
+    public String password(int id)
+    {
+        User user = byID.get(id);
+        return user == null ? null : user.password;
+    }
+
+    @Override
+    public void setPassword(int id, String password)
+    {
+        byID.get(id).password = password;
+    }
+
+    @Override
+    public MFA.AuthenticationStatus status(int id)
+    {
+        User user = byID.get(id);
+        return user == null ? null : user.status;
+    }
+
+    @Override
+    public void setStatus(int id, MFA.AuthenticationStatus status)
+    {
+        byID.get(id).status = status;
+    }
+
+    @Override
+    public boolean isAuthenticated(int id)
+    {
+        User user = byID.get(id);
+        if (user == null) {
+            return false;
+        }
+        MFA.AuthenticationStatus status = user.status;
+        return status == (user.deviceID == null
+                          ? MFA.AuthenticationStatus.SINGLE : MFA.AuthenticationStatus.DOUBLE);
+    }
+
+    @Override
+    public boolean hasDevice(int id)
+    {
+        return byID.get(id).deviceID != null;
+    }
+
+    @Override
+    public boolean isDeviceOf(int id, String deviceID)
+    {
+        String own = byID.get(id).deviceID;
+        return own != null && own.equals(deviceID);
+    }
+
+    @Override
+    public String deviceID(int id)
+    {
+        User user = byID.get(id);
+        return user == null ? null : user.deviceID;
+    }
+
+    @Override
+    public void setDevice(int id, String deviceID)
+    {
+        User user = byID.get(id);
+        if (user.deviceID != null) {
+            Set<String> users = devices.get(user.deviceID);
+            users.remove(user.username);
+            if (users.isEmpty()) {
+                devices.remove(user.deviceID);
+            }
+            user.deviceID = null;
+            withDevices--;
+        }
+        if (deviceID != null) {
+            Set<String> users = devices.get(deviceID);
+            if (users == null) {
+                users = new HashSet<String>();
+                devices.put(deviceID, users);
+            }
+            users.add(user.username);
+            user.deviceID = deviceID;
+            withDevices++;
+        }
+    }
+
+    @Override
+    public int deviceUserCount()
+    {
+        return withDevices;
+    }
+
+    @Override
+    public Set<String> deviceUsers(String deviceID)
+    {
+        Set<String> users = devices.get(deviceID);
+        return users == null ? new HashSet<String>() : new HashSet<String>(users);
+    }
+
+    @Override
+    public Set<String> revokeDevice(String deviceID)
+    {
+        Set<String> users = devices.remove(deviceID);
+        if (users == null) {
+            return new HashSet<String>();
+        }
+        for (String username : users) {
+            byName.get(username).deviceID = null;
+            withDevices--;
+        }
+        return users;
+    }
+
+    @Override
+    public List<List<Integer>> records(int id)
+    {
+        User user = byID.get(id);
+        return user == null ? null : user.records;
+    }
+
+    @Override
+    public void setRecords(int id, List<List<Integer>> records)
+    {
+        byID.get(id).records = records == null ? NO_RECORDS : records;
+    }
+
+    @Override
+    public boolean compareAndSetRecords(int id, List<List<Integer>> expected,
+                                        List<List<Integer>> records)
+    {
+        return RECORDS.compareAndSet(byID.get(id), expected,
+                                     records == null ? NO_RECORDS : records);
+    }
+
+    /**
+     * Estimates the heap taken by the store, part by part, assuming
+     * compressed references, 16-byte array headers and Strings of
+     * Latin-1 characters. The sets of device users are not included.
+     *
+     * @return the bytes taken by each part, by name, in a fixed order
+     */
+    @Override
+    public Map<String, Long> footprint()
+    {
+        long usernames = 0;
+        long passwords = 0;
+        long boxedIDs = 0;
+        for (User user : byID.values()) {
+            usernames += stringBytes(user.username);
+            if (user.password != null) {
+                passwords += stringBytes(user.password);
+            }
+            if (user.id > 127) {
+                boxedIDs += 16;
+            }
+        }
+        long users = byName.size();
+        Map<String, Long> parts = new LinkedHashMap<String, Long>();
+        parts.put("users by name", tableBytes(users) + 32 * users);
+        parts.put("users by ID", tableBytes(users) + 32 * users + boxedIDs);
+        parts.put("user objects", 40 * users);
+        parts.put("usernames", usernames);
+        parts.put("passwords", passwords);
+        return parts;
+    }
+
+    //The bytes of a hash map's table for the given number of entries,
+    //at its default load factor of 0.75
+    private static long tableBytes(long entries)
+    {
+        long capacity = 16;
+        while (capacity * 3 / 4 < entries) {
+            capacity <<= 1;
+        }
+        return 16 + 4 * capacity;
+    }
+
+    //The bytes of a String of Latin-1 characters and its array
+    private static long stringBytes(String s)
+    {
+        return 24 + ((16 + s.length() + 7) & ~7L);
+    }
+}
@@ -0,0 +1,235 @@
+package swen90006.mfa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * The authentication status of every user, and whether they have a
+ * device, packed into four bits per user in an array of longs and
+ * indexed by the IDs of a UserDirectory.
+ *
+ * The low two bits of each user's four hold their status: zero for no
+ * user, then NONE, SINGLE and DOUBLE. The next bit is set if they have
+ * a device, and the top bit is unused, so that a user never straddles
+ * two words. Whether a user is correctly authenticated depends only on
+ * those three bits, so isAuthenticated reads one word. Sixteen users
+ * share a word: ten million users take 5 MB, where a map from packed
+ * username to status takes 335 MB (see StatusTableBenchmark).
+ *
+ * The words are held in chunks of CHUNK_WORDS, so growing the table
+ * adds chunks without copying any user's word.
+ *
+ * Each update is a compare-and-set of the user's word, so updates to
+ * users who share a word, made from different threads, are never lost,
+ * and readers see each update whole, even while the table grows.
+ */
+public final class PackedStatusTable
+{
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** The words in each chunk */
+    public static final int CHUNK_WORDS = 64;
+
+    private static final int BITS = 4;
+    private static final int PER_WORD = Long.SIZE / BITS;
+    private static final int SHIFT = Integer.numberOfTrailingZeros(PER_WORD);
+    private static final int PER_CHUNK = CHUNK_WORDS * PER_WORD;
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(PER_CHUNK);
+
+    private static final int STATUS_MASK = 3;
+    private static final int DEVICE = 4;
+    private static final int MASK = (1 << BITS) - 1;
+
+    //The bits of the users who are correctly authenticated: SINGLE
+    //without a device, or DOUBLE with one
+    private static final int AUTHENTICATED = 1 << code(MFA.AuthenticationStatus.SINGLE)
+        | 1 << (DEVICE | code(MFA.AuthenticationStatus.DOUBLE));
+
+    private static final MFA.AuthenticationStatus[] STATUSES = MFA.AuthenticationStatus.values();
+
+    //The first chunkCount chunks are allocated; the array is replaced
+    //by a larger copy when full, and its chunks are never moved
+    private volatile long[][] chunks;
+    private volatile int chunkCount;
+
+    /**
+     * Constructs a table with no users that holds the given number of
+     * IDs without growing.
+     *
+     * @param capacity  the number of IDs
+     */
+    public PackedStatusTable(int capacity)
+    {
+        chunks = new long[Math.max(chunksFor(capacity), 1)][];
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Grows the table, if need be, to hold the given number of IDs.
+     *
+     * @param capacity  the number of IDs
+     */
+    public synchronized void ensureCapacity(int capacity)
+    {
+        int needed = chunksFor(capacity);
+        long[][] chunks = this.chunks;
+        if (needed > chunks.length) {
+            //At least doubled, so that adding users one at a time
+            //copies the array of chunks O(log n) times
+            chunks = Arrays.copyOf(chunks, Math.max(needed, 2 * chunks.length));
+        }
+        for (int i = chunkCount; i < needed; i++) {
+            chunks[i] = new long[CHUNK_WORDS];
+        }
+        this.chunks = chunks;
+        chunkCount = Math.max(chunkCount, needed);
+    }
+
+    /**
+     * @return the number of IDs the table holds
+     */
+    public int capacity()
+    {
+        return chunkCount * PER_CHUNK;
+    }
+
+    /**
+     * @return the bytes taken by the table's array
+     */
+    public long sizeInBytes()
+    {
+        return 16 + 4L * chunks.length + (16 + (long) Long.BYTES * CHUNK_WORDS) * chunkCount;
+    }
+
+    /**
+     * @param id  an ID in the table
+     * @return true if and only if the ID has a status
+     */
+    public boolean contains(int id)
+    {
+        return (bits(id) & STATUS_MASK) != 0;
+    }
+
+    /**
+     * @param id  an ID in the table
+     * @return its status, or null if it has none
+     */
+    public MFA.AuthenticationStatus get(int id)
+    {
+        int code = bits(id) & STATUS_MASK;
+        return code == 0 ? null : STATUSES[code - 1];
+    }
+
+    /**
+     * @param id  an ID in the table
+     * @return true if and only if it has a device
+     */
+    public boolean hasDevice(int id)
+    {
+        return (bits(id) & DEVICE) != 0;
+    }
+
+    /**
+     * @param id  an ID in the table
+     * @return true if and only if it has status SINGLE and no device,
+     *         or status DOUBLE and a device
+     */
+    public boolean isAuthenticated(int id)
+    {
+        return (AUTHENTICATED >>> bits(id) & 1) != 0;
+    }
+
+    /**
+     * Sets an ID's status, keeping its device bit.
+     *
+     * @param id      an ID in the table
+     * @param status  the new status
+     */
+    public void set(int id, MFA.AuthenticationStatus status)
+    {
+        update(id, STATUS_MASK, code(status));
+    }
+
+    /**
+     * Sets an ID's status if it is as expected.
+     *
+     * @param id        an ID in the table
+     * @param expected  the status it must have, or null for none
+     * @param status    the new status
+     * @return true if and only if the status was as expected and is
+     *         now the new one
+     */
+    public boolean compareAndSet(int id, MFA.AuthenticationStatus expected,
+                                 MFA.AuthenticationStatus status)
+    {
+        int expectedCode = expected == null ? 0 : code(expected);
+        long[] words = chunks[id >>> CHUNK_SHIFT];
+        int index = (id & PER_CHUNK - 1) >>> SHIFT;
+        int shift = (id & PER_WORD - 1) * BITS;
+        while (true) {
+            long word = (long) WORDS.getVolatile(words, index);
+            if ((word >>> shift & STATUS_MASK) != expectedCode) {
+                return false;
+            }
+            long updated = word & ~((long) STATUS_MASK << shift) | (long) code(status) << shift;
+            if (WORDS.compareAndSet(words, index, word, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets or clears an ID's device bit, keeping its status.
+     *
+     * @param id         an ID in the table
+     * @param hasDevice  whether it has a device
+     */
+    public void setDevice(int id, boolean hasDevice)
+    {
+        update(id, DEVICE, hasDevice ? DEVICE : 0);
+    }
+
+    /**
+     * Clears an ID's status and device bit, so that it has none.
+     *
+     * @param id  an ID in the table
+     */
+    public void clear(int id)
+    {
+        update(id, MASK, 0);
+    }
+
+    //Reads an ID's four bits with acquire semantics, pairing with the
+    //compare-and-set of update, as readers may hold no lock
+    private int bits(int id)
+    {
+        long[] words = chunks[id >>> CHUNK_SHIFT];
+        long word = (long) WORDS.getAcquire(words, (id & PER_CHUNK - 1) >>> SHIFT);
+        return (int) (word >>> (id & PER_WORD - 1) * BITS) & MASK;
+    }
+
+    //Replaces the masked bits of an ID's four with the given ones
+    private void update(int id, int mask, int bits)
+    {
+        long[] words = chunks[id >>> CHUNK_SHIFT];
+        int index = (id & PER_CHUNK - 1) >>> SHIFT;
+        int shift = (id & PER_WORD - 1) * BITS;
+        long word;
+        long updated;
+        do {
+            word = (long) WORDS.getVolatile(words, index);
+            updated = word & ~((long) mask << shift) | (long) bits << shift;
+        } while (!WORDS.compareAndSet(words, index, word, updated));
+    }
+
+    private static int code(MFA.AuthenticationStatus status)
+    {
+        return status.ordinal() + 1;
+    }
+
+    private static int chunksFor(int capacity)
+    {
+        return (int) (((long) capacity + PER_CHUNK - 1) / PER_CHUNK);
+    }
+}
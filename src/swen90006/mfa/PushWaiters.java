@@ -0,0 +1,154 @@
+package swen90006.mfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The callers waiting for users to respond to push notifications, used
+ * by MFA.awaitPushResponse.
+ *
+ * Each waiter is a single CompletableFuture, completed exactly once:
+ * with the status MFA passes to complete when the user responds or
+ * loses their device, or with SINGLE if the timeout passes first. A
+ * thread may block on the future, which costs little on a virtual
+ * thread, or attach a dependent action and return. Timeouts are
+ * scheduled by CompletableFuture's shared timer, and a waiter removes
+ * itself when it is completed or cancelled, so nothing is kept for
+ * users who never respond.
+ *
+ * The table maps a user to their waiter, or to a list if there are
+ * several, as most users have at most one. Waiters may time out on
+ * any thread, so the table is a ConcurrentHashMap, and each user's
+ * entry is only changed inside compute for that user.
+ */
+final class PushWaiters
+{
+    //Each value is a Waiter or a List<Waiter>
+    private final ConcurrentHashMap<String, Object> waiters = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * @param username  the user
+     * @param timeout   the longest time to wait
+     * @param unit      the unit of the timeout
+     * @return a future completed when the user responds, or with SINGLE
+     *         once the timeout passes
+     */
+    CompletableFuture<MFA.AuthenticationStatus> await(String username, long timeout,
+                                                      TimeUnit unit)
+    {
+        Waiter waiter = new Waiter(username);
+        waiters.compute(username, (name, value) -> {
+            if (value == null) {
+                return waiter;
+            }
+            List<Waiter> list = asList(value);
+            list.add(waiter);
+            return list;
+        });
+        waiter.completeOnTimeout(MFA.AuthenticationStatus.SINGLE, timeout, unit);
+        return waiter;
+    }
+
+    /**
+     * Wakes everyone waiting for a user.
+     *
+     * @param username  the user
+     * @param status    the status to complete their futures with
+     */
+    void complete(String username, MFA.AuthenticationStatus status)
+    {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        Object value = waiters.remove(username);
+        if (value instanceof Waiter) {
+            ((Waiter) value).complete(status);
+        }
+        else if (value != null) {
+            //Once removed, the list is no longer changed by waiters
+            //that time out
+            for (Waiter waiter : asList(value)) {
+                waiter.complete(status);
+            }
+        }
+    }
+
+    /**
+     * @return the number of users with a caller waiting
+     */
+    int pendingUsers()
+    {
+        return waiters.size();
+    }
+
+    private void leave(Waiter waiter)
+    {
+        waiters.computeIfPresent(waiter.username, (name, value) -> {
+            if (value == waiter) {
+                return null;
+            }
+            else if (value instanceof Waiter) {
+                return value;
+            }
+            List<Waiter> list = asList(value);
+            list.remove(waiter);
+            return list.size() == 1 ? list.get(0) : list;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Waiter> asList(Object value)
+    {
+        if (value instanceof Waiter) {
+            List<Waiter> list = new ArrayList<Waiter>(2);
+            list.add((Waiter) value);
+            return list;
+        }
+        return (List<Waiter>) value;
+    }
+
+    //A future that leaves the table once it is done, however that
+    //happens, without a dependent action to do so
+    private final class Waiter extends CompletableFuture<MFA.AuthenticationStatus>
+    {
+        private final String username;
+
+        Waiter(String username)
+        {
+            this.username = username;
+        }
+
+        @Override
+        public boolean complete(MFA.AuthenticationStatus status)
+        {
+            boolean completed = super.complete(status);
+            if (completed) {
+                leave(this);
+            }
+            return completed;
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable failure)
+        {
+            boolean completed = super.completeExceptionally(failure);
+            if (completed) {
+                leave(this);
+            }
+            return completed;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                leave(this);
+            }
+            return cancelled;
+        }
+    }
+}
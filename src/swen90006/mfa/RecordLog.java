@@ -0,0 +1,289 @@
+package swen90006.mfa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A user's records, held in chunks of CHUNK records indexed by a spine,
+ * so that adding a record never copies the records already held, and
+ * to which any number of threads can add at once without a lock.
+ *
+ * An ArrayList doubles its array when full, copying every record it
+ * holds at once, and holds both arrays until the copy is done, so the
+ * add that finds it full is slower the more records a user has. Here
+ * the first chunk starts small and doubles until it is CHUNK records,
+ * so that a user with few records costs no more than an ArrayList;
+ * every chunk after it is allocated whole, and only the spine, CHUNK
+ * times smaller than the records, is ever copied when full (see
+ * RecordLogBenchmark). Record i is in the first chunk if i < CHUNK, and
+ * otherwise at index i % CHUNK of the chunk at i / CHUNK - 1 in the
+ * spine, so get is O(1).
+ *
+ * An add reserves the next index with an atomic increment, stores its
+ * record at that index with a compare-and-set, then publishes: the size
+ * is advanced, by compare-and-set, past every index whose record has
+ * been stored. An add that stores its record before an earlier one has
+ * is published by that one, so no add waits for another. Readers see
+ * only the records below the size, each whole, and need no lock (see
+ * RecordContentionBenchmark).
+ *
+ * Chunks are installed in the spine by compare-and-set and never
+ * replaced. The first chunk, and the spine, are replaced by larger
+ * copies: the copier first sets each empty slot of the old one to a
+ * frozen marker, so that a record or chunk is either stored in the old
+ * one before it is copied or fails to be stored there and is stored in
+ * the copy instead. Whoever finds a slot frozen helps finish the copy,
+ * so no thread waits for another to do so.
+ *
+ * Records are never changed or removed. A null record is held as a
+ * marker, as an empty slot is null, and read back as null, so that
+ * MFA.addData keeps a null record as the ArrayList it replaced did.
+ */
+public final class RecordLog extends AbstractList<List<Integer>> implements RandomAccess
+{
+    /** The records in each full chunk */
+    public static final int CHUNK = 1 << 8;
+
+    private static final int SHIFT = Integer.numberOfTrailingZeros(CHUNK);
+    private static final int MASK = CHUNK - 1;
+    private static final int MINIMUM_FIRST_CHUNK = 4;
+
+    //The markers of an empty slot of the first chunk, or of the spine,
+    //that has been frozen to be copied
+    private static final Object FROZEN = new Object();
+    private static final Object[] FROZEN_CHUNK = new Object[0];
+
+    //The marker stored for a null record
+    private static final Object NULL = new Object();
+
+    private static final Object[][] NO_CHUNKS = new Object[0][];
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle CHUNKS = MethodHandles.arrayElementVarHandle(Object[][].class);
+    private static final VarHandle FIRST;
+    private static final VarHandle SPINE;
+    private static final VarHandle RESERVED;
+    private static final VarHandle PUBLISHED;
+
+    static
+    {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FIRST = lookup.findVarHandle(RecordLog.class, "first", Object[].class);
+            SPINE = lookup.findVarHandle(RecordLog.class, "spine", Object[][].class);
+            RESERVED = lookup.findVarHandle(RecordLog.class, "reserved", int.class);
+            PUBLISHED = lookup.findVarHandle(RecordLog.class, "published", int.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    //The records below CHUNK, and the chunks of those after
+    private volatile Object[] first;
+    private volatile Object[][] spine;
+
+    //The indexes handed out to adds, and those below which every
+    //record has been stored
+    private volatile int reserved;
+    private volatile int published;
+
+    /**
+     * Constructs an empty log.
+     */
+    public RecordLog()
+    {
+        first = new Object[MINIMUM_FIRST_CHUNK];
+        spine = NO_CHUNKS;
+    }
+
+    /**
+     * Constructs a log holding the given records, in order.
+     *
+     * @param records  the records
+     */
+    public RecordLog(List<List<Integer>> records)
+    {
+        int count = records.size();
+        Object[] first = new Object[Math.max(Math.min(count, CHUNK), MINIMUM_FIRST_CHUNK)];
+        Object[][] spine = count <= CHUNK ? NO_CHUNKS : new Object[(count - 1) >>> SHIFT][CHUNK];
+        int i = 0;
+        for (List<Integer> record : records) {
+            if (i < CHUNK) {
+                first[i] = mask(record);
+            }
+            else {
+                spine[(i >>> SHIFT) - 1][i & MASK] = mask(record);
+            }
+            i++;
+        }
+        this.first = first;
+        this.spine = spine;
+        reserved = count;
+        published = count;
+    }
+
+    @Override
+    public int size()
+    {
+        return published;
+    }
+
+    @Override
+    public List<Integer> get(int index)
+    {
+        //The size is read first, so the chunks read after it hold every
+        //record below it
+        int size = published;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+                                                + size);
+        }
+        if (index < CHUNK) {
+            return unmask(first[index]);
+        }
+        return unmask(spine[(index >>> SHIFT) - 1][index & MASK]);
+    }
+
+    /**
+     * Adds a record at the end. Any number of threads may add at once.
+     * The record is seen by readers once it, and every record added
+     * before it, has been stored, so always by the time this returns
+     * if no other add is under way.
+     *
+     * @param record  the record, which may be null
+     * @return true
+     */
+    @Override
+    public boolean add(List<Integer> record)
+    {
+        int index = (int) RESERVED.getAndAdd(this, 1);
+        if (index < CHUNK) {
+            storeFirst(index, mask(record));
+        }
+        else {
+            SLOTS.setVolatile(chunk((index >>> SHIFT) - 1), index & MASK, mask(record));
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * @return the number of chunks holding records
+     */
+    public int chunkCount()
+    {
+        return (published + MASK) >>> SHIFT;
+    }
+
+    private static Object mask(List<Integer> record)
+    {
+        return record == null ? NULL : record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> unmask(Object record)
+    {
+        return record == NULL ? null : (List<Integer>) record;
+    }
+
+    //Stores a record in the first chunk, growing it if need be
+    private void storeFirst(int index, Object record)
+    {
+        while (true) {
+            Object[] first = this.first;
+            if (index < first.length && SLOTS.compareAndSet(first, index, null, record)) {
+                return;
+            }
+            //Too short, or frozen to be copied
+            growFirst(first, index);
+        }
+    }
+
+    //Replaces the first chunk, unless it has already been replaced,
+    //by a copy long enough to hold the index
+    private void growFirst(Object[] first, int index)
+    {
+        int length = 2 * first.length;
+        while (length <= index) {
+            length <<= 1;
+        }
+        Object[] copy = new Object[Math.min(length, CHUNK)];
+        for (int i = 0; i < first.length; i++) {
+            if (!SLOTS.compareAndSet(first, i, null, FROZEN)) {
+                Object record = SLOTS.getVolatile(first, i);
+                copy[i] = record == FROZEN ? null : record;
+            }
+        }
+        FIRST.compareAndSet(this, first, copy);
+    }
+
+    //The chunk at an index of the spine, installed if need be
+    private Object[] chunk(int index)
+    {
+        while (true) {
+            Object[][] spine = this.spine;
+            if (index < spine.length) {
+                Object[] chunk = (Object[]) CHUNKS.getVolatile(spine, index);
+                if (chunk == null) {
+                    Object[] created = new Object[CHUNK];
+                    if (CHUNKS.compareAndSet(spine, index, null, created)) {
+                        return created;
+                    }
+                    continue;
+                }
+                if (chunk != FROZEN_CHUNK) {
+                    return chunk;
+                }
+            }
+            //Too short, or frozen to be copied
+            growSpine(spine, index);
+        }
+    }
+
+    //Replaces the spine, unless it has already been replaced, by a copy
+    //long enough to hold the index
+    private void growSpine(Object[][] spine, int index)
+    {
+        Object[][] copy = new Object[Math.max(index + 1, 2 * spine.length)][];
+        for (int i = 0; i < spine.length; i++) {
+            if (!CHUNKS.compareAndSet(spine, i, null, FROZEN_CHUNK)) {
+                Object[] chunk = (Object[]) CHUNKS.getVolatile(spine, i);
+                copy[i] = chunk == FROZEN_CHUNK ? null : chunk;
+            }
+        }
+        SPINE.compareAndSet(this, spine, copy);
+    }
+
+    //Advances the size past every stored record
+    private void publish()
+    {
+        int size = published;
+        while (size < reserved && isStored(size)) {
+            PUBLISHED.compareAndSet(this, size, size + 1);
+            size = published;
+        }
+    }
+
+    //Whether the record at an index has been stored; one being stored
+    //in a copy not yet installed is not
+    private boolean isStored(int index)
+    {
+        Object record;
+        if (index < CHUNK) {
+            Object[] first = this.first;
+            record = index < first.length ? SLOTS.getVolatile(first, index) : null;
+        }
+        else {
+            Object[][] spine = this.spine;
+            int chunk = (index >>> SHIFT) - 1;
+            Object[] records = chunk < spine.length ? (Object[]) CHUNKS.getVolatile(spine, chunk) : null;
+            record = records == null || records == FROZEN_CHUNK
+                ? null : SLOTS.getVolatile(records, index & MASK);
+        }
+        return record != null && record != FROZEN;
+    }
+}
@@ -0,0 +1,45 @@
+package swen90006.mfa;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of the first records of a user's list of records,
+ * which only ever grows at the end. Records added to the list after
+ * the view was made are not seen, so the view stays as it was when
+ * made without copying anything.
+ *
+ * If the list is emptied, as when records held off the heap are
+ * released, the view is emptied too.
+ *
+ * Like the list it views, the view must be read under the same lock as
+ * writes to the list.
+ */
+final class RecordPrefix extends AbstractList<List<Integer>> implements RandomAccess
+{
+    private final List<List<Integer>> records;
+    private final int size;
+
+    RecordPrefix(List<List<Integer>> records, int size)
+    {
+        this.records = records;
+        this.size = size;
+    }
+
+    @Override
+    public List<Integer> get(int index)
+    {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+                                                + size());
+        }
+        return records.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return Math.min(size, records.size());
+    }
+}
@@ -0,0 +1,192 @@
+package swen90006.mfa;
+
+import java.security.SecureRandom;
+
+/**
+ * SipHash-2-4, a hash keyed by a 128-bit secret, for tables whose keys
+ * are chosen by users.
+ *
+ * Without the key, nobody can choose keys that fall in the same slots
+ * of a table any more often than chance, so a table hashing with a key
+ * of its own, from randomKey, cannot be flooded with collisions the way
+ * one hashing with String.hashCode can.
+ *
+ * Strings are hashed as their UTF-16 characters in little-endian order,
+ * and a pair of longs as its sixteen little-endian bytes, so each gives
+ * the same hash as the equivalent bytes.
+ */
+public final class SipHash
+{
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SipHash()
+    {
+    }
+
+    /**
+     * @return a half of a new secret key
+     */
+    public static long randomKey()
+    {
+        synchronized (RANDOM) {
+            return RANDOM.nextLong();
+        }
+    }
+
+    /**
+     * @param k0     the first half of the key
+     * @param k1     the second half
+     * @param bytes  the message
+     * @return its hash
+     */
+    public static long hash(long k0, long k1, byte[] bytes)
+    {
+        State state = new State(k0, k1);
+        int end = bytes.length & ~7;
+        for (int i = 0; i < end; i += 8) {
+            long word = 0;
+            for (int j = 7; j >= 0; j--) {
+                word = word << 8 | bytes[i + j] & 0xFF;
+            }
+            state.compress(word);
+        }
+        long last = (long) bytes.length << 56;
+        for (int j = bytes.length - 1; j >= end; j--) {
+            last |= (long) (bytes[j] & 0xFF) << 8 * (j - end);
+        }
+        state.compress(last);
+        return state.finish();
+    }
+
+    /**
+     * @param k0  the first half of the key
+     * @param k1  the second half
+     * @param s   the message
+     * @return the hash of its characters
+     */
+    public static long hash(long k0, long k1, CharSequence s)
+    {
+        State state = new State(k0, k1);
+        int length = s.length();
+        int end = length & ~3;
+        for (int i = 0; i < end; i += 4) {
+            state.compress(s.charAt(i) | (long) s.charAt(i + 1) << 16
+                           | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48);
+        }
+        long last = (long) (2 * length) << 56;
+        for (int i = end; i < length; i++) {
+            last |= (long) s.charAt(i) << 16 * (i - end);
+        }
+        state.compress(last);
+        return state.finish();
+    }
+
+    /**
+     * @param k0      the first half of the key
+     * @param k1      the second half
+     * @param first   the first word of the message
+     * @param second  the second word
+     * @return the hash of the two words
+     */
+    public static long hash(long k0, long k1, long first, long second)
+    {
+        //The rounds of State, on locals, as packed usernames are hashed
+        //on every lookup and a State is not always optimised away there
+        long v0 = k0 ^ 0x736F6D6570736575L;
+        long v1 = k1 ^ 0x646F72616E646F6DL;
+        long v2 = k0 ^ 0x6C7967656E657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        for (int w = 0; w < 3; w++) {
+            long word = w == 0 ? first : w == 1 ? second : 16L << 56;
+            v3 ^= word;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1;
+                v1 = Long.rotateLeft(v1, 13);
+                v1 ^= v0;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v3;
+                v3 = Long.rotateLeft(v3, 16);
+                v3 ^= v2;
+                v0 += v3;
+                v3 = Long.rotateLeft(v3, 21);
+                v3 ^= v0;
+                v2 += v1;
+                v1 = Long.rotateLeft(v1, 17);
+                v1 ^= v2;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= word;
+        }
+        v2 ^= 0xFF;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13);
+            v1 ^= v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16);
+            v3 ^= v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21);
+            v3 ^= v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17);
+            v1 ^= v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    //The four words of state, compressing one message word at a time
+    private static final class State
+    {
+        private long v0;
+        private long v1;
+        private long v2;
+        private long v3;
+
+        State(long k0, long k1)
+        {
+            v0 = k0 ^ 0x736F6D6570736575L;
+            v1 = k1 ^ 0x646F72616E646F6DL;
+            v2 = k0 ^ 0x6C7967656E657261L;
+            v3 = k1 ^ 0x7465646279746573L;
+        }
+
+        void compress(long word)
+        {
+            v3 ^= word;
+            round();
+            round();
+            v0 ^= word;
+        }
+
+        long finish()
+        {
+            v2 ^= 0xFF;
+            round();
+            round();
+            round();
+            round();
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+
+        private void round()
+        {
+            v0 += v1;
+            v1 = Long.rotateLeft(v1, 13);
+            v1 ^= v0;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v3;
+            v3 = Long.rotateLeft(v3, 16);
+            v3 ^= v2;
+            v0 += v3;
+            v3 = Long.rotateLeft(v3, 21);
+            v3 ^= v0;
+            v2 += v1;
+            v1 = Long.rotateLeft(v1, 17);
+            v1 ^= v2;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+    }
+}
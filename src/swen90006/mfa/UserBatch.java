@@ -0,0 +1,245 @@
+package swen90006.mfa;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Many users to be added to an MFA server at once, held column by
+ * column rather than as an object each, and already in the form a
+ * UserDirectory keeps them: each username packed into two longs (see
+ * UsernameCodec), and each password as a UserDirectory holds it, the
+ * bytes of its Latin-1 characters unless it has others. Devices,
+ * statuses and records are held in arrays that are only made once some
+ * user has one, as are the usernames that cannot be packed. So a user
+ * costs two longs and their password's bytes, which a directory adding
+ * the batch keeps as they are, and a store adds its users by reading
+ * the columns (see UserStore.addAll) rather than a String per username.
+ *
+ * Users are appended in order and numbered from zero; a batch is not
+ * thread-safe.
+ */
+public final class UserBatch
+{
+    //Each username packed, or zero in both words if it cannot be, and
+    //each password as UserDirectory.encode gives it
+    private long[] firsts;
+    private long[] seconds;
+    private Object[] passwords;
+    //Null until a username cannot be packed, or a user has a device, a
+    //status other than NONE, or records
+    private String[] unpackable;
+    private String[] deviceIDs;
+    private MFA.AuthenticationStatus[] statuses;
+    private List<List<Integer>>[] records;
+    private int size;
+
+    /**
+     * Constructs an empty batch.
+     */
+    public UserBatch()
+    {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty batch that holds the given number of users
+     * without growing.
+     *
+     * @param expectedUsers  the number of users expected
+     */
+    public UserBatch(int expectedUsers)
+    {
+        int users = Math.max(expectedUsers, 1);
+        firsts = new long[users];
+        seconds = new long[users];
+        passwords = new Object[users];
+    }
+
+    /**
+     * Appends a new user with status NONE and no records.
+     *
+     * @param username  the username
+     * @param password  the password
+     * @param deviceID  the device ID, or null
+     */
+    public void add(CharSequence username, CharSequence password, String deviceID)
+    {
+        if (size == firsts.length) {
+            grow(2 * size);
+        }
+        if (!UsernameCodec.pack(username, firsts, seconds, size)) {
+            makeColumns(true, false, false, false);
+            unpackable[size] = username.toString();
+        }
+        passwords[size] = UserDirectory.encode(password);
+        if (deviceID != null) {
+            makeColumns(false, true, false, false);
+            deviceIDs[size] = deviceID;
+        }
+        size++;
+    }
+
+    /**
+     * Appends a user exactly as exported from another server.
+     *
+     * @param user  the user's state
+     */
+    public void add(UserState user)
+    {
+        add(user.getUsername(), user.getPassword(), user.getDeviceID());
+        int i = size - 1;
+        if (user.getStatus() != null && user.getStatus() != MFA.AuthenticationStatus.NONE) {
+            makeColumns(false, false, true, false);
+            statuses[i] = user.getStatus();
+        }
+        if (!user.getRecords().isEmpty()) {
+            makeColumns(false, false, false, true);
+            records[i] = user.getRecords();
+        }
+    }
+
+    /**
+     * Appends every user of another batch, in order.
+     *
+     * @param other  the other batch
+     */
+    public void addAll(UserBatch other)
+    {
+        if (size + other.size > firsts.length) {
+            grow(Math.max(2 * size, size + other.size));
+        }
+        System.arraycopy(other.firsts, 0, firsts, size, other.size);
+        System.arraycopy(other.seconds, 0, seconds, size, other.size);
+        System.arraycopy(other.passwords, 0, passwords, size, other.size);
+        makeColumns(other.unpackable != null, other.deviceIDs != null, other.statuses != null,
+                    other.records != null);
+        copy(other.unpackable, unpackable, size, other.size);
+        copy(other.deviceIDs, deviceIDs, size, other.size);
+        copy(other.statuses, statuses, size, other.size);
+        copy(other.records, records, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @return the number of users in the batch
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param i  a user's number in the batch
+     * @return their username, as a new String if it was packed
+     */
+    public String username(int i)
+    {
+        return firsts[i] == 0 ? unpackable[i] : UsernameCodec.unpack(firsts[i], seconds[i]);
+    }
+
+    /**
+     * @param i  a user's number in the batch
+     * @return their password
+     */
+    public String password(int i)
+    {
+        return UserDirectory.decode(passwords[i]);
+    }
+
+    /**
+     * @param i  a user's number in the batch
+     * @return their device ID, or null
+     */
+    public String deviceID(int i)
+    {
+        return deviceIDs == null ? null : deviceIDs[i];
+    }
+
+    /**
+     * @param i  a user's number in the batch
+     * @return their authentication status
+     */
+    public MFA.AuthenticationStatus status(int i)
+    {
+        return statuses == null || statuses[i] == null ? MFA.AuthenticationStatus.NONE
+            : statuses[i];
+    }
+
+    /**
+     * @param i  a user's number in the batch
+     * @return their records, or UserStore.NO_RECORDS if they have none
+     */
+    public List<List<Integer>> records(int i)
+    {
+        return records == null || records[i] == null ? UserStore.NO_RECORDS : records[i];
+    }
+
+    //True if and only if every username is packed
+    boolean isPacked()
+    {
+        return unpackable == null;
+    }
+
+    //The packed usernames' words, for reading in place; only the first
+    //'size' are users
+    long[] firsts()
+    {
+        return firsts;
+    }
+
+    long[] seconds()
+    {
+        return seconds;
+    }
+
+    //A password as UserDirectory.encode gives it, to be kept as it is
+    Object encodedPassword(int i)
+    {
+        return passwords[i];
+    }
+
+    //Copies a column of another batch, if it has it, to the given place
+    private static <T> void copy(T[] from, T[] to, int at, int length)
+    {
+        if (from != null) {
+            System.arraycopy(from, 0, to, at, length);
+        }
+    }
+
+    //Makes those of the columns asked for that are not yet made
+    @SuppressWarnings("unchecked")
+    private void makeColumns(boolean names, boolean devices, boolean status, boolean record)
+    {
+        if (names && unpackable == null) {
+            unpackable = new String[firsts.length];
+        }
+        if (devices && deviceIDs == null) {
+            deviceIDs = new String[firsts.length];
+        }
+        if (status && statuses == null) {
+            statuses = new MFA.AuthenticationStatus[firsts.length];
+        }
+        if (record && records == null) {
+            records = (List<List<Integer>>[]) new List<?>[firsts.length];
+        }
+    }
+
+    private void grow(int users)
+    {
+        firsts = Arrays.copyOf(firsts, users);
+        seconds = Arrays.copyOf(seconds, users);
+        passwords = Arrays.copyOf(passwords, users);
+        if (unpackable != null) {
+            unpackable = Arrays.copyOf(unpackable, users);
+        }
+        if (deviceIDs != null) {
+            deviceIDs = Arrays.copyOf(deviceIDs, users);
+        }
+        if (statuses != null) {
+            statuses = Arrays.copyOf(statuses, users);
+        }
+        if (records != null) {
+            records = Arrays.copyOf(records, users);
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package swen90006.mfa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every registered user, numbered with a dense int ID when they are
+ * added, and everything held for them in columns indexed by that ID.
+ *
+ * A user's password, authentication status, device handle and records
+ * are each one element of an array, so once a username has been
+ * resolved to its ID, reading or writing any of them is an array
+ * access rather than another hash of the username. The columns are
+ * held in chunks of CHUNK IDs, so adding users adds chunks and never
+ * copies a column. IDs are issued in order from zero and are never
+ * reused: a removed user's columns are cleared and their ID names no
+ * user from then on, so an ID held by a caller cannot come to name
+ * someone else. Since IDs are never reused, issued, and with it the
+ * columns, grows with every removal: the removed user's ID and slots
+ * are never taken again, so a directory with much churn holds more
+ * IDs than users.
+ *
+ * Usernames are found through a UserIndex, an open-addressing table of
+ * IDs probed by comparing the packed usernames (see UsernameCodec) in
+ * two long columns, so a user costs two longs of key and a long of
+ * table rather than a String and an entry object. The index grows a
+ * few slots at a time as users are added, so no one add pays for
+ * rehashing every user, and hashes with a secret key, so usernames
+ * cannot be chosen to collide. Usernames that cannot be packed are kept
+ * in a KeyedUserTable alongside.
+ *
+ * Devices are interned by a DeviceRegistry, using attach and detach,
+ * and each user's column holds their device's handle. Statuses, and
+ * whether each user has a device, are packed four bits a user in a
+ * PackedStatusTable, so isAuthenticated reads one word.
+ *
+ * A user who has never stored a record costs no list: their records
+ * are the shared, empty NO_RECORDS until some are set. Passwords of
+ * Latin-1 characters are kept as their bytes rather than as Strings,
+ * and converted back when read. All told, a user with no device,
+ * records or session costs about 55 bytes here beyond their password
+ * (see footprint and IdleUserBenchmark).
+ *
+ * This is the UserStore an MFA server uses unless given another. Its
+ * map views, from AbstractUserStore, read and write the columns. Like
+ * MFA, a UserDirectory is not thread-safe, except as UserStore allows.
+ */
+public final class UserDirectory extends AbstractUserStore
+{
+    /** The IDs in each chunk of the columns */
+    public static final int CHUNK = 1 << 10;
+
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK);
+    private static final int CHUNK_MASK = CHUNK - 1;
+
+    private static final VarHandle RECORDS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final DeviceRegistry devices;
+
+    private final UserIndex index;
+    private final Map<String, Integer> unpackable = new KeyedUserTable<Integer>();
+    private final Map<Integer, String> unpackableNames = new HashMap<Integer, String>();
+
+    //The columns, in chunks, of which the first 'issued' elements are
+    //in use and the first 'chunkCount' chunks allocated. A user whose
+    //name cannot be packed has zero in both key columns, and a removed
+    //user has no status
+    private long[][] firsts = new long[1][];
+    private long[][] seconds = new long[1][];
+    //Each password is a byte[] of Latin-1 characters or a String
+    private Object[][] passwords = new Object[1][];
+    private final PackedStatusTable statuses;
+    private int[][] deviceHandles = new int[1][];
+    private Object[][] records = new Object[1][];
+    private int chunkCount;
+    private int issued;
+    private int size;
+    private int withDevices;
+
+    /**
+     * Constructs an empty directory.
+     *
+     * @param devices  the registry to intern devices in
+     */
+    public UserDirectory(DeviceRegistry devices)
+    {
+        this(0, devices);
+    }
+
+    /**
+     * Constructs an empty directory that holds the given number of
+     * users without growing.
+     *
+     * @param expectedUsers  the number of users expected
+     * @param devices        the registry to intern devices in
+     */
+    public UserDirectory(int expectedUsers, DeviceRegistry devices)
+    {
+        this.devices = devices;
+        index = new UserIndex(expectedUsers, new UserIndex.Keys() {
+            @Override
+            public long first(int id)
+            {
+                return firsts[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+            }
+
+            @Override
+            public long second(int id)
+            {
+                return seconds[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+            }
+        });
+        statuses = new PackedStatusTable(Math.max(expectedUsers, 1));
+        allocateChunks(Math.max(expectedUsers, 1));
+    }
+
+    /**
+     * Grows the index and columns, if need be, in one step to hold the
+     * given number of users, counting those already added, without
+     * growing again.
+     *
+     * @param users  the number of users to make room for
+     */
+    public void ensureCapacity(int users)
+    {
+        index.ensureCapacity(users);
+        allocateChunks(issued + Math.max(users - size, 0));
+    }
+
+    /**
+     * @param username  a username
+     * @return the user's ID, or NO_USER if they are not in the
+     *         directory
+     */
+    public int id(String username)
+    {
+        if (!UsernameCodec.isPackable(username)) {
+            Integer id = unpackable.get(username);
+            return id == null ? NO_USER : id;
+        }
+        int id = index.find(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1));
+        return id < 0 ? NO_USER : id;
+    }
+
+    /**
+     * Adds a user with no password, device or records and status NONE.
+     *
+     * @param username  the username
+     * @return the user's new ID
+     * @throws IllegalArgumentException if the user is already in the
+     *         directory
+     */
+    public int add(String username)
+    {
+        if (id(username) != NO_USER) {
+            throw new IllegalArgumentException("User already added: " + username);
+        }
+        allocateChunks(issued + 1);
+        int id = issued++;
+        statuses.set(id, MFA.AuthenticationStatus.NONE);
+        deviceHandles[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = DeviceRegistry.NO_DEVICE;
+        size++;
+        if (!UsernameCodec.isPackable(username)) {
+            unpackable.put(username, id);
+            unpackableNames.put(id, username);
+            return id;
+        }
+        firsts[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = UsernameCodec.pack(username, 0);
+        seconds[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = UsernameCodec.pack(username, 1);
+        index.insert(id);
+        return id;
+    }
+
+    /**
+     * Adds the users of a batch at once, as add does for each in turn.
+     * The batch's packed usernames are found and placed in the index in
+     * one sweep of it (see UserIndex.insertAll), and the columns are
+     * written in ID order, keeping the batch's encoded passwords as
+     * they are. A batch holding a username that cannot be packed is
+     * added one user at a time.
+     *
+     * @param users  the users
+     * @return for each user, the ID they were given, or, as -1 - id,
+     *         the ID of the user already holding their username
+     */
+    @Override
+    public int[] addAll(UserBatch users)
+    {
+        if (!users.isPacked()) {
+            return super.addAll(users);
+        }
+        int count = users.size();
+        long[] packedFirsts = users.firsts();
+        long[] packedSeconds = users.seconds();
+        allocateChunks(issued + count);
+        int[] ids = index.insertAll(packedFirsts, packedSeconds, count, issued);
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id < 0) {
+                continue;
+            }
+            int chunk = id >>> CHUNK_SHIFT;
+            int j = id & CHUNK_MASK;
+            firsts[chunk][j] = packedFirsts[i];
+            seconds[chunk][j] = packedSeconds[i];
+            passwords[chunk][j] = users.encodedPassword(i);
+            deviceHandles[chunk][j] = DeviceRegistry.NO_DEVICE;
+            statuses.set(id, users.status(i));
+            issued = id + 1;
+            size++;
+            if (users.deviceID(i) != null) {
+                setDevice(id, users.deviceID(i));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Removes a user, detaching them from their device and clearing
+     * their columns. Their ID names no user from then on. Removing an
+     * ID that names no user does nothing.
+     *
+     * @param id  the user's ID
+     */
+    public void remove(int id)
+    {
+        if (!contains(id)) {
+            return;
+        }
+        setDevice(id, null);
+        int chunk = id >>> CHUNK_SHIFT;
+        int i = id & CHUNK_MASK;
+        if (firsts[chunk][i] == 0) {
+            unpackable.remove(unpackableNames.remove(id));
+        }
+        else {
+            index.remove(id);
+            firsts[chunk][i] = 0;
+            seconds[chunk][i] = 0;
+        }
+        passwords[chunk][i] = null;
+        statuses.clear(id);
+        records[chunk][i] = null;
+        size--;
+    }
+
+    /**
+     * @param id  an ID
+     * @return true if and only if the ID names a user in the directory
+     */
+    public boolean contains(int id)
+    {
+        return 0 <= id && id < issued && statuses.contains(id);
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return the username, as a new String, or null if the ID names
+     *         no user
+     */
+    public String username(int id)
+    {
+        if (!contains(id)) {
+            return null;
+        }
+        long first = firsts[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+        long second = seconds[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+        return first == 0 ? unpackableNames.get(id) : UsernameCodec.unpack(first, second);
+    }
+
+    /**
+     * @return the number of users in the directory
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of IDs issued, which is one more than the
+     *         highest ID, including those of users since removed
+     */
+    public int issued()
+    {
+        return issued;
+    }
+
+    /**
+     * @return the number of users with devices
+     */
+    public int deviceUserCount()
+    {
+        return withDevices;
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return their password
+     */
+    public String password(int id)
+    {
+        return decode(passwords[id >>> CHUNK_SHIFT][id & CHUNK_MASK]);
+    }
+
+    /**
+     * @param id        a user's ID
+     * @param password  a password
+     * @return true if and only if it is the user's password, compared
+     *         without converting theirs back to a String
+     */
+    public boolean passwordMatches(int id, String password)
+    {
+        Object stored = passwords[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+        if (!(stored instanceof byte[])) {
+            return password.equals(stored);
+        }
+        byte[] bytes = (byte[]) stored;
+        if (bytes.length != password.length()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((bytes[i] & 0xFF) != password.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param id        a user's ID
+     * @param password  their new password
+     */
+    public void setPassword(int id, String password)
+    {
+        passwords[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = encode(password);
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return their authentication status, or null if the ID names no
+     *         user
+     */
+    public MFA.AuthenticationStatus status(int id)
+    {
+        return statuses.get(id);
+    }
+
+    /**
+     * @param id      a user's ID, which must name a user
+     * @param status  their new authentication status
+     */
+    public void setStatus(int id, MFA.AuthenticationStatus status)
+    {
+        statuses.set(id, status);
+    }
+
+    /**
+     * @param id  a user's ID, which must name a user
+     * @return true if and only if they are SINGLE without a device or
+     *         DOUBLE with one, read from one word
+     */
+    public boolean isAuthenticated(int id)
+    {
+        return statuses.isAuthenticated(id);
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return the handle of their device, or DeviceRegistry.NO_DEVICE
+     */
+    public int deviceHandle(int id)
+    {
+        return deviceHandles[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return true if and only if they have a device
+     */
+    public boolean hasDevice(int id)
+    {
+        return deviceHandle(id) != DeviceRegistry.NO_DEVICE;
+    }
+
+    /**
+     * Compares the device by handle, so the device ID is hashed once
+     * and the user's is not converted back to a String.
+     *
+     * @param id        a user's ID
+     * @param deviceID  a device ID
+     * @return true if and only if the user has the device
+     */
+    public boolean isDeviceOf(int id, String deviceID)
+    {
+        int handle = deviceHandle(id);
+        return handle != DeviceRegistry.NO_DEVICE && handle == devices.handle(deviceID);
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return their device ID, or null if they have no device
+     */
+    public String deviceID(int id)
+    {
+        int handle = deviceHandle(id);
+        return handle == DeviceRegistry.NO_DEVICE ? null : devices.deviceID(handle);
+    }
+
+    /**
+     * Gives a user a device, replacing any device they had.
+     *
+     * @param id        a user's ID, which must name a user
+     * @param deviceID  the device ID, or null for no device
+     */
+    public void setDevice(int id, String deviceID)
+    {
+        int[] handles = deviceHandles[id >>> CHUNK_SHIFT];
+        int previous = handles[id & CHUNK_MASK];
+        if (previous == DeviceRegistry.NO_DEVICE && deviceID == null) {
+            return;
+        }
+        String username = username(id);
+        if (previous != DeviceRegistry.NO_DEVICE) {
+            devices.detach(username, previous);
+            handles[id & CHUNK_MASK] = DeviceRegistry.NO_DEVICE;
+            statuses.setDevice(id, false);
+            withDevices--;
+        }
+        if (deviceID != null) {
+            handles[id & CHUNK_MASK] = devices.attach(username, deviceID);
+            statuses.setDevice(id, true);
+            withDevices++;
+        }
+    }
+
+    /**
+     * @param deviceID  a device ID
+     * @return the users who have the device
+     */
+    public Set<String> deviceUsers(String deviceID)
+    {
+        return devices.usersOf(deviceID);
+    }
+
+    /**
+     * Removes a device from every user who has it.
+     *
+     * @param deviceID  the device ID
+     * @return the users who had the device
+     */
+    public Set<String> revokeDevice(String deviceID)
+    {
+        Set<String> users = devices.revoke(deviceID);
+        for (String username : users) {
+            int id = id(username);
+            deviceHandles[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = DeviceRegistry.NO_DEVICE;
+            statuses.setDevice(id, false);
+            withDevices--;
+        }
+        return users;
+    }
+
+    /**
+     * @param id  a user's ID
+     * @return their records, NO_RECORDS if they have none, or null if
+     *         the ID names no user
+     */
+    @SuppressWarnings("unchecked")
+    public List<List<Integer>> records(int id)
+    {
+        //Read as compareAndSetRecords sets it, from any thread
+        Object list = RECORDS.getVolatile(records[id >>> CHUNK_SHIFT], id & CHUNK_MASK);
+        if (list == null) {
+            return contains(id) ? NO_RECORDS : null;
+        }
+        return (List<List<Integer>>) list;
+    }
+
+    /**
+     * @param id       a user's ID, which must name a user
+     * @param records  their records, or null or NO_RECORDS for none
+     */
+    public void setRecords(int id, List<List<Integer>> records)
+    {
+        this.records[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = records == NO_RECORDS ? null : records;
+    }
+
+    /**
+     * Sets a user's records if they are as expected. Unlike setRecords,
+     * this may be called from several threads at once, as long as no
+     * user is being added or removed.
+     *
+     * @param id        a user's ID, which must name a user
+     * @param expected  the records they must have, or NO_RECORDS for none
+     * @param records   their new records
+     * @return true if and only if the records were as expected and are
+     *         now the new ones
+     */
+    public boolean compareAndSetRecords(int id, List<List<Integer>> expected,
+                                        List<List<Integer>> records)
+    {
+        return RECORDS.compareAndSet(this.records[id >>> CHUNK_SHIFT], id & CHUNK_MASK,
+                                     expected == NO_RECORDS ? null : expected,
+                                     records == NO_RECORDS ? null : records);
+    }
+
+    /**
+     * Estimates the heap taken by the directory, part by part, assuming
+     * compressed references and 16-byte array headers. Records are
+     * counted as the references to them; the lists themselves, and the
+     * DeviceRegistry, are not included.
+     *
+     * @return the bytes taken by each part, by name, in a fixed order
+     */
+    public Map<String, Long> footprint()
+    {
+        long passwordBytes = 0;
+        for (int id = 0; id < issued; id++) {
+            Object password = passwords[id >>> CHUNK_SHIFT][id & CHUNK_MASK];
+            if (password instanceof byte[]) {
+                passwordBytes += arrayBytes(((byte[]) password).length, 1);
+            }
+            else if (password != null) {
+                //The String and its array
+                passwordBytes += 24 + arrayBytes(((String) password).length(), 2);
+            }
+        }
+        Map<String, Long> parts = new LinkedHashMap<String, Long>();
+        parts.put("username table", index.sizeInBytes());
+        parts.put("username keys", 2 * columnBytes(8));
+        parts.put("unpackable usernames", unpackable.size() * 160L);
+        parts.put("statuses", statuses.sizeInBytes());
+        parts.put("device handles", columnBytes(4));
+        parts.put("record references", columnBytes(4));
+        parts.put("password references", columnBytes(4));
+        parts.put("passwords", passwordBytes);
+        return parts;
+    }
+
+    //A password as the bytes of its Latin-1 characters, or as a String
+    //if it has others
+    static Object encode(CharSequence password)
+    {
+        if (password == null) {
+            return null;
+        }
+        int length = password.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = password.charAt(i);
+            if (c > 0xFF) {
+                return password.toString();
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    static String decode(Object password)
+    {
+        if (password instanceof byte[]) {
+            return new String((byte[]) password, StandardCharsets.ISO_8859_1);
+        }
+        return (String) password;
+    }
+
+    //An array's size, rounded up to the 8 bytes objects are aligned to
+    private static long arrayBytes(int length, int elementBytes)
+    {
+        return 16 + ((long) length * elementBytes + 7 & ~7L);
+    }
+
+    //A column's chunks and array of chunks
+    private long columnBytes(int elementBytes)
+    {
+        return arrayBytes(firsts.length, 4) + chunkCount * arrayBytes(CHUNK, elementBytes);
+    }
+
+    //Allocates chunks of every column until they hold the given number
+    //of IDs
+    private void allocateChunks(int ids)
+    {
+        int needed = (int) (((long) ids + CHUNK - 1) >>> CHUNK_SHIFT);
+        if (needed <= chunkCount) {
+            return;
+        }
+        if (needed > firsts.length) {
+            //At least doubled, so that adding users one at a time
+            //copies the arrays of chunks O(log n) times
+            int length = Math.max(needed, 2 * firsts.length);
+            firsts = Arrays.copyOf(firsts, length);
+            seconds = Arrays.copyOf(seconds, length);
+            passwords = Arrays.copyOf(passwords, length);
+            deviceHandles = Arrays.copyOf(deviceHandles, length);
+            records = Arrays.copyOf(records, length);
+        }
+        for (; chunkCount < needed; chunkCount++) {
+            firsts[chunkCount] = new long[CHUNK];
+            seconds[chunkCount] = new long[CHUNK];
+            passwords[chunkCount] = new Object[CHUNK];
+            deviceHandles[chunkCount] = new int[CHUNK];
+            records[chunkCount] = new Object[CHUNK];
+        }
+        statuses.ensureCapacity(chunkCount * CHUNK);
+    }
+}
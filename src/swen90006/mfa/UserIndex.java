@@ -0,0 +1,498 @@
+package swen90006.mfa;
+
+import java.util.Arrays;
+
+/**
+ * The table by which UserDirectory finds a packed username's ID: an
+ * open-addressing table of IDs, which grows without any one insert
+ * paying for moving every entry.
+ *
+ * Keys are hashed with SipHash under a secret key drawn for each index,
+ * so that usernames cannot be chosen to collide.
+ *
+ * Each slot is a long holding an ID and the hash of its keys, so a
+ * probe only reads the keys the directory holds for an ID when the
+ * hashes match, and entries are moved without reading keys at all.
+ *
+ * When the table is three quarters full, a table of twice the size is
+ * started, and each insert from then on moves the next MIGRATION_STEP
+ * slots of the old table into it, so the old one is empty well before
+ * the new one is due to grow. Until then, an ID is in exactly one of
+ * the two, and lookups try the new one first. Every ID left in the old
+ * table lies at or after the slots moved so far, so probes of the old
+ * table skip those slots, and each of its chunks is dropped as soon as
+ * it has been moved; slots whose IDs are removed from it are left as
+ * tombstones, so that the probe sequences of the rest still reach
+ * them. The new table removes by shifting entries back, as UserTable
+ * does.
+ *
+ * Each table is held in chunks of at most CHUNK slots, allocated when
+ * first written, so starting a table costs only its array of chunks,
+ * not the zeroing of all its slots. Like the directory, the index is
+ * not thread-safe.
+ */
+final class UserIndex
+{
+    /** The keys of each ID, as held by the directory */
+    interface Keys
+    {
+        long first(int id);
+
+        long second(int id);
+    }
+
+    /** The most slots in a chunk */
+    static final int CHUNK = 1 << 11;
+
+    /** The slots of the old table moved for each insert while growing */
+    static final int MIGRATION_STEP = 4;
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    //The table is grown when more than three quarters full
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    //The bits of the home slot sorted on in each pass of insertAll
+    private static final int RADIX_BITS = 11;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+    //A slot of the retiring table whose entry has been removed
+    private static final long TOMBSTONE = -1;
+
+    //A table of slots, each holding an ID plus one in its low 32 bits,
+    //so that zero is empty, and the ID's hash in its high 32; a chunk
+    //not yet allocated is all empty
+    private static final class Table
+    {
+        final long[][] chunks;
+        final int mask;
+        final int chunkShift;
+        final int chunkMask;
+
+        Table(int capacity)
+        {
+            int chunk = Math.min(capacity, CHUNK);
+            chunkShift = Integer.numberOfTrailingZeros(chunk);
+            chunkMask = chunk - 1;
+            chunks = new long[capacity >>> chunkShift][];
+            mask = capacity - 1;
+        }
+
+        long get(int slot)
+        {
+            long[] chunk = chunks[slot >>> chunkShift];
+            return chunk == null ? 0 : chunk[slot & chunkMask];
+        }
+
+        void set(int slot, long value)
+        {
+            long[] chunk = chunks[slot >>> chunkShift];
+            if (chunk == null) {
+                chunk = chunks[slot >>> chunkShift] = new long[chunkMask + 1];
+            }
+            chunk[slot & chunkMask] = value;
+        }
+
+        int capacity()
+        {
+            return mask + 1;
+        }
+
+        long sizeInBytes()
+        {
+            long bytes = 16 + 4L * chunks.length;
+            for (long[] chunk : chunks) {
+                if (chunk != null) {
+                    bytes += 16 + 8L * chunk.length;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private final Keys keys;
+
+    //The secret key of the hash
+    private final long k0 = SipHash.randomKey();
+    private final long k1 = SipHash.randomKey();
+
+    private Table table;
+
+    //The table being emptied into 'table', or null, and how many of
+    //its slots have been moved
+    private Table retiring;
+    private int migrated;
+
+    private int size;
+
+    /**
+     * @param expectedEntries  the number of IDs to hold without growing
+     * @param keys             the keys of each ID
+     */
+    UserIndex(int expectedEntries, Keys keys)
+    {
+        this.keys = keys;
+        table = new Table(capacityFor(expectedEntries));
+    }
+
+    /**
+     * Grows the table, if need be, in one step to hold the given number
+     * of IDs without growing again, finishing any growth under way.
+     *
+     * @param entries  the number of IDs to make room for
+     */
+    void ensureCapacity(int entries)
+    {
+        int capacity = capacityFor(entries);
+        if (capacity <= table.capacity()) {
+            return;
+        }
+        migrate(Integer.MAX_VALUE);
+        retiring = table;
+        migrated = 0;
+        table = new Table(capacity);
+        migrate(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param first   the first word of a packed username
+     * @param second  the second word
+     * @return its ID, or -1 if it is not in the table
+     */
+    int find(long first, long second)
+    {
+        int id = find(table, first, second);
+        if (id < 0 && retiring != null) {
+            id = find(retiring, first, second);
+        }
+        return id;
+    }
+
+    /**
+     * Adds an ID, whose keys the directory already holds and which is
+     * not in the table.
+     *
+     * @param id  the ID
+     */
+    void insert(int id)
+    {
+        if (retiring == null
+            && (long) (size + 1) * LOAD_DENOMINATOR > (long) table.capacity() * LOAD_NUMERATOR) {
+            retiring = table;
+            migrated = 0;
+            table = new Table(table.capacity() << 1);
+        }
+        if (retiring != null) {
+            migrate(MIGRATION_STEP);
+        }
+        place(table, entry(id, hash(keys.first(id), keys.second(id))));
+        size++;
+    }
+
+    /**
+     * Adds many packed usernames at once, as find and then insert would
+     * for each in turn. Each that is neither in the table nor repeated
+     * earlier in the batch is given the next ID, from the one given, in
+     * the order given; the directory must then hold its keys under that
+     * ID. The table is first grown to hold them all, and then read and
+     * written in order of the usernames' home slots, so that it is
+     * swept from one end to the other rather than probed at random,
+     * which for a table larger than the cache is several times faster.
+     *
+     * @param firsts   the first words of the usernames
+     * @param seconds  their second words
+     * @param count    the number of usernames
+     * @param next     the ID to give the first username added
+     * @return for each username, the ID it was given, or, as -1 - id,
+     *         the ID of the user already holding it, in the table or
+     *         earlier in the batch
+     */
+    int[] insertAll(long[] firsts, long[] seconds, int count, int next)
+    {
+        migrate(Integer.MAX_VALUE);
+        ensureCapacity(size + count);
+        int mask = table.mask;
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) hash(firsts[i], seconds[i]) << 32 | i;
+        }
+        order = sortByHome(order, mask);
+
+        //Find each in the table, unless it is empty, or among those
+        //before it in the batch with the same hash, which share its
+        //home slot and so lie just before it in order; the keys are
+        //only read when the hashes match
+        boolean empty = size == 0;
+        int[] ids = new int[count];
+        int[] repeats = null;
+        int run = 0;
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            int hash = (int) (order[k] >>> 32);
+            if (k > 0 && ((int) (order[k - 1] >>> 32) & mask) != (hash & mask)) {
+                run = k;
+            }
+            int slot = empty ? -1 : slot(table, firsts[i], seconds[i], hash);
+            if (slot >= 0) {
+                ids[i] = -1 - idOf(table.get(slot));
+                continue;
+            }
+            for (int j = run; j < k; j++) {
+                int earlier = (int) order[j];
+                if ((int) (order[j] >>> 32) == hash && firsts[earlier] == firsts[i]
+                    && seconds[earlier] == seconds[i]) {
+                    if (repeats == null) {
+                        repeats = new int[count];
+                        Arrays.fill(repeats, -1);
+                    }
+                    repeats[i] = earlier;
+                    break;
+                }
+            }
+        }
+
+        //Give out IDs in the order given, which, when all are new, is
+        //each one's position past the next, and then place them in
+        //order
+        boolean allNew = empty && repeats == null;
+        for (int i = 0; i < count; i++) {
+            if (allNew) {
+                ids[i] = next + i;
+            }
+            else if (repeats != null && repeats[i] >= 0) {
+                int first = ids[repeats[i]];
+                ids[i] = first < 0 ? first : -1 - first;
+            }
+            else if (ids[i] >= 0) {
+                ids[i] = next++;
+            }
+        }
+        //Into a table that was empty, each goes in the first slot from
+        //its home past the one placed before it, unless that wraps round
+        int free = 0;
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            int id = allNew ? next + i : ids[i];
+            if (id < 0) {
+                continue;
+            }
+            int hash = (int) (order[k] >>> 32);
+            long entry = entry(id, hash);
+            int slot = Math.max(hash & mask, free);
+            if (empty && slot <= mask) {
+                table.set(slot, entry);
+                free = slot + 1;
+            }
+            else {
+                place(table, entry);
+            }
+            size++;
+        }
+        return ids;
+    }
+
+    /**
+     * Removes an ID, whose keys the directory still holds.
+     *
+     * @param id  the ID, which must be in the table
+     */
+    void remove(int id)
+    {
+        long first = keys.first(id);
+        long second = keys.second(id);
+        int slot = slot(table, first, second);
+        if (slot >= 0) {
+            delete(slot);
+        }
+        else {
+            retiring.set(slot(retiring, first, second), TOMBSTONE);
+        }
+        size--;
+    }
+
+    /**
+     * @return the number of IDs in the table
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of slots in the table, or in the new table if
+     *         it is growing
+     */
+    int capacity()
+    {
+        return table.capacity();
+    }
+
+    /**
+     * @return true if and only if entries are still being moved to a
+     *         larger table
+     */
+    boolean isGrowing()
+    {
+        return retiring != null;
+    }
+
+    /**
+     * @return the bytes taken by the tables' chunks and arrays of chunks
+     */
+    long sizeInBytes()
+    {
+        return table.sizeInBytes() + (retiring == null ? 0 : retiring.sizeInBytes());
+    }
+
+    private static int capacityFor(int entries)
+    {
+        int capacity = MINIMUM_CAPACITY;
+        while ((long) capacity * LOAD_NUMERATOR / LOAD_DENOMINATOR < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private int hash(long first, long second)
+    {
+        return (int) SipHash.hash(k0, k1, first, second);
+    }
+
+    private static long entry(int id, int hash)
+    {
+        return (long) hash << 32 | (id + 1) & 0xFFFFFFFFL;
+    }
+
+    private static int idOf(long entry)
+    {
+        return (int) entry - 1;
+    }
+
+    private static int hashOf(long entry)
+    {
+        return (int) (entry >>> 32);
+    }
+
+    private int find(Table table, long first, long second)
+    {
+        int slot = slot(table, first, second);
+        return slot < 0 ? -1 : idOf(table.get(slot));
+    }
+
+    //The slot holding a packed username's ID, or -1; the slots of the
+    //retiring table already moved are skipped, as their chunks may
+    //have been dropped
+    private int slot(Table table, long first, long second)
+    {
+        return slot(table, first, second, hash(first, second));
+    }
+
+    private int slot(Table table, long first, long second, int hash)
+    {
+        int mask = table.mask;
+        int moved = table == retiring ? migrated : 0;
+        int slot = Math.max(hash & mask, moved);
+        //Bounded, as the retiring table's unmoved slots may all be full
+        for (int probes = 0; probes <= mask; probes++) {
+            long entry = table.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry != TOMBSTONE && hashOf(entry) == hash
+                && keys.first(idOf(entry)) == first && keys.second(idOf(entry)) == second) {
+                return slot;
+            }
+            slot = slot + 1 & mask;
+            if (slot < moved) {
+                slot = moved;
+            }
+        }
+        return -1;
+    }
+
+    //Sorts longs, each a hash in the high half and its position in the
+    //low, into order of the hashes' home slots, keeping the order given
+    //among those with the same home. Sorted by radix, RADIX_BITS of the
+    //home at a time from the lowest, so the hash travels with its
+    //position rather than being gathered by it
+    private static long[] sortByHome(long[] order, int mask)
+    {
+        long[] sorted = new long[order.length];
+        int[] starts = new int[1 << RADIX_BITS];
+        int bits = 32 - Integer.numberOfLeadingZeros(mask);
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            int digits = RADIX_MASK & mask >>> shift;
+            Arrays.fill(starts, 0);
+            for (long key : order) {
+                starts[(int) (key >>> 32 + shift) & digits]++;
+            }
+            for (int digit = 0, start = 0; digit < starts.length; digit++) {
+                int n = starts[digit];
+                starts[digit] = start;
+                start += n;
+            }
+            for (long key : order) {
+                sorted[starts[(int) (key >>> 32 + shift) & digits]++] = key;
+            }
+            long[] swap = order;
+            order = sorted;
+            sorted = swap;
+        }
+        return order;
+    }
+
+    //Puts an entry in the first free slot of its probe sequence
+    private static void place(Table table, long entry)
+    {
+        int mask = table.mask;
+        int slot = hashOf(entry) & mask;
+        while (table.get(slot) != 0) {
+            slot = slot + 1 & mask;
+        }
+        table.set(slot, entry);
+    }
+
+    //Moves up to 'slots' slots of the retiring table to the new one,
+    //dropping each of its chunks once moved, and the retiring table
+    //once all have moved
+    private void migrate(int slots)
+    {
+        if (retiring == null) {
+            return;
+        }
+        int end = (int) Math.min((long) migrated + slots, retiring.capacity());
+        while (migrated < end) {
+            long entry = retiring.get(migrated);
+            if (entry != 0 && entry != TOMBSTONE) {
+                place(table, entry);
+            }
+            migrated++;
+            if ((migrated & retiring.chunkMask) == 0) {
+                retiring.chunks[(migrated >>> retiring.chunkShift) - 1] = null;
+            }
+        }
+        if (migrated == retiring.capacity()) {
+            retiring = null;
+        }
+    }
+
+    //Empties a slot of the new table, moving back any later ID in the
+    //same run that would otherwise no longer be found from its home
+    //slot
+    private void delete(int slot)
+    {
+        int mask = table.mask;
+        int hole = slot;
+        for (int next = hole + 1 & mask; table.get(next) != 0; next = next + 1 & mask) {
+            long entry = table.get(next);
+            int home = hashOf(entry) & mask;
+            //Move the entry unless its home lies cyclically in (hole, next]
+            if ((next - home & mask) >= (next - hole & mask)) {
+                table.set(hole, entry);
+                hole = next;
+            }
+        }
+        table.set(hole, 0);
+    }
+}
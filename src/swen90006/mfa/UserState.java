@@ -0,0 +1,61 @@
+package swen90006.mfa;
+
+import java.util.List;
+
+/**
+ * Everything an MFA server holds for one user: their password,
+ * device, authentication status and data records.
+ *
+ * UserStates are used to move users between MFA servers, for example
+ * when users are rebalanced across shards.
+ */
+public final class UserState
+{
+    private final String username;
+    private final String password;
+    private final String deviceID;
+    private final MFA.AuthenticationStatus status;
+    private final List<List<Integer>> records;
+
+    /**
+     * @param username  the username
+     * @param password  the password
+     * @param deviceID  the registered device, or null
+     * @param status    the authentication status
+     * @param records   the data records, in order
+     */
+    public UserState(String username, String password, String deviceID,
+                     MFA.AuthenticationStatus status, List<List<Integer>> records)
+    {
+        this.username = username;
+        this.password = password;
+        this.deviceID = deviceID;
+        this.status = status;
+        this.records = records;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public String getDeviceID()
+    {
+        return deviceID;
+    }
+
+    public MFA.AuthenticationStatus getStatus()
+    {
+        return status;
+    }
+
+    public List<List<Integer>> getRecords()
+    {
+        return records;
+    }
+}
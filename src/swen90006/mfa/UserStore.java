@@ -0,0 +1,256 @@
+package swen90006.mfa;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where an MFA server holds its users: their credentials, devices,
+ * authentication statuses and records. A server is given an empty
+ * store when it is constructed, and holds all of its users in it;
+ * UserDirectory is the default, and UserStores lists every store
+ * available.
+ *
+ * Each user is numbered with an int ID when they are added. IDs are
+ * issued in order from zero and are never reused, so every ID below
+ * issued() that contains() rejects names a user since removed.
+ *
+ * The map views let code written against maps keyed by username read
+ * and write the store; AbstractUserStore provides them for any store.
+ *
+ * Like MFA, a store need not be thread-safe, except as MFA's methods by
+ * ID require: contains and isAuthenticated may be called from any
+ * thread, without a lock, while users are added and removed, and
+ * records and compareAndSetRecords from many threads at once while no
+ * user is.
+ */
+public interface UserStore
+{
+    /** The ID of no user */
+    int NO_USER = -1;
+
+    /** The records of every user who has none, which cannot be changed */
+    List<List<Integer>> NO_RECORDS = Collections.emptyList();
+
+    /**
+     * Makes room, if the store needs to, for the given number of users,
+     * counting those already added.
+     *
+     * @param users  the number of users to make room for
+     */
+    void ensureCapacity(int users);
+
+    /**
+     * @param username  a username
+     * @return the user's ID, or NO_USER if they are not in the store
+     */
+    int id(String username);
+
+    /**
+     * Adds a user with no password, device or records and status NONE.
+     *
+     * @param username  the username
+     * @return the user's new ID
+     * @throws IllegalArgumentException if the user is already in the
+     *         store
+     */
+    int add(String username);
+
+    /**
+     * Adds the users of a batch at once, as add does for each in turn,
+     * with their passwords, devices and statuses, skipping any already
+     * in the store or given earlier in the batch. Those added are given
+     * the next IDs in the order given. Their records are not added, as
+     * the caller holds records in a list of its own choosing.
+     *
+     * @param users  the users
+     * @return for each user, the ID they were given, or, as -1 - id,
+     *         the ID of the user already holding their username
+     */
+    int[] addAll(UserBatch users);
+
+    /**
+     * Removes a user, detaching them from their device and clearing
+     * everything held for them. Removing an ID that names no user does
+     * nothing.
+     *
+     * @param id  the user's ID
+     */
+    void remove(int id);
+
+    /**
+     * @param id  an ID
+     * @return true if and only if the ID names a user in the store
+     */
+    boolean contains(int id);
+
+    /**
+     * @param id  a user's ID
+     * @return the username, or null if the ID names no user
+     */
+    String username(int id);
+
+    /**
+     * @return the number of users in the store
+     */
+    int size();
+
+    /**
+     * @return the number of IDs issued, including those of users since
+     *         removed
+     */
+    int issued();
+
+    /**
+     * @param id        a user's ID, which must name a user
+     * @param password  a password
+     * @return true if and only if it is the user's password
+     */
+    boolean passwordMatches(int id, String password);
+
+    /**
+     * @param id  a user's ID, which must name a user
+     * @return their password
+     */
+    String password(int id);
+
+    /**
+     * @param id        a user's ID, which must name a user
+     * @param password  their new password
+     */
+    void setPassword(int id, String password);
+
+    /**
+     * @param id  a user's ID
+     * @return their authentication status, or null if the ID names no
+     *         user
+     */
+    MFA.AuthenticationStatus status(int id);
+
+    /**
+     * @param id      a user's ID, which must name a user
+     * @param status  their new authentication status
+     */
+    void setStatus(int id, MFA.AuthenticationStatus status);
+
+    /**
+     * @param id  a user's ID, which must name a user
+     * @return true if and only if they are SINGLE without a device or
+     *         DOUBLE with one
+     */
+    boolean isAuthenticated(int id);
+
+    /**
+     * @param id  a user's ID, which must name a user
+     * @return true if and only if they have a device
+     */
+    boolean hasDevice(int id);
+
+    /**
+     * @param id        a user's ID, which must name a user
+     * @param deviceID  a device ID
+     * @return true if and only if they have the device
+     */
+    boolean isDeviceOf(int id, String deviceID);
+
+    /**
+     * @param id  a user's ID, which must name a user
+     * @return their device ID, or null if they have no device
+     */
+    String deviceID(int id);
+
+    /**
+     * Gives a user a device, replacing any device they had.
+     *
+     * @param id        a user's ID, which must name a user
+     * @param deviceID  the device ID, or null for no device
+     */
+    void setDevice(int id, String deviceID);
+
+    /**
+     * @return the number of users with devices
+     */
+    int deviceUserCount();
+
+    /**
+     * @param deviceID  a device ID
+     * @return a new set of the users who have the device
+     */
+    Set<String> deviceUsers(String deviceID);
+
+    /**
+     * Removes a device from every user who has it.
+     *
+     * @param deviceID  the device ID
+     * @return the users who had the device
+     */
+    Set<String> revokeDevice(String deviceID);
+
+    /**
+     * @param id  a user's ID
+     * @return their records, NO_RECORDS if they have none, or null if
+     *         the ID names no user
+     */
+    List<List<Integer>> records(int id);
+
+    /**
+     * @param id       a user's ID, which must name a user
+     * @param records  their records, or null or NO_RECORDS for none
+     */
+    void setRecords(int id, List<List<Integer>> records);
+
+    /**
+     * Sets a user's records if they are as expected, atomically.
+     *
+     * @param id        a user's ID, which must name a user
+     * @param expected  the records they must have, or NO_RECORDS for none
+     * @param records   their new records
+     * @return true if and only if the records were as expected and are
+     *         now the new ones
+     */
+    boolean compareAndSetRecords(int id, List<List<Integer>> expected,
+                                 List<List<Integer>> records);
+
+    /**
+     * Returns a view of the passwords as a map from username. Putting
+     * a user who is not in the store adds them, and removing a user
+     * removes them and everything held for them.
+     *
+     * @return the map view
+     */
+    Map<String, String> passwords();
+
+    /**
+     * Returns a view of the users with devices as a map from username
+     * to device ID. Putting or removing a user gives them a device or
+     * takes it away.
+     *
+     * @return the map view
+     */
+    Map<String, String> deviceIDs();
+
+    /**
+     * Returns a view of the authentication statuses as a map from
+     * username. Removing a user from the view does nothing.
+     *
+     * @return the map view
+     */
+    Map<String, MFA.AuthenticationStatus> statuses();
+
+    /**
+     * Returns a view of the records as a map from username. Every user
+     * in the store is in the view, with NO_RECORDS if they have none.
+     *
+     * @return the map view
+     */
+    Map<String, List<List<Integer>>> records();
+
+    /**
+     * Estimates the heap taken by the store, part by part. Records are
+     * counted as the references to them, not the lists themselves.
+     *
+     * @return the bytes taken by each part, by name, in a fixed order
+     */
+    Map<String, Long> footprint();
+}
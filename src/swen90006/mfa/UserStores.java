@@ -0,0 +1,29 @@
+package swen90006.mfa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Every kind of UserStore there is, so that each can be checked and
+ * measured alike (see UserStoreTest and StoreBenchmark). A new store
+ * is added here to be included in both.
+ */
+public final class UserStores
+{
+    private UserStores()
+    {
+    }
+
+    /**
+     * @return a maker of empty stores of each kind, by name, the
+     *         default first
+     */
+    public static Map<String, Supplier<UserStore>> all()
+    {
+        Map<String, Supplier<UserStore>> stores = new LinkedHashMap<String, Supplier<UserStore>>();
+        stores.put("UserDirectory", () -> new UserDirectory(new DeviceRegistry()));
+        stores.put("MapUserStore", MapUserStore::new);
+        return stores;
+    }
+}
@@ -0,0 +1,353 @@
+package swen90006.mfa;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from usernames to values that stores letters-only usernames
+ * packed by UsernameCodec, in an open-addressing table of primitive
+ * longs, rather than as String keys in entry objects.
+ *
+ * Each packed user costs two longs of key and one value reference, and
+ * is found by linear probing from a hash of the two longs, SipHash
+ * under a secret key drawn for each table, so that usernames cannot be
+ * chosen to collide. Removal shifts later entries of the probe sequence
+ * back, so the table needs no tombstones. Usernames that cannot be
+ * packed are kept in a KeyedUserTable alongside.
+ *
+ * Keys returned by iteration are unpacked into new Strings. Like
+ * HashMap, a UserTable is not thread-safe, and its iterators do not
+ * support removal.
+ */
+public class UserTable<V> extends AbstractMap<String, V>
+{
+    private static final int MINIMUM_CAPACITY = 16;
+
+    //The table is grown when more than three quarters full
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private long[] firsts;
+    private long[] seconds;
+    private Object[] values;
+    private int packed;
+    private final Map<String, V> unpackable = new KeyedUserTable<V>();
+
+    //The secret key of the hash
+    private final long k0 = SipHash.randomKey();
+    private final long k1 = SipHash.randomKey();
+
+    /**
+     * Constructs an empty table.
+     */
+    public UserTable()
+    {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty table that holds the given number of packed
+     * usernames without growing.
+     *
+     * @param expectedUsers  the number of users expected
+     */
+    public UserTable(int expectedUsers)
+    {
+        allocate(capacityFor(expectedUsers));
+    }
+
+    /**
+     * Grows the table, if need be, in one step to hold the given number
+     * of packed usernames without growing again.
+     *
+     * @param users  the number of users to make room for
+     */
+    public void ensureCapacity(int users)
+    {
+        int capacity = capacityFor(users);
+        if (capacity > firsts.length) {
+            resize(capacity);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return packed + unpackable.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        String username = (String) key;
+        if (!UsernameCodec.isPackable(username)) {
+            return unpackable.containsKey(username);
+        }
+        return slot(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1)) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String username = (String) key;
+        if (!UsernameCodec.isPackable(username)) {
+            return unpackable.get(username);
+        }
+        int slot = slot(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1));
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    @Override
+    public V put(String username, V value)
+    {
+        if (!UsernameCodec.isPackable(username)) {
+            return unpackable.put(username, value);
+        }
+        return putPacked(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1), value);
+    }
+
+    /**
+     * Puts many users at once, growing the table once for all of them.
+     *
+     * @param usernames  the usernames
+     * @param values     the value for each username, in the same order
+     * @return the number of usernames that were not already in the
+     *         table, counting a repeated username once
+     */
+    public int putAll(List<String> usernames, List<? extends V> values)
+    {
+        int before = size();
+        ensureCapacity(packed + usernames.size());
+        for (int i = 0; i < usernames.size(); i++) {
+            put(usernames.get(i), values.get(i));
+        }
+        return size() - before;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V putPacked(long first, long second, V value)
+    {
+        int mask = firsts.length - 1;
+        int slot = hash(first, second) & mask;
+        while (firsts[slot] != 0) {
+            if (firsts[slot] == first && seconds[slot] == second) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = slot + 1 & mask;
+        }
+        firsts[slot] = first;
+        seconds[slot] = second;
+        values[slot] = value;
+        packed++;
+        if ((long) packed * LOAD_DENOMINATOR > (long) firsts.length * LOAD_NUMERATOR) {
+            resize(firsts.length << 1);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String username = (String) key;
+        if (!UsernameCodec.isPackable(username)) {
+            return unpackable.remove(username);
+        }
+        int slot = slot(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1));
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        delete(slot);
+        return previous;
+    }
+
+    @Override
+    public void clear()
+    {
+        allocate(MINIMUM_CAPACITY);
+        packed = 0;
+        unpackable.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public int size()
+            {
+                return UserTable.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator()
+            {
+                return new Entries();
+            }
+        };
+    }
+
+    /**
+     * @return the number of slots in the packed table
+     */
+    public int capacity()
+    {
+        return firsts.length;
+    }
+
+    /**
+     * @return the number of users whose names are held as Strings
+     *         because they cannot be packed
+     */
+    public int unpackableCount()
+    {
+        return unpackable.size();
+    }
+
+    private static int capacityFor(int users)
+    {
+        int capacity = MINIMUM_CAPACITY;
+        while ((long) capacity * LOAD_NUMERATOR / LOAD_DENOMINATOR < users) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    //The slot holding a packed username, or -1
+    private int slot(long first, long second)
+    {
+        int mask = firsts.length - 1;
+        for (int slot = hash(first, second) & mask; firsts[slot] != 0; slot = slot + 1 & mask) {
+            if (firsts[slot] == first && seconds[slot] == second) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    //Empties a slot, moving back any later entry in the same run that
+    //would otherwise no longer be found from its home slot
+    private void delete(int slot)
+    {
+        int mask = firsts.length - 1;
+        int hole = slot;
+        for (int next = hole + 1 & mask; firsts[next] != 0; next = next + 1 & mask) {
+            int home = hash(firsts[next], seconds[next]) & mask;
+            //Move the entry unless its home lies cyclically in (hole, next]
+            if ((next - home & mask) >= (next - hole & mask)) {
+                firsts[hole] = firsts[next];
+                seconds[hole] = seconds[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        firsts[hole] = 0;
+        seconds[hole] = 0;
+        values[hole] = null;
+        packed--;
+    }
+
+    private void resize(int capacity)
+    {
+        long[] oldFirsts = firsts;
+        long[] oldSeconds = seconds;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldFirsts.length; i++) {
+            if (oldFirsts[i] != 0) {
+                int slot = hash(oldFirsts[i], oldSeconds[i]) & mask;
+                while (firsts[slot] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                firsts[slot] = oldFirsts[i];
+                seconds[slot] = oldSeconds[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        firsts = new long[capacity];
+        seconds = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    private int hash(long first, long second)
+    {
+        return (int) SipHash.hash(k0, k1, first, second);
+    }
+
+    //Iterates over the packed slots, then the unpackable users
+    private class Entries implements Iterator<Map.Entry<String, V>>
+    {
+        private int next = advance(0);
+        private final Iterator<Map.Entry<String, V>> rest = unpackable.entrySet().iterator();
+
+        private int advance(int from)
+        {
+            while (from < firsts.length && firsts[from] == 0) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next < firsts.length || rest.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, V> next()
+        {
+            if (next < firsts.length) {
+                Map.Entry<String, V> entry = new Entry(next);
+                next = advance(next + 1);
+                return entry;
+            }
+            else if (rest.hasNext()) {
+                return rest.next();
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<String, V>
+    {
+        private final int slot;
+
+        @SuppressWarnings("unchecked")
+        Entry(int slot)
+        {
+            super(UsernameCodec.unpack(firsts[slot], seconds[slot]), (V) values[slot]);
+            this.slot = slot;
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            values[slot] = value;
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package swen90006.mfa;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of usernames, used by MFA to reject unknown usernames
+ * without a lookup in its user table.
+ *
+ * mightContain never returns false for a username that has been added,
+ * but may return true for one that has not, with a probability that
+ * grows as the filter fills. Usernames cannot be removed, so a removed
+ * user stays a false positive until the filter is rebuilt.
+ *
+ * The bits are held in an AtomicLongArray, so any number of threads may
+ * call mightContain while another adds: a reader sees each bit either
+ * before or after it is set, and an added username is found once add
+ * has returned. Adds may also run concurrently.
+ */
+public final class UsernameBloomFilter
+{
+    private final AtomicLongArray words;
+    private final int bits;
+    private final int hashes;
+    private final AtomicLong setBits = new AtomicLong();
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * Sizes a filter so that, once it holds the expected number of
+     * usernames, a username that was never added is reported as present
+     * with about the given probability.
+     *
+     * @param expectedUsers      the number of usernames expected
+     * @param falsePositiveRate  the target false-positive rate, in (0, 1)
+     * @throws IllegalArgumentException if either is out of range
+     */
+    public UsernameBloomFilter(int expectedUsers, double falsePositiveRate)
+    {
+        if (expectedUsers < 1) {
+            throw new IllegalArgumentException("Expected users must be positive: " + expectedUsers);
+        }
+        if (!(0 < falsePositiveRate && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1): "
+                                               + falsePositiveRate);
+        }
+        //m = -n ln p / (ln 2)^2 bits and k = (m / n) ln 2 hashes minimise
+        //the false-positive rate for n entries
+        double optimal = -expectedUsers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long words = Math.max(1, ((long) Math.ceil(optimal) + 63) / 64);
+        if (words > Integer.MAX_VALUE / 64) {
+            throw new IllegalArgumentException("Filter too large: " + expectedUsers + " users at "
+                                               + falsePositiveRate);
+        }
+        this.words = new AtomicLongArray((int) words);
+        this.bits = (int) words * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedUsers * Math.log(2)));
+    }
+
+    /**
+     * Adds a username.
+     *
+     * @param username  the username, which must be non-null
+     */
+    public void add(String username)
+    {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            set(index(h1 + i * h2));
+        }
+        insertions.incrementAndGet();
+    }
+
+    private void set(int bit)
+    {
+        long mask = 1L << bit;
+        long word = words.get(bit >>> 6);
+        while ((word & mask) == 0) {
+            long witness = words.compareAndExchange(bit >>> 6, word, word | mask);
+            if (witness == word) {
+                setBits.incrementAndGet();
+                break;
+            }
+            word = witness;
+        }
+    }
+
+    /**
+     * Adds every username in a batch, as add does for each, counting
+     * any repeated or already added as add does. When they set more bits
+     * than the filter has words, the bits are first gathered in a plain
+     * array and then each word is set with one atomic update, rather
+     * than each bit with its own.
+     *
+     * @param users  the batch
+     */
+    public void addAll(UserBatch users)
+    {
+        int length = words.length();
+        long[] gathered = (long) users.size() * hashes < length ? null : new long[length];
+        long[] firsts = users.firsts();
+        long[] seconds = users.seconds();
+        for (int u = 0; u < users.size(); u++) {
+            long hash = firsts[u] == 0 ? hash(users.username(u)) : hash(firsts[u], seconds[u]);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = index(h1 + i * h2);
+                if (gathered == null) {
+                    set(bit);
+                }
+                else {
+                    gathered[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+        for (int i = 0; gathered != null && i < length; i++) {
+            if (gathered[i] != 0) {
+                long word = words.getAndAccumulate(i, gathered[i], (a, b) -> a | b);
+                setBits.addAndGet(Long.bitCount(gathered[i] & ~word));
+            }
+        }
+        insertions.addAndGet(users.size());
+    }
+
+    /**
+     * @param username  the username, which must be non-null
+     * @return false if the username has certainly not been added, or
+     *         true if it probably has
+     */
+    public boolean mightContain(String username)
+    {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1 + i * h2);
+            if ((words.get(bit >>> 6) & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bits in the filter
+     */
+    public int bitSize()
+    {
+        return bits;
+    }
+
+    /**
+     * @return the number of bits set per username
+     */
+    public int hashCount()
+    {
+        return hashes;
+    }
+
+    /**
+     * @return the number of bits set
+     */
+    public long setBitCount()
+    {
+        return setBits.get();
+    }
+
+    /**
+     * @return the number of calls to add, counting repeats
+     */
+    public long insertions()
+    {
+        return insertions.get();
+    }
+
+    /**
+     * @return the fraction of bits set, from 0 to 1
+     */
+    public double occupancy()
+    {
+        return (double) setBitCount() / bits;
+    }
+
+    /**
+     * @return the probability, at the current occupancy, that
+     *         mightContain returns true for a username never added
+     */
+    public double expectedFalsePositiveRate()
+    {
+        return Math.pow(occupancy(), hashes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d of %d bits set (%.1f%%), %d hashes, %d insertions, "
+                             + "false-positive rate %.4f",
+                             setBitCount(), bits, 100 * occupancy(), hashes, insertions(),
+                             expectedFalsePositiveRate());
+    }
+
+    //A bit from a hash, scaled onto the bits by a multiply and shift
+    //rather than a division, which is several times slower
+    private int index(int hash)
+    {
+        return (int) ((hash & 0xFFFFFFFFL) * bits >>> 32);
+    }
+
+    //A 64-bit hash of the username, mixed with the MurmurHash3
+    //finaliser; the two halves seed double hashing (Kirsch-Mitzenmacher).
+    //A username that can be packed is hashed from its packed words, so
+    //that a batch, which holds them packed, is hashed without unpacking
+    private static long hash(String username)
+    {
+        if (UsernameCodec.isPackable(username)) {
+            return hash(UsernameCodec.pack(username, 0), UsernameCodec.pack(username, 1));
+        }
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < username.length(); i++) {
+            h = (h ^ username.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long hash(long first, long second)
+    {
+        return mix(first * 0x9E3779B97F4A7C15L ^ second);
+    }
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h | 1L << 32;
+    }
+}
@@ -0,0 +1,133 @@
+package swen90006.mfa;
+
+/**
+ * Packs usernames made only of ASCII letters into two longs.
+ *
+ * Each letter takes six bits: A-Z are 1 to 26 and a-z are 27 to 52,
+ * leaving 0 to mark the end of the name. Ten letters fit in each long,
+ * the first letter in the lowest bits, so a name of up to
+ * MAX_PACKED_LENGTH letters is held in a pair of longs that is equal
+ * exactly when the names are equal. The first long of a packed name is
+ * never 0, so 0 can mark an empty slot in a table of packed names.
+ *
+ * Names that are empty, too long, or contain anything other than
+ * letters cannot be packed and must be stored as Strings.
+ */
+public final class UsernameCodec
+{
+    /** The number of letters packed into each long */
+    public static final int LETTERS_PER_WORD = 10;
+
+    /** The length of the longest name that can be packed */
+    public static final int MAX_PACKED_LENGTH = 2 * LETTERS_PER_WORD;
+
+    private static final int BITS = 6;
+    private static final long MASK = (1L << BITS) - 1;
+    //The code of each ASCII character: 1 to 26 for A to Z, 27 to 52
+    //for a to z, and 0 for any other
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CODES[c] = (byte) (c - 'A' + 1);
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CODES[c] = (byte) (c - 'a' + 27);
+        }
+    }
+
+    private UsernameCodec()
+    {
+    }
+
+    /**
+     * @param username  a username, which must be non-null
+     * @return true if and only if the username can be packed
+     */
+    public static boolean isPackable(String username)
+    {
+        int length = username.length();
+        if (length == 0 || length > MAX_PACKED_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (code(username.charAt(i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param username  a packable username
+     * @param word      0 for the first ten letters, 1 for the rest
+     * @return one long of the packed username
+     */
+    public static long pack(String username, int word)
+    {
+        long packed = 0;
+        int end = Math.min(username.length(), (word + 1) * LETTERS_PER_WORD);
+        for (int i = end - 1; i >= word * LETTERS_PER_WORD; i--) {
+            packed = packed << BITS | code(username.charAt(i));
+        }
+        return packed;
+    }
+
+    //Packs a username into firsts[at] and seconds[at], as pack does,
+    //in one pass over it, and returns true, or sets both to zero and
+    //returns false if it cannot be packed
+    static boolean pack(CharSequence username, long[] firsts, long[] seconds, int at)
+    {
+        firsts[at] = 0;
+        seconds[at] = 0;
+        int length = username.length();
+        if (length == 0 || length > MAX_PACKED_LENGTH) {
+            return false;
+        }
+        long first = 0;
+        long second = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            int code = code(username.charAt(i));
+            if (code == 0) {
+                return false;
+            }
+            if (i >= LETTERS_PER_WORD) {
+                second = second << BITS | code;
+            }
+            else {
+                first = first << BITS | code;
+            }
+        }
+        firsts[at] = first;
+        seconds[at] = second;
+        return true;
+    }
+
+    /**
+     * @param first   the first long of a packed username
+     * @param second  the second long of a packed username
+     * @return the username
+     */
+    public static String unpack(long first, long second)
+    {
+        char[] letters = new char[MAX_PACKED_LENGTH];
+        int length = 0;
+        for (long word : new long[] {first, second}) {
+            for (; word != 0; word >>>= BITS) {
+                letters[length++] = letter((int) (word & MASK));
+            }
+        }
+        return new String(letters, 0, length);
+    }
+
+    //The six-bit code of a letter, or 0 for anything else
+    private static int code(char c)
+    {
+        return c < CODES.length ? CODES[c] : 0;
+    }
+
+    private static char letter(int code)
+    {
+        return (char) (code <= 26 ? 'A' + code - 1 : 'a' + code - 27);
+    }
+}
@@ -0,0 +1,89 @@
+package swen90006.mfa;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the network front ends and asynchronous facades.
+ *
+ * Virtual threads are only available from JDK 21, while this project
+ * is still built and tested on earlier JDKs. The executor is therefore
+ * looked up reflectively: on a JDK with virtual threads it is
+ * Executors.newThreadPerTaskExecutor, which starts one virtual thread
+ * per task and never reuses one; otherwise a cached pool of daemon
+ * platform threads is used instead.
+ */
+public final class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return true if and only if the running JDK supports virtual threads
+     */
+    public static boolean isSupported()
+    {
+        return virtualThreadFactory("probe") != null;
+    }
+
+    /**
+     * Creates an executor that runs each task in its own virtual
+     * thread, or in a pooled daemon thread if virtual threads are not
+     * supported.
+     *
+     * @param name  the prefix used to name the threads
+     * @return the executor
+     */
+    public static ExecutorService newExecutor(String name)
+    {
+        ThreadFactory factory = virtualThreadFactory(name);
+        if (factory != null) {
+            try {
+                Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor",
+                                                           ThreadFactory.class);
+                return (ExecutorService) perTask.invoke(null, factory);
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                //Fall back to pooling platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreadFactory(name));
+    }
+
+    /**
+     * Creates a factory for daemon platform threads named
+     * name-1, name-2, ...
+     *
+     * @param name  the prefix used to name the threads
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    //Thread.ofVirtual().name(name + "-", 1).factory(), or null on JDKs
+    //before 21
+    private static ThreadFactory virtualThreadFactory(String name)
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            builder = type.getMethod("name", String.class, long.class)
+                .invoke(builder, name + "-", 1L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package swen90006.mfa.async;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+import swen90006.mfa.VirtualThreads;
+
+/**
+ * An asynchronous facade over an MFA server, for callers that must not
+ * block.
+ *
+ * Every operation of MFA is offered here returning a CompletionStage,
+ * which completes with the operation's result, or exceptionally with
+ * the exception MFA throws, such as NoSuchUserException. The operations
+ * run on an executor given at construction, each holding the MFA
+ * instance's monitor, as the network front ends do, so the facade can
+ * share a server with them.
+ *
+ * Operations on the same user run one at a time, in the order they
+ * were called: a login followed by a push response cannot be reordered.
+ * Operations on different users may run in any order. Users are
+ * spread over a fixed number of serial queues by their hash, so two
+ * users may also share a queue; operations on no single user, such as
+ * getUsers and revokeDevice, are not ordered.
+ *
+ * getData(username, from, to) streams a range of records as a
+ * Flow.Publisher. Records are read from the server only as the
+ * subscriber requests them, a batch at a time, so a slow subscriber
+ * holds back the reads rather than buffering the range.
+ *
+ * Stages complete on the executor's threads, outside the monitor.
+ * With an executor that runs tasks in the calling thread, such as
+ * Runnable::run, operations run in the caller with no thread hop,
+ * still in order.
+ */
+public class AsyncMFA
+{
+    /** The number of serial queues users are spread over */
+    public static final int STRIPES = 64;
+
+    /** The most records read from the server at once for a stream */
+    public static final int STREAM_BATCH = 64;
+
+    private final MFA mfa;
+    private final Executor executor;
+    private final SerialExecutor[] stripes = new SerialExecutor[STRIPES];
+
+    /**
+     * @param mfa       the server
+     * @param executor  the executor operations run on
+     */
+    public AsyncMFA(MFA mfa, Executor executor)
+    {
+        this.mfa = mfa;
+        this.executor = executor;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new SerialExecutor(executor);
+        }
+    }
+
+    /**
+     * Runs operations in virtual threads, or pooled daemon threads if
+     * the JDK does not support them.
+     *
+     * @param mfa  the server
+     */
+    public AsyncMFA(MFA mfa)
+    {
+        this(mfa, VirtualThreads.newExecutor("mfa-async"));
+    }
+
+    /**
+     * @see MFA#register
+     */
+    public CompletionStage<Void> register(String username, String password, String deviceID)
+    {
+        return submit(username, () -> {
+            mfa.register(username, password, deviceID);
+            return null;
+        });
+    }
+
+    /**
+     * @see MFA#isUser
+     */
+    public CompletionStage<Boolean> isUser(String username)
+    {
+        return submit(username, () -> mfa.isUser(username));
+    }
+
+    /**
+     * @see MFA#login
+     */
+    public CompletionStage<MFA.AuthenticationStatus> login(String username, String password)
+    {
+        return submit(username, () -> mfa.login(username, password));
+    }
+
+    /**
+     * @see MFA#respondToPushNotification
+     */
+    public CompletionStage<MFA.AuthenticationStatus> respondToPushNotification(String username,
+                                                                               String deviceID)
+    {
+        return submit(username, () -> mfa.respondToPushNotification(username, deviceID));
+    }
+
+    /**
+     * Completes when the user responds to their push notification, or
+     * the timeout passes. Waiting does not hold the user's queue, so
+     * the response itself can be made through this facade.
+     *
+     * @see MFA#awaitPushResponse
+     */
+    public CompletionStage<MFA.AuthenticationStatus> awaitPushResponse(String username,
+                                                                       long timeout,
+                                                                       TimeUnit unit)
+    {
+        return submit(username, () -> mfa.awaitPushResponse(username, timeout, unit))
+            .thenCompose(response -> response);
+    }
+
+    /**
+     * @see MFA#isAuthenticated
+     */
+    public CompletionStage<Boolean> isAuthenticated(String username)
+    {
+        return submit(username, () -> mfa.isAuthenticated(username));
+    }
+
+    /**
+     * @see MFA#addData
+     */
+    public CompletionStage<Void> addData(String username, List<Integer> record)
+    {
+        return submit(username, () -> {
+            mfa.addData(username, record);
+            return null;
+        });
+    }
+
+    /**
+     * @see MFA#getData
+     */
+    public CompletionStage<List<Integer>> getData(String username, int index)
+    {
+        return submit(username, () -> mfa.getData(username, index));
+    }
+
+    /**
+     * Streams a user's records in [from, to), stopping early at the end
+     * of their records. Each subscriber gets the range afresh, and
+     * records are read only as it requests them. The stream fails with
+     * NoSuchUserException or UnauthenticatedUserException if the user
+     * is unknown, or is not authenticated when a batch is read.
+     *
+     * @param username  the username
+     * @param from      the index of the first record
+     * @param to        the index after the last record
+     * @return a publisher of the records
+     * @throws IllegalArgumentException if the range is invalid
+     */
+    public Flow.Publisher<List<Integer>> getData(String username, int from, int to)
+    {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+        return subscriber -> {
+            Records records = new Records(username, from, to, subscriber);
+            subscriber.onSubscribe(records);
+        };
+    }
+
+    /**
+     * @see MFA#getUsers
+     */
+    public CompletionStage<Set<String>> getUsers()
+    {
+        return submit(null, () -> mfa.getUsers());
+    }
+
+    /**
+     * @see MFA#getDeviceUsers
+     */
+    public CompletionStage<Set<String>> getDeviceUsers(String deviceID)
+    {
+        return submit(null, () -> mfa.getDeviceUsers(deviceID));
+    }
+
+    /**
+     * @see MFA#revokeDevice
+     */
+    public CompletionStage<Set<String>> revokeDevice(String deviceID)
+    {
+        return submit(null, () -> mfa.revokeDevice(deviceID));
+    }
+
+    /**
+     * @see MFA#exportUser
+     */
+    public CompletionStage<UserState> exportUser(String username)
+    {
+        return submit(username, () -> mfa.exportUser(username));
+    }
+
+    /**
+     * @see MFA#removeUser
+     */
+    public CompletionStage<UserState> removeUser(String username)
+    {
+        return submit(username, () -> mfa.removeUser(username));
+    }
+
+    /**
+     * @see MFA#importUser
+     */
+    public CompletionStage<Void> importUser(UserState user)
+    {
+        return submit(user.getUsername(), () -> {
+            mfa.importUser(user);
+            return null;
+        });
+    }
+
+    /**
+     * @see MFA#importUsers
+     */
+    public CompletionStage<Void> importUsers(Collection<UserState> users)
+    {
+        return submit(null, () -> {
+            mfa.importUsers(users);
+            return null;
+        });
+    }
+
+    //An MFA operation, which may throw any of MFA's exceptions
+    private interface Operation<T>
+    {
+        T run() throws Exception;
+    }
+
+    //Runs an operation under the monitor, in the user's queue if there
+    //is a user
+    private <T> CompletableFuture<T> submit(String username, Operation<T> operation)
+    {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            executorFor(username).execute(() -> {
+                T value;
+                try {
+                    synchronized (mfa) {
+                        value = operation.run();
+                    }
+                }
+                catch (Exception e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                result.complete(value);
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private Executor executorFor(String username)
+    {
+        if (username == null) {
+            return executor;
+        }
+        int hash = username.hashCode();
+        return stripes[(hash ^ hash >>> 16) & STRIPES - 1];
+    }
+
+    //A subscription to a range of records. Batches are read in the
+    //user's queue, so they are ordered with the user's other
+    //operations and signals to the subscriber are never concurrent.
+    private class Records implements Flow.Subscription
+    {
+        private final String username;
+        private final int to;
+        private final Flow.Subscriber<? super List<Integer>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private int next;
+
+        Records(String username, int from, int to, Flow.Subscriber<? super List<Integer>> subscriber)
+        {
+            this.username = username;
+            this.next = from;
+            this.to = to;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0) {
+                //Signalled from the queue, so never during onNext
+                IllegalArgumentException failure =
+                    new IllegalArgumentException("Non-positive request: " + n);
+                try {
+                    executorFor(username).execute(() -> fail(failure));
+                }
+                catch (RejectedExecutionException e) {
+                    fail(failure);
+                }
+                return;
+            }
+            long previous = demand.getAndAccumulate(n, (current, more) ->
+                current + more < 0 ? Long.MAX_VALUE : current + more);
+            //A batch is already pending if there was demand before
+            if (previous == 0) {
+                schedule();
+            }
+        }
+
+        @Override
+        public void cancel()
+        {
+            done.set(true);
+        }
+
+        private void schedule()
+        {
+            try {
+                executorFor(username).execute(this::emit);
+            }
+            catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+
+        //Reads a batch under the monitor, then sends it outside it
+        private void emit()
+        {
+            if (done.get()) {
+                return;
+            }
+            int limit = (int) Math.min(to - next, Math.min(demand.get(), STREAM_BATCH));
+            List<List<Integer>> batch = new ArrayList<List<Integer>>(limit);
+            boolean end;
+            try {
+                synchronized (mfa) {
+                    if (!mfa.isAuthenticated(username)) {
+                        throw new UnauthenticatedUserException(username);
+                    }
+                    try {
+                        while (batch.size() < limit) {
+                            batch.add(mfa.getData(username, next + batch.size()));
+                        }
+                        end = next + batch.size() == to;
+                    }
+                    catch (IndexOutOfBoundsException e) {
+                        //End of the user's records
+                        end = true;
+                    }
+                }
+            }
+            catch (Exception e) {
+                fail(e);
+                return;
+            }
+            next += batch.size();
+            for (List<Integer> record : batch) {
+                if (done.get()) {
+                    return;
+                }
+                subscriber.onNext(record);
+            }
+            if (end) {
+                if (done.compareAndSet(false, true)) {
+                    subscriber.onComplete();
+                }
+            }
+            else if (demand.addAndGet(-batch.size()) > 0) {
+                schedule();
+            }
+        }
+
+        private void fail(Throwable failure)
+        {
+            if (done.compareAndSet(false, true)) {
+                subscriber.onError(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package swen90006.mfa.async;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on an
+ * underlying executor, without holding a thread while idle.
+ *
+ * A submission that finds no task running hands one drain to the
+ * underlying executor, which runs queued tasks until the queue is
+ * empty. A task that throws does not stop later ones. If the underlying
+ * executor rejects the drain, the task whose submission started it is
+ * taken back off the queue, so a rejected task never runs; tasks
+ * already accepted stay queued for the next drain.
+ */
+final class SerialExecutor implements Executor
+{
+    //Tasks run per drain before the drain is resubmitted, so that one
+    //busy queue does not keep a thread of the underlying executor
+    private static final int BATCH = 64;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    SerialExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        tasks.add(task);
+        try {
+            schedule();
+        }
+        catch (RuntimeException e) {
+            //If another submission's drain has taken the task since,
+            //it was accepted after all
+            if (tasks.remove(task)) {
+                throw e;
+            }
+        }
+    }
+
+    private void schedule()
+    {
+        if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            }
+            catch (RuntimeException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain()
+    {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    //Reported by the task's own future
+                }
+            }
+        }
+        finally {
+            running.set(false);
+            //A task may have been queued after the last poll but before
+            //running was cleared
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,759 @@
+package swen90006.mfa.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserBatch;
+import swen90006.mfa.VirtualThreads;
+
+/**
+ * Registers users in bulk from a file, with the same result as calling
+ * MFA.register for each row in order, but faster: two to three and a
+ * half times as fast on one processor (see BulkImportBenchmark).
+ *
+ * The file is read in chunks of rows on the calling thread, CSV as
+ * blocks of text cut at line ends. Each chunk is parsed and
+ * validated, with the rules register enforces (see MFA.validity), by
+ * a pool of worker threads while the next chunks are read, without an
+ * exception for each invalid row. A CSV field is checked where it
+ * lies in the text, and the valid users are added to a UserBatch, so
+ * no object is made for a valid row but its password's bytes, which
+ * the server keeps, and its device ID. Each chunk is appended to
+ * those before it once validated, and the valid users are then added,
+ * in file order, with one call to MFA.importNewUsers, which skips
+ * usernames that appear more than once (the first valid row wins) or
+ * are already registered, and builds the server's tables for all of
+ * them in one pass from the batch's columns.
+ *
+ * Two formats are read:
+ *
+ *  - CSV: one user per line, as username,password[,deviceID], where
+ *    any field may be double-quoted with "" for a quote, and an empty
+ *    or missing device ID means no device. Lines end in \n or \r\n.
+ *    Blank lines are skipped, as is a first line of exactly
+ *    username,password,deviceID.
+ *
+ *  - binary: one record per user, each the username and password as
+ *    written by DataOutputStream.writeUTF, then a boolean saying if a
+ *    device ID follows, and if so the device ID, also by writeUTF.
+ *
+ * Rows that are not imported are reported with their row number: the
+ * line number for CSV, or the record number for binary, counting from
+ * 1. The MFA server is locked, as by synchronized (mfa), only for the
+ * final insert.
+ */
+public class BulkImporter
+{
+    /** The number of rows read and validated as one task */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    /** Why a row was not imported */
+    public enum Reason {MALFORMED, INVALID_USERNAME, INVALID_PASSWORD, DUPLICATE,
+                        ALREADY_REGISTERED};
+
+    private static final String HEADER = "username,password,deviceID";
+
+    //The chars of CSV read at a time, unless a line is longer
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    /**
+     * A row that was not imported.
+     */
+    public static final class Rejection
+    {
+        private final long row;
+        private final String username;
+        private final Reason reason;
+        private final String detail;
+
+        Rejection(long row, String username, Reason reason, String detail)
+        {
+            this.row = row;
+            this.username = username;
+            this.reason = reason;
+            this.detail = detail;
+        }
+
+        /**
+         * @return the row number, from 1
+         */
+        public long getRow()
+        {
+            return row;
+        }
+
+        /**
+         * @return the username, or null if the row could not be parsed
+         */
+        public String getUsername()
+        {
+            return username;
+        }
+
+        public Reason getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * @return more about the reason, such as the row a duplicate
+         *         repeats; passwords are never included
+         */
+        public String getDetail()
+        {
+            return detail;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "row " + row + (username == null ? "" : " (" + username + ")") + ": "
+                + reason + (detail == null ? "" : ", " + detail);
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Report
+    {
+        private final long rows;
+        private final int imported;
+        private final List<Rejection> rejections;
+        private final long elapsedNanos;
+
+        Report(long rows, int imported, List<Rejection> rejections, long elapsedNanos)
+        {
+            this.rows = rows;
+            this.imported = imported;
+            this.rejections = Collections.unmodifiableList(rejections);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of rows read, not counting blank lines or
+         *         a header
+         */
+        public long getRows()
+        {
+            return rows;
+        }
+
+        /**
+         * @return the number of users registered
+         */
+        public int getImported()
+        {
+            return imported;
+        }
+
+        /**
+         * @return the rows not imported, in row order
+         */
+        public List<Rejection> getRejections()
+        {
+            return rejections;
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Imported " + imported + " of " + rows + " rows, rejected "
+                + rejections.size() + ", in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                + " ms";
+        }
+    }
+
+    //Rows as read, before they are parsed: either the CSV lines from
+    //start to end of text, the first of them numbered 'first', or the
+    //fields of binary records, numbered from 'first'
+    private static final class Rows
+    {
+        final long first;
+        final char[] text;
+        final int start;
+        final int end;
+        final List<String[]> fields;
+
+        Rows(long first, char[] text, int start, int end)
+        {
+            this.first = first;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.fields = null;
+        }
+
+        Rows(long first, List<String[]> fields)
+        {
+            this.first = first;
+            this.text = null;
+            this.start = 0;
+            this.end = 0;
+            this.fields = fields;
+        }
+
+        boolean isEmpty()
+        {
+            return text == null ? fields.isEmpty() : start == end;
+        }
+    }
+
+    //A validated chunk: the number of rows read, the valid users and
+    //their row numbers, and the rejected rows
+    private static final class Chunk
+    {
+        long read;
+        final UserBatch users;
+        long[] rows;
+        final List<Rejection> rejections = new ArrayList<Rejection>();
+
+        Chunk(int expectedUsers)
+        {
+            users = new UserBatch(expectedUsers);
+            rows = new long[Math.max(expectedUsers, 1)];
+        }
+
+        //Appends another chunk, which follows this one in the file
+        void addAll(Chunk other)
+        {
+            int size = users.size();
+            if (size + other.users.size() > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(2 * rows.length, size + other.users.size()));
+            }
+            System.arraycopy(other.rows, 0, rows, size, other.users.size());
+            users.addAll(other.users);
+            read += other.read;
+            rejections.addAll(other.rejections);
+        }
+
+        void add(CharSequence username, CharSequence password, String deviceID, long row)
+        {
+            int i = users.size();
+            if (i == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * rows.length);
+            }
+            rows[i] = row;
+            users.add(username, password, deviceID);
+        }
+    }
+
+    //The characters of a field from 'from' to 'to' of some text, read
+    //in place
+    private static final class Slice implements CharSequence
+    {
+        char[] text;
+        int from;
+        int to;
+
+        @Override
+        public int length()
+        {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return text[from + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(text, from + start, end - start);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(text, from, to - from);
+        }
+    }
+
+    //A parsed CSV row, reused for each row of a chunk: each field is a
+    //slice of the text or, if quoted, of the text unescaped into a
+    //scratch array of its own. The device ID is null if empty or
+    //missing
+    private static final class Row
+    {
+        final Slice[] fields = new Slice[3];
+        private final Slice[] slices = {new Slice(), new Slice(), new Slice()};
+        private final char[][] unquoted = new char[3][16];
+
+        //Parses the row from 'from' to 'to' of the text
+        void parse(char[] text, int from, int to)
+        {
+            int count = 0;
+            int i = from;
+            while (true) {
+                Slice field = slices[Math.min(count, 2)];
+                if (i < to && text[i] == '"') {
+                    char[] scratch = unquoted[Math.min(count, 2)];
+                    int length = 0;
+                    i++;
+                    while (true) {
+                        if (i == to) {
+                            throw new IllegalArgumentException("unclosed quote");
+                        }
+                        char c = text[i++];
+                        if (c == '"' && i < to && text[i] == '"') {
+                            i++;
+                        }
+                        else if (c == '"') {
+                            break;
+                        }
+                        if (length == scratch.length) {
+                            scratch = unquoted[Math.min(count, 2)] =
+                                Arrays.copyOf(scratch, 2 * length);
+                        }
+                        scratch[length++] = c;
+                    }
+                    if (i < to && text[i] != ',') {
+                        throw new IllegalArgumentException("text after closing quote");
+                    }
+                    field.text = scratch;
+                    field.from = 0;
+                    field.to = length;
+                }
+                else {
+                    int end = indexOf(text, ',', i, to);
+                    end = end < 0 ? to : end;
+                    field.text = text;
+                    field.from = i;
+                    field.to = end;
+                    i = end;
+                }
+                if (count < fields.length) {
+                    fields[count] = field;
+                }
+                count++;
+                if (i == to) {
+                    break;
+                }
+                i++;
+            }
+            if (count < 2 || count > 3) {
+                throw new IllegalArgumentException("expected 2 or 3 fields, found " + count);
+            }
+            if (count == 2 || fields[2].length() == 0) {
+                fields[2] = null;
+            }
+        }
+    }
+
+    private final MFA mfa;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * @param mfa        the server to register users on
+     * @param threads    the number of threads validating chunks
+     * @param chunkSize  the number of rows in each chunk
+     */
+    public BulkImporter(MFA mfa, int threads, int chunkSize)
+    {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be positive");
+        }
+        this.mfa = mfa;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param mfa  the server to register users on, validating with one
+     *             thread per processor
+     */
+    public BulkImporter(MFA mfa)
+    {
+        this(mfa, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Imports users from a file, whose format is CSV if its name ends
+     * in .csv and binary otherwise.
+     *
+     * @param file  the file
+     * @return the outcome
+     * @throws IOException if the file cannot be read, or a binary file
+     *         ends part way through a record
+     */
+    public Report importFile(File file) throws IOException
+    {
+        if (file.getName().endsWith(".csv")) {
+            try (Reader in = new FileReader(file)) {
+                return importCsv(in);
+            }
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return importBinary(in);
+        }
+    }
+
+    /**
+     * @param in  the CSV rows, which are read to the end but not closed
+     * @return the outcome
+     * @throws IOException if the rows cannot be read
+     */
+    public Report importCsv(Reader in) throws IOException
+    {
+        //The text read but not yet cut into chunks lies from start to
+        //end of the current buffer; a chunk ends after chunkSize lines
+        //or at the end of the buffer, whose last, partial line is then
+        //carried into the next
+        char[][] buffer = {new char[BUFFER_CHARS]};
+        int[] bounds = {0, 0};
+        long[] number = {1};
+        boolean[] ended = {false};
+        return run(() -> {
+            char[] text = buffer[0];
+            int start = bounds[0];
+            int end = bounds[1];
+            int lines = 0;
+            int cut = start;
+            while (lines < chunkSize) {
+                int newline = indexOf(text, '\n', cut, end);
+                if (newline >= 0) {
+                    cut = newline + 1;
+                    lines++;
+                    continue;
+                }
+                if (cut > start || ended[0]) {
+                    if (ended[0]) {
+                        cut = end;
+                    }
+                    break;
+                }
+                //Not one whole line yet: move it to the front of a new
+                //buffer, larger if it is already half full, and fill
+                //that, as chunks still hold the old one
+                char[] next = new char[end - start < text.length / 2 ? text.length
+                                       : 2 * text.length];
+                System.arraycopy(text, start, next, 0, end - start);
+                text = buffer[0] = next;
+                end -= start;
+                cut -= start;
+                start = 0;
+                while (end < text.length && !ended[0]) {
+                    int n = in.read(text, end, text.length - end);
+                    if (n < 0) {
+                        ended[0] = true;
+                    }
+                    else {
+                        end += n;
+                    }
+                }
+            }
+            Rows rows = new Rows(number[0], text, start, cut);
+            number[0] += lines + (cut > start && text[cut - 1] != '\n' ? 1 : 0);
+            bounds[0] = cut;
+            bounds[1] = end;
+            return rows;
+        });
+    }
+
+    private static int indexOf(char[] text, char c, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (text[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param in  the binary records, which are read to the end but not
+     *            closed
+     * @return the outcome
+     * @throws IOException if the records cannot be read, or the stream
+     *         ends part way through a record
+     */
+    public Report importBinary(InputStream in) throws IOException
+    {
+        DataInputStream records = new DataInputStream(new BufferedInputStream(in));
+        long[] number = {1};
+        return run(() -> {
+            List<String[]> chunk = new ArrayList<String[]>(chunkSize);
+            while (chunk.size() < chunkSize) {
+                String username;
+                try {
+                    username = records.readUTF();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                String password = records.readUTF();
+                String deviceID = records.readBoolean() ? records.readUTF() : null;
+                chunk.add(new String[] {username, password, deviceID});
+            }
+            Rows rows = new Rows(number[0], chunk);
+            number[0] += chunk.size();
+            return rows;
+        });
+    }
+
+    /**
+     * Writes one user in the binary format.
+     *
+     * @param out       the stream
+     * @param username  the username
+     * @param password  the password
+     * @param deviceID  the device ID, or null
+     * @throws IOException if the user cannot be written
+     */
+    public static void writeBinary(DataOutputStream out, String username, String password,
+                                   String deviceID)
+        throws IOException
+    {
+        out.writeUTF(username);
+        out.writeUTF(password);
+        out.writeBoolean(deviceID != null);
+        if (deviceID != null) {
+            out.writeUTF(deviceID);
+        }
+    }
+
+    //Reads the next chunk of rows, which is empty at the end
+    private interface ChunkReader
+    {
+        Rows next() throws IOException;
+    }
+
+    private Report run(ChunkReader reader) throws IOException
+    {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+            VirtualThreads.daemonThreadFactory("bulk-import"));
+        try {
+            //At most two chunks per thread are read ahead of those
+            //validated, each of which is appended, in order, to all
+            //before it as soon as it is done, so it is garbage while
+            //still young
+            Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            Chunk all = new Chunk(chunkSize);
+            for (Rows rows = reader.next(); !rows.isEmpty(); rows = reader.next()) {
+                Rows chunk = rows;
+                pending.add(workers.submit((Callable<Chunk>) () -> validate(chunk, chunkSize)));
+                if (pending.size() >= 2 * threads) {
+                    all.addAll(get(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                all.addAll(get(pending.remove()));
+            }
+
+            int[] ids;
+            synchronized (mfa) {
+                ids = mfa.importNewUsers(all.users);
+            }
+            int imported = reject(all, ids);
+            all.rejections.sort((a, b) -> Long.compare(a.getRow(), b.getRow()));
+            return new Report(all.read, imported, all.rejections, System.nanoTime() - start);
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //Rejects the users not imported, given the IDs MFA.importNewUsers
+    //gave them, and returns the number imported. Those imported were
+    //given consecutive IDs in file order, so a repeat of one of them is
+    //told by its ID; a repeat of a user registered before is rejected
+    //as already registered the first time and as a duplicate after
+    private static int reject(Chunk all, int[] ids)
+    {
+        long[] rowsByID = new long[ids.length];
+        int firstID = -1;
+        int imported = 0;
+        Map<Integer, Long> registered = new HashMap<Integer, Long>();
+        for (int i = 0; i < ids.length; i++) {
+            long row = all.rows[i];
+            if (ids[i] >= 0) {
+                if (firstID < 0) {
+                    firstID = ids[i];
+                }
+                rowsByID[ids[i] - firstID] = row;
+                imported++;
+                continue;
+            }
+            int holder = -1 - ids[i];
+            Long first = firstID >= 0 && holder >= firstID ? Long.valueOf(rowsByID[holder - firstID])
+                : registered.putIfAbsent(holder, row);
+            if (first == null) {
+                all.rejections.add(new Rejection(row, all.users.username(i),
+                                                 Reason.ALREADY_REGISTERED, null));
+            }
+            else {
+                all.rejections.add(new Rejection(row, all.users.username(i), Reason.DUPLICATE,
+                                                 "first at row " + first));
+            }
+        }
+        return imported;
+    }
+
+    //Parses and validates a chunk; runs on a worker thread
+    private static Chunk validate(Rows rows, int chunkSize)
+    {
+        Chunk chunk = new Chunk(chunkSize);
+        if (rows.fields != null) {
+            long number = rows.first;
+            for (String[] fields : rows.fields) {
+                chunk.read++;
+                check(chunk, number++, fields);
+            }
+            return chunk;
+        }
+        Row row = new Row();
+        char[] text = rows.text;
+        long number = rows.first;
+        for (int from = rows.start; from < rows.end; number++) {
+            int newline = indexOf(text, '\n', from, rows.end);
+            int next = newline < 0 ? rows.end : newline + 1;
+            int to = newline < 0 ? rows.end : newline;
+            if (to > from && text[to - 1] == '\r') {
+                to--;
+            }
+            if (to == from || number == 1 && isHeader(text, from, to)) {
+                from = next;
+                continue;
+            }
+            chunk.read++;
+            try {
+                row.parse(text, from, to);
+            }
+            catch (IllegalArgumentException e) {
+                chunk.rejections.add(new Rejection(number, null, Reason.MALFORMED,
+                                                   e.getMessage()));
+                from = next;
+                continue;
+            }
+            check(chunk, number, row.fields);
+            from = next;
+        }
+        return chunk;
+    }
+
+    //Adds a row's user to the chunk if they meet the rules of register,
+    //and rejects the row otherwise
+    private static void check(Chunk chunk, long row, CharSequence[] fields)
+    {
+        MFA.Validity validity = MFA.validity(fields[0], fields[1]);
+        if (validity == MFA.Validity.VALID) {
+            chunk.add(fields[0], fields[1], fields[2] == null ? null : fields[2].toString(), row);
+        }
+        else {
+            chunk.rejections.add(new Rejection(row, fields[0].toString(),
+                                               validity == MFA.Validity.INVALID_USERNAME
+                                               ? Reason.INVALID_USERNAME : Reason.INVALID_PASSWORD,
+                                               null));
+        }
+    }
+
+    private static boolean isHeader(char[] text, int from, int to)
+    {
+        if (to - from != HEADER.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (text[i] != HEADER.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param line  a CSV row
+     * @return the username, password and device ID, which is null if
+     *         empty or missing
+     * @throws IllegalArgumentException if the row does not have two or
+     *         three fields, or a quoted field is not closed
+     */
+    static String[] parseCsv(String line)
+    {
+        Row row = new Row();
+        row.parse(line.toCharArray(), 0, line.length());
+        String[] fields = new String[3];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = row.fields[i] == null ? null : row.fields[i].toString();
+        }
+        return fields;
+    }
+
+    /**
+     * Imports a file into a new MFA server and prints the outcome and
+     * every rejected row.
+     *
+     * Usage: BulkImporter [--threads n] [--chunk rows] file
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--chunk")) {
+                chunkSize = Integer.parseInt(args[++i]);
+            }
+            else {
+                file = args[i];
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: BulkImporter [--threads n] [--chunk rows] file");
+            System.exit(1);
+        }
+        Report report = new BulkImporter(new MFA(), threads, chunkSize).importFile(new File(file));
+        for (Rejection rejection : report.getRejections()) {
+            System.out.println(rejection);
+        }
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,434 @@
+package swen90006.mfa.export;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+import swen90006.mfa.VirtualThreads;
+
+/**
+ * Streams every user of an MFA server, with their device, status and
+ * records, to a file or OutputStream, for analytics.
+ *
+ * The export is of one point in time: MFA.snapshot is taken once, and
+ * nothing added to the server afterwards is written. The snapshot holds
+ * a small entry per user but does not copy any records; each user's
+ * records are read and encoded only when that user is written, so the
+ * dataset is never held in memory a second time. Passwords are never
+ * exported.
+ *
+ * Users are encoded by several threads at once. export(OutputStream)
+ * writes them all to one stream, in blocks from whichever thread fills
+ * one first; exportShards writes the users split between several
+ * streams, one thread each.
+ *
+ * Each stream is a header, then blocks of users, then an empty block:
+ *
+ *   header: int MAGIC, byte VERSION, int shard, int shards, long users
+ *   block:  int length, then that many bytes of users; 0 ends the stream
+ *   user:   UTF username, byte status (the ordinal of
+ *           MFA.AuthenticationStatus), boolean hasDevice, [UTF deviceID],
+ *           varint records, then each record as a varint length
+ *           followed by its values as zig-zag varints
+ *
+ * where UTF is as written by DataOutputStream.writeUTF. A user is never
+ * split across blocks. read decodes a stream.
+ *
+ * Reading the records takes the MFA server's lock, as by
+ * synchronized (mfa), one user at a time, so any thread that changes
+ * the server must hold the same lock, as the network front ends do.
+ */
+public class UserExporter
+{
+    /** The first four bytes of an export: "MFAX" */
+    public static final int MAGIC = 0x4D464158;
+
+    /** The format version */
+    public static final byte VERSION = 1;
+
+    /** The size at which a block is written */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final byte[] END = new byte[0];
+
+    private final MFA mfa;
+    private final int threads;
+
+    /**
+     * @param mfa      the server to export
+     * @param threads  the number of threads encoding users for
+     *                 export(OutputStream)
+     */
+    public UserExporter(MFA mfa, int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        this.mfa = mfa;
+        this.threads = threads;
+    }
+
+    /**
+     * @param mfa  the server to export, encoding with one thread per
+     *             processor
+     */
+    public UserExporter(MFA mfa)
+    {
+        this(mfa, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Writes every user to a file.
+     *
+     * @param file  the file, which is replaced
+     * @return the number of users written
+     * @throws IOException if the file cannot be written
+     */
+    public long export(File file) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file)) {
+            return export(out);
+        }
+    }
+
+    /**
+     * Writes every user to one stream.
+     *
+     * @param out  the stream, which is flushed but not closed
+     * @return the number of users written
+     * @throws IOException if the stream cannot be written
+     */
+    public long export(OutputStream out) throws IOException
+    {
+        List<UserState> users = snapshot();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BLOCK_SIZE));
+        writeHeader(data, 0, 1, users.size());
+
+        //Encoders hand full blocks to this thread, which alone writes
+        //to the stream; the queue bounds how far they run ahead
+        BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(2 * threads);
+        ExecutorService encoders = Executors.newFixedThreadPool(threads,
+            VirtualThreads.daemonThreadFactory("export"));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                List<UserState> part = stride(users, t, threads);
+                futures.add(encoders.submit((Callable<Void>) () -> {
+                    try {
+                        encode(part, (bytes, length) -> blocks.put(Arrays.copyOf(bytes, length)));
+                    }
+                    finally {
+                        blocks.put(END);
+                    }
+                    return null;
+                }));
+            }
+            for (int ended = 0; ended < threads; ) {
+                byte[] block = blocks.take();
+                if (block == END) {
+                    ended++;
+                }
+                else {
+                    data.writeInt(block.length);
+                    data.write(block);
+                }
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Export failed", e.getCause());
+        }
+        finally {
+            encoders.shutdownNow();
+        }
+        data.writeInt(0);
+        data.flush();
+        return users.size();
+    }
+
+    /**
+     * Writes every user to one file per shard, named users-0.mfax,
+     * users-1.mfax, ..., in a directory.
+     *
+     * @param directory  the directory, which is created if need be
+     * @param shards     the number of shards
+     * @return the number of users written
+     * @throws IOException if a file cannot be written
+     */
+    public long exportShards(File directory, int shards) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        List<OutputStream> outs = new ArrayList<OutputStream>();
+        try {
+            for (int i = 0; i < shards; i++) {
+                outs.add(new FileOutputStream(new File(directory, "users-" + i + ".mfax")));
+            }
+            return exportShards(outs);
+        }
+        finally {
+            for (OutputStream out : outs) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Writes every user to exactly one of several streams, each written
+     * by its own thread. Each stream is a complete export on its own.
+     *
+     * @param outs  the streams, which are flushed but not closed
+     * @return the number of users written
+     * @throws IOException if a stream cannot be written
+     */
+    public long exportShards(List<OutputStream> outs) throws IOException
+    {
+        List<UserState> users = snapshot();
+        int shards = outs.size();
+        ExecutorService writers = Executors.newFixedThreadPool(shards,
+            VirtualThreads.daemonThreadFactory("export"));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int s = 0; s < shards; s++) {
+                int shard = s;
+                List<UserState> part = stride(users, shard, shards);
+                futures.add(writers.submit((Callable<Void>) () -> {
+                    DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(outs.get(shard), BLOCK_SIZE));
+                    writeHeader(data, shard, shards, part.size());
+                    encode(part, (bytes, length) -> {
+                        data.writeInt(length);
+                        data.write(bytes, 0, length);
+                    });
+                    data.writeInt(0);
+                    data.flush();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Export failed", e.getCause());
+        }
+        finally {
+            writers.shutdownNow();
+        }
+        return users.size();
+    }
+
+    /**
+     * Reads an export, one user at a time. Each user's password is
+     * null and their records are IntRecords.
+     *
+     * @param in       the export, which is read to its end but not closed
+     * @param visitor  called with each user, in the order written
+     * @return the number of users read
+     * @throws IOException if the stream cannot be read or is not an
+     *         export
+     */
+    public static long read(InputStream in, Consumer<UserState> visitor) throws IOException
+    {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BLOCK_SIZE));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an MFA export");
+        }
+        byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported export version " + version);
+        }
+        data.readInt();
+        data.readInt();
+        long expected = data.readLong();
+        long count = 0;
+        MFA.AuthenticationStatus[] statuses = MFA.AuthenticationStatus.values();
+        for (int length = data.readInt(); length != 0; length = data.readInt()) {
+            byte[] block = new byte[length];
+            data.readFully(block);
+            DataInputStream users = new DataInputStream(new ByteArrayInputStream(block));
+            while (users.available() > 0) {
+                String username = users.readUTF();
+                MFA.AuthenticationStatus status = statuses[users.readByte()];
+                String deviceID = users.readBoolean() ? users.readUTF() : null;
+                int recordCount = readVarint(users);
+                List<List<Integer>> records = new ArrayList<List<Integer>>(recordCount);
+                for (int r = 0; r < recordCount; r++) {
+                    int[] values = new int[readVarint(users)];
+                    for (int v = 0; v < values.length; v++) {
+                        int zigzag = readVarint(users);
+                        values[v] = zigzag >>> 1 ^ -(zigzag & 1);
+                    }
+                    records.add(new IntRecord(values));
+                }
+                visitor.accept(new UserState(username, null, deviceID, status, records));
+                count++;
+            }
+        }
+        if (count != expected) {
+            throw new IOException("Export holds " + count + " users, expected " + expected);
+        }
+        return count;
+    }
+
+    /**
+     * @param file     an export
+     * @param visitor  called with each user
+     * @return the number of users read
+     * @throws IOException if the file cannot be read or is not an export
+     */
+    public static long read(File file, Consumer<UserState> visitor) throws IOException
+    {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in, visitor);
+        }
+    }
+
+    //Receives each full block; the bytes are reused afterwards
+    private interface BlockSink
+    {
+        void write(byte[] bytes, int length) throws IOException, InterruptedException;
+    }
+
+    //A buffer whose bytes can be handed on without copying
+    private static final class Block extends ByteArrayOutputStream
+    {
+        Block()
+        {
+            super(BLOCK_SIZE + 1024);
+        }
+
+        byte[] bytes()
+        {
+            return buf;
+        }
+    }
+
+    private List<UserState> snapshot()
+    {
+        synchronized (mfa) {
+            return mfa.snapshot();
+        }
+    }
+
+    //Encodes users into blocks of about BLOCK_SIZE bytes
+    private void encode(List<UserState> users, BlockSink sink)
+        throws IOException, InterruptedException
+    {
+        Block block = new Block();
+        DataOutputStream out = new DataOutputStream(block);
+        for (UserState user : users) {
+            out.writeUTF(user.getUsername());
+            out.writeByte(user.getStatus().ordinal());
+            out.writeBoolean(user.getDeviceID() != null);
+            if (user.getDeviceID() != null) {
+                out.writeUTF(user.getDeviceID());
+            }
+            synchronized (mfa) {
+                List<List<Integer>> records = user.getRecords();
+                writeVarint(out, records.size());
+                for (int r = 0; r < records.size(); r++) {
+                    List<Integer> record = records.get(r);
+                    writeVarint(out, record.size());
+                    for (int v = 0; v < record.size(); v++) {
+                        int value = record instanceof IntRecord ? ((IntRecord) record).getInt(v)
+                            : record.get(v);
+                        writeVarint(out, value << 1 ^ value >> 31);
+                    }
+                }
+            }
+            if (block.size() >= BLOCK_SIZE) {
+                sink.write(block.bytes(), block.size());
+                block.reset();
+            }
+        }
+        if (block.size() > 0) {
+            sink.write(block.bytes(), block.size());
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, int shard, int shards, long users)
+        throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(shard);
+        out.writeInt(shards);
+        out.writeLong(users);
+    }
+
+    //Every n-th user from the given one, without copying
+    private static List<UserState> stride(List<UserState> users, int first, int n)
+    {
+        return new AbstractList<UserState>() {
+            @Override
+            public UserState get(int index)
+            {
+                return users.get(first + index * n);
+            }
+
+            @Override
+            public int size()
+            {
+                return (users.size() - first + n - 1) / n;
+            }
+        };
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,243 @@
+package swen90006.mfa.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser for request bodies.
+ *
+ * Objects are parsed to Maps, arrays to Lists, strings to Strings,
+ * numbers to Longs (or Doubles if they have a fraction or exponent),
+ * and true, false and null to Boolean.TRUE, Boolean.FALSE and null.
+ */
+public class JsonReader
+{
+    private final String text;
+    private int pos;
+
+    private JsonReader(String text)
+    {
+        this.text = text;
+        this.pos = 0;
+    }
+
+    /**
+     * Parses a complete JSON document.
+     *
+     * @param text  the JSON text
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    public static Object parse(String text)
+    {
+        JsonReader reader = new JsonReader(text);
+        Object value = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos != text.length()) {
+            throw reader.error("trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Parses a JSON document that must be an object.
+     *
+     * @param text  the JSON text
+     * @return the parsed object
+     * @throws IllegalArgumentException if the text is not a JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text)
+    {
+        Object value = parse(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Object value()
+    {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("unexpected end of input");
+        }
+        char c = text.charAt(pos);
+        if (c == '{') {
+            return object();
+        }
+        else if (c == '[') {
+            return array();
+        }
+        else if (c == '"') {
+            return string();
+        }
+        else if (c == '-' || ('0' <= c && c <= '9')) {
+            return number();
+        }
+        else if (text.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        }
+        else if (text.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        }
+        else if (text.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        throw error("unexpected character '" + c + "'");
+    }
+
+    private Map<String, Object> object()
+    {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("expected a member name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            }
+            else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array()
+    {
+        List<Object> array = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            }
+            else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string()
+    {
+        StringBuilder builder = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            else if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                throw error("unterminated escape");
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+            case 'b': builder.append('\b'); break;
+            case 'f': builder.append('\f'); break;
+            case 'n': builder.append('\n'); break;
+            case 'r': builder.append('\r'); break;
+            case 't': builder.append('\t'); break;
+            case 'u':
+                if (pos + 4 > text.length()) {
+                    throw error("truncated unicode escape");
+                }
+                try {
+                    builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                }
+                catch (NumberFormatException e) {
+                    throw error("invalid unicode escape");
+                }
+                pos += 4;
+                break;
+            default:
+                builder.append(escaped);
+            }
+        }
+    }
+
+    private Number number()
+    {
+        int start = pos;
+        boolean integral = true;
+        if (peek() == '-') {
+            pos++;
+        }
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if ('0' <= c && c <= '9') {
+                pos++;
+            }
+            else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+                pos++;
+            }
+            else {
+                break;
+            }
+        }
+        String digits = text.substring(start, pos);
+        try {
+            return integral ? (Number) Long.valueOf(digits) : (Number) Double.valueOf(digits);
+        }
+        catch (NumberFormatException e) {
+            throw error("invalid number " + digits);
+        }
+    }
+
+    private char peek()
+    {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void expect(char c)
+    {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void skipWhitespace()
+    {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + message);
+    }
+}
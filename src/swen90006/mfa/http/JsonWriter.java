@@ -0,0 +1,251 @@
+package swen90006.mfa.http;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A streaming JSON encoder.
+ *
+ * Values are written straight to the underlying stream through a
+ * small fixed-size buffer, so arbitrarily long arrays of records can
+ * be encoded without holding the whole document in memory. The
+ * caller is responsible for producing well-formed nesting; the
+ * writer only inserts the commas between members and elements.
+ */
+public class JsonWriter implements Closeable, Flushable
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    //The maximum nesting depth of objects and arrays
+    private static final int MAX_DEPTH = 32;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    //For each open object or array, whether a value has been written
+    //and so the next value must be preceded by a comma
+    private final boolean[] needsComma;
+    private int depth;
+
+    //True if a member name has just been written
+    private boolean afterName;
+
+    /**
+     * @param out  the stream to encode to, as UTF-8
+     */
+    public JsonWriter(OutputStream out)
+    {
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.needsComma = new boolean[MAX_DEPTH + 1];
+    }
+
+    public JsonWriter beginObject() throws IOException
+    {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException
+    {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException
+    {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException
+    {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     */
+    public JsonWriter name(String name) throws IOException
+    {
+        beforeValue();
+        quoted(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException
+    {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        quoted(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException
+    {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        digits(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException
+    {
+        beforeValue();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException
+    {
+        beforeValue();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * Writes a record as an array of integers.
+     */
+    public JsonWriter value(List<Integer> record) throws IOException
+    {
+        if (record == null) {
+            return nullValue();
+        }
+        beginArray();
+        for (int i = 0; i < record.size(); i++) {
+            Integer element = record.get(i);
+            if (element == null) {
+                nullValue();
+            }
+            else {
+                value(element.intValue());
+            }
+        }
+        return endArray();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        drain();
+        out.close();
+    }
+
+    private void push() throws IOException
+    {
+        if (depth == MAX_DEPTH) {
+            throw new IOException("JSON nested too deeply");
+        }
+        depth++;
+        needsComma[depth] = false;
+    }
+
+    private void beforeValue() throws IOException
+    {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (needsComma[depth]) {
+            write(',');
+        }
+        needsComma[depth] = true;
+    }
+
+    //Writes a positive number without allocating its string form
+    private void digits(long value) throws IOException
+    {
+        if (value >= 10) {
+            digits(value / 10);
+        }
+        write((int) ('0' + value % 10));
+    }
+
+    private void quoted(String s) throws IOException
+    {
+        write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            }
+            else if (c < 0x20) {
+                ascii(String.format("\\u%04x", (int) c));
+            }
+            else if (c < 0x80) {
+                write(c);
+            }
+            else if (c < 0x800) {
+                write(0xc0 | (c >> 6));
+                write(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                     && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                write(0xf0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3f));
+                write(0x80 | ((cp >> 6) & 0x3f));
+                write(0x80 | (cp & 0x3f));
+            }
+            else {
+                write(0xe0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3f));
+                write(0x80 | (c & 0x3f));
+            }
+        }
+        write('"');
+    }
+
+    private void ascii(String s) throws IOException
+    {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    private void write(int b) throws IOException
+    {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void drain() throws IOException
+    {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package swen90006.mfa.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.VirtualThreads;
+import swen90006.mfa.limit.LoginLimitedException;
+import swen90006.mfa.limit.LoginLimiter;
+
+/**
+ * An HTTP/JSON front end for an MFA server, built on the JDK's
+ * built-in HTTP server.
+ *
+ * The endpoints are:
+ *
+ * - POST /register       {"username", "password", "deviceID"}
+ * - POST /login          {"username", "password"}
+ * - POST /push           {"username", "deviceID"}
+ * - GET  /push           ?username=&timeout=
+ * - GET  /authenticated  ?username=
+ * - POST /data           {"username", "record": [int, ...]}
+ * - GET  /data           ?username=&index=
+ * - GET  /data           ?username=&from=&to=
+ *
+ * GET /push waits up to 'timeout' milliseconds for the user to respond
+ * to their push notification, answering with their status as soon as
+ * they do: DOUBLE, or SINGLE if the time runs out.
+ *
+ * The last form of GET /data streams the records in [from, to) as a
+ * JSON array, stopping early at the end of the user's records. It is
+ * sent with chunked transfer encoding and encoded a few records at a
+ * time, so large ranges are never buffered whole. All other responses are
+ * small and sent with a fixed length.
+ *
+ * Connections are persistent (HTTP/1.1 keep-alive), and requests
+ * pipelined on one connection are answered in order: every handler
+ * consumes the whole request body and closes the exchange before the
+ * server reads the next request. Each exchange runs in its own virtual
+ * thread where the JDK supports them.
+ *
+ * MFA is not thread-safe, so every call on it is made while holding
+ * the MFA instance's monitor. Other front ends sharing the same
+ * instance must do the same.
+ *
+ * Errors are reported as {"error": exception name, "message": text}
+ * with the status codes 400 (invalid input), 401 (wrong password or
+ * device, or not authenticated), 404 (no such user or record), 405
+ * (wrong method), 409 (duplicate user) and 429 (too many logins, with
+ * a Retry-After header).
+ *
+ * Logins may be limited per user and per client IP address by a
+ * LoginLimiter.
+ */
+public class MFAHttpServer
+{
+    /** The largest request body accepted, in bytes */
+    public static final int MAX_REQUEST_BYTES = 1 << 20;
+
+    //The number of records read from MFA per lock acquisition when
+    //streaming a range
+    private static final int STREAM_BATCH = 64;
+
+    static {
+        //Small responses are written as separate header and body
+        //packets, which Nagle's algorithm delays by a round trip on
+        //keep-alive connections. The JDK server reads this once, when
+        //the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final MFA mfa;
+    private final LoginLimiter limiter;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a server for an MFA instance. The server does not
+     * accept connections until it is started.
+     *
+     * @param mfa      the MFA server to expose
+     * @param address  the address to listen on; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     */
+    public MFAHttpServer(MFA mfa, InetSocketAddress address)
+        throws IOException
+    {
+        this(mfa, address, null);
+    }
+
+    /**
+     * Creates a server for an MFA instance that limits logins. The
+     * server does not accept connections until it is started.
+     *
+     * @param mfa      the MFA server to expose
+     * @param address  the address to listen on; port 0 picks a free port
+     * @param limiter  the limiter for logins, or null for none
+     * @throws IOException if the address cannot be bound
+     */
+    public MFAHttpServer(MFA mfa, InetSocketAddress address, LoginLimiter limiter)
+        throws IOException
+    {
+        this.mfa = mfa;
+        this.limiter = limiter;
+        this.server = HttpServer.create(address, 0);
+        this.executor = VirtualThreads.newExecutor("mfa-http");
+        server.setExecutor(executor);
+        server.createContext("/register", new Handler() {
+                void handle(HttpExchange exchange, Map<String, String> query) throws Exception
+                {
+                    register(exchange);
+                }
+            });
+        server.createContext("/login", new Handler() {
+                void handle(HttpExchange exchange, Map<String, String> query) throws Exception
+                {
+                    login(exchange);
+                }
+            });
+        server.createContext("/push", new Handler() {
+                void handle(HttpExchange exchange, Map<String, String> query) throws Exception
+                {
+                    push(exchange, query);
+                }
+            });
+        server.createContext("/authenticated", new Handler() {
+                void handle(HttpExchange exchange, Map<String, String> query) throws Exception
+                {
+                    authenticated(exchange, query);
+                }
+            });
+        server.createContext("/data", new Handler() {
+                void handle(HttpExchange exchange, Map<String, String> query) throws Exception
+                {
+                    data(exchange, query);
+                }
+            });
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to 'delay' seconds for exchanges in
+     * progress to finish.
+     *
+     * @param delay  the maximum time to wait, in seconds
+     */
+    public void stop(int delay)
+    {
+        server.stop(delay);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the address the server is listening on
+     */
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+
+    private void register(HttpExchange exchange) throws Exception
+    {
+        requireMethod(exchange, "POST");
+        Map<String, Object> body = readBody(exchange);
+        String username = requireString(body, "username");
+        String password = requireString(body, "password");
+        String deviceID = optionalString(body, "deviceID");
+        synchronized (mfa) {
+            mfa.register(username, password, deviceID);
+        }
+        sendJson(exchange, 201, "username", username);
+    }
+
+    private void login(HttpExchange exchange) throws Exception
+    {
+        requireMethod(exchange, "POST");
+        Map<String, Object> body = readBody(exchange);
+        String username = requireString(body, "username");
+        String password = requireString(body, "password");
+        MFA.AuthenticationStatus status;
+        if (limiter != null) {
+            status = limiter.login(mfa, username, password,
+                                   exchange.getRemoteAddress().getAddress().getHostAddress());
+        }
+        else {
+            synchronized (mfa) {
+                status = mfa.login(username, password);
+            }
+        }
+        sendJson(exchange, 200, "status", String.valueOf(status));
+    }
+
+    private void push(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        if ("GET".equals(exchange.getRequestMethod())) {
+            awaitPush(exchange, query);
+            return;
+        }
+        requireMethod(exchange, "POST");
+        Map<String, Object> body = readBody(exchange);
+        String username = requireString(body, "username");
+        String deviceID = requireString(body, "deviceID");
+        MFA.AuthenticationStatus status;
+        synchronized (mfa) {
+            status = mfa.respondToPushNotification(username, deviceID);
+        }
+        sendJson(exchange, 200, "status", String.valueOf(status));
+    }
+
+    private void awaitPush(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        String username = requireParameter(query, "username");
+        int timeout = requireInt(query, "timeout");
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Parameter timeout must not be negative");
+        }
+        CompletableFuture<MFA.AuthenticationStatus> response;
+        synchronized (mfa) {
+            response = mfa.awaitPushResponse(username, timeout, TimeUnit.MILLISECONDS);
+        }
+        //Waits outside the lock, parking this exchange's thread
+        sendJson(exchange, 200, "status", String.valueOf(response.get()));
+    }
+
+    private void authenticated(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        requireMethod(exchange, "GET");
+        String username = requireParameter(query, "username");
+        boolean authenticated;
+        synchronized (mfa) {
+            authenticated = mfa.isAuthenticated(username);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        json.beginObject().name("authenticated").value(authenticated).endObject().flush();
+        send(exchange, 200, bytes.toByteArray());
+    }
+
+    private void data(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            addData(exchange);
+        }
+        else if (query.containsKey("index")) {
+            requireMethod(exchange, "GET");
+            getData(exchange, query);
+        }
+        else {
+            requireMethod(exchange, "GET");
+            streamData(exchange, query);
+        }
+    }
+
+    private void addData(HttpExchange exchange) throws Exception
+    {
+        Map<String, Object> body = readBody(exchange);
+        String username = requireString(body, "username");
+        List<Integer> record = requireRecord(body, "record");
+        synchronized (mfa) {
+            mfa.addData(username, record);
+        }
+        sendJson(exchange, 201, "username", username);
+    }
+
+    private void getData(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        String username = requireParameter(query, "username");
+        int index = requireInt(query, "index");
+        List<Integer> record;
+        synchronized (mfa) {
+            record = mfa.getData(username, index);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        json.value(record).flush();
+        send(exchange, 200, bytes.toByteArray());
+    }
+
+    private void streamData(HttpExchange exchange, Map<String, String> query) throws Exception
+    {
+        String username = requireParameter(query, "username");
+        int from = requireInt(query, "from");
+        int to = requireInt(query, "to");
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+
+        //Fail before committing to a 200 response if the user is unknown
+        //or not authenticated
+        List<List<Integer>> batch = new ArrayList<List<Integer>>(STREAM_BATCH);
+        int next = fetch(username, from, to, batch);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        JsonWriter json = new JsonWriter(exchange.getResponseBody());
+        json.beginArray();
+        while (!batch.isEmpty()) {
+            for (List<Integer> record : batch) {
+                json.value(record);
+            }
+            batch.clear();
+            try {
+                next = fetch(username, next, to, batch);
+            }
+            catch (NoSuchUserException | UnauthenticatedUserException e) {
+                //The user logged in again part way through; the status
+                //line has been sent, so just end the array here
+                break;
+            }
+        }
+        json.endArray();
+        json.close();
+    }
+
+    //Reads up to STREAM_BATCH records from [from, to) into batch,
+    //returning the index of the next record to read
+    private int fetch(String username, int from, int to, List<List<Integer>> batch)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        int index = from;
+        synchronized (mfa) {
+            if (!mfa.isAuthenticated(username)) {
+                throw new UnauthenticatedUserException(username);
+            }
+            try {
+                while (index < to && batch.size() < STREAM_BATCH) {
+                    batch.add(mfa.getData(username, index));
+                    index++;
+                }
+            }
+            catch (IndexOutOfBoundsException e) {
+                //End of the user's records
+                index = to;
+            }
+        }
+        return index;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method)
+        throws MethodNotAllowedException
+    {
+        if (!method.equals(exchange.getRequestMethod())) {
+            throw new MethodNotAllowedException(method);
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        byte[] bytes = in.readNBytes(MAX_REQUEST_BYTES + 1);
+        if (bytes.length > MAX_REQUEST_BYTES) {
+            throw new IllegalArgumentException("Request body too large");
+        }
+        return JsonReader.parseObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static String requireString(Map<String, Object> body, String name)
+    {
+        String value = optionalString(body, name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing \"" + name + "\"");
+        }
+        return value;
+    }
+
+    private static String optionalString(Map<String, Object> body, String name)
+    {
+        Object value = body.get(name);
+        if (value == null) {
+            return null;
+        }
+        else if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    private static List<Integer> requireRecord(Map<String, Object> body, String name)
+    {
+        Object value = body.get(name);
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be an array of integers");
+        }
+        List<?> elements = (List<?>) value;
+        List<Integer> record = new ArrayList<Integer>(elements.size());
+        for (Object element : elements) {
+            if (!(element instanceof Long) || (Long) element != ((Long) element).intValue()) {
+                throw new IllegalArgumentException("\"" + name + "\" must be an array of integers");
+            }
+            record.add(((Long) element).intValue());
+        }
+        return record;
+    }
+
+    private static String requireParameter(Map<String, String> query, String name)
+    {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int requireInt(Map<String, String> query, String name)
+    {
+        String value = requireParameter(query, name);
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an integer");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                               URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String name, String value)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        json.beginObject().name(name).value(value).endObject().flush();
+        send(exchange, status, bytes.toByteArray());
+    }
+
+    private static void sendError(HttpExchange exchange, int status, Exception e)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        json.beginObject()
+            .name("error").value(e.getClass().getSimpleName())
+            .name("message").value(e.getMessage())
+            .endObject()
+            .flush();
+        send(exchange, status, bytes.toByteArray());
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body)
+        throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * @param e  an exception thrown while handling a request
+     * @return the HTTP status code reporting it
+     */
+    static int statusFor(Exception e)
+    {
+        if (e instanceof InvalidUsernameException
+            || e instanceof InvalidPasswordException
+            || e instanceof IllegalArgumentException) {
+            return 400;
+        }
+        else if (e instanceof IncorrectPasswordException
+                 || e instanceof IncorrectDeviceIDException
+                 || e instanceof UnauthenticatedUserException) {
+            return 401;
+        }
+        else if (e instanceof NoSuchUserException
+                 || e instanceof IndexOutOfBoundsException) {
+            return 404;
+        }
+        else if (e instanceof MethodNotAllowedException) {
+            return 405;
+        }
+        else if (e instanceof DuplicateUserException) {
+            return 409;
+        }
+        else if (e instanceof LoginLimitedException) {
+            return 429;
+        }
+        return 500;
+    }
+
+    /**
+     * Runs a server on an empty MFA instance, limiting logins with
+     * the default limits.
+     *
+     * Usage: MFAHttpServer [port]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        MFAHttpServer server = new MFAHttpServer(new MFA(), new InetSocketAddress(port),
+                                                 new LoginLimiter());
+        server.start();
+        System.out.println("MFA HTTP server listening on " + server.getAddress());
+    }
+
+    //Parses the query string, runs the endpoint, and reports any
+    //exception it throws as a JSON error
+    private abstract static class Handler implements HttpHandler
+    {
+        abstract void handle(HttpExchange exchange, Map<String, String> query) throws Exception;
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            try {
+                handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            catch (Exception e) {
+                if (exchange.getResponseCode() == -1) {
+                    //Drain the body so the next pipelined request can be read
+                    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                    if (e instanceof LoginLimitedException) {
+                        exchange.getResponseHeaders().set("Retry-After", String.valueOf(
+                            ((LoginLimitedException) e).getRetryAfter(TimeUnit.SECONDS)));
+                    }
+                    sendError(exchange, statusFor(e), e);
+                }
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static class MethodNotAllowedException extends Exception
+    {
+        MethodNotAllowedException(String method)
+        {
+            super("Expected " + method);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package swen90006.mfa.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown by LoginLimiter when a login attempt is refused because the
+ * user or the source it came from has made too many attempts, or too
+ * many failed ones.
+ */
+public class LoginLimitedException extends Exception
+{
+    private final long retryAfter;
+
+    /**
+     * @param username    the username the attempt was for
+     * @param retryAfter  the time to wait, in nanoseconds, before the
+     *                    next attempt can succeed
+     */
+    public LoginLimitedException(String username, long retryAfter)
+    {
+        //Refused attempts are the common case under attack, so no
+        //stack trace is recorded
+        super("Too many login attempts for " + username + "; retry in "
+              + TimeUnit.NANOSECONDS.toMillis(retryAfter) + " ms", null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @param unit  the unit of the result
+     * @return the time to wait before the next attempt can succeed,
+     *         rounded up
+     */
+    public long getRetryAfter(TimeUnit unit)
+    {
+        long nanos = unit.toNanos(1);
+        return (retryAfter + nanos - 1) / nanos;
+    }
+}
@@ -0,0 +1,415 @@
+package swen90006.mfa.limit;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+
+/**
+ * Limits the rate of login attempts per user and per source, such as a
+ * client's IP address, and locks a user or source out for exponentially
+ * longer after repeated wrong passwords, so that password guessing
+ * costs an attacker time rather than costing the server CPU.
+ *
+ * Each user and each source has a token bucket: it holds up to 'burst'
+ * attempts and refills at a steady rate, and an attempt is refused when
+ * it is empty. Once a user or source has made Limits.failures wrong
+ * guesses in a row, every attempt is refused for a lockout period,
+ * which doubles with each further wrong guess up to a maximum. A
+ * correct password clears the user's count; the count is also
+ * forgotten once the maximum lockout has passed since the last wrong
+ * guess.
+ *
+ * The counters are kept in two fixed-size tables of longs, one for
+ * users and one for sources, updated only by compare-and-set, so any
+ * number of threads may use a limiter at once without locks, and an
+ * attempt allocates nothing unless it is refused. Each table is
+ * four-way set-associative on a hash of the name keyed by a secret
+ * chosen per limiter. An entry whose bucket has refilled and whose
+ * count has been forgotten is idle, and is reused for the next name
+ * that needs a slot, so idle users cost nothing. If every entry of a
+ * set is busy, a new name shares the entry that was charged longest
+ * ago, so a flood of names can only make limiting stricter, never
+ * reset it. Names whose hashes collide likewise share an entry.
+ */
+public class LoginLimiter
+{
+    /** The number of entries in each table by default */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * The limits applied to each user or each source.
+     */
+    public static final class Limits
+    {
+        /** By default, a user may make 10 attempts at once, then one a
+            second, and is locked out after 5 wrong passwords in a row
+            for 1 second, doubling to at most 15 minutes */
+        public static final Limits DEFAULT_USER = new Limits(1, 10, 5, 1000, 15 * 60 * 1000);
+
+        /** By default, a source may make 200 attempts at once, then 50
+            a second, and is locked out after 100 wrong passwords in a
+            row for 1 second, doubling to at most 15 minutes */
+        public static final Limits DEFAULT_SOURCE = new Limits(50, 200, 100, 1000, 15 * 60 * 1000);
+
+        private final long interval;
+        private final long tolerance;
+        private final int failures;
+        private final long lockout;
+        private final long maxLockout;
+
+        /**
+         * @param perSecond   the rate at which the bucket refills
+         * @param burst       the number of attempts the bucket holds
+         * @param failures    the number of wrong passwords in a row
+         *                    that starts a lockout; at most 255
+         * @param lockout     the first lockout, in milliseconds
+         * @param maxLockout  the longest lockout, in milliseconds
+         * @throws IllegalArgumentException if any is out of range
+         */
+        public Limits(double perSecond, int burst, int failures, long lockout, long maxLockout)
+        {
+            if (!(perSecond > 0) || burst < 1 || failures < 1 || failures > MAX_FAILURES
+                || lockout < 0 || maxLockout < lockout) {
+                throw new IllegalArgumentException("Invalid limits");
+            }
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+            this.tolerance = interval * (burst - 1);
+            this.failures = failures;
+            this.lockout = TimeUnit.MILLISECONDS.toNanos(lockout);
+            this.maxLockout = TimeUnit.MILLISECONDS.toNanos(maxLockout);
+        }
+
+        //The lockout after the given number of wrong passwords in a row
+        long lockoutAfter(int count)
+        {
+            if (count < failures) {
+                return 0;
+            }
+            int doublings = count - failures;
+            if (doublings >= 62 || lockout << doublings >>> doublings != lockout) {
+                return maxLockout;
+            }
+            return Math.min(maxLockout, lockout << doublings);
+        }
+    }
+
+    //Each failure word packs the count of wrong passwords in a row
+    //into its top bits and the time of the last one, in milliseconds,
+    //into the rest
+    private static final int MAX_FAILURES = 255;
+    private static final int COUNT_SHIFT = 48;
+    private static final long TIME_MASK = (1L << COUNT_SHIFT) - 1;
+
+    private final Counters users;
+    private final Counters sources;
+    private final LongSupplier clock;
+    private final long origin;
+
+    /**
+     * Constructs a limiter with the default limits and capacity.
+     */
+    public LoginLimiter()
+    {
+        this(Limits.DEFAULT_USER, Limits.DEFAULT_SOURCE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param userLimits    the limits for each user
+     * @param sourceLimits  the limits for each source
+     * @param capacity      the number of entries in each table, which
+     *                      should exceed the number of users and of
+     *                      sources that are limited at any one time
+     */
+    public LoginLimiter(Limits userLimits, Limits sourceLimits, int capacity)
+    {
+        this(userLimits, sourceLimits, capacity, System::nanoTime);
+    }
+
+    //For tests, which advance the clock themselves
+    LoginLimiter(Limits userLimits, Limits sourceLimits, int capacity, LongSupplier clock)
+    {
+        SecureRandom random = new SecureRandom();
+        this.users = new Counters(userLimits, capacity, random.nextLong());
+        this.sources = new Counters(sourceLimits, capacity, random.nextLong());
+        this.clock = clock;
+        //Times are kept relative to the limiter's creation, so that 0
+        //is in the past
+        this.origin = clock.getAsLong() - 1;
+    }
+
+    /**
+     * Takes an attempt from the source's bucket and then the user's,
+     * unless either is locked out or empty. An attempt refused by the
+     * source is not charged to the user, so an attacker who is already
+     * limited cannot empty other users' buckets.
+     *
+     * @param username  the username the attempt is for
+     * @param source    where the attempt came from, or null if unknown
+     * @return 0 if the attempt may go ahead, or else the time to wait,
+     *         in nanoseconds, before it could
+     */
+    public long tryAcquire(String username, String source)
+    {
+        long now = now();
+        if (source != null) {
+            long wait = sources.acquire(source, now);
+            if (wait != 0) {
+                return wait;
+            }
+        }
+        return users.acquire(username, now);
+    }
+
+    /**
+     * Records a wrong password, which counts towards a lockout of both
+     * the user and the source.
+     *
+     * @param username  the username
+     * @param source    where the attempt came from, or null if unknown
+     */
+    public void failed(String username, String source)
+    {
+        long now = now();
+        if (username != null) {
+            users.fail(username, now);
+        }
+        if (source != null) {
+            sources.fail(source, now);
+        }
+    }
+
+    /**
+     * Records a correct password, which clears the user's count of
+     * wrong passwords. The source's count is left, as a source may
+     * serve many users.
+     *
+     * @param username  the username
+     */
+    public void succeeded(String username)
+    {
+        users.clear(username);
+    }
+
+    /**
+     * Logs a user in if the limits allow the attempt, recording whether
+     * the password was right. A login for an unknown user counts
+     * towards the source's lockout only.
+     *
+     * Like the network front ends, this holds the MFA server's monitor
+     * while calling it.
+     *
+     * @param mfa       the server
+     * @param username  the username
+     * @param password  the password
+     * @param source    where the attempt came from, or null if unknown
+     * @return the user's authentication status
+     * @throws LoginLimitedException if the attempt is refused
+     * @throws NoSuchUserException if the user does not have an account
+     * @throws IncorrectPasswordException if the password is incorrect
+     */
+    public MFA.AuthenticationStatus login(MFA mfa, String username, String password,
+                                          String source)
+        throws LoginLimitedException, NoSuchUserException, IncorrectPasswordException
+    {
+        long wait = tryAcquire(username, source);
+        if (wait != 0) {
+            throw new LoginLimitedException(username, wait);
+        }
+        MFA.AuthenticationStatus status;
+        try {
+            synchronized (mfa) {
+                status = mfa.login(username, password);
+            }
+        }
+        catch (IncorrectPasswordException e) {
+            failed(username, source);
+            throw e;
+        }
+        catch (NoSuchUserException e) {
+            failed(null, source);
+            throw e;
+        }
+        succeeded(username);
+        return status;
+    }
+
+    /**
+     * @return the number of users with an entry that is not idle
+     */
+    public int activeUsers()
+    {
+        return users.active(now());
+    }
+
+    /**
+     * @return the number of sources with an entry that is not idle
+     */
+    public int activeSources()
+    {
+        return sources.active(now());
+    }
+
+    private long now()
+    {
+        return clock.getAsLong() - origin;
+    }
+
+    //A table of counters, in which each entry is three longs: the hash
+    //of its name (0 if never used), the time at which its bucket will
+    //be full again, and its failure word. The bucket is kept as that
+    //single time, as in the generic cell rate algorithm: an attempt is
+    //allowed if the time is no more than the burst ahead of now, and
+    //moves it one interval further on.
+    private static final class Counters
+    {
+        private static final int WAYS = 4;
+        private static final int KEY = 0;
+        private static final int FULL = 1;
+        private static final int FAILURES = 2;
+
+        private final Limits limits;
+        private final AtomicLongArray entries;
+        private final int setMask;
+        private final long secret;
+
+        Counters(Limits limits, int capacity, long secret)
+        {
+            int needed = (Math.max(1, capacity) + WAYS - 1) / WAYS;
+            int sets = needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+            this.limits = limits;
+            this.entries = new AtomicLongArray(3 * WAYS * sets);
+            this.setMask = sets - 1;
+            this.secret = secret;
+        }
+
+        long acquire(String name, long now)
+        {
+            int entry = claim(hash(name), now);
+            long locked = lockedUntil(entries.get(entry + FAILURES), now);
+            if (locked > now) {
+                return locked - now;
+            }
+            while (true) {
+                long full = entries.get(entry + FULL);
+                long from = Math.max(full, now);
+                if (from - now > limits.tolerance) {
+                    return from - now - limits.tolerance;
+                }
+                if (entries.compareAndSet(entry + FULL, full, from + limits.interval)) {
+                    return 0;
+                }
+            }
+        }
+
+        void fail(String name, long now)
+        {
+            int entry = claim(hash(name), now);
+            long millis = TimeUnit.NANOSECONDS.toMillis(now) & TIME_MASK;
+            while (true) {
+                long word = entries.get(entry + FAILURES);
+                int count = forgotten(word, now) ? 0 : (int) (word >>> COUNT_SHIFT);
+                long next = (long) Math.min(count + 1, MAX_FAILURES) << COUNT_SHIFT | millis;
+                if (entries.compareAndSet(entry + FAILURES, word, next)) {
+                    return;
+                }
+            }
+        }
+
+        void clear(String name)
+        {
+            long key = hash(name);
+            int base = set(key);
+            for (int way = 0; way < WAYS; way++) {
+                int entry = base + 3 * way;
+                if (entries.get(entry + KEY) == key) {
+                    entries.set(entry + FAILURES, 0);
+                    return;
+                }
+            }
+        }
+
+        int active(long now)
+        {
+            int active = 0;
+            for (int entry = 0; entry < entries.length(); entry += 3) {
+                if (entries.get(entry + KEY) != 0 && !idle(entry, now)) {
+                    active++;
+                }
+            }
+            return active;
+        }
+
+        //The entry for a name: its own, else an empty or idle one taken
+        //over for it, else the one in its set charged longest ago
+        private int claim(long key, long now)
+        {
+            int base = set(key);
+            for (int way = 0; way < WAYS; way++) {
+                if (entries.get(base + 3 * way + KEY) == key) {
+                    return base + 3 * way;
+                }
+            }
+            int oldest = base;
+            for (int way = 0; way < WAYS; way++) {
+                int entry = base + 3 * way;
+                long previous = entries.get(entry + KEY);
+                if ((previous == 0 || idle(entry, now))
+                    && entries.compareAndSet(entry + KEY, previous, key)) {
+                    return entry;
+                }
+                if (entries.get(entry + FULL) < entries.get(oldest + FULL)) {
+                    oldest = entry;
+                }
+            }
+            return oldest;
+        }
+
+        //An entry is idle when it is as a new one would be: its bucket
+        //is full and it has no failures to remember
+        private boolean idle(int entry, long now)
+        {
+            return entries.get(entry + FULL) <= now && forgotten(entries.get(entry + FAILURES), now);
+        }
+
+        private boolean forgotten(long word, long now)
+        {
+            long since = (TimeUnit.NANOSECONDS.toMillis(now) - (word & TIME_MASK)) & TIME_MASK;
+            return word >>> COUNT_SHIFT == 0
+                || TimeUnit.MILLISECONDS.toNanos(since) > limits.maxLockout;
+        }
+
+        private long lockedUntil(long word, long now)
+        {
+            if (forgotten(word, now)) {
+                return 0;
+            }
+            long last = TimeUnit.MILLISECONDS.toNanos(word & TIME_MASK);
+            return last + limits.lockoutAfter((int) (word >>> COUNT_SHIFT));
+        }
+
+        private int set(long key)
+        {
+            return 3 * WAYS * ((int) (key ^ key >>> 32) & setMask);
+        }
+
+        //A 64-bit hash of the name keyed by the table's secret, never 0
+        private long hash(String name)
+        {
+            long h = secret;
+            for (int i = 0; i < name.length(); i++) {
+                h = (h ^ name.charAt(i)) * 0x100000001B3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h == 0 ? 1 : h;
+        }
+    }
+}
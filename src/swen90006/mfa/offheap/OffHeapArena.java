@@ -0,0 +1,274 @@
+package swen90006.mfa.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory outside the Java heap, handed out in chunks, for storing MFA
+ * records without putting them in front of the garbage collector.
+ *
+ * Memory is reserved from the operating system in direct ByteBuffer
+ * segments of SEGMENT_SIZE bytes, and divided into chunks whose sizes
+ * are powers of two. A freed chunk goes on a free list for its size
+ * and is handed out again before any new memory is reserved, so a
+ * store whose users come and go stays the same size. A chunk larger
+ * than a segment gets a segment of its own, which is dropped when the
+ * chunk is freed.
+ *
+ * A chunk is named by a handle: its segment's index in the high 32
+ * bits and its offset in the low 32. Handles are only meaningful to
+ * the arena that issued them, and only until they are freed; the
+ * holder of a handle, such as OffHeapRecords, must forget it when
+ * freeing it. Once the arena is closed, every use of it throws
+ * IllegalStateException, and its segments are released when the
+ * collector next reclaims the buffers.
+ *
+ * The counts returned by reservedBytes, allocatedBytes and freeBytes
+ * account for all of the arena's memory: reserved memory is either
+ * allocated, on a free list, or not yet handed out.
+ *
+ * The methods are synchronized, so an arena may be shared between
+ * servers, except segment, which takes no lock: the segments are held
+ * in an array that is copied, changed and republished through a
+ * volatile field whenever one is added or dropped, so a reader always
+ * sees a whole array.
+ */
+public final class OffHeapArena implements AutoCloseable
+{
+    /** The size of each segment reserved, in bytes */
+    public static final int SEGMENT_SIZE = 1 << 20;
+
+    /** The size of the smallest chunk, in bytes */
+    public static final int MINIMUM_CHUNK = 16;
+
+    //Size classes run from MINIMUM_CHUNK up to SEGMENT_SIZE
+    private static final int CLASSES = Integer.numberOfTrailingZeros(SEGMENT_SIZE)
+        - Integer.numberOfTrailingZeros(MINIMUM_CHUNK) + 1;
+
+    //Replaced, never changed in place, and null once closed
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    private final List<Integer> emptySegments = new ArrayList<Integer>();
+    private final long[][] freeLists = new long[CLASSES][];
+    private final int[] freeCounts = new int[CLASSES];
+
+    //The segment being carved into chunks, and how much of it is used
+    private int current = -1;
+    private int used = SEGMENT_SIZE;
+
+    private long reserved;
+    private long allocated;
+    private long free;
+    private long chunks;
+
+    /**
+     * @param bytes  a number of bytes
+     * @return the size of the chunk that holds them
+     */
+    public static int chunkSize(int bytes)
+    {
+        if (bytes <= MINIMUM_CHUNK) {
+            return MINIMUM_CHUNK;
+        }
+        int size = Integer.highestOneBit(bytes - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk too large: " + bytes);
+        }
+        return size;
+    }
+
+    /**
+     * Allocates a chunk of at least the given size. Its contents are
+     * undefined.
+     *
+     * @param bytes  the size needed
+     * @return the chunk's handle
+     * @throws IllegalStateException if the arena is closed
+     */
+    public synchronized long allocate(int bytes)
+    {
+        checkOpen();
+        int size = chunkSize(bytes);
+        long handle;
+        if (size > SEGMENT_SIZE) {
+            handle = handle(addSegment(size), 0);
+        }
+        else {
+            int sizeClass = sizeClass(size);
+            if (freeCounts[sizeClass] > 0) {
+                handle = freeLists[sizeClass][--freeCounts[sizeClass]];
+                free -= size;
+            }
+            else {
+                if (used + size > SEGMENT_SIZE) {
+                    //The rest of the segment is too small, so it is
+                    //split into free chunks rather than wasted
+                    while (used < SEGMENT_SIZE) {
+                        int piece = Integer.lowestOneBit(used);
+                        push(handle(current, used), piece);
+                        used += piece;
+                    }
+                    current = addSegment(SEGMENT_SIZE);
+                    used = 0;
+                }
+                handle = handle(current, used);
+                used += size;
+            }
+        }
+        allocated += size;
+        chunks++;
+        return handle;
+    }
+
+    /**
+     * Frees a chunk, which may then be handed out again.
+     *
+     * @param handle  the chunk's handle
+     * @param bytes   the size it was allocated with
+     * @throws IllegalStateException if the arena is closed
+     */
+    public synchronized void free(long handle, int bytes)
+    {
+        checkOpen();
+        int size = chunkSize(bytes);
+        allocated -= size;
+        chunks--;
+        if (size > SEGMENT_SIZE) {
+            int segment = (int) (handle >>> 32);
+            ByteBuffer[] copy = segments.clone();
+            copy[segment] = null;
+            segments = copy;
+            emptySegments.add(segment);
+            reserved -= size;
+        }
+        else {
+            push(handle, size);
+        }
+    }
+
+    /**
+     * @param handle  a chunk's handle
+     * @return the segment holding the chunk, in native byte order
+     * @throws IllegalStateException if the arena is closed
+     */
+    public ByteBuffer segment(long handle)
+    {
+        ByteBuffer[] segments = this.segments;
+        if (segments == null) {
+            throw new IllegalStateException("Arena closed");
+        }
+        return segments[(int) (handle >>> 32)];
+    }
+
+    /**
+     * @param handle  a chunk's handle
+     * @return the offset of the chunk in its segment
+     */
+    public static int offset(long handle)
+    {
+        return (int) handle;
+    }
+
+    /**
+     * @return the bytes reserved from the operating system
+     */
+    public synchronized long reservedBytes()
+    {
+        return reserved;
+    }
+
+    /**
+     * @return the bytes in chunks that are allocated
+     */
+    public synchronized long allocatedBytes()
+    {
+        return allocated;
+    }
+
+    /**
+     * @return the bytes in chunks that have been freed and are waiting
+     *         to be handed out again
+     */
+    public synchronized long freeBytes()
+    {
+        return free;
+    }
+
+    /**
+     * @return the number of chunks allocated
+     */
+    public synchronized long chunkCount()
+    {
+        return chunks;
+    }
+
+    /**
+     * Releases all of the arena's memory. Chunks need not be freed
+     * first, but must not be used afterwards.
+     */
+    @Override
+    public synchronized void close()
+    {
+        segments = null;
+        reserved = 0;
+        allocated = 0;
+        free = 0;
+        chunks = 0;
+    }
+
+    /**
+     * @return the memory accounting, as a string
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("OffHeapArena[reserved=%d, allocated=%d in %d chunks, free=%d]",
+                             reserved, allocated, chunks, free);
+    }
+
+    private void checkOpen()
+    {
+        if (segments == null) {
+            throw new IllegalStateException("Arena closed");
+        }
+    }
+
+    private int addSegment(int size)
+    {
+        ByteBuffer segment = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        reserved += size;
+        int index = emptySegments.isEmpty() ? segments.length
+            : emptySegments.remove(emptySegments.size() - 1);
+        ByteBuffer[] copy = Arrays.copyOf(segments, Math.max(segments.length, index + 1));
+        copy[index] = segment;
+        segments = copy;
+        return index;
+    }
+
+    private void push(long handle, int size)
+    {
+        int sizeClass = sizeClass(size);
+        long[] list = freeLists[sizeClass];
+        if (list == null || freeCounts[sizeClass] == list.length) {
+            long[] larger = new long[list == null ? 16 : 2 * list.length];
+            if (list != null) {
+                System.arraycopy(list, 0, larger, 0, list.length);
+            }
+            freeLists[sizeClass] = list = larger;
+        }
+        list[freeCounts[sizeClass]++] = handle;
+        free += size;
+    }
+
+    private static int sizeClass(int size)
+    {
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MINIMUM_CHUNK);
+    }
+
+    private static long handle(int segment, int offset)
+    {
+        return (long) segment << 32 | offset;
+    }
+}
@@ -0,0 +1,185 @@
+package swen90006.mfa.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import swen90006.mfa.IntRecord;
+
+/**
+ * A user's list of records, packed as ints in an OffHeapArena rather
+ * than held as boxed Integers on the heap.
+ *
+ * The records' values are packed end to end in one chunk, and the
+ * index at which each record starts in another, so get is O(1). Both
+ * chunks are allocated on the first add and moved to chunks twice the
+ * size when full. On the heap, the list costs this one object however
+ * many records it holds.
+ *
+ * Records are copied in by add and out by get, which returns a new
+ * IntRecord, so a record read back is equal to, but not the same
+ * object as, the one added. Records must not contain nulls.
+ *
+ * Once freed, the list is empty and its chunks are back in the arena;
+ * adding to it throws IllegalStateException. Like MFA's other lists,
+ * it is not thread-safe.
+ */
+public final class OffHeapRecords extends AbstractList<List<Integer>> implements RandomAccess
+{
+    private static final long NONE = -1;
+
+    private final OffHeapArena arena;
+    private long values = NONE;
+    private int valuesCapacity;
+    private int valueCount;
+    private long starts = NONE;
+    private int startsCapacity;
+    private int size;
+    private boolean freed;
+
+    /**
+     * Constructs an empty list, which allocates nothing until a record
+     * is added.
+     *
+     * @param arena  the arena to hold the records in
+     */
+    public OffHeapRecords(OffHeapArena arena)
+    {
+        this.arena = arena;
+    }
+
+    /**
+     * @param arena    the arena to hold the records in
+     * @param records  the records to copy in
+     * @return a list holding copies of the records
+     */
+    public static OffHeapRecords copyOf(OffHeapArena arena, List<List<Integer>> records)
+    {
+        OffHeapRecords copy = new OffHeapRecords(arena);
+        for (List<Integer> record : records) {
+            copy.add(record);
+        }
+        return copy;
+    }
+
+    @Override
+    public List<Integer> get(int index)
+    {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length "
+                                                + size);
+        }
+        ByteBuffer startSegment = arena.segment(starts);
+        int startBase = OffHeapArena.offset(starts);
+        int start = startSegment.getInt(startBase + 4 * index);
+        int end = index + 1 < size ? startSegment.getInt(startBase + 4 * (index + 1)) : valueCount;
+        int[] record = new int[end - start];
+        if (record.length == 0) {
+            return new IntRecord(record);
+        }
+        ByteBuffer valueSegment = arena.segment(values);
+        int valueBase = OffHeapArena.offset(values) + 4 * start;
+        for (int i = 0; i < record.length; i++) {
+            record[i] = valueSegment.getInt(valueBase + 4 * i);
+        }
+        return new IntRecord(record);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean add(List<Integer> record)
+    {
+        if (freed) {
+            throw new IllegalStateException("Records freed");
+        }
+        IntRecord ints = IntRecord.copyOf(record);
+        if (4 * (size + 1) > startsCapacity) {
+            starts = grow(starts, startsCapacity, 4 * size, 4 * (size + 1));
+            startsCapacity = OffHeapArena.chunkSize(Math.max(4 * (size + 1), 2 * startsCapacity));
+        }
+        long needed = 4L * (valueCount + ints.size());
+        if (needed > Integer.MAX_VALUE / 2) {
+            throw new IllegalStateException("Too many values for one user");
+        }
+        if (needed > valuesCapacity) {
+            values = grow(values, valuesCapacity, 4 * valueCount, (int) needed);
+            valuesCapacity = OffHeapArena.chunkSize(Math.max((int) needed, 2 * valuesCapacity));
+        }
+        arena.segment(starts).putInt(OffHeapArena.offset(starts) + 4 * size, valueCount);
+        if (ints.size() > 0) {
+            ByteBuffer valueSegment = arena.segment(values);
+            int valueBase = OffHeapArena.offset(values) + 4 * valueCount;
+            for (int i = 0; i < ints.size(); i++) {
+                valueSegment.putInt(valueBase + 4 * i, ints.getInt(i));
+            }
+        }
+        valueCount += ints.size();
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @return the off-heap bytes allocated to the list
+     */
+    public long allocatedBytes()
+    {
+        return (long) valuesCapacity + startsCapacity;
+    }
+
+    /**
+     * Returns the list's memory to the arena and empties it. Freeing
+     * twice does nothing.
+     */
+    public void free()
+    {
+        if (freed) {
+            return;
+        }
+        freed = true;
+        if (starts != NONE) {
+            arena.free(starts, startsCapacity);
+        }
+        if (values != NONE) {
+            arena.free(values, valuesCapacity);
+        }
+        starts = NONE;
+        values = NONE;
+        startsCapacity = 0;
+        valuesCapacity = 0;
+        valueCount = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return true if and only if the list has been freed
+     */
+    public boolean isFreed()
+    {
+        return freed;
+    }
+
+    //Moves 'used' bytes of a chunk to a chunk of at least twice its
+    //capacity and at least 'needed' bytes, freeing the old one
+    private long grow(long chunk, int capacity, int used, int needed)
+    {
+        int bytes = Math.max(needed, 2 * capacity);
+        long larger = arena.allocate(bytes);
+        if (chunk != NONE) {
+            ByteBuffer from = arena.segment(chunk).duplicate();
+            from.limit(OffHeapArena.offset(chunk) + used).position(OffHeapArena.offset(chunk));
+            ByteBuffer to = arena.segment(larger).duplicate();
+            to.position(OffHeapArena.offset(larger));
+            to.put(from);
+            arena.free(chunk, capacity);
+        }
+        return larger;
+    }
+}
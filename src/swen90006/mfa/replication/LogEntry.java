@@ -0,0 +1,162 @@
+package swen90006.mfa.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+
+/**
+ * One successful change to the primary's MFA server, as shipped to
+ * its replicas.
+ *
+ * Replicas replay each change by making the same call on their own
+ * MFA server. Replaying the calls in the primary's order reproduces
+ * the primary's state, because MFA is deterministic.
+ */
+final class LogEntry
+{
+    static final byte REGISTER = 1;
+    static final byte LOGIN = 2;
+    static final byte PUSH = 3;
+    static final byte ADD_DATA = 4;
+    static final byte IMPORT_USER = 5;
+
+    final long sequence;
+    final long timestamp;
+    final byte op;
+    final String username;
+
+    //The password for REGISTER and LOGIN
+    final String password;
+
+    //The device ID for REGISTER and PUSH
+    final String deviceID;
+
+    //The record for ADD_DATA
+    final IntRecord record;
+
+    //The user for IMPORT_USER
+    final UserState user;
+
+    LogEntry(long sequence, long timestamp, byte op, String username, String password,
+             String deviceID, IntRecord record, UserState user)
+    {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.op = op;
+        this.username = username;
+        this.password = password;
+        this.deviceID = deviceID;
+        this.record = record;
+        this.user = user;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeLong(sequence);
+        out.writeLong(timestamp);
+        out.writeByte(op);
+        switch (op) {
+        case REGISTER:
+            writeString(out, username);
+            writeString(out, password);
+            writeString(out, deviceID);
+            break;
+        case LOGIN:
+            writeString(out, username);
+            writeString(out, password);
+            break;
+        case PUSH:
+            writeString(out, username);
+            writeString(out, deviceID);
+            break;
+        case ADD_DATA:
+            writeString(out, username);
+            writeRecord(out, record);
+            break;
+        case IMPORT_USER:
+            writeString(out, user.getUsername());
+            writeString(out, user.getPassword());
+            writeString(out, user.getDeviceID());
+            out.writeByte(user.getStatus().ordinal());
+            out.writeInt(user.getRecords().size());
+            for (List<Integer> record : user.getRecords()) {
+                writeRecord(out, IntRecord.copyOf(record));
+            }
+            break;
+        default:
+            throw new IllegalStateException("Unknown op " + op);
+        }
+    }
+
+    static LogEntry readFrom(DataInputStream in) throws IOException
+    {
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        byte op = in.readByte();
+        switch (op) {
+        case REGISTER:
+            return new LogEntry(sequence, timestamp, op, readString(in), readString(in),
+                                readString(in), null, null);
+        case LOGIN:
+            return new LogEntry(sequence, timestamp, op, readString(in), readString(in),
+                                null, null, null);
+        case PUSH:
+            return new LogEntry(sequence, timestamp, op, readString(in), null,
+                                readString(in), null, null);
+        case ADD_DATA:
+            return new LogEntry(sequence, timestamp, op, readString(in), null, null,
+                                readRecord(in), null);
+        case IMPORT_USER: {
+            String username = readString(in);
+            String password = readString(in);
+            String deviceID = readString(in);
+            MFA.AuthenticationStatus status = MFA.AuthenticationStatus.values()[in.readByte()];
+            int count = in.readInt();
+            List<List<Integer>> records = new ArrayList<List<Integer>>(count);
+            for (int i = 0; i < count; i++) {
+                records.add(readRecord(in));
+            }
+            return new LogEntry(sequence, timestamp, op, username, null, null, null,
+                                new UserState(username, password, deviceID, status, records));
+        }
+        default:
+            throw new IOException("Unknown op " + op);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeRecord(DataOutputStream out, IntRecord record) throws IOException
+    {
+        out.writeInt(record.size());
+        for (int i = 0; i < record.size(); i++) {
+            out.writeInt(record.getInt(i));
+        }
+    }
+
+    private static IntRecord readRecord(DataInputStream in) throws IOException
+    {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return new IntRecord(values);
+    }
+}
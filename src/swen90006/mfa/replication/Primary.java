@@ -0,0 +1,358 @@
+package swen90006.mfa.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+import swen90006.mfa.VirtualThreads;
+
+/**
+ * An MFA server whose changes are shipped to read replicas.
+ *
+ * Every successful call that changes the server (register, login,
+ * respondToPushNotification and addData) is appended to a numbered
+ * log in the order it was applied. Replicas connect over TCP, say how
+ * much of the log they already have, and are sent the rest as it is
+ * written. Each replica acknowledges what it has applied, which gives
+ * the primary its view of replication lag.
+ *
+ * The log only keeps the changes some connected replica has not yet
+ * applied, or, while none is connected, those made since, and never
+ * more than MAX_LOG. A replica that asks for changes no longer kept,
+ * because it joined late or fell too far behind, is sent a snapshot of
+ * every user instead, and follows the log from there.
+ *
+ * Calls may be made from any number of threads.
+ */
+public class Primary
+{
+    /** Entries shipped per batch */
+    static final int BATCH = 256;
+
+    /** Milliseconds between heartbeats to an idle replica */
+    static final long HEARTBEAT = 100;
+
+    /** The most changes kept for replicas that have not applied them */
+    public static final int MAX_LOG = 1 << 16;
+
+    /** The count that marks a snapshot rather than a batch of changes */
+    static final int SNAPSHOT = -1;
+
+    private final MFA mfa;
+    private final ReplicationLog log;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Map<Socket, Long> acknowledged;
+
+    /**
+     * Creates a primary for an MFA instance. Any users it already
+     * holds are written to the log first, so that replicas start with
+     * them. Replicas cannot connect until the primary is started.
+     *
+     * @param mfa      the MFA server; all further changes to it must
+     *                 be made through this primary
+     * @param address  the address to accept replicas on; port 0 picks a
+     *                 free port
+     * @throws IOException if the address cannot be bound
+     */
+    public Primary(MFA mfa, InetSocketAddress address)
+        throws IOException
+    {
+        this(mfa, address, MAX_LOG);
+    }
+
+    //As above, keeping at most 'maxLog' changes
+    Primary(MFA mfa, InetSocketAddress address, int maxLog)
+        throws IOException
+    {
+        this.mfa = mfa;
+        this.log = new ReplicationLog(maxLog);
+        this.serverSocket = new ServerSocket();
+        this.executor = VirtualThreads.newExecutor("mfa-primary");
+        this.acknowledged = new ConcurrentHashMap<Socket, Long>();
+        synchronized (mfa) {
+            for (String username : mfa.getUsers()) {
+                try {
+                    log.append(LogEntry.IMPORT_USER, username, null, null, null,
+                               mfa.exportUser(username));
+                }
+                catch (NoSuchUserException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        serverSocket.bind(address);
+    }
+
+    /**
+     * Starts accepting replicas.
+     */
+    public void start()
+    {
+        executor.execute(this::accept);
+    }
+
+    /**
+     * Disconnects all replicas and stops accepting new ones.
+     */
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        for (Socket socket : acknowledged.keySet()) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the address replicas connect to
+     */
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return the sequence number of the last change, or 0 if there
+     *         have been none
+     */
+    public long lastSequence()
+    {
+        return log.lastSequence();
+    }
+
+    /**
+     * @return the number of changes kept for replicas that have not
+     *         yet applied them
+     */
+    public int retainedChanges()
+    {
+        return log.size();
+    }
+
+    /**
+     * @return for each connected replica, the number of changes it has
+     *         not yet acknowledged applying
+     */
+    public Map<InetSocketAddress, Long> getReplicaLag()
+    {
+        long last = log.lastSequence();
+        Map<InetSocketAddress, Long> lag = new HashMap<InetSocketAddress, Long>();
+        for (Map.Entry<Socket, Long> entry : acknowledged.entrySet()) {
+            lag.put((InetSocketAddress) entry.getKey().getRemoteSocketAddress(),
+                    last - entry.getValue());
+        }
+        return lag;
+    }
+
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        synchronized (mfa) {
+            mfa.register(username, password, deviceID);
+            log.append(LogEntry.REGISTER, username, password, deviceID, null, null);
+        }
+    }
+
+    public boolean isUser(String username)
+    {
+        synchronized (mfa) {
+            return mfa.isUser(username);
+        }
+    }
+
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        synchronized (mfa) {
+            MFA.AuthenticationStatus status = mfa.login(username, password);
+            log.append(LogEntry.LOGIN, username, password, null, null, null);
+            return status;
+        }
+    }
+
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        synchronized (mfa) {
+            MFA.AuthenticationStatus status = mfa.respondToPushNotification(username, deviceID);
+            log.append(LogEntry.PUSH, username, null, deviceID, null, null);
+            return status;
+        }
+    }
+
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        synchronized (mfa) {
+            return mfa.isAuthenticated(username);
+        }
+    }
+
+    public void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        synchronized (mfa) {
+            mfa.addData(username, record);
+            log.append(LogEntry.ADD_DATA, username, null, null, IntRecord.copyOf(record), null);
+        }
+    }
+
+    public List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        synchronized (mfa) {
+            return mfa.getData(username, index);
+        }
+    }
+
+    private void accept()
+    {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> ship(socket));
+            }
+        }
+        catch (IOException e) {
+            //The server socket was closed
+        }
+    }
+
+    //Sends a replica the log from the point it asks for, reading its
+    //acknowledgements on a second thread. Each batch is preceded by
+    //the primary's last sequence number and the number of entries in
+    //the batch; an empty batch is a heartbeat. If the log no longer
+    //holds the entries the replica needs, it is sent a snapshot.
+    private void ship(Socket socket)
+    {
+        try (socket) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            long sent = in.readLong();
+            acknowledged.put(socket, sent);
+            executor.execute(() -> readAcknowledgements(socket, in));
+            while (!socket.isClosed()) {
+                List<LogEntry> entries = log.after(sent, BATCH, HEARTBEAT);
+                if (entries == null) {
+                    sent = sendSnapshot(out);
+                    continue;
+                }
+                out.writeLong(log.lastSequence());
+                out.writeInt(entries.size());
+                for (LogEntry entry : entries) {
+                    entry.writeTo(out);
+                    sent = entry.sequence;
+                }
+                out.flush();
+            }
+        }
+        catch (IOException | InterruptedException e) {
+            //The replica disconnected or the primary was closed
+        }
+        finally {
+            acknowledged.remove(socket);
+            trim();
+        }
+    }
+
+    //Sends every user as they are now, preceded by the sequence number
+    //of the last change made to them, SNAPSHOT, the time and the
+    //number of users, and returns that sequence number
+    private long sendSnapshot(DataOutputStream out) throws IOException
+    {
+        List<UserState> users = new ArrayList<UserState>();
+        long sequence;
+        synchronized (mfa) {
+            sequence = log.lastSequence();
+            for (String username : mfa.getUsers()) {
+                try {
+                    users.add(mfa.exportUser(username));
+                }
+                catch (NoSuchUserException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        out.writeLong(sequence);
+        out.writeInt(SNAPSHOT);
+        out.writeLong(now);
+        out.writeInt(users.size());
+        for (UserState user : users) {
+            new LogEntry(sequence, now, LogEntry.IMPORT_USER, user.getUsername(), null, null,
+                         null, user).writeTo(out);
+        }
+        out.flush();
+        return sequence;
+    }
+
+    //Drops the changes every connected replica has applied. While none
+    //is connected, changes are kept, up to MAX_LOG, for one that
+    //reconnects to resume from
+    private void trim()
+    {
+        long applied = Long.MAX_VALUE;
+        for (long sequence : acknowledged.values()) {
+            applied = Math.min(applied, sequence);
+        }
+        if (applied != Long.MAX_VALUE) {
+            log.trim(applied);
+        }
+    }
+
+    private void readAcknowledgements(Socket socket, DataInputStream in)
+    {
+        try {
+            while (true) {
+                long applied = in.readLong();
+                acknowledged.replace(socket, applied);
+                trim();
+            }
+        }
+        catch (IOException e) {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs a primary on an empty MFA instance.
+     *
+     * Usage: Primary [port]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9191;
+        Primary primary = new Primary(new MFA(), new InetSocketAddress(port));
+        primary.start();
+        System.out.println("MFA primary accepting replicas on " + primary.getAddress());
+    }
+}
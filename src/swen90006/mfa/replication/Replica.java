@@ -0,0 +1,365 @@
+package swen90006.mfa.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+
+/**
+ * A read-only copy of a primary's MFA server, kept up to date by
+ * replaying the primary's log.
+ *
+ * The replica applies changes in the primary's order on a thread of
+ * its own, and serves isUser, isAuthenticated and getData from its
+ * copy. Reads may be behind the primary; awaitSequence lets a caller
+ * wait until a given change has been applied. If the connection to
+ * the primary is lost, the replica reconnects and resumes from the
+ * last change it applied, or, if the primary no longer keeps the
+ * changes after it, starts again from a snapshot. If a change the
+ * primary made cannot be made on the copy, the replica has diverged:
+ * it stops following the primary, and getFailure says why.
+ *
+ * Calls may be made from any number of threads.
+ */
+public class Replica
+{
+    /** Milliseconds to wait before reconnecting to the primary */
+    static final long RECONNECT_DELAY = 100;
+
+    //Replaced whole by a snapshot, so read once per call
+    private volatile MFA mfa;
+    private final InetSocketAddress primary;
+    private final Object progress;
+    private final long started;
+    private volatile long applied;
+    private volatile long appliedTimestamp;
+    private volatile long primarySequence;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private volatile IllegalStateException failure;
+    private volatile Socket socket;
+    private Thread thread;
+
+    /**
+     * Creates a replica of a primary, starting from an empty MFA
+     * server. The replica does not connect until it is started.
+     *
+     * @param primary  the address the primary accepts replicas on
+     */
+    public Replica(InetSocketAddress primary)
+    {
+        this.mfa = new MFA();
+        this.primary = primary;
+        this.progress = new Object();
+        this.started = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts the thread that connects to the primary and applies its log.
+     */
+    public synchronized void start()
+    {
+        thread = new Thread(this::run, "mfa-replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disconnects from the primary. The replica's copy can still be
+     * read, but is no longer updated.
+     */
+    public synchronized void close() throws IOException
+    {
+        closed = true;
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if and only if the replica is connected to the primary
+     */
+    public boolean isConnected()
+    {
+        return connected;
+    }
+
+    /**
+     * @return why the replica stopped following the primary, if it
+     *         diverged from it, or null
+     */
+    public IllegalStateException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return the sequence number of the last change applied
+     */
+    public long appliedSequence()
+    {
+        return applied;
+    }
+
+    /**
+     * @return the primary's last sequence number, as last heard from it
+     */
+    public long primarySequence()
+    {
+        return primarySequence;
+    }
+
+    /**
+     * @return the number of changes the primary is known to have made
+     *         that the replica has not yet applied
+     */
+    public long lagEntries()
+    {
+        return Math.max(0, primarySequence - applied);
+    }
+
+    /**
+     * Returns how far behind the primary the replica is in time: zero
+     * when it has applied every change it knows of, and otherwise the
+     * time since the primary made the last change that was applied.
+     * This bounds the age of the oldest change not yet applied.
+     *
+     * @return the lag in milliseconds
+     */
+    public long lagMillis()
+    {
+        if (lagEntries() == 0) {
+            return 0;
+        }
+        long since = applied == 0 ? started : appliedTimestamp;
+        return Math.max(0, System.currentTimeMillis() - since);
+    }
+
+    /**
+     * Waits until a change has been applied.
+     *
+     * @param sequence  the change's sequence number
+     * @param timeout   the longest time to wait, in milliseconds
+     * @return true if and only if the change was applied in time
+     * @throws IllegalStateException if the replica diverged from the
+     *         primary before applying the change, and so never will
+     */
+    public boolean awaitSequence(long sequence, long timeout)
+        throws InterruptedException
+    {
+        if (applied >= sequence) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (progress) {
+            while (applied < sequence) {
+                if (failure != null) {
+                    throw new IllegalStateException("Replica stopped before change " + sequence,
+                                                    failure);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+            return true;
+        }
+    }
+
+    public boolean isUser(String username)
+    {
+        MFA copy = mfa;
+        synchronized (copy) {
+            return copy.isUser(username);
+        }
+    }
+
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        MFA copy = mfa;
+        synchronized (copy) {
+            return copy.isAuthenticated(username);
+        }
+    }
+
+    public List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        MFA copy = mfa;
+        synchronized (copy) {
+            return copy.getData(username, index);
+        }
+    }
+
+    private void run()
+    {
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                if (closed) {
+                    break;
+                }
+                s.connect(primary);
+                s.setTcpNoDelay(true);
+                follow(s);
+            }
+            catch (IOException e) {
+                //Lost the primary; reconnect below
+            }
+            catch (IllegalStateException e) {
+                //Diverged; replaying the change again would fail again
+                connected = false;
+                synchronized (progress) {
+                    failure = e;
+                    progress.notifyAll();
+                }
+                return;
+            }
+            connected = false;
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    //Asks for the log after the last applied change, then applies
+    //each batch or snapshot and acknowledges it
+    private void follow(Socket s) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeLong(applied);
+        out.flush();
+        connected = true;
+        while (true) {
+            long last = in.readLong();
+            int count = in.readInt();
+            primarySequence = Math.max(primarySequence, last);
+            if (count == Primary.SNAPSHOT) {
+                restore(last, in);
+            }
+            else {
+                for (int i = 0; i < count; i++) {
+                    apply(LogEntry.readFrom(in));
+                }
+            }
+            if (count != 0) {
+                out.writeLong(applied);
+                out.flush();
+            }
+        }
+    }
+
+    //Replaces the copy with a snapshot of every user as they were
+    //after the given change
+    private void restore(long sequence, DataInputStream in) throws IOException
+    {
+        long timestamp = in.readLong();
+        int count = in.readInt();
+        MFA copy = new MFA();
+        for (int i = 0; i < count; i++) {
+            try {
+                copy.importUser(LogEntry.readFrom(in).user);
+            }
+            catch (DuplicateUserException e) {
+                throw new IOException("Snapshot repeats a user", e);
+            }
+        }
+        mfa = copy;
+        synchronized (progress) {
+            appliedTimestamp = timestamp;
+            applied = sequence;
+            progress.notifyAll();
+        }
+    }
+
+    private void apply(LogEntry entry) throws IOException
+    {
+        if (entry.sequence != applied + 1) {
+            throw new IOException("Expected change " + (applied + 1) + " but got " + entry.sequence);
+        }
+        MFA mfa = this.mfa;
+        synchronized (mfa) {
+            try {
+                switch (entry.op) {
+                case LogEntry.REGISTER:
+                    mfa.register(entry.username, entry.password, entry.deviceID);
+                    break;
+                case LogEntry.LOGIN:
+                    mfa.login(entry.username, entry.password);
+                    break;
+                case LogEntry.PUSH:
+                    mfa.respondToPushNotification(entry.username, entry.deviceID);
+                    break;
+                case LogEntry.ADD_DATA:
+                    mfa.addData(entry.username, entry.record);
+                    break;
+                case LogEntry.IMPORT_USER:
+                    mfa.importUser(entry.user);
+                    break;
+                default:
+                    throw new IOException("Unknown op " + entry.op);
+                }
+            }
+            catch (DuplicateUserException | InvalidUsernameException | InvalidPasswordException
+                   | NoSuchUserException | IncorrectPasswordException
+                   | IncorrectDeviceIDException | UnauthenticatedUserException e) {
+                //The primary made this change, so the replica has diverged
+                throw new IllegalStateException("Replica diverged at change " + entry.sequence, e);
+            }
+        }
+        synchronized (progress) {
+            appliedTimestamp = entry.timestamp;
+            applied = entry.sequence;
+            progress.notifyAll();
+        }
+    }
+
+    /**
+     * Runs a replica of a primary, printing its lag every second.
+     *
+     * Usage: Replica [host] [port]
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9191;
+        Replica replica = new Replica(new InetSocketAddress(host, port));
+        replica.start();
+        while (true) {
+            Thread.sleep(1000);
+            System.out.println("applied " + replica.appliedSequence()
+                               + ", behind by " + replica.lagEntries() + " changes / "
+                               + replica.lagMillis() + " ms");
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package swen90006.mfa.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.UserState;
+
+/**
+ * The primary's in-memory log of changes. Entries are numbered from 1
+ * in the order they were applied.
+ *
+ * Entries are only kept until every connected replica has applied
+ * them (see trim), and at most 'capacity' are kept at all, as they
+ * hold passwords and would otherwise grow without bound. A replica
+ * that asks for entries that have been dropped must be sent a
+ * snapshot instead.
+ */
+final class ReplicationLog
+{
+    private final int capacity;
+    //The entries kept lie from 'head' to the end, the first of them
+    //numbered trimmed + 1; those before 'head' are null, and are
+    //removed once they are half the list
+    private final List<LogEntry> entries;
+    private int head;
+    private long trimmed;
+    private final ReentrantLock lock;
+    private final Condition appended;
+
+    /**
+     * @param capacity  the most entries to keep
+     */
+    ReplicationLog(int capacity)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new ArrayList<LogEntry>();
+        this.lock = new ReentrantLock();
+        this.appended = lock.newCondition();
+    }
+
+    /**
+     * Appends an entry, waking any shippers waiting for it, and drops
+     * the oldest entry if the log is then over capacity.
+     *
+     * @return the entry, numbered with its sequence number
+     */
+    LogEntry append(byte op, String username, String password, String deviceID,
+                    IntRecord record, UserState user)
+    {
+        lock.lock();
+        try {
+            LogEntry entry = new LogEntry(lastSequence() + 1, System.currentTimeMillis(), op,
+                                          username, password, deviceID, record, user);
+            entries.add(entry);
+            if (size() > capacity) {
+                drop(size() - capacity);
+            }
+            appended.signalAll();
+            return entry;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the last entry, or 0 if there are none
+     */
+    long lastSequence()
+    {
+        lock.lock();
+        try {
+            return trimmed + size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries kept
+     */
+    int size()
+    {
+        lock.lock();
+        try {
+            return entries.size() - head;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the entries up to and including a sequence number, which
+     * no replica will ask for again.
+     *
+     * @param sequence  the sequence number
+     */
+    void trim(long sequence)
+    {
+        lock.lock();
+        try {
+            long drop = Math.min(sequence, lastSequence()) - trimmed;
+            if (drop > 0) {
+                drop((int) drop);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns up to 'max' entries after 'sequence', waiting up to
+     * 'timeout' milliseconds for one to be appended if there are none.
+     *
+     * @return the entries, which may be empty, or null if some of them
+     *         have been dropped
+     */
+    List<LogEntry> after(long sequence, int max, long timeout)
+        throws InterruptedException
+    {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (lastSequence() <= sequence && sequence >= trimmed && nanos > 0) {
+                nanos = appended.awaitNanos(nanos);
+            }
+            if (sequence < trimmed) {
+                return null;
+            }
+            int from = head + (int) Math.min(sequence - trimmed, size());
+            int to = Math.min(entries.size(), from + max);
+            return new ArrayList<LogEntry>(entries.subList(from, to));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    //Drops the oldest entries, which the caller must hold the lock for
+    private void drop(int count)
+    {
+        for (int i = head; i < head + count; i++) {
+            entries.set(i, null);
+        }
+        head += count;
+        trimmed += count;
+        if (head > entries.size() / 2) {
+            entries.subList(0, head).clear();
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package swen90006.mfa.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+
+/**
+ * One client's view of a primary and its replicas.
+ *
+ * Changes always go to the primary. Reads go to the replicas in turn,
+ * with a guarantee chosen per session:
+ *
+ *  - EVENTUAL reads whatever the replica has applied;
+ *  - READ_YOUR_WRITES waits until the replica has applied every change
+ *    this session has made, reading from the primary instead if that
+ *    takes longer than the session's timeout;
+ *  - PRIMARY always reads from the primary.
+ *
+ * A replica that has diverged from the primary is skipped, and the
+ * read goes to the primary instead.
+ *
+ * A session is meant for one client and is not thread-safe.
+ */
+public class Session
+{
+    /** The guarantee a session gives for reads, as described above */
+    public enum Consistency {EVENTUAL, READ_YOUR_WRITES, PRIMARY};
+
+    private final Primary primary;
+    private final List<Replica> replicas;
+    private final Consistency consistency;
+    private final long timeout;
+    private long lastWrite;
+    private int next;
+    private long replicaReads;
+    private long primaryReads;
+
+    /**
+     * @param primary      the primary
+     * @param replicas     the replicas to read from; if there are none,
+     *                     all reads go to the primary
+     * @param consistency  the guarantee for reads
+     * @param timeout      for READ_YOUR_WRITES, the longest time in
+     *                     milliseconds to wait for a replica to catch up
+     */
+    public Session(Primary primary, List<Replica> replicas, Consistency consistency, long timeout)
+    {
+        this.primary = primary;
+        this.replicas = new ArrayList<Replica>(replicas);
+        this.consistency = consistency;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the guarantee this session gives for reads
+     */
+    public Consistency getConsistency()
+    {
+        return consistency;
+    }
+
+    /**
+     * @return a sequence number no lower than that of the last change
+     *         this session made, or 0 if it has made none
+     */
+    public long getLastWrite()
+    {
+        return lastWrite;
+    }
+
+    /**
+     * @return the number of reads served by a replica
+     */
+    public long getReplicaReads()
+    {
+        return replicaReads;
+    }
+
+    /**
+     * @return the number of reads served by the primary, including
+     *         those that fell back to it
+     */
+    public long getPrimaryReads()
+    {
+        return primaryReads;
+    }
+
+    /**
+     * Registers a new user on the primary, as MFA.register does.
+     *
+     * @param username  the username for the user to be added
+     * @param password  the password for the user
+     * @param deviceID  the physical device used for two-factor
+     *                  authentication, or null
+     * @throws DuplicateUserException    if the username is already
+     *          registered
+     * @throws InvalidUsernameException  if the username does not fit
+     *          the requirements
+     * @throws InvalidPasswordException  if the password does not fit
+     *          the requirements
+     */
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        primary.register(username, password, deviceID);
+        wrote();
+    }
+
+    /**
+     * Logs a user in on the primary, as MFA.login does.
+     *
+     * @param username  the username
+     * @param password  the password
+     * @return the user's new authentication status
+     * @throws NoSuchUserException         if the user does not have an
+     *          account
+     * @throws IncorrectPasswordException  if the password is incorrect
+     *          for this user
+     */
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        MFA.AuthenticationStatus status = primary.login(username, password);
+        wrote();
+        return status;
+    }
+
+    /**
+     * Responds to a user's push notification on the primary, as
+     * MFA.respondToPushNotification does.
+     *
+     * @param username  the username
+     * @param deviceID  the device responding
+     * @return the user's new authentication status
+     * @throws NoSuchUserException         if the user does not have an
+     *          account
+     * @throws IncorrectDeviceIDException  if the device is not the
+     *          user's
+     */
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        MFA.AuthenticationStatus status = primary.respondToPushNotification(username, deviceID);
+        wrote();
+        return status;
+    }
+
+    /**
+     * Adds a record for an authenticated user on the primary, as
+     * MFA.addData does.
+     *
+     * @param username  the username
+     * @param record    the record to add
+     * @throws NoSuchUserException           if the user does not have
+     *          an account
+     * @throws UnauthenticatedUserException  if the user is not
+     *          correctly authenticated
+     */
+    public void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        primary.addData(username, record);
+        wrote();
+    }
+
+    /**
+     * Checks if a user exists, reading with this session's consistency.
+     *
+     * @param username  the username
+     * @return true if and only if this user is registered
+     * @throws InterruptedException  if interrupted while waiting for a
+     *          replica to catch up
+     */
+    public boolean isUser(String username)
+        throws InterruptedException
+    {
+        Replica replica = replica();
+        return replica == null ? primary.isUser(username) : replica.isUser(username);
+    }
+
+    /**
+     * Checks if a user is authenticated, reading with this session's
+     * consistency.
+     *
+     * @param username  the username
+     * @return true if and only if the user is correctly authenticated
+     * @throws NoSuchUserException   if the user does not have an
+     *          account
+     * @throws InterruptedException  if interrupted while waiting for a
+     *          replica to catch up
+     */
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException, InterruptedException
+    {
+        Replica replica = replica();
+        return replica == null ? primary.isAuthenticated(username)
+            : replica.isAuthenticated(username);
+    }
+
+    /**
+     * Reads a record of an authenticated user, with this session's
+     * consistency, as MFA.getData does.
+     *
+     * @param username  the username
+     * @param index     the index of the record to be read
+     * @return the record
+     * @throws NoSuchUserException           if the user does not have
+     *          an account
+     * @throws UnauthenticatedUserException  if the user is not
+     *          correctly authenticated
+     * @throws InterruptedException          if interrupted while
+     *          waiting for a replica to catch up
+     */
+    public List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException, InterruptedException
+    {
+        Replica replica = replica();
+        return replica == null ? primary.getData(username, index)
+            : replica.getData(username, index);
+    }
+
+    //The primary's last sequence number, read after a change returns,
+    //is at least that of the change. It may also cover later changes
+    //by other clients, which only makes reads wait slightly longer.
+    private void wrote()
+    {
+        lastWrite = Math.max(lastWrite, primary.lastSequence());
+    }
+
+    //The replica to read from next, or null to read from the primary
+    private Replica replica()
+        throws InterruptedException
+    {
+        if (consistency == Consistency.PRIMARY || replicas.isEmpty()) {
+            primaryReads++;
+            return null;
+        }
+        Replica replica = replicas.get(next);
+        next = (next + 1) % replicas.size();
+        if (replica.getFailure() != null
+            || consistency == Consistency.READ_YOUR_WRITES && !caughtUp(replica)) {
+            primaryReads++;
+            return null;
+        }
+        replicaReads++;
+        return replica;
+    }
+
+    //Whether the replica has applied every change this session made,
+    //waiting up to the timeout; one that has diverged never will
+    private boolean caughtUp(Replica replica)
+        throws InterruptedException
+    {
+        try {
+            return replica.awaitSequence(lastWrite, timeout);
+        }
+        catch (IllegalStateException e) {
+            return false;
+        }
+    }
+}
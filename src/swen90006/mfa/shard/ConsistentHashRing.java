@@ -0,0 +1,178 @@
+package swen90006.mfa.shard;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A consistent-hash ring assigning string keys to named nodes.
+ *
+ * Each node is placed on the ring at 'virtualNodes' pseudo-random
+ * points, and a key belongs to the node owning the first point at or
+ * after the key's hash, wrapping around. Adding or removing a node
+ * therefore only moves the keys on the arcs next to its points, about
+ * 1/N of all keys, and the virtual nodes keep the arcs of each node
+ * balanced.
+ *
+ * The ring is not thread-safe.
+ *
+ * @param <N> the type of the nodes
+ */
+public class ConsistentHashRing<N>
+{
+    /** The default number of points per node */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private final Map<String, N> nodes;
+
+    //The points on the ring, in ascending order, and the ID of the
+    //node owning each
+    private long[] points;
+    private String[] owners;
+
+    public ConsistentHashRing()
+    {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes  the number of points per node
+     */
+    public ConsistentHashRing(int virtualNodes)
+    {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+        this.nodes = new LinkedHashMap<String, N>();
+        this.points = new long[0];
+        this.owners = new String[0];
+    }
+
+    /**
+     * Adds a node to the ring.
+     *
+     * @param id    the node's unique ID, which determines its points
+     * @param node  the node
+     * @throws IllegalArgumentException if the ID is already used
+     */
+    public void add(String id, N node)
+    {
+        if (nodes.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate node " + id);
+        }
+        nodes.put(id, node);
+        rebuild();
+    }
+
+    /**
+     * Removes a node from the ring.
+     *
+     * @param id  the node's ID
+     * @return the node, or null if there was no such node
+     */
+    public N remove(String id)
+    {
+        N node = nodes.remove(id);
+        if (node != null) {
+            rebuild();
+        }
+        return node;
+    }
+
+    /**
+     * @param key  a key
+     * @return the ID of the node owning the key, or null if the ring is empty
+     */
+    public String ownerOf(String key)
+    {
+        if (points.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * @param key  a key
+     * @return the node owning the key, or null if the ring is empty
+     */
+    public N nodeFor(String key)
+    {
+        String owner = ownerOf(key);
+        return owner == null ? null : nodes.get(owner);
+    }
+
+    /**
+     * @param id  a node ID
+     * @return the node with that ID, or null
+     */
+    public N get(String id)
+    {
+        return nodes.get(id);
+    }
+
+    /**
+     * @return the nodes by ID, in the order they were added
+     */
+    public Map<String, N> nodes()
+    {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    private void rebuild()
+    {
+        int n = nodes.size() * virtualNodes;
+        long[] keys = new long[n];
+        String[] ids = new String[n];
+        int i = 0;
+        for (String id : nodes.keySet()) {
+            for (int v = 0; v < virtualNodes; v++) {
+                keys[i] = hash(id + "#" + v);
+                ids[i] = id;
+                i++;
+            }
+        }
+
+        //Sort the points, carrying their owners along
+        Integer[] order = new Integer[n];
+        for (i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a] != keys[b]
+                    ? Long.compare(keys[a], keys[b]) : ids[a].compareTo(ids[b]));
+        points = new long[n];
+        owners = new String[n];
+        for (i = 0; i < n; i++) {
+            points[i] = keys[order[i]];
+            owners[i] = ids[order[i]];
+        }
+    }
+
+    /**
+     * A 64-bit hash of a string: FNV-1a over the characters, then the
+     * MurmurHash3 finaliser to spread the bits.
+     *
+     * @param key  the string
+     * @return its hash
+     */
+    static long hash(String key)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,127 @@
+package swen90006.mfa.shard;
+
+import java.util.List;
+import java.util.Set;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * A shard held by an MFA instance in this process.
+ *
+ * Every call is made while holding the MFA instance's monitor, so
+ * the instance can also be served by MFAHttpServer or MFAWireServer.
+ */
+public class LocalShardNode implements ShardNode
+{
+    private final MFA mfa;
+
+    /**
+     * @param mfa  the MFA server holding this shard's users
+     */
+    public LocalShardNode(MFA mfa)
+    {
+        this.mfa = mfa;
+    }
+
+    /**
+     * @return the MFA server holding this shard's users
+     */
+    public MFA getMFA()
+    {
+        return mfa;
+    }
+
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        synchronized (mfa) {
+            mfa.register(username, password, deviceID);
+        }
+    }
+
+    public boolean isUser(String username)
+    {
+        synchronized (mfa) {
+            return mfa.isUser(username);
+        }
+    }
+
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        synchronized (mfa) {
+            return mfa.login(username, password);
+        }
+    }
+
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        synchronized (mfa) {
+            return mfa.respondToPushNotification(username, deviceID);
+        }
+    }
+
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        synchronized (mfa) {
+            return mfa.isAuthenticated(username);
+        }
+    }
+
+    public void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        synchronized (mfa) {
+            mfa.addData(username, record);
+        }
+    }
+
+    public List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        synchronized (mfa) {
+            return mfa.getData(username, index);
+        }
+    }
+
+    public Set<String> getUsers()
+    {
+        synchronized (mfa) {
+            return mfa.getUsers();
+        }
+    }
+
+    public UserState exportUser(String username)
+        throws NoSuchUserException
+    {
+        synchronized (mfa) {
+            return mfa.exportUser(username);
+        }
+    }
+
+    public void removeUser(String username)
+        throws NoSuchUserException
+    {
+        synchronized (mfa) {
+            mfa.removeUser(username);
+        }
+    }
+
+    public void importUser(UserState user)
+        throws DuplicateUserException
+    {
+        synchronized (mfa) {
+            mfa.importUser(user);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package swen90006.mfa.shard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+import swen90006.mfa.wire.MFAWireClient;
+
+/**
+ * A shard held by an MFAWireServer, usually on another host.
+ *
+ * Calls share one connection and are serialised on it.
+ */
+public class RemoteShardNode implements ShardNode, Closeable
+{
+    private final MFAWireClient client;
+
+    /**
+     * Connects to the server holding a shard.
+     *
+     * @param address  the server's address
+     * @throws IOException if the connection cannot be made
+     */
+    public RemoteShardNode(InetSocketAddress address) throws IOException
+    {
+        this.client = new MFAWireClient(address);
+    }
+
+    public synchronized void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        try {
+            client.register(username, password, deviceID);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized boolean isUser(String username)
+    {
+        try {
+            return client.isUser(username);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        try {
+            return client.login(username, password);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized MFA.AuthenticationStatus respondToPushNotification(String username,
+                                                                        String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        try {
+            return client.respondToPushNotification(username, deviceID);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        try {
+            return client.isAuthenticated(username);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        try {
+            client.addData(username, record);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        try {
+            return client.getData(username, index);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized Set<String> getUsers()
+    {
+        try {
+            return client.getUsers();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized UserState exportUser(String username)
+        throws NoSuchUserException
+    {
+        try {
+            return client.exportUser(username);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void removeUser(String username)
+        throws NoSuchUserException
+    {
+        try {
+            client.removeUser(username);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void importUser(UserState user)
+        throws DuplicateUserException
+    {
+        try {
+            client.importUser(user);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        client.close();
+    }
+}
@@ -0,0 +1,55 @@
+package swen90006.mfa.shard;
+
+import java.util.List;
+import java.util.Set;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * One MFA server in a sharded deployment, in this process or on
+ * another host.
+ *
+ * The methods are those of MFA. Nodes on other hosts report
+ * communication failures as java.io.UncheckedIOException.
+ */
+public interface ShardNode
+{
+    void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException;
+
+    boolean isUser(String username);
+
+    MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException;
+
+    MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException;
+
+    boolean isAuthenticated(String username)
+        throws NoSuchUserException;
+
+    void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException;
+
+    List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException;
+
+    Set<String> getUsers();
+
+    UserState exportUser(String username)
+        throws NoSuchUserException;
+
+    void removeUser(String username)
+        throws NoSuchUserException;
+
+    void importUser(UserState user)
+        throws DuplicateUserException;
+}
@@ -0,0 +1,290 @@
+package swen90006.mfa.shard;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * The MFA API over users partitioned across several MFA servers.
+ *
+ * Each username is owned by one shard, chosen with a consistent-hash
+ * ring, and every call is forwarded to the owner of its username.
+ * When a shard joins or leaves, the users whose owner changes are
+ * moved: each is copied to its new owner and then removed from its
+ * old one, keeping its authentication status and records.
+ *
+ * Calls may be made from any number of threads. A rebalance excludes
+ * all other calls until it completes, so no call ever sees a user
+ * part way through a move.
+ */
+public class ShardRouter
+{
+    private final ConsistentHashRing<ShardNode> ring;
+    private final ReadWriteLock lock;
+
+    /**
+     * Constructs a router with no shards, using
+     * ConsistentHashRing.DEFAULT_VIRTUAL_NODES ring points per shard.
+     */
+    public ShardRouter()
+    {
+        this(ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes  the number of ring points per shard
+     */
+    public ShardRouter(int virtualNodes)
+    {
+        this.ring = new ConsistentHashRing<ShardNode>(virtualNodes);
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Adds a shard, moving to it the users it now owns.
+     *
+     * @param id    the shard's unique ID
+     * @param node  the shard
+     * @return the number of users moved
+     */
+    public int addNode(String id, ShardNode node)
+    {
+        lock.writeLock().lock();
+        try {
+            ring.add(id, node);
+            int moved = 0;
+            for (Map.Entry<String, ShardNode> entry : ring.nodes().entrySet()) {
+                if (!entry.getKey().equals(id)) {
+                    moved += moveAway(entry.getKey(), entry.getValue());
+                }
+            }
+            return moved;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a shard, moving all of its users to their new owners.
+     *
+     * @param id  the shard's ID
+     * @return the number of users moved
+     * @throws IllegalArgumentException if there is no such shard, or it
+     *         is the last shard and still has users
+     */
+    public int removeNode(String id)
+    {
+        lock.writeLock().lock();
+        try {
+            ShardNode node = ring.get(id);
+            if (node == null) {
+                throw new IllegalArgumentException("No such shard " + id);
+            }
+            else if (ring.nodes().size() == 1 && !node.getUsers().isEmpty()) {
+                throw new IllegalArgumentException("Cannot remove the last shard");
+            }
+            ring.remove(id);
+            return moveAway(id, node);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the IDs of the shards
+     */
+    public Set<String> getNodes()
+    {
+        lock.readLock().lock();
+        try {
+            return new HashSet<String>(ring.nodes().keySet());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id  a shard ID
+     * @return the shard with that ID, or null
+     */
+    public ShardNode getNode(String id)
+    {
+        lock.readLock().lock();
+        try {
+            return ring.get(id);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param username  a username
+     * @return the ID of the shard owning it
+     */
+    public String ownerOf(String username)
+    {
+        lock.readLock().lock();
+        try {
+            return ring.ownerOf(username);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#register
+     */
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        lock.readLock().lock();
+        try {
+            owner(username).register(username, password, deviceID);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#isUser
+     */
+    public boolean isUser(String username)
+    {
+        lock.readLock().lock();
+        try {
+            return owner(username).isUser(username);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#login
+     */
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        lock.readLock().lock();
+        try {
+            return owner(username).login(username, password);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#respondToPushNotification
+     */
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        lock.readLock().lock();
+        try {
+            return owner(username).respondToPushNotification(username, deviceID);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#isAuthenticated
+     */
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        lock.readLock().lock();
+        try {
+            return owner(username).isAuthenticated(username);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#addData
+     */
+    public void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        lock.readLock().lock();
+        try {
+            owner(username).addData(username, record);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MFA#getData
+     */
+    public List<Integer> getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException
+    {
+        lock.readLock().lock();
+        try {
+            return owner(username).getData(username, index);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ShardNode owner(String username)
+    {
+        ShardNode node = ring.nodeFor(username);
+        if (node == null) {
+            throw new IllegalStateException("No shards");
+        }
+        return node;
+    }
+
+    //Moves every user on a shard that it no longer owns to its owner.
+    //Each user is imported by the new owner before being removed from
+    //the old one, so a failure part way through can leave a user on
+    //both shards but never on neither.
+    private int moveAway(String id, ShardNode node)
+    {
+        int moved = 0;
+        for (String username : node.getUsers()) {
+            String owner = ring.ownerOf(username);
+            if (owner.equals(id)) {
+                continue;
+            }
+            try {
+                UserState user = node.exportUser(username);
+                ring.get(owner).importUser(user);
+                node.removeUser(username);
+                moved++;
+            }
+            catch (NoSuchUserException | DuplicateUserException e) {
+                throw new IllegalStateException("Shards " + id + " and " + owner
+                                                + " disagree about user " + username, e);
+            }
+        }
+        return moved;
+    }
+}
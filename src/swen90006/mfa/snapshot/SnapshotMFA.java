@@ -0,0 +1,325 @@
+package swen90006.mfa.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * A facade over an MFA server that answers whether a user exists, and
+ * whether they are authenticated, without taking the lock on the
+ * server.
+ *
+ * Most requests ask about users who already exist, and many, such as
+ * guesses at usernames, about users who do not; only registration adds
+ * users. Here usernames are looked up in a UserSnapshot, an immutable
+ * table read through one volatile field, so isUser and isAuthenticated
+ * take no lock and allocate nothing, and login and
+ * respondToPushNotification reject an unknown user before taking the
+ * lock on the server for the rest of their work, which they do by name
+ * exactly as MFA does. A user's ID found in the snapshot is checked
+ * against the server, so a user removed since the snapshot was made is
+ * not found.
+ *
+ * Registrations are applied to the server one at a time, holding its
+ * lock, as the other front ends do, but published in batches, as each
+ * new snapshot copies at least the recent users: once 'maxBatch'
+ * registrations are waiting, or the first of them has waited
+ * 'maxDelay' milliseconds, the registration or lookup that finds so
+ * publishes them all in one new snapshot. Until then they are held in
+ * a concurrent map too, where a username not found in the snapshot is
+ * looked up without a lock, so a user is found here by the time their
+ * registration returns.
+ *
+ * Users registered with the server other than through this facade are
+ * not found until refresh is called.
+ */
+public class SnapshotMFA
+{
+    /** The most registrations published in one snapshot by default */
+    public static final int MAX_BATCH = 256;
+
+    /** The longest, in milliseconds, a registration waits to be published by default */
+    public static final long MAX_DELAY = 10;
+
+    private final MFA mfa;
+    private final int maxBatch;
+    private final long maxDelay;
+    //Held while registrations are applied and published, before the
+    //lock on the server
+    private final Object publishing = new Object();
+    private volatile UserSnapshot snapshot;
+    //The registrations applied but not yet published, in order and by
+    //username, and when the first of them was applied. Each is removed
+    //from 'unpublished' only once the snapshot with it is published
+    private final List<String> usernames = new ArrayList<String>();
+    private final List<Integer> userIDs = new ArrayList<Integer>();
+    private final ConcurrentHashMap<String, Integer> unpublished =
+        new ConcurrentHashMap<String, Integer>();
+    private volatile long waitingSince;
+    private volatile int waiting;
+    private long batches;
+
+    /**
+     * Publishes registrations in batches of up to MAX_BATCH, each
+     * waiting up to MAX_DELAY milliseconds.
+     *
+     * @param mfa  the server, whose users are found here from the start
+     */
+    public SnapshotMFA(MFA mfa)
+    {
+        this(mfa, MAX_BATCH, MAX_DELAY);
+    }
+
+    /**
+     * @param mfa       the server, whose users are found here from the start
+     * @param maxBatch  the most registrations to publish in one snapshot
+     * @param maxDelay  the longest, in milliseconds, a registration
+     *                  waits to be published while others are made
+     */
+    public SnapshotMFA(MFA mfa, int maxBatch, long maxDelay)
+    {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batches must hold a registration: " + maxBatch);
+        }
+        this.mfa = mfa;
+        this.maxBatch = maxBatch;
+        this.maxDelay = maxDelay;
+        refresh();
+    }
+
+    /**
+     * Registers a user, as MFA.register does. They are found here once
+     * this returns, and published in a snapshot with the batch they
+     * join.
+     *
+     * @see MFA#register
+     */
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException
+    {
+        synchronized (publishing) {
+            int userID;
+            synchronized (mfa) {
+                mfa.register(username, password, deviceID);
+                userID = registeredID(username);
+            }
+            if (usernames.isEmpty()) {
+                waitingSince = System.nanoTime();
+            }
+            usernames.add(username);
+            userIDs.add(userID);
+            unpublished.put(username, userID);
+            waiting = usernames.size();
+            if (usernames.size() >= maxBatch || overdue()) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Takes no lock, unless it finds registrations have waited too
+     * long and publishes them.
+     *
+     * @see MFA#isUser
+     */
+    public boolean isUser(String username)
+    {
+        return find(username) != UserSnapshot.NO_USER;
+    }
+
+    /**
+     * Takes the lock on the server only if the user exists.
+     *
+     * @see MFA#login
+     */
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException
+    {
+        userID(username);
+        synchronized (mfa) {
+            return mfa.login(username, password);
+        }
+    }
+
+    /**
+     * Takes the lock on the server only if the user exists.
+     *
+     * @see MFA#respondToPushNotification
+     */
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException
+    {
+        userID(username);
+        synchronized (mfa) {
+            return mfa.respondToPushNotification(username, deviceID);
+        }
+    }
+
+    /**
+     * Takes no lock, unless it finds registrations have waited too
+     * long and publishes them.
+     *
+     * @see MFA#isAuthenticated
+     */
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException
+    {
+        return mfa.isAuthenticated(userID(username));
+    }
+
+    /**
+     * Removes a user. They are not found here once this returns,
+     * though they stay in the snapshot until it is next rebuilt.
+     *
+     * @see MFA#removeUser
+     */
+    public UserState removeUser(String username)
+        throws NoSuchUserException
+    {
+        synchronized (mfa) {
+            return mfa.removeUser(username);
+        }
+    }
+
+    /**
+     * Publishes a new snapshot of every user of the server, after users
+     * are registered with it other than through this facade. Users
+     * registered through it meanwhile wait for this to finish.
+     */
+    public void refresh()
+    {
+        synchronized (publishing) {
+            List<String> usernames = new ArrayList<String>();
+            List<Integer> userIDs = new ArrayList<Integer>();
+            synchronized (mfa) {
+                for (String username : mfa.getUsers()) {
+                    usernames.add(username);
+                    userIDs.add(registeredID(username));
+                }
+            }
+            snapshot = UserSnapshot.of(usernames, userIDs);
+            this.usernames.clear();
+            this.userIDs.clear();
+            unpublished.clear();
+            waiting = 0;
+        }
+    }
+
+    /**
+     * Publishes a snapshot with every registration waiting, if any.
+     */
+    public void flush()
+    {
+        synchronized (publishing) {
+            if (!usernames.isEmpty()) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * @return the snapshot users are now looked up in
+     */
+    public UserSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * @return the number of registrations not yet published in a
+     *         snapshot
+     */
+    public int getWaiting()
+    {
+        return waiting;
+    }
+
+    /**
+     * @return the number of snapshots published for registrations
+     */
+    public long getBatches()
+    {
+        synchronized (publishing) {
+            return batches;
+        }
+    }
+
+    //The ID of a user found in the snapshot and the server
+    private int userID(String username)
+        throws NoSuchUserException
+    {
+        int userID = find(username);
+        if (userID == UserSnapshot.NO_USER) {
+            throw new NoSuchUserException(username);
+        }
+        return userID;
+    }
+
+    //The ID of a user, found in the snapshot or among the registrations
+    //not yet published, or NO_USER
+    private int find(String username)
+    {
+        UserSnapshot current = snapshot;
+        int userID = current.id(username);
+        if (userID != UserSnapshot.NO_USER && mfa.isUser(userID)) {
+            return userID;
+        }
+        if (overdue()) {
+            flush();
+        }
+        Integer waitingID = unpublished.get(username);
+        if (waitingID != null && mfa.isUser(waitingID)) {
+            return waitingID;
+        }
+        //The user may have been published, and so left 'unpublished',
+        //since the snapshot was read
+        if (snapshot != current) {
+            userID = snapshot.id(username);
+            if (userID != UserSnapshot.NO_USER && mfa.isUser(userID)) {
+                return userID;
+            }
+        }
+        return UserSnapshot.NO_USER;
+    }
+
+    //Whether the registrations waiting have waited too long to publish
+    private boolean overdue()
+    {
+        return waiting != 0 && System.nanoTime() - waitingSince >= maxDelay * 1000000L;
+    }
+
+    //Publishes every waiting registration in one snapshot; called
+    //holding the publishing lock
+    private void publish()
+    {
+        snapshot = snapshot.with(usernames, userIDs, mfa::isUser);
+        for (int i = 0; i < usernames.size(); i++) {
+            unpublished.remove(usernames.get(i), userIDs.get(i));
+        }
+        usernames.clear();
+        userIDs.clear();
+        waiting = 0;
+        batches++;
+    }
+
+    //The ID of a user known to be registered; called holding the lock
+    //on the server
+    private int registeredID(String username)
+    {
+        try {
+            return mfa.getUserID(username);
+        }
+        catch (NoSuchUserException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package swen90006.mfa.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import swen90006.mfa.SipHash;
+import swen90006.mfa.UsernameCodec;
+
+/**
+ * An immutable table from username to user ID, to be read by any
+ * number of threads without a lock.
+ *
+ * A snapshot is never changed: adding users makes a new one, which
+ * shares what it can with the old. Each snapshot is two open-addressing
+ * tables, a base and a smaller table of recent users, so that adding a
+ * few users copies only the recent ones, and the base is rebuilt, with
+ * every user, only when the recent table reaches RECENT_LIMIT users or
+ * four times the square root of the base's, whichever is more. Lookups
+ * try the recent table first.
+ *
+ * Usernames that can be packed (see UsernameCodec) are held as two
+ * longs, hashed with SipHash under a secret key shared by a snapshot
+ * and those made from it; others are held as Strings. Tables are at
+ * most half full, so a lookup of a username not in the table usually
+ * stops at its first or second slot. Looking up a username allocates
+ * nothing.
+ *
+ * A snapshot holds the users it was made with, so a user removed since
+ * is still found, with their old ID; the ID names no user from then on,
+ * and is dropped when the snapshot's tables are next rebuilt.
+ */
+public final class UserSnapshot
+{
+    /** The ID looked up for a username not in the snapshot */
+    public static final int NO_USER = -1;
+
+    /** The fewest users the recent table may hold before the base is rebuilt */
+    public static final int RECENT_LIMIT = 1024;
+
+    private static final Table EMPTY = new Table(0, 0, new ArrayList<String>(), new int[0]);
+
+    //An immutable open-addressing table, with packed usernames and
+    //the rest in separate slots
+    private static final class Table
+    {
+        final long[] firsts;
+        final long[] seconds;
+        final int[] ids;
+        final String[] names;
+        final int[] nameIDs;
+        final int size;
+
+        Table(long k0, long k1, List<String> usernames, int[] userIDs)
+        {
+            int packed = 0;
+            for (String username : usernames) {
+                if (UsernameCodec.isPackable(username)) {
+                    packed++;
+                }
+            }
+            int unpacked = usernames.size() - packed;
+            firsts = new long[capacityFor(packed)];
+            seconds = new long[firsts.length];
+            ids = new int[firsts.length];
+            names = new String[unpacked == 0 ? 1 : capacityFor(unpacked)];
+            nameIDs = new int[names.length];
+            int mask = firsts.length - 1;
+            int nameMask = names.length - 1;
+            for (int i = 0; i < usernames.size(); i++) {
+                String username = usernames.get(i);
+                if (UsernameCodec.isPackable(username)) {
+                    long first = UsernameCodec.pack(username, 0);
+                    long second = UsernameCodec.pack(username, 1);
+                    int slot = (int) SipHash.hash(k0, k1, first, second) & mask;
+                    while (firsts[slot] != 0) {
+                        slot = slot + 1 & mask;
+                    }
+                    firsts[slot] = first;
+                    seconds[slot] = second;
+                    ids[slot] = userIDs[i];
+                }
+                else {
+                    int slot = (int) SipHash.hash(k0, k1, username) & nameMask;
+                    while (names[slot] != null) {
+                        slot = slot + 1 & nameMask;
+                    }
+                    names[slot] = username;
+                    nameIDs[slot] = userIDs[i];
+                }
+            }
+            size = usernames.size();
+        }
+
+        int id(long first, long second, int hash)
+        {
+            int mask = firsts.length - 1;
+            for (int slot = hash & mask; firsts[slot] != 0; slot = slot + 1 & mask) {
+                if (firsts[slot] == first && seconds[slot] == second) {
+                    return ids[slot];
+                }
+            }
+            return NO_USER;
+        }
+
+        int id(String username, int hash)
+        {
+            int mask = names.length - 1;
+            for (int slot = hash & mask; names[slot] != null; slot = slot + 1 & mask) {
+                if (names[slot].equals(username)) {
+                    return nameIDs[slot];
+                }
+            }
+            return NO_USER;
+        }
+
+        //Adds the table's users to the lists, keeping those that pass
+        void addTo(List<String> usernames, List<Integer> userIDs, IntPredicate live)
+        {
+            for (int slot = 0; slot < firsts.length; slot++) {
+                if (firsts[slot] != 0 && live.test(ids[slot])) {
+                    usernames.add(UsernameCodec.unpack(firsts[slot], seconds[slot]));
+                    userIDs.add(ids[slot]);
+                }
+            }
+            for (int slot = 0; slot < names.length; slot++) {
+                if (names[slot] != null && live.test(nameIDs[slot])) {
+                    usernames.add(names[slot]);
+                    userIDs.add(nameIDs[slot]);
+                }
+            }
+        }
+
+        private static int capacityFor(int entries)
+        {
+            int capacity = 2;
+            while (capacity < 2L * entries) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+    }
+
+    private final long k0;
+    private final long k1;
+    private final Table base;
+    private final Table recent;
+
+    private UserSnapshot(long k0, long k1, Table base, Table recent)
+    {
+        this.k0 = k0;
+        this.k1 = k1;
+        this.base = base;
+        this.recent = recent;
+    }
+
+    /**
+     * @return a snapshot of no users, with a new secret key
+     */
+    public static UserSnapshot empty()
+    {
+        return new UserSnapshot(SipHash.randomKey(), SipHash.randomKey(), EMPTY, EMPTY);
+    }
+
+    /**
+     * @param usernames  the users
+     * @param userIDs    the ID of each, in the same order
+     * @return a snapshot of the users, all in its base, with a new
+     *         secret key
+     */
+    public static UserSnapshot of(List<String> usernames, List<Integer> userIDs)
+    {
+        long k0 = SipHash.randomKey();
+        long k1 = SipHash.randomKey();
+        return new UserSnapshot(k0, k1, new Table(k0, k1, usernames, toArray(userIDs)), EMPTY);
+    }
+
+    /**
+     * @param username  a username, which must be non-null
+     * @return the user's ID, or NO_USER if they are not in the
+     *         snapshot
+     */
+    public int id(String username)
+    {
+        if (UsernameCodec.isPackable(username)) {
+            long first = UsernameCodec.pack(username, 0);
+            long second = UsernameCodec.pack(username, 1);
+            int hash = (int) SipHash.hash(k0, k1, first, second);
+            int id = recent.id(first, second, hash);
+            return id == NO_USER ? base.id(first, second, hash) : id;
+        }
+        int hash = (int) SipHash.hash(k0, k1, username);
+        int id = recent.id(username, hash);
+        return id == NO_USER ? base.id(username, hash) : id;
+    }
+
+    /**
+     * @return the number of users in the snapshot, counting any removed
+     *         since they were added
+     */
+    public int size()
+    {
+        return base.size + recent.size;
+    }
+
+    /**
+     * @return the number of users in the recent table
+     */
+    public int recentSize()
+    {
+        return recent.size;
+    }
+
+    /**
+     * Makes a new snapshot, of this one's users and the given ones,
+     * leaving this one as it is. Users whose IDs fail 'live' are
+     * dropped from any table that is rebuilt.
+     *
+     * @param usernames  the users to add
+     * @param userIDs    the ID of each, in the same order
+     * @param live       whether an ID still names a user
+     * @return the new snapshot
+     */
+    public UserSnapshot with(List<String> usernames, List<Integer> userIDs, IntPredicate live)
+    {
+        List<String> names = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        int limit = Math.max(RECENT_LIMIT, 4 * (int) Math.sqrt(base.size));
+        boolean rebuild = recent.size + usernames.size() > limit;
+        if (rebuild) {
+            base.addTo(names, ids, live);
+        }
+        recent.addTo(names, ids, live);
+        for (int i = 0; i < usernames.size(); i++) {
+            if (live.test(userIDs.get(i))) {
+                names.add(usernames.get(i));
+                ids.add(userIDs.get(i));
+            }
+        }
+        Table table = new Table(k0, k1, names, toArray(ids));
+        return rebuild ? new UserSnapshot(k0, k1, table, EMPTY)
+            : new UserSnapshot(k0, k1, base, table);
+    }
+
+    private static int[] toArray(List<Integer> ids)
+    {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+}
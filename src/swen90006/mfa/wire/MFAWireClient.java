@@ -0,0 +1,391 @@
+package swen90006.mfa.wire;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * A client for MFAWireServer.
+ *
+ * The methods mirror those of MFA and throw the same exceptions, plus
+ * IOException if the connection fails. Each call is a single round
+ * trip, except addAll, which pipelines its records in windows of
+ * WINDOW requests.
+ *
+ * A client owns one connection and is not thread-safe.
+ */
+public class MFAWireClient implements Closeable
+{
+    /**
+     * The number of requests addAll sends before reading their
+     * responses. The responses to a full window, even if they are all
+     * errors, fit below the server's high-water mark, so the server
+     * never stops reading while this client is still writing.
+     */
+    public static final int WINDOW = 256;
+
+    private final SocketChannel channel;
+    private ByteBuffer out;
+
+    //The received bytes are between the position and the limit
+    private ByteBuffer in;
+
+    //The position in 'in' just after the last response received
+    private int frameEnd;
+
+    /**
+     * Connects to a server.
+     *
+     * @param address  the server's address
+     * @throws IOException if the connection cannot be made
+     */
+    public MFAWireClient(InetSocketAddress address) throws IOException
+    {
+        this.channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        this.out = ByteBuffer.allocateDirect(MFAWireServer.BUFFER_SIZE);
+        this.in = ByteBuffer.allocateDirect(MFAWireServer.BUFFER_SIZE);
+        in.flip();
+    }
+
+    public void register(String username, String password, String deviceID)
+        throws DuplicateUserException, InvalidUsernameException, InvalidPasswordException, IOException
+    {
+        begin(WireProtocol.REGISTER, WireProtocol.stringSize(username)
+              + WireProtocol.stringSize(password) + WireProtocol.stringSize(deviceID));
+        WireProtocol.putString(out, username);
+        WireProtocol.putString(out, password);
+        WireProtocol.putString(out, deviceID);
+        byte status = call();
+        if (status == WireProtocol.DUPLICATE_USER) {
+            throw new DuplicateUserException(username);
+        }
+        else if (status == WireProtocol.INVALID_USERNAME) {
+            throw new InvalidUsernameException(username);
+        }
+        else if (status == WireProtocol.INVALID_PASSWORD) {
+            throw new InvalidPasswordException(password);
+        }
+        expectOk(status);
+    }
+
+    public boolean isUser(String username) throws IOException
+    {
+        begin(WireProtocol.IS_USER, WireProtocol.stringSize(username));
+        WireProtocol.putString(out, username);
+        expectOk(call());
+        return in.get() != 0;
+    }
+
+    public MFA.AuthenticationStatus login(String username, String password)
+        throws NoSuchUserException, IncorrectPasswordException, IOException
+    {
+        begin(WireProtocol.LOGIN, WireProtocol.stringSize(username) + WireProtocol.stringSize(password));
+        WireProtocol.putString(out, username);
+        WireProtocol.putString(out, password);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        else if (status == WireProtocol.INCORRECT_PASSWORD) {
+            throw new IncorrectPasswordException(username, password);
+        }
+        expectOk(status);
+        return WireProtocol.getStatus(in);
+    }
+
+    public MFA.AuthenticationStatus respondToPushNotification(String username, String deviceID)
+        throws NoSuchUserException, IncorrectDeviceIDException, IOException
+    {
+        begin(WireProtocol.PUSH, WireProtocol.stringSize(username) + WireProtocol.stringSize(deviceID));
+        WireProtocol.putString(out, username);
+        WireProtocol.putString(out, deviceID);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        else if (status == WireProtocol.INCORRECT_DEVICE_ID) {
+            throw new IncorrectDeviceIDException(username, deviceID);
+        }
+        expectOk(status);
+        return WireProtocol.getStatus(in);
+    }
+
+    public boolean isAuthenticated(String username)
+        throws NoSuchUserException, IOException
+    {
+        begin(WireProtocol.IS_AUTHENTICATED, WireProtocol.stringSize(username));
+        WireProtocol.putString(out, username);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        expectOk(status);
+        return in.get() != 0;
+    }
+
+    public void addData(String username, int[] record)
+        throws NoSuchUserException, UnauthenticatedUserException, IOException
+    {
+        writeAddData(username, record);
+        checkAddData(username, call());
+    }
+
+    public void addData(String username, List<Integer> record)
+        throws NoSuchUserException, UnauthenticatedUserException, IOException
+    {
+        addData(username, IntRecord.copyOf(record).toIntArray());
+    }
+
+    /**
+     * Adds many records for one user, pipelining the requests.
+     *
+     * Every record is sent even if some are rejected; the first
+     * rejection is then thrown.
+     *
+     * @param username  the username
+     * @param records   the records to add, in order
+     * @return the number of records added
+     */
+    public int addAll(String username, Iterable<int[]> records)
+        throws NoSuchUserException, UnauthenticatedUserException, IOException
+    {
+        int added = 0;
+        byte firstError = WireProtocol.OK;
+        int pending = 0;
+        for (int[] record : records) {
+            writeAddData(username, record);
+            if (++pending == WINDOW) {
+                flush();
+                for (; pending > 0; pending--) {
+                    byte status = receive();
+                    if (status == WireProtocol.OK) {
+                        added++;
+                    }
+                    else if (firstError == WireProtocol.OK) {
+                        firstError = status;
+                    }
+                }
+            }
+        }
+        flush();
+        for (; pending > 0; pending--) {
+            byte status = receive();
+            if (status == WireProtocol.OK) {
+                added++;
+            }
+            else if (firstError == WireProtocol.OK) {
+                firstError = status;
+            }
+        }
+        if (firstError == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        else if (firstError == WireProtocol.UNAUTHENTICATED_USER) {
+            throw new UnauthenticatedUserException(username);
+        }
+        else if (firstError != WireProtocol.OK) {
+            //The message belonged to an earlier response and is gone
+            throw new IOException("Server error " + firstError);
+        }
+        return added;
+    }
+
+    public IntRecord getData(String username, int index)
+        throws NoSuchUserException, UnauthenticatedUserException, IOException
+    {
+        begin(WireProtocol.GET_DATA, WireProtocol.stringSize(username) + 4);
+        WireProtocol.putString(out, username);
+        out.putInt(index);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        else if (status == WireProtocol.UNAUTHENTICATED_USER) {
+            throw new UnauthenticatedUserException(username);
+        }
+        else if (status == WireProtocol.INDEX_OUT_OF_BOUNDS) {
+            throw new IndexOutOfBoundsException(WireProtocol.getString(in));
+        }
+        expectOk(status);
+        return IntRecord.readFrom(in, WireProtocol.getRecordLength(in));
+    }
+
+    /**
+     * @return the usernames of all users on the server
+     */
+    public Set<String> getUsers() throws IOException
+    {
+        begin(WireProtocol.GET_USERS, 0);
+        expectOk(call());
+        int count = in.getInt();
+        Set<String> users = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            users.add(WireProtocol.getString(in));
+        }
+        return users;
+    }
+
+    public UserState exportUser(String username)
+        throws NoSuchUserException, IOException
+    {
+        begin(WireProtocol.EXPORT_USER, WireProtocol.stringSize(username));
+        WireProtocol.putString(out, username);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        expectOk(status);
+        return WireProtocol.getUser(in);
+    }
+
+    public void removeUser(String username)
+        throws NoSuchUserException, IOException
+    {
+        begin(WireProtocol.REMOVE_USER, WireProtocol.stringSize(username));
+        WireProtocol.putString(out, username);
+        byte status = call();
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        expectOk(status);
+    }
+
+    public void importUser(UserState user)
+        throws DuplicateUserException, IOException
+    {
+        begin(WireProtocol.IMPORT_USER, WireProtocol.userSize(user));
+        WireProtocol.putUser(out, user);
+        byte status = call();
+        if (status == WireProtocol.DUPLICATE_USER) {
+            throw new DuplicateUserException(user.getUsername());
+        }
+        expectOk(status);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private void writeAddData(String username, int[] record) throws IOException
+    {
+        begin(WireProtocol.ADD_DATA, WireProtocol.stringSize(username) + 4 + 4 * record.length);
+        WireProtocol.putString(out, username);
+        out.putInt(record.length);
+        out.asIntBuffer().put(record);
+        out.position(out.position() + 4 * record.length);
+    }
+
+    private void checkAddData(String username, byte status)
+        throws NoSuchUserException, UnauthenticatedUserException, IOException
+    {
+        if (status == WireProtocol.NO_SUCH_USER) {
+            throw new NoSuchUserException(username);
+        }
+        else if (status == WireProtocol.UNAUTHENTICATED_USER) {
+            throw new UnauthenticatedUserException(username);
+        }
+        expectOk(status);
+    }
+
+    //Starts a request frame with an argument of 'size' bytes
+    private void begin(byte op, int size) throws IOException
+    {
+        int needed = 4 + 1 + size;
+        if (1 + size > WireProtocol.MAX_FRAME) {
+            throw new IOException("Request too large: " + size + " bytes");
+        }
+        if (out.remaining() < needed) {
+            flush();
+        }
+        if (out.capacity() < needed) {
+            out = ByteBuffer.allocateDirect(needed);
+        }
+        out.putInt(1 + size);
+        out.put(op);
+    }
+
+    private void flush() throws IOException
+    {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    //Sends the request being written and returns the status of its
+    //response, leaving 'in' positioned at the result
+    private byte call() throws IOException
+    {
+        flush();
+        return receive();
+    }
+
+    //Reads the next response frame, returning its status and leaving
+    //'in' positioned at the result
+    private byte receive() throws IOException
+    {
+        //Skip any unread part of the previous response
+        if (frameEnd > in.position()) {
+            in.position(frameEnd);
+        }
+        fill(4);
+        int length = in.getInt();
+        if (length < 1 || length > WireProtocol.MAX_FRAME) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        fill(length);
+        frameEnd = in.position() + length;
+        return in.get();
+    }
+
+    //Reads until at least 'n' bytes are available in 'in'
+    private void fill(int n) throws IOException
+    {
+        if (in.remaining() >= n) {
+            return;
+        }
+        if (in.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(n);
+            larger.put(in);
+            in = larger;
+        }
+        else {
+            in.compact();
+        }
+        frameEnd = 0;
+        while (in.position() < n) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+        }
+        in.flip();
+    }
+
+    private void expectOk(byte status) throws IOException
+    {
+        if (status != WireProtocol.OK) {
+            throw new IOException("Server error " + status + ": " + WireProtocol.getString(in));
+        }
+    }
+}
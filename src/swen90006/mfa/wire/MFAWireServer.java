@@ -0,0 +1,465 @@
+package swen90006.mfa.wire;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+
+/**
+ * A server for the binary protocol in WireProtocol, built on a single
+ * NIO selector thread.
+ *
+ * Each connection reads into and writes from direct buffers that are
+ * taken from a pool when the connection opens and returned when it
+ * closes, so a steady stream of connections allocates no new buffers.
+ * A buffer grown for a large frame is swapped back for a pooled one
+ * once it is empty. Every complete frame in the read buffer is served
+ * before the next read, so pipelined requests are answered in few
+ * writes. A connection stops serving frames, and being read, while it
+ * has more than HIGH_WATER bytes of responses waiting to be sent, and
+ * goes on with the frames it holds once they are.
+ *
+ * Records are decoded straight from the read buffer into an IntRecord
+ * and stored in MFA as is, so adding a record allocates one int array
+ * rather than a list of boxed Integers.
+ *
+ * MFA is not thread-safe, so every call on it is made while holding
+ * the MFA instance's monitor, as in MFAHttpServer.
+ */
+public class MFAWireServer
+{
+    /** The size of the pooled read and write buffers, in bytes */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Stop reading a connection once this many response bytes are queued */
+    public static final int HIGH_WATER = BUFFER_SIZE / 2;
+
+    private final MFA mfa;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ArrayDeque<ByteBuffer> pool;
+    private Thread thread;
+
+    /**
+     * Creates a server for an MFA instance. The server does not
+     * accept connections until it is started.
+     *
+     * @param mfa      the MFA server to expose
+     * @param address  the address to listen on; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     */
+    public MFAWireServer(MFA mfa, InetSocketAddress address)
+        throws IOException
+    {
+        this.mfa = mfa;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.pool = new ArrayDeque<ByteBuffer>();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts the selector thread.
+     */
+    public synchronized void start()
+    {
+        thread = new Thread(this::run, "mfa-wire");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Closes the listening socket and all connections.
+     */
+    public synchronized void stop() throws IOException
+    {
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        if (thread != null) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the address the server is listening on
+     */
+    public InetSocketAddress getAddress() throws IOException
+    {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    private void run()
+    {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        else if (key.isAcceptable()) {
+                            accept();
+                        }
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                connection.flush();
+                                connection.process();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                        }
+                    }
+                    catch (IOException | RuntimeException e) {
+                        close(key);
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e) {
+            //Stopped
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key, channel));
+    }
+
+    private void close(SelectionKey key)
+    {
+        key.cancel();
+        try {
+            key.channel().close();
+        }
+        catch (IOException e) {
+            //Already closed
+        }
+        Object attachment = key.attachment();
+        if (attachment instanceof Connection) {
+            ((Connection) attachment).release();
+            key.attach(null);
+        }
+    }
+
+    private ByteBuffer acquire()
+    {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    //Only buffers of the standard size are pooled; buffers grown for
+    //large frames are left to the garbage collector
+    private void release(ByteBuffer buffer)
+    {
+        if (buffer != null && buffer.capacity() == BUFFER_SIZE) {
+            buffer.clear();
+            pool.push(buffer);
+        }
+    }
+
+    private class Connection
+    {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+
+        //Both buffers are kept in write mode between events
+        private ByteBuffer in;
+        private ByteBuffer out;
+
+        Connection(SelectionKey key, SocketChannel channel)
+        {
+            this.key = key;
+            this.channel = channel;
+            this.in = acquire();
+            this.out = acquire();
+        }
+
+        void read() throws IOException
+        {
+            if (channel.read(in) < 0) {
+                close(key);
+                return;
+            }
+            process();
+        }
+
+        //Serves every complete frame in the read buffer, writing the
+        //responses whenever they reach the high-water mark, until the
+        //frames run out or the channel will take no more
+        void process() throws IOException
+        {
+            do {
+                serveFrames();
+                flush();
+            } while (out.position() < HIGH_WATER && hasFrame());
+        }
+
+        //Serves complete frames from the read buffer until the queued
+        //responses reach the high-water mark
+        private void serveFrames() throws IOException
+        {
+            in.flip();
+            int needed = 0;
+            while (in.remaining() >= 4 && out.position() < HIGH_WATER) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > WireProtocol.MAX_FRAME) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    needed = 4 + length;
+                    break;
+                }
+                int start = in.position() + 4;
+                serve(in.slice(start, length));
+                in.position(start + length);
+            }
+            in.compact();
+            if (needed > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(needed);
+                in.flip();
+                larger.put(in);
+                release(in);
+                in = larger;
+            }
+            else if (in.position() == 0 && in.capacity() != BUFFER_SIZE) {
+                release(in);
+                in = acquire();
+            }
+        }
+
+        //Whether the read buffer holds a complete frame
+        private boolean hasFrame()
+        {
+            return in.position() >= 4 && in.position() >= 4 + in.getInt(0);
+        }
+
+        void flush() throws IOException
+        {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (out.position() == 0 && out.capacity() != BUFFER_SIZE) {
+                release(out);
+                out = acquire();
+            }
+            int ops = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+            if (out.position() < HIGH_WATER) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        void release()
+        {
+            MFAWireServer.this.release(in);
+            MFAWireServer.this.release(out);
+            in = null;
+            out = null;
+        }
+
+        private void serve(ByteBuffer frame)
+        {
+            byte op = frame.get();
+            int start = out.position();
+            try {
+                switch (op) {
+                case WireProtocol.REGISTER: {
+                    String username = WireProtocol.getString(frame);
+                    String password = WireProtocol.getString(frame);
+                    String deviceID = WireProtocol.getString(frame);
+                    synchronized (mfa) {
+                        mfa.register(username, password, deviceID);
+                    }
+                    begin(WireProtocol.OK, 0);
+                    break;
+                }
+                case WireProtocol.IS_USER: {
+                    String username = WireProtocol.getString(frame);
+                    boolean user;
+                    synchronized (mfa) {
+                        user = mfa.isUser(username);
+                    }
+                    begin(WireProtocol.OK, 1);
+                    out.put((byte) (user ? 1 : 0));
+                    break;
+                }
+                case WireProtocol.LOGIN: {
+                    String username = WireProtocol.getString(frame);
+                    String password = WireProtocol.getString(frame);
+                    MFA.AuthenticationStatus status;
+                    synchronized (mfa) {
+                        status = mfa.login(username, password);
+                    }
+                    begin(WireProtocol.OK, 1);
+                    out.put((byte) status.ordinal());
+                    break;
+                }
+                case WireProtocol.PUSH: {
+                    String username = WireProtocol.getString(frame);
+                    String deviceID = WireProtocol.getString(frame);
+                    MFA.AuthenticationStatus status;
+                    synchronized (mfa) {
+                        status = mfa.respondToPushNotification(username, deviceID);
+                    }
+                    begin(WireProtocol.OK, 1);
+                    out.put((byte) status.ordinal());
+                    break;
+                }
+                case WireProtocol.IS_AUTHENTICATED: {
+                    String username = WireProtocol.getString(frame);
+                    boolean authenticated;
+                    synchronized (mfa) {
+                        authenticated = mfa.isAuthenticated(username);
+                    }
+                    begin(WireProtocol.OK, 1);
+                    out.put((byte) (authenticated ? 1 : 0));
+                    break;
+                }
+                case WireProtocol.ADD_DATA: {
+                    String username = WireProtocol.getString(frame);
+                    int count = WireProtocol.getRecordLength(frame);
+                    IntRecord record = IntRecord.readFrom(frame, count);
+                    synchronized (mfa) {
+                        mfa.addData(username, record);
+                    }
+                    begin(WireProtocol.OK, 0);
+                    break;
+                }
+                case WireProtocol.GET_DATA: {
+                    String username = WireProtocol.getString(frame);
+                    int index = frame.getInt();
+                    List<Integer> record;
+                    synchronized (mfa) {
+                        record = mfa.getData(username, index);
+                    }
+                    IntRecord ints = IntRecord.copyOf(record);
+                    begin(WireProtocol.OK, 4 + 4 * ints.size());
+                    out.putInt(ints.size());
+                    ints.writeTo(out);
+                    break;
+                }
+                case WireProtocol.GET_USERS: {
+                    Set<String> users;
+                    synchronized (mfa) {
+                        users = mfa.getUsers();
+                    }
+                    int size = 4;
+                    for (String username : users) {
+                        size += WireProtocol.stringSize(username);
+                    }
+                    begin(WireProtocol.OK, size);
+                    out.putInt(users.size());
+                    for (String username : users) {
+                        WireProtocol.putString(out, username);
+                    }
+                    break;
+                }
+                case WireProtocol.EXPORT_USER: {
+                    String username = WireProtocol.getString(frame);
+                    UserState user;
+                    synchronized (mfa) {
+                        user = mfa.exportUser(username);
+                    }
+                    begin(WireProtocol.OK, WireProtocol.userSize(user));
+                    WireProtocol.putUser(out, user);
+                    break;
+                }
+                case WireProtocol.REMOVE_USER: {
+                    String username = WireProtocol.getString(frame);
+                    synchronized (mfa) {
+                        mfa.removeUser(username);
+                    }
+                    begin(WireProtocol.OK, 0);
+                    break;
+                }
+                case WireProtocol.IMPORT_USER: {
+                    UserState user = WireProtocol.getUser(frame);
+                    synchronized (mfa) {
+                        mfa.importUser(user);
+                    }
+                    begin(WireProtocol.OK, 0);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + op);
+                }
+            }
+            catch (Exception e) {
+                //Discard any partly written result
+                out.position(start);
+                String message = String.valueOf(e.getMessage());
+                begin(WireProtocol.errorCode(e), WireProtocol.stringSize(message));
+                WireProtocol.putString(out, message);
+            }
+        }
+
+        //Writes the frame header of a response with a result of
+        //'size' bytes, growing the write buffer if it cannot hold it
+        private void begin(byte status, int size)
+        {
+            int needed = 4 + 1 + size;
+            if (out.remaining() < needed) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(
+                    Math.max(2 * out.capacity(), out.position() + needed));
+                out.flip();
+                larger.put(out);
+                release(out);
+                out = larger;
+            }
+            out.putInt(1 + size);
+            out.put(status);
+        }
+
+        private void release(ByteBuffer buffer)
+        {
+            MFAWireServer.this.release(buffer);
+        }
+    }
+
+    /**
+     * Runs a server on an empty MFA instance.
+     *
+     * Usage: MFAWireServer [port]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9090;
+        MFAWireServer server = new MFAWireServer(new MFA(), new InetSocketAddress(port));
+        server.start();
+        System.out.println("MFA wire server listening on " + server.getAddress());
+    }
+}
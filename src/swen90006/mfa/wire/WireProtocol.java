@@ -0,0 +1,280 @@
+package swen90006.mfa.wire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.InvalidUsernameException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+import swen90006.mfa.UserState;
+
+/**
+ * The length-prefixed binary protocol spoken by MFAWireServer and
+ * MFAWireClient.
+ *
+ * Every message is a frame: a 4-byte length, counting the bytes that
+ * follow it, then the body. All integers are big-endian.
+ *
+ * A request body is a 1-byte opcode followed by its arguments. A
+ * response body is a 1-byte status, OK or an error code, followed by
+ * the result (for OK) or a message string (for errors). Responses are
+ * sent in the order the requests were received, so a client may
+ * pipeline any number of requests on one connection.
+ *
+ * Strings are a 4-byte length, or -1 for null, then that many bytes of
+ * UTF-8. Records are a 4-byte element count then that many 4-byte
+ * ints. Authentication statuses are a 1-byte ordinal, and booleans a
+ * byte that is 0 or 1.
+ *
+ * <pre>
+ * REGISTER            username, password, deviceID   -> ()
+ * IS_USER             username                       -> boolean
+ * LOGIN               username, password             -> status
+ * PUSH                username, deviceID             -> status
+ * IS_AUTHENTICATED    username                       -> boolean
+ * ADD_DATA            username, record               -> ()
+ * GET_DATA            username, index                -> record
+ * GET_USERS                                          -> count, username...
+ * EXPORT_USER         username                       -> user
+ * REMOVE_USER         username                       -> ()
+ * IMPORT_USER         user                           -> ()
+ * </pre>
+ *
+ * A user, as moved between servers by EXPORT_USER and IMPORT_USER, is
+ * the username,
+ * password and deviceID, the status, then the number of records
+ * followed by each record.
+ */
+public final class WireProtocol
+{
+    /** The largest frame body accepted, in bytes */
+    public static final int MAX_FRAME = 16 << 20;
+
+    public static final byte REGISTER = 1;
+    public static final byte IS_USER = 2;
+    public static final byte LOGIN = 3;
+    public static final byte PUSH = 4;
+    public static final byte IS_AUTHENTICATED = 5;
+    public static final byte ADD_DATA = 6;
+    public static final byte GET_DATA = 7;
+    public static final byte GET_USERS = 8;
+    public static final byte EXPORT_USER = 9;
+    public static final byte REMOVE_USER = 10;
+    public static final byte IMPORT_USER = 11;
+
+    public static final byte OK = 0;
+    public static final byte DUPLICATE_USER = 1;
+    public static final byte INVALID_USERNAME = 2;
+    public static final byte INVALID_PASSWORD = 3;
+    public static final byte NO_SUCH_USER = 4;
+    public static final byte INCORRECT_PASSWORD = 5;
+    public static final byte INCORRECT_DEVICE_ID = 6;
+    public static final byte UNAUTHENTICATED_USER = 7;
+    public static final byte INDEX_OUT_OF_BOUNDS = 8;
+    public static final byte BAD_REQUEST = 9;
+    public static final byte INTERNAL_ERROR = 10;
+
+    private static final MFA.AuthenticationStatus[] STATUSES = MFA.AuthenticationStatus.values();
+
+    private WireProtocol()
+    {
+    }
+
+    /**
+     * @param e  an exception thrown while serving a request
+     * @return the error code reporting it
+     */
+    public static byte errorCode(Exception e)
+    {
+        if (e instanceof DuplicateUserException) {
+            return DUPLICATE_USER;
+        }
+        else if (e instanceof InvalidUsernameException) {
+            return INVALID_USERNAME;
+        }
+        else if (e instanceof InvalidPasswordException) {
+            return INVALID_PASSWORD;
+        }
+        else if (e instanceof NoSuchUserException) {
+            return NO_SUCH_USER;
+        }
+        else if (e instanceof IncorrectPasswordException) {
+            return INCORRECT_PASSWORD;
+        }
+        else if (e instanceof IncorrectDeviceIDException) {
+            return INCORRECT_DEVICE_ID;
+        }
+        else if (e instanceof UnauthenticatedUserException) {
+            return UNAUTHENTICATED_USER;
+        }
+        else if (e instanceof IndexOutOfBoundsException) {
+            return INDEX_OUT_OF_BOUNDS;
+        }
+        else if (e instanceof IllegalArgumentException) {
+            return BAD_REQUEST;
+        }
+        return INTERNAL_ERROR;
+    }
+
+    /**
+     * @param string  a string, or null
+     * @return the number of bytes putString will write for it
+     */
+    public static int stringSize(String string)
+    {
+        return string == null ? 4 : 4 + utf8Length(string);
+    }
+
+    /**
+     * Writes a string at the buffer's position.
+     */
+    public static void putString(ByteBuffer buffer, String string)
+    {
+        if (string == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(utf8Length(string));
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            }
+            else {
+                //Rare in usernames and device IDs, so no need to avoid
+                //allocating here
+                buffer.put(string.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a string at the buffer's position.
+     *
+     * @throws IllegalArgumentException if the length is invalid
+     */
+    public static String getString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        else if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String string;
+        if (buffer.hasArray()) {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                length, StandardCharsets.UTF_8);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    /**
+     * Reads an authentication status at the buffer's position.
+     */
+    public static MFA.AuthenticationStatus getStatus(ByteBuffer buffer)
+    {
+        int ordinal = buffer.get();
+        if (ordinal < 0 || ordinal >= STATUSES.length) {
+            throw new IllegalArgumentException("Invalid status " + ordinal);
+        }
+        return STATUSES[ordinal];
+    }
+
+    /**
+     * Reads a record length at the buffer's position, checking that
+     * the elements are present.
+     */
+    public static int getRecordLength(ByteBuffer buffer)
+    {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("Invalid record length " + count);
+        }
+        return count;
+    }
+
+    /**
+     * @param user  a user, whose records must not contain nulls
+     * @return the number of bytes putUser will write for it
+     */
+    public static int userSize(UserState user)
+    {
+        int size = stringSize(user.getUsername()) + stringSize(user.getPassword())
+            + stringSize(user.getDeviceID()) + 1 + 4;
+        for (List<Integer> record : user.getRecords()) {
+            size += 4 + 4 * record.size();
+        }
+        return size;
+    }
+
+    /**
+     * Writes a user at the buffer's position.
+     */
+    public static void putUser(ByteBuffer buffer, UserState user)
+    {
+        putString(buffer, user.getUsername());
+        putString(buffer, user.getPassword());
+        putString(buffer, user.getDeviceID());
+        buffer.put((byte) user.getStatus().ordinal());
+        buffer.putInt(user.getRecords().size());
+        for (List<Integer> record : user.getRecords()) {
+            IntRecord ints = IntRecord.copyOf(record);
+            buffer.putInt(ints.size());
+            ints.writeTo(buffer);
+        }
+    }
+
+    /**
+     * Reads a user at the buffer's position.
+     *
+     * @throws IllegalArgumentException if the encoding is invalid
+     */
+    public static UserState getUser(ByteBuffer buffer)
+    {
+        String username = getString(buffer);
+        String password = getString(buffer);
+        String deviceID = getString(buffer);
+        MFA.AuthenticationStatus status = getStatus(buffer);
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("Invalid record count " + count);
+        }
+        List<List<Integer>> records = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(IntRecord.readFrom(buffer, getRecordLength(buffer)));
+        }
+        return new UserState(username, password, deviceID, status, records);
+    }
+
+    private static int utf8Length(String string)
+    {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else {
+                return length + string.substring(i).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return length;
+    }
+}
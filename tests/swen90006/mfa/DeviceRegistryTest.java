@@ -0,0 +1,95 @@
+package swen90006.mfa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest
+{
+    protected DeviceRegistry registry;
+
+    @Before public void setUp() throws Throwable
+    {
+        registry = new DeviceRegistry();
+    }
+
+    @Test public void sharedDeviceHasOneHandle() throws Throwable
+    {
+        int alice = registry.assign("alice", "kiosk");
+        int bob = registry.assign("bob", new String("kiosk"));
+        int carol = registry.assign("carol", "phone");
+        assertEquals(alice, bob);
+        assertNotEquals(alice, carol);
+        assertEquals(2, registry.deviceCount());
+        assertEquals("kiosk", registry.deviceID(alice));
+        assertEquals(alice, registry.handleOf("bob"));
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bob")),
+                     registry.usersOf("kiosk"));
+    }
+
+    @Test public void comparesByHandleNotReference() throws Throwable
+    {
+        registry.assign("alice", "kiosk");
+        assertTrue(registry.isDeviceOf("alice", new String("kiosk")));
+        assertFalse(registry.isDeviceOf("alice", "phone"));
+        assertFalse(registry.isDeviceOf("alice", null));
+        assertFalse(registry.isDeviceOf("bob", "kiosk"));
+    }
+
+    @Test public void handleReleasedWithLastUser() throws Throwable
+    {
+        int kiosk = registry.assign("alice", "kiosk");
+        registry.assign("bob", "kiosk");
+        registry.unassign("alice");
+        assertEquals(kiosk, registry.handle("kiosk"));
+        registry.unassign("bob");
+        assertEquals(DeviceRegistry.NO_DEVICE, registry.handle("kiosk"));
+        assertNull(registry.deviceID(kiosk));
+        assertEquals(0, registry.deviceCount());
+        assertEquals(kiosk, registry.assign("carol", "tablet"));
+    }
+
+    @Test public void revokeRemovesDeviceFromAllUsers() throws Throwable
+    {
+        for (String user : new String[] {"alice", "bob", "user1"}) {
+            registry.assign(user, "kiosk");
+        }
+        registry.assign("carol", "phone");
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bob", "user1")),
+                     registry.revoke("kiosk"));
+        assertEquals(DeviceRegistry.NO_DEVICE, registry.handleOf("alice"));
+        assertEquals(DeviceRegistry.NO_DEVICE, registry.handleOf("user1"));
+        assertEquals(1, registry.deviceCount());
+        assertTrue(registry.revoke("kiosk").isEmpty());
+    }
+
+    @Test public void mapView() throws Throwable
+    {
+        Map<String, String> map = registry.asMap();
+        assertNull(map.put("alice", "kiosk"));
+        String copy = new String("kiosk");
+        map.put("bob", copy);
+        assertSame(map.get("alice"), map.get("bob"));
+        assertEquals("kiosk", map.remove("alice"));
+        assertEquals(1, map.size());
+        assertEquals(1, registry.usersOf("kiosk").size());
+    }
+
+    @Test public void mfaRevokesDeviceAndLogsOut() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", "kiosk");
+        mfa.register("bobby", "password1!", new String("kiosk"));
+        mfa.login("alice", "password1!");
+        assertEquals(MFA.AuthenticationStatus.DOUBLE,
+                     mfa.respondToPushNotification("alice", new String("kiosk")));
+        assertTrue(mfa.isAuthenticated("alice"));
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bobby")),
+                     mfa.revokeDevice("kiosk"));
+        assertFalse(mfa.isAuthenticated("alice"));
+        assertNull(mfa.exportUser("alice").getDeviceID());
+    }
+}
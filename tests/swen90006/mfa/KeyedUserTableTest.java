@@ -0,0 +1,95 @@
+package swen90006.mfa;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class KeyedUserTableTest
+{
+    protected KeyedUserTable<Integer> table;
+
+    @Before public void setUp() throws Throwable
+    {
+        table = new KeyedUserTable<Integer>();
+    }
+
+    @Test public void sipHashMatchesReferenceVectors() throws Throwable
+    {
+        //Key 00 01 ... 0f, as in the SipHash paper
+        long k0 = 0x0706050403020100L;
+        long k1 = 0x0F0E0D0C0B0A0908L;
+        byte[] message = new byte[16];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        assertEquals(0x726FDB47DD0E0E31L, SipHash.hash(k0, k1, new byte[0]));
+        assertEquals(0xA129CA6149BE45E5L, SipHash.hash(k0, k1, Arrays.copyOf(message, 15)));
+
+        assertEquals(SipHash.hash(k0, k1, message),
+                     SipHash.hash(k0, k1, 0x0706050403020100L, 0x0F0E0D0C0B0A0908L));
+        for (String s : new String[] {"", "a", "abc", "abcd", "caf\u00e9 user 1"}) {
+            assertEquals(s, SipHash.hash(k0, k1, s.getBytes(StandardCharsets.UTF_16LE)),
+                         SipHash.hash(k0, k1, s));
+        }
+    }
+
+    @Test public void agreesWithHashMap() throws Throwable
+    {
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(90006);
+        for (int i = 0; i < 100000; i++) {
+            String name = "user " + random.nextInt(5000);
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.put(name, i), table.put(name, i));
+                break;
+            case 1:
+                assertEquals(expected.remove(name), table.remove(name));
+                break;
+            default:
+                assertEquals(expected.get(name), table.get(name));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        assertEquals(expected, table);
+        assertEquals(expected.keySet(), table.keySet());
+        assertNull(table.get(42));
+    }
+
+    @Test public void collidingHashCodesStayShortRuns() throws Throwable
+    {
+        List<String> names = collidingNames(12);
+        for (String name : names) {
+            assertEquals(names.get(0).hashCode(), name.hashCode());
+            table.put(name, name.length());
+        }
+        assertEquals(names.size(), table.size());
+        //Far shorter than a run of all 4096 names
+        assertTrue(String.valueOf(table.longestProbe()), table.longestProbe() < 64);
+        for (String name : names) {
+            assertEquals(Integer.valueOf(24), table.remove(name));
+        }
+        assertTrue(table.isEmpty());
+    }
+
+    //The 2^n names of n blocks each "Aa" or "BB", which share a hashCode
+    static List<String> collidingNames(int n)
+    {
+        List<String> names = new ArrayList<String>();
+        for (int bits = 0; bits < 1 << n; bits++) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                name.append((bits >>> i & 1) == 0 ? "Aa" : "BB");
+            }
+            names.add(name.toString());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,93 @@
+package swen90006.mfa;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PackedStatusTableTest
+{
+    protected PackedStatusTable table;
+
+    @Before public void setUp() throws Throwable
+    {
+        table = new PackedStatusTable(100);
+    }
+
+    @Test public void holdsStatusAndDeviceSeparately() throws Throwable
+    {
+        assertFalse(table.contains(17));
+        assertNull(table.get(17));
+        table.set(17, MFA.AuthenticationStatus.SINGLE);
+        table.setDevice(17, true);
+        table.set(18, MFA.AuthenticationStatus.DOUBLE);
+        assertEquals(MFA.AuthenticationStatus.SINGLE, table.get(17));
+        assertTrue(table.hasDevice(17));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE, table.get(18));
+        assertFalse(table.hasDevice(18));
+        assertNull(table.get(16));
+
+        table.clear(17);
+        assertFalse(table.contains(17));
+        assertFalse(table.hasDevice(17));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE, table.get(18));
+    }
+
+    @Test public void authenticatedMatchesMFA() throws Throwable
+    {
+        int id = 0;
+        for (MFA.AuthenticationStatus status : MFA.AuthenticationStatus.values()) {
+            for (boolean device : new boolean[] {false, true}) {
+                table.set(id, status);
+                table.setDevice(id, device);
+                boolean expected = device ? status == MFA.AuthenticationStatus.DOUBLE
+                    : status == MFA.AuthenticationStatus.SINGLE;
+                assertEquals(status + " " + device, expected, table.isAuthenticated(id));
+                id++;
+            }
+        }
+        assertFalse(table.isAuthenticated(id));
+    }
+
+    @Test public void compareAndSetChecksTheStatus() throws Throwable
+    {
+        assertTrue(table.compareAndSet(5, null, MFA.AuthenticationStatus.NONE));
+        assertFalse(table.compareAndSet(5, MFA.AuthenticationStatus.SINGLE,
+                                        MFA.AuthenticationStatus.DOUBLE));
+        assertTrue(table.compareAndSet(5, MFA.AuthenticationStatus.NONE,
+                                       MFA.AuthenticationStatus.SINGLE));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, table.get(5));
+    }
+
+    @Test public void concurrentUpdatesToOneWordAreNotLost() throws Throwable
+    {
+        Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    table.set(id, MFA.AuthenticationStatus.values()[i % 3]);
+                    table.setDevice(id, i % 2 == 0);
+                }
+                table.set(id, MFA.AuthenticationStatus.DOUBLE);
+                table.setDevice(id, true);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int id = 0; id < threads.length; id++) {
+            assertEquals(MFA.AuthenticationStatus.DOUBLE, table.get(id));
+            assertTrue(table.isAuthenticated(id));
+        }
+    }
+
+    @Test public void growsKeepingEntries() throws Throwable
+    {
+        table.set(99, MFA.AuthenticationStatus.SINGLE);
+        table.ensureCapacity(10000);
+        assertTrue(table.capacity() >= 10000);
+        assertEquals(MFA.AuthenticationStatus.SINGLE, table.get(99));
+        table.set(9999, MFA.AuthenticationStatus.NONE);
+        assertEquals(MFA.AuthenticationStatus.NONE, table.get(9999));
+    }
+}
@@ -0,0 +1,88 @@
+package swen90006.mfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PushWaitersTest
+{
+    protected MFA mfa;
+
+    @Before public void setUp() throws Throwable
+    {
+        mfa = new MFA();
+        mfa.register("alice", "password1!", "phone");
+        mfa.register("bobby", "password1!", null);
+    }
+
+    @Test public void responseWakesParkedWaiterOnce() throws Throwable
+    {
+        mfa.login("alice", "password1!");
+        CompletableFuture<MFA.AuthenticationStatus> response =
+            mfa.awaitPushResponse("alice", 10, TimeUnit.SECONDS);
+        AtomicInteger wakes = new AtomicInteger();
+        response.thenRun(wakes::incrementAndGet);
+        List<MFA.AuthenticationStatus> seen = new ArrayList<MFA.AuthenticationStatus>();
+        Thread waiter = new Thread(() -> seen.add(response.join()));
+        waiter.start();
+        assertFalse(response.isDone());
+
+        mfa.respondToPushNotification("alice", "phone");
+        waiter.join();
+        assertEquals(List.of(MFA.AuthenticationStatus.DOUBLE), seen);
+        mfa.login("alice", "password1!");
+        mfa.respondToPushNotification("alice", "phone");
+        assertEquals(1, wakes.get());
+    }
+
+    @Test public void timeoutAnswersSingleAndForgetsWaiter() throws Throwable
+    {
+        PushWaiters waiters = new PushWaiters();
+        CompletableFuture<MFA.AuthenticationStatus> response =
+            waiters.await("alice", 20, TimeUnit.MILLISECONDS);
+        CompletableFuture<MFA.AuthenticationStatus> other =
+            waiters.await("alice", 10, TimeUnit.SECONDS);
+        assertEquals(MFA.AuthenticationStatus.SINGLE, response.get());
+        assertEquals(1, waiters.pendingUsers());
+        waiters.complete("alice", MFA.AuthenticationStatus.DOUBLE);
+        assertEquals(MFA.AuthenticationStatus.DOUBLE, other.get());
+        assertEquals(0, waiters.pendingUsers());
+    }
+
+    @Test public void revokeAndRemoveAnswerNone() throws Throwable
+    {
+        mfa.register("carol", "password1!", "phone");
+        mfa.login("alice", "password1!");
+        mfa.login("carol", "password1!");
+        CompletableFuture<MFA.AuthenticationStatus> alice =
+            mfa.awaitPushResponse("alice", 10, TimeUnit.SECONDS);
+        CompletableFuture<MFA.AuthenticationStatus> carol =
+            mfa.awaitPushResponse("carol", 10, TimeUnit.SECONDS);
+        mfa.removeUser("alice");
+        assertEquals(MFA.AuthenticationStatus.NONE, alice.getNow(null));
+        assertFalse(carol.isDone());
+        mfa.revokeDevice("phone");
+        assertEquals(MFA.AuthenticationStatus.NONE, carol.getNow(null));
+    }
+
+    @Test public void usersNotWaitingAnswerAtOnce() throws Throwable
+    {
+        assertEquals(MFA.AuthenticationStatus.NONE,
+                     mfa.awaitPushResponse("alice", 10, TimeUnit.SECONDS).getNow(null));
+        mfa.login("bobby", "password1!");
+        assertEquals(MFA.AuthenticationStatus.SINGLE,
+                     mfa.awaitPushResponse("bobby", 10, TimeUnit.SECONDS).getNow(null));
+        try {
+            mfa.awaitPushResponse("nobody", 10, TimeUnit.SECONDS);
+            fail("Expected NoSuchUserException");
+        }
+        catch (NoSuchUserException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package swen90006.mfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RecordLogTest
+{
+    protected RecordLog log;
+
+    @Before public void setUp() throws Throwable
+    {
+        log = new RecordLog();
+    }
+
+    @Test public void appendsAcrossChunks() throws Throwable
+    {
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (int i = 0; i < 5 * RecordLog.CHUNK + 3; i++) {
+            List<Integer> record = Arrays.asList(i, -i);
+            assertTrue(log.add(record));
+            expected.add(record);
+            assertSame(record, log.get(i));
+        }
+        assertEquals(expected, log);
+        assertEquals(6, log.chunkCount());
+        assertEquals(expected, new RecordLog(expected));
+        assertEquals(expected.subList(0, 10), new RecordLog(expected.subList(0, 10)));
+        assertTrue(new RecordLog(new ArrayList<List<Integer>>()).isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getBeyondSizeThrows() throws Throwable
+    {
+        log.add(Arrays.asList(1));
+        log.get(1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void recordsCannotBeReplaced() throws Throwable
+    {
+        log.add(Arrays.asList(1));
+        log.set(0, Arrays.asList(2));
+    }
+
+    @Test public void readersSeeEveryRecordWhileAppending() throws Throwable
+    {
+        final int count = 20 * RecordLog.CHUNK;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread reader = new Thread(() -> {
+            try {
+                int seen = 0;
+                while (seen < count) {
+                    int size = log.size();
+                    for (int i = seen; i < size; i++) {
+                        assertEquals(Arrays.asList(i), log.get(i));
+                    }
+                    int iterated = 0;
+                    for (List<Integer> record : log) {
+                        assertEquals(Arrays.asList(iterated++), record);
+                    }
+                    assertTrue(iterated >= size);
+                    seen = size;
+                }
+            }
+            catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            log.add(Arrays.asList(i));
+        }
+        reader.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test public void writersAppendEveryRecordOnce() throws Throwable
+    {
+        final int writers = 8;
+        final int each = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < each; i++) {
+                        log.add(Arrays.asList(writer, i));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                start.await();
+                while (log.size() < writers * each) {
+                    int size = log.size();
+                    for (int i = Math.max(0, size - 300); i < size; i++) {
+                        assertNotNull(log.get(i));
+                    }
+                }
+            }
+            catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        threads.add(reader);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        assertEquals(writers * each, log.size());
+        int[] next = new int[writers];
+        for (List<Integer> record : log) {
+            //Each writer's records are in the order it added them
+            assertEquals(next[record.get(0)]++, (int) record.get(1));
+        }
+        for (int w = 0; w < writers; w++) {
+            assertEquals(each, next[w]);
+        }
+    }
+
+    @Test public void nullRecordsAreKept() throws Throwable
+    {
+        for (int i = 0; i < RecordLog.CHUNK + 2; i++) {
+            log.add(i % 2 == 0 ? null : Arrays.asList(i));
+        }
+        assertEquals(RecordLog.CHUNK + 2, log.size());
+        assertNull(log.get(0));
+        assertEquals(Arrays.asList(1), log.get(1));
+        assertNull(log.get(RecordLog.CHUNK));
+        assertNull(new RecordLog(log).get(RecordLog.CHUNK));
+
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        mfa.login("alice", "password1!");
+        mfa.addData("alice", null);
+        mfa.addData(mfa.getUserID("alice"), Arrays.asList(1));
+        mfa.addData(mfa.getUserID("alice"), null);
+        assertNull(mfa.getData("alice", 0));
+        assertEquals(Arrays.asList(1), mfa.getData("alice", 1));
+        assertNull(mfa.getData("alice", 2));
+    }
+
+    @Test public void mfaAddsByIDFromManyThreads() throws Throwable
+    {
+        final MFA mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        mfa.login("alice", "password1!");
+        final int id = mfa.getUserID("alice");
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < 4; w++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        mfa.addData(id, Arrays.asList(i));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(4000, mfa.exportUser("alice").getRecords().size());
+    }
+
+    @Test public void mfaAddsAndReadsAcrossChunks() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        mfa.login("alice", "password1!");
+        for (int i = 0; i < 3 * RecordLog.CHUNK; i++) {
+            mfa.addData("alice", Arrays.asList(i));
+        }
+        assertEquals(Arrays.asList(RecordLog.CHUNK + 1), mfa.getData("alice", RecordLog.CHUNK + 1));
+        UserState removed = mfa.removeUser("alice");
+        assertEquals(3 * RecordLog.CHUNK, removed.getRecords().size());
+    }
+}
@@ -0,0 +1,145 @@
+package swen90006.mfa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class UserDirectoryTest
+{
+    protected DeviceRegistry devices;
+    protected UserDirectory directory;
+
+    @Before public void setUp() throws Throwable
+    {
+        devices = new DeviceRegistry();
+        directory = new UserDirectory(devices);
+    }
+
+    @Test public void idsAreDenseAndNotReused() throws Throwable
+    {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, directory.add("user" + letters(i)));
+        }
+        assertEquals(1000, directory.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, directory.id("user" + letters(i)));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            directory.remove(i);
+        }
+        assertEquals(500, directory.size());
+        assertEquals(UserDirectory.NO_USER, directory.id("user" + letters(0)));
+        assertNull(directory.username(0));
+        assertEquals("user" + letters(1), directory.username(1));
+        for (int i = 1; i < 1000; i += 2) {
+            assertEquals(i, directory.id("user" + letters(i)));
+        }
+        assertEquals(1000, directory.add("user" + letters(0)));
+        assertEquals(1001, directory.issued());
+    }
+
+    @Test public void unpackableUsersHaveIDs() throws Throwable
+    {
+        String name = "abcdefghijklmnopqrstuvwxyz";
+        int id = directory.add(name);
+        assertEquals(id, directory.id(name));
+        assertEquals(name, directory.username(id));
+        directory.remove(id);
+        assertEquals(UserDirectory.NO_USER, directory.id(name));
+        assertEquals(0, directory.size());
+    }
+
+    @Test public void viewsReadAndWriteColumns() throws Throwable
+    {
+        Map<String, String> passwords = directory.passwords();
+        Map<String, String> deviceIDs = directory.deviceIDs();
+        passwords.put("alice", "password1!");
+        passwords.put("bobby", "password2!");
+        int alice = directory.id("alice");
+        assertEquals("password1!", directory.password(alice));
+        assertEquals(MFA.AuthenticationStatus.NONE, directory.statuses().get("alice"));
+
+        deviceIDs.put("alice", "kiosk");
+        deviceIDs.put("bobby", new String("kiosk"));
+        assertEquals(directory.deviceHandle(alice), devices.handle("kiosk"));
+        assertEquals(2, deviceIDs.size());
+        assertFalse(deviceIDs.containsKey("carol"));
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bobby")),
+                     directory.revokeDevice("kiosk"));
+        assertEquals(DeviceRegistry.NO_DEVICE, directory.deviceHandle(alice));
+        assertEquals(0, deviceIDs.size());
+
+        passwords.remove("alice");
+        assertEquals(1, passwords.size());
+        assertEquals(passwords.keySet(), new HashSet<String>(Arrays.asList("bobby")));
+        directory.statuses().put("alice", MFA.AuthenticationStatus.SINGLE);
+        assertEquals(UserStore.NO_USER, directory.id("alice"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, directory.statuses().get("alice"));
+    }
+
+    @Test public void mfaOperatesByID() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", "phone");
+        int alice = mfa.getUserID("alice");
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login(alice, "password1!"));
+        assertFalse(mfa.isAuthenticated(alice));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE, mfa.respondToPushNotification(alice, "phone"));
+        mfa.addData(alice, Arrays.asList(1, 2));
+        assertEquals(Arrays.asList(1, 2), mfa.getData("alice", 0));
+        assertEquals(Arrays.asList(1, 2), mfa.getData(alice, 0));
+
+        mfa.removeUser("alice");
+        try {
+            mfa.isAuthenticated(alice);
+            fail("Expected NoSuchUserException");
+        }
+        catch (NoSuchUserException e) {
+            //Expected
+        }
+        mfa.register("alice", "password1!", null);
+        assertNotEquals(alice, mfa.getUserID("alice"));
+    }
+
+    @Test public void idleUsersHoldNoRecordsOrPasswordStrings() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        int alice = mfa.getUserID("alice");
+        mfa.login(alice, "password1!");
+        try {
+            mfa.getData(alice, 0);
+            fail("Expected IndexOutOfBoundsException");
+        }
+        catch (IndexOutOfBoundsException e) {
+            //Expected
+        }
+        mfa.addData("alice", Arrays.asList(7));
+        assertEquals(Arrays.asList(7), mfa.getData(alice, 0));
+
+        int bobby = directory.add("bobby");
+        assertSame(UserDirectory.NO_RECORDS, directory.records(bobby));
+        assertNull(directory.records(bobby + 1));
+        directory.setPassword(bobby, "caf\u00e9 1234");
+        assertEquals("caf\u00e9 1234", directory.password(bobby));
+        assertTrue(directory.passwordMatches(bobby, "caf\u00e9 1234"));
+        assertFalse(directory.passwordMatches(bobby, "caf\u00e9 1235"));
+        directory.setPassword(bobby, "\u20ac1234567");
+        assertTrue(directory.passwordMatches(bobby, "\u20ac1234567"));
+        assertEquals(24 + 16 + 16, (long) directory.footprint().get("passwords"));
+    }
+
+    //A letters-only name for a number, so that it can be packed
+    private static String letters(int i)
+    {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return name.toString();
+    }
+}
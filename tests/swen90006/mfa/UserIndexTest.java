@@ -0,0 +1,84 @@
+package swen90006.mfa;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class UserIndexTest
+{
+    protected long[] firsts;
+    protected long[] seconds;
+    protected UserIndex index;
+
+    @Before public void setUp() throws Throwable
+    {
+        firsts = new long[100000];
+        seconds = new long[100000];
+        for (int id = 0; id < firsts.length; id++) {
+            //Small keys, so that many share home slots
+            firsts[id] = 1 + id % 1000;
+            seconds[id] = id / 1000;
+        }
+        index = new UserIndex(0, new UserIndex.Keys() {
+            public long first(int id)
+            {
+                return firsts[id];
+            }
+
+            public long second(int id)
+            {
+                return seconds[id];
+            }
+        });
+    }
+
+    @Test public void findsEveryIDWhileGrowing() throws Throwable
+    {
+        boolean grew = false;
+        for (int id = 0; id < firsts.length; id++) {
+            index.insert(id);
+            grew |= index.isGrowing();
+            if (id % 97 == 0) {
+                for (int other = 0; other <= id; other += 13) {
+                    assertEquals(other, index.find(firsts[other], seconds[other]));
+                }
+            }
+        }
+        assertTrue(grew);
+        assertEquals(firsts.length, index.size());
+        assertEquals(-1, index.find(5000, 5000));
+    }
+
+    @Test public void removesFromEitherTable() throws Throwable
+    {
+        int inserted = 0;
+        while (!index.isGrowing() || inserted < 5000) {
+            index.insert(inserted++);
+        }
+        assertTrue(index.isGrowing());
+        for (int id = 0; id < inserted; id += 2) {
+            index.remove(id);
+        }
+        for (int id = inserted; id < 20000; id++) {
+            index.insert(id);
+        }
+        assertFalse(index.isGrowing());
+        for (int id = 0; id < 20000; id++) {
+            int expected = id < inserted && id % 2 == 0 ? -1 : id;
+            assertEquals(expected, index.find(firsts[id], seconds[id]));
+        }
+    }
+
+    @Test public void ensureCapacityFinishesGrowing() throws Throwable
+    {
+        int id = 0;
+        while (!index.isGrowing()) {
+            index.insert(id++);
+        }
+        index.ensureCapacity(50000);
+        assertFalse(index.isGrowing());
+        assertTrue(index.capacity() * 3 / 4 >= 50000);
+        for (int other = 0; other < id; other++) {
+            assertEquals(other, index.find(firsts[other], seconds[other]));
+        }
+    }
+}
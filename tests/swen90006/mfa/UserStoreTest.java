@@ -0,0 +1,281 @@
+package swen90006.mfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every store in UserStores behaves as UserStore
+ * specifies, directly and under an MFA server.
+ */
+@RunWith(Parameterized.class)
+public class UserStoreTest
+{
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> stores()
+    {
+        List<Object[]> stores = new ArrayList<Object[]>();
+        for (Map.Entry<String, Supplier<UserStore>> store : UserStores.all().entrySet()) {
+            stores.add(new Object[] {store.getKey(), store.getValue()});
+        }
+        return stores;
+    }
+
+    protected Supplier<UserStore> maker;
+    protected UserStore store;
+
+    public UserStoreTest(String name, Supplier<UserStore> maker)
+    {
+        this.maker = maker;
+    }
+
+    @Before public void setUp() throws Throwable
+    {
+        store = maker.get();
+    }
+
+    @Test public void idsAreIssuedInOrderAndNotReused() throws Throwable
+    {
+        String unpackable = "abcdefghijklmnopqrstuvwxyz";
+        assertEquals(0, store.add("alice"));
+        assertEquals(1, store.add(unpackable));
+        assertEquals(2, store.add("bobby"));
+        assertEquals(1, store.id(unpackable));
+        assertEquals(unpackable, store.username(1));
+        assertEquals(UserStore.NO_USER, store.id("carol"));
+        assertEquals(MFA.AuthenticationStatus.NONE, store.status(0));
+        assertSame(UserStore.NO_RECORDS, store.records(0));
+
+        store.remove(0);
+        store.remove(1);
+        store.remove(1);
+        assertEquals(1, store.size());
+        assertFalse(store.contains(0));
+        assertNull(store.username(0));
+        assertNull(store.status(1));
+        assertNull(store.records(1));
+        assertEquals(UserStore.NO_USER, store.id(unpackable));
+        assertEquals(3, store.add("alice"));
+        assertEquals(4, store.issued());
+        assertTrue(store.contains(3));
+        assertFalse(store.contains(-1));
+        assertFalse(store.contains(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void usersCannotBeAddedTwice() throws Throwable
+    {
+        store.add("alice");
+        store.add("alice");
+    }
+
+    @Test public void batchesSkipUsersAlreadyAddedOrRepeated() throws Throwable
+    {
+        int alice = store.add("alice");
+        UserBatch batch = new UserBatch(2);
+        batch.add("bobby", "password1!", "phone");
+        batch.add("alice", "password2!", null);
+        batch.add("bobby", "password3!", null);
+        batch.add(new UserState("carol", "password4!", null, MFA.AuthenticationStatus.SINGLE,
+                                UserStore.NO_RECORDS));
+        assertArrayEquals(new int[] {1, -1 - alice, -2, 2}, store.addAll(batch));
+
+        //A name that cannot be packed
+        batch = new UserBatch();
+        batch.add("p\u0101ssword", "p\u0101ssword5!", null);
+        batch.add("carol", "password6!", null);
+        assertArrayEquals(new int[] {3, -3}, store.addAll(batch));
+
+        assertEquals(4, store.size());
+        assertEquals("password1!", store.password(1));
+        assertEquals("phone", store.deviceID(1));
+        assertEquals(1, store.deviceUserCount());
+        assertNull(store.password(alice));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, store.status(2));
+        assertEquals("password4!", store.password(2));
+        assertSame(UserStore.NO_RECORDS, store.records(2));
+        assertEquals(3, store.id("p\u0101ssword"));
+        assertEquals("p\u0101ssword5!", store.password(3));
+    }
+
+    @Test public void batchesKeepUsernamesAndPasswordsAsGiven() throws Throwable
+    {
+        UserBatch batch = new UserBatch(1);
+        batch.add("abcdefghijklmnopqrst", "p\u0101ssword1!", null);
+        batch.add("alice", "password2!", null);
+        assertEquals("abcdefghijklmnopqrst", batch.username(0));
+        assertEquals("p\u0101ssword1!", batch.password(0));
+        assertArrayEquals(new int[] {0, 1}, store.addAll(batch));
+        assertEquals(0, store.id("abcdefghijklmnopqrst"));
+        assertEquals("p\u0101ssword1!", store.password(0));
+        assertTrue(store.passwordMatches(1, "password2!"));
+    }
+
+    @Test public void passwordsMatchOnlyThemselves() throws Throwable
+    {
+        int alice = store.add("alice");
+        store.setPassword(alice, "password1!");
+        assertTrue(store.passwordMatches(alice, "password1!"));
+        assertFalse(store.passwordMatches(alice, "password1"));
+        assertFalse(store.passwordMatches(alice, "password1?"));
+        store.setPassword(alice, "p\u0101ssword1!");
+        assertTrue(store.passwordMatches(alice, "p\u0101ssword1!"));
+        assertEquals("p\u0101ssword1!", store.password(alice));
+    }
+
+    @Test public void authenticationDependsOnDevices() throws Throwable
+    {
+        int alice = store.add("alice");
+        assertFalse(store.isAuthenticated(alice));
+        store.setStatus(alice, MFA.AuthenticationStatus.SINGLE);
+        assertTrue(store.isAuthenticated(alice));
+        store.setDevice(alice, "phone");
+        assertFalse(store.isAuthenticated(alice));
+        store.setStatus(alice, MFA.AuthenticationStatus.DOUBLE);
+        assertTrue(store.isAuthenticated(alice));
+        store.remove(alice);
+        assertFalse(store.isAuthenticated(alice));
+    }
+
+    @Test public void devicesAreSharedAndRevoked() throws Throwable
+    {
+        int alice = store.add("alice");
+        int bobby = store.add("bobby");
+        int carol = store.add("carol");
+        store.setDevice(alice, "kiosk");
+        store.setDevice(bobby, "kiosk");
+        store.setDevice(carol, "phone");
+        assertTrue(store.hasDevice(alice));
+        assertTrue(store.isDeviceOf(alice, "kiosk"));
+        assertFalse(store.isDeviceOf(alice, "phone"));
+        assertEquals(3, store.deviceUserCount());
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bobby")),
+                     store.deviceUsers("kiosk"));
+
+        store.setDevice(alice, "phone");
+        assertEquals(new HashSet<String>(Arrays.asList("bobby")), store.deviceUsers("kiosk"));
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "carol")),
+                     store.revokeDevice("phone"));
+        assertFalse(store.hasDevice(alice));
+        assertNull(store.deviceID(carol));
+        assertTrue(store.deviceUsers("phone").isEmpty());
+        assertTrue(store.revokeDevice("phone").isEmpty());
+        assertEquals(1, store.deviceUserCount());
+
+        store.remove(bobby);
+        assertTrue(store.deviceUsers("kiosk").isEmpty());
+        assertEquals(0, store.deviceUserCount());
+    }
+
+    @Test public void recordsAreSetOnlyAsExpected() throws Throwable
+    {
+        int alice = store.add("alice");
+        List<List<Integer>> first = new RecordLog();
+        List<List<Integer>> second = new RecordLog();
+        assertFalse(store.compareAndSetRecords(alice, first, second));
+        assertTrue(store.compareAndSetRecords(alice, UserStore.NO_RECORDS, first));
+        assertFalse(store.compareAndSetRecords(alice, UserStore.NO_RECORDS, second));
+        assertSame(first, store.records(alice));
+        store.setRecords(alice, null);
+        assertSame(UserStore.NO_RECORDS, store.records(alice));
+    }
+
+    @Test public void viewsReadAndWriteTheStore() throws Throwable
+    {
+        Map<String, String> passwords = store.passwords();
+        Map<String, String> deviceIDs = store.deviceIDs();
+        Map<String, MFA.AuthenticationStatus> statuses = store.statuses();
+        passwords.put("alice", "password1!");
+        passwords.put("bobby", "password2!");
+        passwords.put("carol", "password3!");
+        deviceIDs.put("bobby", "phone");
+        statuses.put("carol", MFA.AuthenticationStatus.SINGLE);
+        assertEquals(3, passwords.size());
+        assertEquals(1, deviceIDs.size());
+        assertTrue(passwords.containsKey("alice"));
+        assertFalse(deviceIDs.containsKey("alice"));
+        assertEquals("phone", deviceIDs.get("bobby"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, statuses.get("carol"));
+
+        assertEquals("password1!", passwords.remove("alice"));
+        assertNull(passwords.get("alice"));
+        assertEquals(passwords.keySet(), store.records().keySet());
+        assertEquals(new HashSet<String>(Arrays.asList("bobby", "carol")), passwords.keySet());
+        assertEquals(deviceIDs.keySet(), new HashSet<String>(Arrays.asList("bobby")));
+    }
+
+    @Test public void viewsHoldUsernamesNotInTheStore() throws Throwable
+    {
+        Map<String, String> passwords = store.passwords();
+        Map<String, String> deviceIDs = store.deviceIDs();
+        Map<String, MFA.AuthenticationStatus> statuses = store.statuses();
+        passwords.put("bobby", "password2!");
+        assertNull(statuses.put("alice", MFA.AuthenticationStatus.SINGLE));
+        assertNull(deviceIDs.put("alice", "phone"));
+        assertEquals(UserStore.NO_USER, store.id("alice"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, store.statuses().get("alice"));
+        assertTrue(deviceIDs.containsKey("alice"));
+        assertEquals(2, statuses.size());
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bobby")), statuses.keySet());
+        assertEquals("phone", deviceIDs.remove("alice"));
+        assertEquals(0, deviceIDs.size());
+        assertNull(store.records().put("carol", null));
+        assertTrue(store.records().containsKey("carol"));
+
+        passwords.put("alice", "password1!");
+        int alice = store.id("alice");
+        assertEquals(MFA.AuthenticationStatus.SINGLE, store.status(alice));
+        assertFalse(store.hasDevice(alice));
+        assertEquals(2, statuses.size());
+
+        int carol = store.add("carol");
+        assertSame(UserStore.NO_RECORDS, store.records(carol));
+        assertEquals(3, store.records().size());
+        //Removing the user who shadows a stray does not bring it back
+        passwords.remove("carol");
+        assertFalse(store.records().containsKey("carol"));
+        assertEquals(2, store.records().size());
+    }
+
+    @Test public void serversBehaveAlikeOverEveryStore() throws Throwable
+    {
+        MFA mfa = new MFA(store);
+        mfa.register("alice", "password1!", "phone");
+        mfa.register("bobby", "password2!", null);
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login("alice", "password1!"));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE,
+                     mfa.respondToPushNotification("alice", "phone"));
+        mfa.addData("alice", Arrays.asList(1, 2));
+        int bobby = mfa.getUserID("bobby");
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login(bobby, "password2!"));
+        mfa.addData(bobby, Arrays.asList(3));
+        assertEquals(Arrays.asList(3), mfa.getData(bobby, 0));
+
+        UserState alice = mfa.removeUser("alice");
+        assertFalse(mfa.isUser("alice"));
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), alice.getRecords());
+        mfa.importUser(alice);
+        assertTrue(mfa.isAuthenticated("alice"));
+        assertEquals(Arrays.asList(1, 2), mfa.getData("alice", 0));
+        assertEquals(new HashSet<String>(Arrays.asList("alice")), mfa.getDeviceUsers("phone"));
+        mfa.revokeDevice("phone");
+        assertFalse(mfa.isAuthenticated("alice"));
+        assertEquals(new HashSet<String>(Arrays.asList("alice", "bobby")), mfa.getUsers());
+        assertFalse(mfa.isUser(bobby + 100));
+
+        long total = 0;
+        for (long part : mfa.getFootprint().values()) {
+            total += part;
+        }
+        assertTrue(total > 0);
+    }
+}
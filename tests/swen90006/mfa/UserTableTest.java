@@ -0,0 +1,110 @@
+package swen90006.mfa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class UserTableTest
+{
+    protected UserTable<Integer> table;
+
+    @Before public void setUp() throws Throwable
+    {
+        table = new UserTable<Integer>();
+    }
+
+    @Test public void codecRoundTrips() throws Throwable
+    {
+        for (String name : new String[] {"a", "Z", "abcd", "AbCdEfGhIj", "AbCdEfGhIjK",
+                                         "abcdefghijklmnopqrsT"}) {
+            assertTrue(name, UsernameCodec.isPackable(name));
+            assertNotEquals(0, UsernameCodec.pack(name, 0));
+            assertEquals(name, UsernameCodec.unpack(UsernameCodec.pack(name, 0),
+                                                    UsernameCodec.pack(name, 1)));
+        }
+        assertEquals(0, UsernameCodec.pack("abcdefghij", 1));
+        assertNotEquals(UsernameCodec.pack("ab", 0), UsernameCodec.pack("ba", 0));
+    }
+
+    @Test public void codecRejectsUnpackableNames() throws Throwable
+    {
+        assertFalse(UsernameCodec.isPackable(""));
+        assertFalse(UsernameCodec.isPackable("abcdefghijklmnopqrstu"));
+        assertFalse(UsernameCodec.isPackable("user1"));
+        assertFalse(UsernameCodec.isPackable("us er"));
+        assertFalse(UsernameCodec.isPackable("caf\u00e9"));
+    }
+
+    @Test public void packedAndUnpackableKeys() throws Throwable
+    {
+        table.put("alice", 1);
+        table.put("user1", 2);
+        table.put("abcdefghijklmnopqrstuvwxyz", 3);
+        assertEquals(3, table.size());
+        assertEquals(2, table.unpackableCount());
+        assertEquals(Integer.valueOf(1), table.get("alice"));
+        assertEquals(Integer.valueOf(2), table.get("user1"));
+        assertEquals(Integer.valueOf(3), table.get("abcdefghijklmnopqrstuvwxyz"));
+        assertNull(table.get("bob"));
+        assertFalse(table.containsKey(42));
+        assertEquals(Integer.valueOf(1), table.put("alice", 4));
+        assertEquals(3, table.size());
+        assertEquals(Integer.valueOf(4), table.remove("alice"));
+        assertFalse(table.containsKey("alice"));
+        assertEquals(new HashSet<String>(Arrays.asList("user1",
+                                                     "abcdefghijklmnopqrstuvwxyz")),
+                     table.keySet());
+    }
+
+    @Test public void agreesWithHashMap() throws Throwable
+    {
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(90006);
+        for (int i = 0; i < 100000; i++) {
+            String name = name(random.nextInt(5000));
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.put(name, i), table.put(name, i));
+                break;
+            case 1:
+                assertEquals(expected.remove(name), table.remove(name));
+                break;
+            default:
+                assertEquals(expected.get(name), table.get(name));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        assertEquals(expected, table);
+        for (String name : expected.keySet()) {
+            assertEquals(expected.get(name), table.get(name));
+        }
+    }
+
+    @Test public void presizedTableDoesNotGrow() throws Throwable
+    {
+        UserTable<Integer> presized = new UserTable<Integer>(1000);
+        int capacity = presized.capacity();
+        for (int i = 0; i < 1000; i++) {
+            presized.put(name(i), i);
+        }
+        assertEquals(capacity, presized.capacity());
+        Set<String> names = new HashSet<String>(presized.keySet());
+        assertEquals(1000, names.size());
+    }
+
+    private static String name(int i)
+    {
+        StringBuilder name = new StringBuilder("user");
+        do {
+            name.append((char) ('A' + i % 52 + (i % 52 < 26 ? 0 : 'a' - 'A' - 26)));
+            i /= 52;
+        } while (i > 0);
+        return name.toString();
+    }
+}
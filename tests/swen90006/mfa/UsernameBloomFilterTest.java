@@ -0,0 +1,110 @@
+package swen90006.mfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class UsernameBloomFilterTest
+{
+    protected UsernameBloomFilter filter;
+
+    @Before public void setUp() throws Throwable
+    {
+        filter = new UsernameBloomFilter(1000, 0.01);
+    }
+
+    @Test public void sizedFromExpectedUsersAndRate() throws Throwable
+    {
+        //-1000 ln 0.01 / (ln 2)^2 is about 9586 bits and 7 hashes
+        assertEquals(9600, filter.bitSize());
+        assertEquals(7, filter.hashCount());
+        assertEquals(0, filter.setBitCount());
+        assertEquals(0.0, filter.occupancy(), 0.0);
+    }
+
+    @Test public void noFalseNegatives() throws Throwable
+    {
+        for (int i = 0; i < 1000; i++) {
+            filter.add(name(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(name(i)));
+        }
+        assertEquals(1000, filter.insertions());
+    }
+
+    @Test public void falsePositiveRateNearTarget() throws Throwable
+    {
+        for (int i = 0; i < 1000; i++) {
+            filter.add(name(i));
+        }
+        int falsePositives = 0;
+        for (int i = 1000; i < 101000; i++) {
+            if (filter.mightContain(name(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+        //At capacity, about half of the bits are set
+        assertEquals(0.5, filter.occupancy(), 0.05);
+        assertEquals(0.01, filter.expectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test public void concurrentAdds() throws Throwable
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> adds = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++) {
+                int first = t * 250;
+                adds.add(pool.submit(() -> {
+                    for (int i = first; i < first + 250; i++) {
+                        filter.add(name(i));
+                    }
+                }));
+            }
+            for (Future<?> add : adds) {
+                add.get();
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        UsernameBloomFilter serial = new UsernameBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(name(i)));
+            serial.add(name(i));
+        }
+        assertEquals(serial.setBitCount(), filter.setBitCount());
+    }
+
+    @Test public void mfaRejectsUnknownUsers() throws Throwable
+    {
+        MFA mfa = new MFA(100, 0.01);
+        mfa.register("alice", "password1!", null);
+        assertTrue(mfa.isUser("alice"));
+        assertFalse(mfa.isUser("mallory"));
+        assertEquals(1, mfa.getUsernameFilter().insertions());
+        mfa.removeUser("alice");
+        assertFalse(mfa.isUser("alice"));
+        mfa.importUser(new UserState("alice", "password1!", null,
+                                     MFA.AuthenticationStatus.NONE,
+                                     new ArrayList<List<Integer>>()));
+        assertTrue(mfa.isUser("alice"));
+    }
+
+    private static String name(int i)
+    {
+        StringBuilder name = new StringBuilder("user");
+        do {
+            name.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return name.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package swen90006.mfa.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UnauthenticatedUserException;
+
+public class AsyncMFATest
+{
+    protected MFA mfa;
+    protected ExecutorService executor;
+    protected AsyncMFA async;
+
+    @Before public void setUp() throws Throwable
+    {
+        mfa = new MFA();
+        executor = Executors.newFixedThreadPool(4);
+        async = new AsyncMFA(mfa, executor);
+    }
+
+    @After public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test public void operationsCompleteOrFailWithMFAExceptions() throws Throwable
+    {
+        async.register("alice", "password1!", null).toCompletableFuture().join();
+        assertEquals(MFA.AuthenticationStatus.SINGLE,
+                     async.login("alice", "password1!").toCompletableFuture().join());
+        try {
+            async.login("alice", "wrong").toCompletableFuture().join();
+            fail("Expected IncorrectPasswordException");
+        }
+        catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IncorrectPasswordException);
+        }
+        assertTrue(async.getUsers().toCompletableFuture().join().contains("alice"));
+    }
+
+    @Test public void operationsOnOneUserRunInOrder() throws Throwable
+    {
+        List<CompletionStage<?>> stages = new ArrayList<CompletionStage<?>>();
+        for (String username : new String[] {"alice", "bobby", "carol"}) {
+            stages.add(async.register(username, "password1!", null));
+            stages.add(async.login(username, "password1!"));
+            for (int i = 0; i < 500; i++) {
+                stages.add(async.addData(username, List.of(i)));
+            }
+        }
+        for (CompletionStage<?> stage : stages) {
+            stage.toCompletableFuture().join();
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(List.of(i), mfa.getData("carol", i));
+        }
+    }
+
+    @Test public void streamsOnlyWhatIsRequested() throws Throwable
+    {
+        mfa.register("alice", "password1!", null);
+        mfa.login("alice", "password1!");
+        for (int i = 0; i < 200; i++) {
+            mfa.addData("alice", List.of(i));
+        }
+        Collector collector = new Collector();
+        async.getData("alice", 5, 1000).subscribe(collector);
+        collector.subscription.request(10);
+        Thread.sleep(100);
+        assertEquals(10, collector.records.size());
+        assertFalse(collector.done.isDone());
+
+        collector.subscription.request(Long.MAX_VALUE);
+        collector.done.get(10, TimeUnit.SECONDS);
+        assertEquals(195, collector.records.size());
+        assertEquals(List.of(5), collector.records.get(0));
+        assertEquals(List.of(199), collector.records.get(194));
+    }
+
+    @Test public void streamFailsForUnauthenticatedUser() throws Throwable
+    {
+        mfa.register("alice", "password1!", null);
+        Collector collector = new Collector();
+        async.getData("alice", 0, 10).subscribe(collector);
+        collector.subscription.request(1);
+        try {
+            collector.done.get(10, TimeUnit.SECONDS);
+            fail("Expected UnauthenticatedUserException");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnauthenticatedUserException);
+        }
+    }
+
+    @Test public void awaitsPushResponse() throws Throwable
+    {
+        mfa.register("alice", "password1!", "phone");
+        async.login("alice", "password1!");
+        CompletableFuture<MFA.AuthenticationStatus> response =
+            async.awaitPushResponse("alice", 10, TimeUnit.SECONDS).toCompletableFuture();
+        async.respondToPushNotification("alice", "phone");
+        assertEquals(MFA.AuthenticationStatus.DOUBLE, response.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test public void rejectedOperationsNeverRun() throws Throwable
+    {
+        //One thread, busy, and a queue of one, full
+        ThreadPoolExecutor saturated = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            saturated.execute(() -> {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            saturated.execute(() -> {});
+            AsyncMFA bounded = new AsyncMFA(mfa, saturated);
+            try {
+                bounded.register("alice", "password1!", null).toCompletableFuture().join();
+                fail("Expected RejectedExecutionException");
+            }
+            catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            while (saturated.getCompletedTaskCount() < 2) {
+                Thread.sleep(1);
+            }
+            //The next operation in the same queue does not run the rejected one
+            assertFalse(bounded.isUser("alice").toCompletableFuture().get(10, TimeUnit.SECONDS));
+            assertFalse(mfa.isUser("alice"));
+        }
+        finally {
+            release.countDown();
+            saturated.shutdownNow();
+        }
+    }
+
+    protected static class Collector implements Flow.Subscriber<List<Integer>>
+    {
+        protected volatile Flow.Subscription subscription;
+        protected final List<List<Integer>> records = new ArrayList<List<Integer>>();
+        protected final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        public void onNext(List<Integer> record)
+        {
+            synchronized (records) {
+                records.add(record);
+            }
+        }
+
+        public void onError(Throwable failure)
+        {
+            done.completeExceptionally(failure);
+        }
+
+        public void onComplete()
+        {
+            done.complete(null);
+        }
+    }
+}
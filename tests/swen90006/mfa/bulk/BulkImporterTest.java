@@ -0,0 +1,125 @@
+package swen90006.mfa.bulk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+
+public class BulkImporterTest
+{
+    protected MFA mfa;
+    protected BulkImporter importer;
+
+    @Before public void setUp() throws Throwable
+    {
+        mfa = new MFA();
+        mfa.register("existing", "password1!", null);
+        importer = new BulkImporter(mfa, 3, 2);
+    }
+
+    @Test public void importsCsvLikeRegister() throws Throwable
+    {
+        String csv = "username,password,deviceID\n"
+            + "alice,password1!,phone\n"
+            + "bobby,\"pass,word\"\"2\",\n"
+            + "\n"
+            + "carol,password3!\n";
+        BulkImporter.Report report = importer.importCsv(new StringReader(csv));
+        assertEquals(3, report.getRows());
+        assertEquals(3, report.getImported());
+        assertTrue(report.getRejections().isEmpty());
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login("bobby", "pass,word\"2"));
+        assertTrue(mfa.isAuthenticated("bobby"));
+        assertEquals("phone", mfa.exportUser("alice").getDeviceID());
+        assertNull(mfa.exportUser("carol").getDeviceID());
+    }
+
+    @Test public void rejectsRowsWithReasons() throws Throwable
+    {
+        String csv = "alice,password1!\n"
+            + "bob,password1!\n"
+            + "carol,password\n"
+            + "alice,password2!\n"
+            + "existing,password1!\n"
+            + "just one field\n"
+            + "\"dave,password1!\n"
+            + "erin,password1!,phone\n";
+        BulkImporter.Report report = importer.importCsv(new StringReader(csv));
+        assertEquals(8, report.getRows());
+        assertEquals(2, report.getImported());
+        List<String> reasons = new ArrayList<String>();
+        for (BulkImporter.Rejection rejection : report.getRejections()) {
+            reasons.add(rejection.getRow() + " " + rejection.getReason());
+        }
+        assertEquals(Arrays.asList("2 INVALID_USERNAME", "3 INVALID_PASSWORD", "4 DUPLICATE",
+                                   "5 ALREADY_REGISTERED", "6 MALFORMED", "7 MALFORMED"),
+                     reasons);
+        assertEquals("first at row 1", report.getRejections().get(2).getDetail());
+        assertTrue(mfa.isUser("erin"));
+        assertFalse(mfa.isUser("bob"));
+    }
+
+    @Test public void invalidFirstRowDoesNotBlockLaterDuplicate() throws Throwable
+    {
+        String csv = "alice,short\nalice,password1!\n";
+        BulkImporter.Report report = importer.importCsv(new StringReader(csv));
+        assertEquals(1, report.getImported());
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login("alice", "password1!"));
+    }
+
+    @Test public void importsBinary() throws Throwable
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < 100; i++) {
+            BulkImporter.writeBinary(out, "user" + (char) ('a' + i % 26) + (char) ('a' + i / 26),
+                                     "password" + i + "!", i % 2 == 0 ? "kiosk" : null);
+        }
+        BulkImporter.writeBinary(out, "user1", "password1!", null);
+        out.flush();
+        BulkImporter.Report report = importer.importBinary(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(101, report.getRows());
+        assertEquals(100, report.getImported());
+        assertEquals(101, report.getRejections().get(0).getRow());
+        assertEquals(50, mfa.getDeviceUsers("kiosk").size());
+        assertEquals(101, mfa.getUsers().size());
+    }
+
+    @Test public void importUsersIsAllOrNothing() throws Throwable
+    {
+        List<UserState> users = new ArrayList<UserState>();
+        for (String name : new String[] {"alice", "bobby", "alice"}) {
+            users.add(new UserState(name, "password1!", "kiosk", MFA.AuthenticationStatus.NONE,
+                                    new ArrayList<List<Integer>>()));
+        }
+        try {
+            mfa.importUsers(users);
+            fail("Expected DuplicateUserException");
+        }
+        catch (DuplicateUserException e) {
+            //Expected
+        }
+        assertEquals(1, mfa.getUsers().size());
+        assertFalse(mfa.isUser("bobby"));
+        assertTrue(mfa.getDeviceUsers("kiosk").isEmpty());
+    }
+
+    @Test public void parseCsvQuoting() throws Throwable
+    {
+        assertArrayEquals(new String[] {"a", "b", null}, BulkImporter.parseCsv("a,b"));
+        assertArrayEquals(new String[] {"a", "b", null}, BulkImporter.parseCsv("a,b,"));
+        assertArrayEquals(new String[] {"a", "\"x,\"", "d"},
+                          BulkImporter.parseCsv("a,\"\"\"x,\"\"\",d"));
+    }
+}
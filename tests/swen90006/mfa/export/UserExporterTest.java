@@ -0,0 +1,103 @@
+package swen90006.mfa.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+
+public class UserExporterTest
+{
+    protected MFA mfa;
+
+    @Before public void setUp() throws Throwable
+    {
+        mfa = new MFA();
+        for (int i = 0; i < 500; i++) {
+            String username = "user" + (char) ('a' + i % 26) + (char) ('a' + i / 26);
+            mfa.register(username, "password1!", i % 3 == 0 ? "kiosk" : null);
+            mfa.login(username, "password1!");
+            if (i % 3 == 0) {
+                mfa.respondToPushNotification(username, "kiosk");
+            }
+            for (int r = 0; r < i % 4; r++) {
+                mfa.addData(username, Arrays.asList(r, -i, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+        }
+        mfa.register("averyveryverylongusername", "password1!", "caf\u00e9");
+    }
+
+    @Test public void roundTripsOneStream() throws Throwable
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(501, new UserExporter(mfa, 3).export(bytes));
+        Map<String, UserState> users = read(bytes.toByteArray());
+        assertEquals(501, users.size());
+        for (String username : mfa.getUsers()) {
+            UserState expected = mfa.exportUser(username);
+            UserState actual = users.get(username);
+            assertNull(actual.getPassword());
+            assertEquals(expected.getDeviceID(), actual.getDeviceID());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getRecords(), actual.getRecords());
+        }
+    }
+
+    @Test public void shardsPartitionTheUsers() throws Throwable
+    {
+        List<ByteArrayOutputStream> shards = new ArrayList<ByteArrayOutputStream>();
+        for (int i = 0; i < 4; i++) {
+            shards.add(new ByteArrayOutputStream());
+        }
+        assertEquals(501, new UserExporter(mfa).exportShards(new ArrayList<OutputStream>(shards)));
+        Map<String, UserState> users = new HashMap<String, UserState>();
+        for (ByteArrayOutputStream shard : shards) {
+            Map<String, UserState> part = read(shard.toByteArray());
+            assertTrue(part.size() >= 125);
+            users.putAll(part);
+        }
+        assertEquals(new HashSet<String>(mfa.getUsers()), users.keySet());
+    }
+
+    @Test public void exportIsOfOnePointInTime() throws Throwable
+    {
+        mfa.addData("useraa", Arrays.asList(1));
+        List<UserState> snapshot = mfa.snapshot();
+        mfa.addData("useraa", Arrays.asList(2));
+        mfa.register("latecomer", "password1!", null);
+        for (UserState user : snapshot) {
+            if (user.getUsername().equals("useraa")) {
+                assertEquals(Arrays.asList(Arrays.asList(1)), user.getRecords());
+            }
+            assertFalse(user.getUsername().equals("latecomer"));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(502, new UserExporter(mfa, 1).export(bytes));
+        assertEquals(2, read(bytes.toByteArray()).get("useraa").getRecords().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherStreams() throws Throwable
+    {
+        UserExporter.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}), user -> { });
+    }
+
+    protected Map<String, UserState> read(byte[] bytes) throws Throwable
+    {
+        Map<String, UserState> users = new HashMap<String, UserState>();
+        UserExporter.read(new ByteArrayInputStream(bytes),
+                          user -> assertNull(users.put(user.getUsername(), user)));
+        return users;
+    }
+}
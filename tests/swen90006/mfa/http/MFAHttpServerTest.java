@@ -0,0 +1,172 @@
+package swen90006.mfa.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.limit.LoginLimiter;
+
+public class MFAHttpServerTest
+{
+    protected MFA mfa;
+    protected MFAHttpServer server;
+    protected int port;
+
+    @Before public void setUp() throws IOException
+    {
+        mfa = new MFA();
+        server = new MFAHttpServer(mfa, new InetSocketAddress("localhost", 0));
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @After public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test public void registerLoginAndPush() throws Throwable
+    {
+        assertEquals(201, post("/register",
+                               "{\"username\":\"student\",\"password\":\"abc123@{\",\"deviceID\":\"phone\"}"));
+        assertTrue(mfa.isUser("student"));
+
+        assertEquals(200, post("/login", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, mfa.login("student", "abc123@{"));
+        assertEquals(401, post("/push", "{\"username\":\"student\",\"deviceID\":\"tablet\"}"));
+
+        //The device ID arrives as a new string, so this checks that it
+        //is not compared by reference
+        assertEquals(200, post("/push", "{\"username\":\"student\",\"deviceID\":\"phone\"}"));
+        assertTrue(mfa.isAuthenticated("student"));
+        assertEquals("{\"authenticated\":true}", get("/authenticated?username=student"));
+    }
+
+    @Test public void awaitsPushResponse() throws Throwable
+    {
+        assertEquals(201, post("/register",
+                               "{\"username\":\"student\",\"password\":\"abc123@{\",\"deviceID\":\"phone\"}"));
+        assertEquals(200, post("/login", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals("{\"status\":\"SINGLE\"}", get("/push?username=student&timeout=10"));
+        Thread responder = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                post("/push", "{\"username\":\"student\",\"deviceID\":\"phone\"}");
+            }
+            catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        responder.start();
+        assertEquals("{\"status\":\"DOUBLE\"}", get("/push?username=student&timeout=10000"));
+        responder.join();
+    }
+
+    @Test public void errorsMapToStatusCodes() throws Throwable
+    {
+        assertEquals(400, post("/register", "{\"username\":\"me\",\"password\":\"abc123@{\"}"));
+        assertEquals(400, post("/register", "{\"username\":"));
+        assertEquals(404, post("/login", "{\"username\":\"nobody\",\"password\":\"abc123@{\"}"));
+        assertEquals(201, post("/register", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals(409, post("/register", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals(401, post("/data", "{\"username\":\"student\",\"record\":[1]}"));
+    }
+
+    @Test public void limitsLogins() throws Throwable
+    {
+        server.stop(0);
+        LoginLimiter.Limits users = new LoginLimiter.Limits(1, 100, 2, 60000, 60000);
+        server = new MFAHttpServer(mfa, new InetSocketAddress("localhost", 0),
+                                   new LoginLimiter(users, LoginLimiter.Limits.DEFAULT_SOURCE, 64));
+        server.start();
+        port = server.getAddress().getPort();
+        assertEquals(201, post("/register", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals(401, post("/login", "{\"username\":\"student\",\"password\":\"guess1@{\"}"));
+        assertEquals(401, post("/login", "{\"username\":\"student\",\"password\":\"guess2@{\"}"));
+        assertEquals(429, post("/login", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+    }
+
+    @Test public void streamsDataRange() throws Throwable
+    {
+        assertEquals(201, post("/register", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        assertEquals(200, post("/login", "{\"username\":\"student\",\"password\":\"abc123@{\"}"));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(201, post("/data", "{\"username\":\"student\",\"record\":[" + i + "," + -i + "]}"));
+        }
+
+        assertEquals("[3,-3]", get("/data?username=student&index=3"));
+
+        Object range = JsonReader.parse(get("/data?username=student&from=10&to=1000"));
+        List<?> records = (List<?>) range;
+        assertEquals(190, records.size());
+        assertEquals(List.of(10L, -10L), records.get(0));
+        assertEquals(List.of(199L, -199L), records.get(189));
+    }
+
+    @Test public void answersPipelinedRequestsInOrder() throws Throwable
+    {
+        String body = "{\"username\":\"student\",\"password\":\"abc123@{\"}";
+        String request = "POST /register HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Length: " + body.length() + "\r\n\r\n" + body
+            + "POST /register HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Length: " + body.length() + "\r\n\r\n" + body
+            + "GET /authenticated?username=student HTTP/1.1\r\nHost: localhost\r\n"
+            + "Connection: close\r\n\r\n";
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String responses = new String(socket.getInputStream().readAllBytes(),
+                                          StandardCharsets.US_ASCII);
+            int created = responses.indexOf("HTTP/1.1 201");
+            int conflict = responses.indexOf("HTTP/1.1 409");
+            int ok = responses.indexOf("HTTP/1.1 200");
+            assertTrue(responses, 0 <= created && created < conflict && conflict < ok);
+            assertTrue(responses.endsWith("{\"authenticated\":false}"));
+        }
+    }
+
+    private int post(String path, String body) throws IOException
+    {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        Map<String, Object> response = JsonReader.parseObject(read(in));
+        assertEquals(status >= 400, response.containsKey("error"));
+        return status;
+    }
+
+    private String get(String path) throws IOException
+    {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        return read(connection.getInputStream());
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        in.transferTo(bytes);
+        in.close();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
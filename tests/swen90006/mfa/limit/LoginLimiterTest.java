@@ -0,0 +1,126 @@
+package swen90006.mfa.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.MFA;
+
+public class LoginLimiterTest
+{
+    protected AtomicLong clock;
+    protected LoginLimiter limiter;
+
+    @Before public void setUp() throws Throwable
+    {
+        clock = new AtomicLong(1000);
+        //Users: 3 at once then 1 a second, locked out after 2 wrong
+        //passwords for 1 second, doubling to at most 8 seconds
+        LoginLimiter.Limits users = new LoginLimiter.Limits(1, 3, 2, 1000, 8000);
+        LoginLimiter.Limits sources = new LoginLimiter.Limits(10, 5, 100, 1000, 8000);
+        limiter = new LoginLimiter(users, sources, 16, clock::get);
+    }
+
+    @Test public void bucketAllowsBurstThenRate() throws Throwable
+    {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("alice", null));
+        }
+        long wait = limiter.tryAcquire("alice", null);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), wait);
+        assertEquals(0, limiter.tryAcquire("bobby", null));
+        advance(wait);
+        assertEquals(0, limiter.tryAcquire("alice", null));
+        assertTrue(limiter.tryAcquire("alice", null) > 0);
+    }
+
+    @Test public void lockoutDoublesAndClearsOnSuccess() throws Throwable
+    {
+        limiter.failed("alice", null);
+        assertEquals(0, limiter.tryAcquire("alice", null));
+        limiter.failed("alice", null);
+        assertWait(1, limiter.tryAcquire("alice", null));
+        advance(TimeUnit.SECONDS.toNanos(1));
+        limiter.failed("alice", null);
+        assertWait(2, limiter.tryAcquire("alice", null));
+        for (int i = 0; i < 10; i++) {
+            limiter.failed("alice", null);
+        }
+        assertWait(8, limiter.tryAcquire("alice", null));
+        limiter.succeeded("alice");
+        assertEquals(0, limiter.tryAcquire("alice", null));
+    }
+
+    @Test public void refusedSourceDoesNotChargeUser() throws Throwable
+    {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("user" + (char) ('a' + i), "attacker"));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire("alice", "attacker") > 0);
+        }
+        assertEquals(0, limiter.tryAcquire("alice", "elsewhere"));
+    }
+
+    @Test public void idleEntriesAreReclaimed() throws Throwable
+    {
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("user" + i, null);
+        }
+        assertTrue(limiter.activeUsers() <= 16);
+        assertTrue(limiter.activeUsers() > 0);
+        advance(TimeUnit.SECONDS.toNanos(100));
+        assertEquals(0, limiter.activeUsers());
+
+        //A flood of other names cannot free a locked-out user
+        limiter.failed("alice", null);
+        limiter.failed("alice", null);
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("flood" + i, null);
+        }
+        assertTrue(limiter.tryAcquire("alice", null) > 0);
+    }
+
+    @Test public void loginRecordsOutcome() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        for (int i = 0; i < 2; i++) {
+            try {
+                limiter.login(mfa, "alice", "wrong", "here");
+                fail("Expected IncorrectPasswordException");
+            }
+            catch (IncorrectPasswordException e) {
+                //Expected
+            }
+        }
+        try {
+            limiter.login(mfa, "alice", "password1!", "here");
+            fail("Expected LoginLimitedException");
+        }
+        catch (LoginLimitedException e) {
+            assertEquals(1, e.getRetryAfter(TimeUnit.SECONDS));
+        }
+        advance(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(MFA.AuthenticationStatus.SINGLE,
+                     limiter.login(mfa, "alice", "password1!", "here"));
+        limiter.failed("alice", null);
+        assertEquals(0, limiter.tryAcquire("alice", null));
+    }
+
+    //Failure times are kept to the millisecond, so a lockout may end
+    //up to a millisecond early
+    protected void assertWait(long seconds, long wait)
+    {
+        long expected = TimeUnit.SECONDS.toNanos(seconds);
+        assertTrue(wait + " ns", expected - TimeUnit.MILLISECONDS.toNanos(1) < wait && wait <= expected);
+    }
+
+    protected void advance(long nanos)
+    {
+        clock.addAndGet(nanos);
+    }
+}
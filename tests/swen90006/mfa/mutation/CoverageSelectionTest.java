@@ -0,0 +1,94 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CoverageSelectionTest
+{
+    protected static Coverage coverage;
+
+    protected Variant original;
+    protected List<Variant> mutants;
+    protected int[] lines;
+
+    //Collecting coverage launches a JVM, so it is done once
+    @BeforeClass public static void collect() throws Throwable
+    {
+        coverage = CoverageCollector.forProgram("swen90006.mfa.MFA",
+                                                new File("classes/programs/original"),
+                                                new File("classes/tests"))
+            .collect(Arrays.asList("PartitioningTests"));
+    }
+
+    @Before public void setUp() throws Throwable
+    {
+        File tests = new File("classes/tests");
+        original = Variant.fromDirectory("original", new File("classes/programs/original"), tests);
+        mutants = new ArrayList<Variant>();
+        lines = new int[5];
+        for (int i = 1; i <= 5; i++) {
+            mutants.add(Variant.fromDirectory("mutant-" + i,
+                                              new File("classes/programs/mutant-" + i), tests));
+            lines[i - 1] = CoverageSelection.changedLine(
+                new File("programs/original/swen90006/mfa/MFA.java"),
+                new File("programs/mutant-" + i + "/swen90006/mfa/MFA.java"));
+        }
+    }
+
+    @Test public void coverageIsPerTest() throws Throwable
+    {
+        assertEquals(MutationRunner.listTests(original, Arrays.asList("PartitioningTests")),
+                     coverage.getTests());
+        //Every test registers a user, but few reach a DOUBLE login
+        assertEquals(coverage.getTests(), coverage.testsReaching(lines[0]));
+        int line = lines[4];
+        List<String> reaching = coverage.testsReaching(line);
+        assertFalse(reaching.isEmpty());
+        assertTrue(reaching.size() < coverage.getTests().size() / 2);
+        for (String test : reaching) {
+            assertTrue(test, test.contains("getData") || test.contains("respondToPushNotification"));
+        }
+
+        StringWriter out = new StringWriter();
+        coverage.write(out);
+        Coverage copy = Coverage.read(new StringReader(out.toString()));
+        assertEquals(reaching, copy.testsReaching(line));
+    }
+
+    @Test public void selectionKillsWhatEveryTestKills() throws Throwable
+    {
+        List<String> suites = Arrays.asList("PartitioningTests");
+        MutationRunner runner = new MutationRunner(4, MutationRunner.DEFAULT_TIMEOUT, true);
+        KillMatrix full = runner.run(original, mutants, suites);
+        KillMatrix selected = runner.run(original, mutants, suites,
+                                         new CoverageSelection(coverage, new KillHistory(), lines));
+        for (int m = 0; m < mutants.size(); m++) {
+            assertEquals(full.isKilled(m), selected.isKilled(m));
+        }
+        assertTrue(selected.runs() < full.runs());
+    }
+
+    @Test public void likelyKillersRunFirst() throws Throwable
+    {
+        KillHistory history = new KillHistory();
+        KillMatrix matrix = new MutationRunner(4, MutationRunner.DEFAULT_TIMEOUT, false)
+            .run(original, mutants, Arrays.asList("PartitioningTests"));
+        history.record(matrix);
+
+        List<String> ordered = history.order(matrix.getTests());
+        for (int i = 1; i < ordered.size(); i++) {
+            assertTrue(history.killLikelihood(ordered.get(i - 1))
+                       >= history.killLikelihood(ordered.get(i)));
+        }
+        assertTrue(history.killLikelihood(ordered.get(0))
+                   > history.killLikelihood(ordered.get(ordered.size() - 1)));
+        assertEquals(0.5, new KillHistory().killLikelihood(ordered.get(0)), 0);
+    }
+}
@@ -0,0 +1,90 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.*;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the hand-written mutants still fail the suites as they
+ * did when they were written, over a server whose storage has changed
+ * since: each test that failed an assertion still does, and each that
+ * threw still does, and no other.
+ */
+public class HandWrittenMutantsTest
+{
+    protected File tests;
+
+    @Before public void setUp() throws Throwable
+    {
+        tests = new File("classes/tests");
+    }
+
+    //Mutant 4 marks the password, not the username, as logged in
+    @Test public void mutant4FailsAsItDid() throws Throwable
+    {
+        assertFails("mutant-4", "PartitioningTests",
+                    set("loginEC3", "loginEC4", "respondToPushNotificationEC4",
+                        "respondToPushNotificationEC5", "respondToPushNotificationEC7"),
+                    set("getDataEC5", "getDataEC6", "getDataEC7", "getDataEC8",
+                        "getDataEC9", "getDataEC10", "respondToPushNotificationEC6"));
+        assertFails("mutant-4", "BoundaryTests",
+                    set("loginBVA3", "loginBVA4", "loginEC3", "loginEC4",
+                        "respondToPushNotificationBVA4", "respondToPushNotificationBVA5",
+                        "respondToPushNotificationBVA7", "respondToPushNotificationEC4",
+                        "respondToPushNotificationEC5", "respondToPushNotificationEC7"),
+                    set("getDataBVA5", "getDataBVA6", "getDataBVA7", "getDataBVA8",
+                        "getDataBVA9", "getDataBVA10", "getDataEC5", "getDataEC6",
+                        "getDataEC7", "getDataEC8", "getDataEC9", "getDataEC10",
+                        "respondToPushNotificationBVA6", "respondToPushNotificationEC6"));
+    }
+
+    //Mutant 5 marks the device ID, not the username, as fully logged in
+    @Test public void mutant5FailsAsItDid() throws Throwable
+    {
+        assertFails("mutant-5", "PartitioningTests",
+                    set("respondToPushNotificationEC7"),
+                    set("getDataEC5", "getDataEC6", "getDataEC7",
+                        "respondToPushNotificationEC4"));
+        assertFails("mutant-5", "BoundaryTests",
+                    set("respondToPushNotificationBVA4", "respondToPushNotificationBVA7",
+                        "respondToPushNotificationEC7"),
+                    set("getDataBVA5", "getDataBVA6", "getDataBVA7", "getDataEC5",
+                        "getDataEC6", "getDataEC7", "respondToPushNotificationEC4"));
+    }
+
+    private void assertFails(String program, String suite, Set<String> failed, Set<String> threw)
+        throws Exception
+    {
+        Variant variant = Variant.fromDirectory(program, new File("classes/programs/" + program),
+                                                tests);
+        ClassLoader loader = variant.newClassLoader(getClass().getClassLoader());
+        Result result = new JUnitCore().run(Class.forName(MutationRunner.SUITE_PACKAGE + suite,
+                                                          true, loader));
+        Set<String> actuallyFailed = new TreeSet<String>();
+        Set<String> actuallyThrew = new TreeSet<String>();
+        for (Failure failure : result.getFailures()) {
+            String test = failure.getDescription().getMethodName();
+            if (failure.getException() instanceof AssertionError) {
+                actuallyFailed.add(test);
+            }
+            else {
+                actuallyThrew.add(test);
+            }
+        }
+        assertEquals(program + " " + suite + " failures", new TreeSet<String>(failed), actuallyFailed);
+        assertEquals(program + " " + suite + " errors", new TreeSet<String>(threw), actuallyThrew);
+    }
+
+    private static Set<String> set(String... tests)
+    {
+        return new HashSet<String>(Arrays.asList(tests));
+    }
+}
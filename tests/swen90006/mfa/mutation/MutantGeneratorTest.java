@@ -0,0 +1,77 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MutantGeneratorTest
+{
+    protected Variant original;
+    protected byte[] bytes;
+    protected List<Mutation> mutations;
+
+    @Before public void setUp() throws Throwable
+    {
+        original = Variant.fromDirectory("original", new File("classes/programs/original"),
+                                         new File("classes/tests"));
+        bytes = original.newClassLoader(getClass().getClassLoader())
+            .readClassFile("swen90006.mfa.MFA");
+        mutations = new BytecodeMutator().generate(new ClassFile(bytes));
+    }
+
+    @Test public void hundredsOfMutantsAreGenerated() throws Throwable
+    {
+        assertTrue(mutations.size() + " mutants", mutations.size() >= 200);
+        Set<String> operators = new HashSet<String>();
+        Set<String> names = new HashSet<String>();
+        for (Mutation mutation : mutations) {
+            operators.add(mutation.getOperator());
+            assertTrue(mutation + " has no line", mutation.getLine() > 0);
+            assertTrue("Duplicate " + mutation, names.add(mutation.toString()));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("ROR", "CRP", "AOR", "INC", "SVR")),
+                     operators);
+    }
+
+    @Test public void mutationsPatchOneInstructionInPlace() throws Throwable
+    {
+        for (Mutation mutation : mutations) {
+            byte[] mutated = mutation.apply(bytes);
+            assertEquals(bytes.length, mutated.length);
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != mutated[i]) {
+                    first = first < 0 ? i : first;
+                    last = i;
+                }
+            }
+            assertTrue(mutation.toString(), first >= 0 && last - first < 3);
+            assertEquals(new ClassFile(bytes).getMethods().size(),
+                         new ClassFile(mutated).getMethods().size());
+        }
+    }
+
+    @Test public void mutantsRunAgainstTheSuites() throws Throwable
+    {
+        Map<Mutation, Variant> mutants = new MutantGenerator().generate(original, "swen90006.mfa.MFA");
+        List<Variant> register = new ArrayList<Variant>();
+        for (Map.Entry<Mutation, Variant> entry : mutants.entrySet()) {
+            if (entry.getKey().getMethod().equals("register")
+                && entry.getKey().getOperator().equals("ROR")) {
+                register.add(entry.getValue());
+            }
+        }
+        assertFalse(register.isEmpty());
+        KillMatrix matrix = new MutationRunner(4, 1000, true)
+            .run(original, register, Arrays.asList("BoundaryTests"));
+        assertTrue(matrix.killed() > register.size() / 2);
+    }
+}
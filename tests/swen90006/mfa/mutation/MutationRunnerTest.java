@@ -0,0 +1,85 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MutationRunnerTest
+{
+    protected Variant original;
+    protected List<Variant> mutants;
+    protected List<String> suites;
+
+    @Before public void setUp() throws Throwable
+    {
+        File tests = new File("classes/tests");
+        original = Variant.fromDirectory("original", new File("classes/programs/original"), tests);
+        mutants = new ArrayList<Variant>();
+        for (int i = 1; i <= 5; i++) {
+            mutants.add(Variant.fromDirectory("mutant-" + i,
+                                              new File("classes/programs/mutant-" + i), tests));
+        }
+        suites = Arrays.asList("BoundaryTests", "PartitioningTests");
+    }
+
+    @Test public void variantsAreIsolated() throws Throwable
+    {
+        ClassLoader a = original.newClassLoader(getClass().getClassLoader());
+        ClassLoader b = mutants.get(0).newClassLoader(getClass().getClassLoader());
+        Class<?> mfa = Class.forName("swen90006.mfa.MFA", false, a);
+        assertNotSame(swen90006.mfa.MFA.class, mfa);
+        assertNotSame(mfa, Class.forName("swen90006.mfa.MFA", false, b));
+        assertSame(Test.class, Class.forName("org.junit.Test", false, a));
+    }
+
+    @Test public void boundaryTestsKillEveryMutant() throws Throwable
+    {
+        KillMatrix matrix = new MutationRunner(4, MutationRunner.DEFAULT_TIMEOUT, true)
+            .run(original, mutants, suites);
+        assertTrue(matrix.getBrokenTests().isEmpty());
+        assertEquals(5, matrix.killed(0));
+        assertEquals(5, matrix.killed());
+
+        //Stopping at the first kill skips the suite's later tests
+        for (int m = 0; m < mutants.size(); m++) {
+            int killer = matrix.killer(m, 0);
+            int last = lastRun(matrix, m, 0);
+            assertTrue(last >= killer);
+            assertTrue(last < matrix.getTests().size() - 1
+                       || killer == matrix.getTests().size() - 1);
+        }
+    }
+
+    @Test public void allTestsCanBeRun() throws Throwable
+    {
+        KillMatrix matrix = new MutationRunner(4, MutationRunner.DEFAULT_TIMEOUT, false)
+            .run(original, mutants.subList(0, 1), suites);
+        for (int t = 0; t < matrix.getTests().size(); t++) {
+            assertNotEquals(KillMatrix.Outcome.NOT_RUN, matrix.get(0, t));
+        }
+        assertTrue(matrix.toString().startsWith("mutant"));
+    }
+
+    @Test public void theOriginalSurvives() throws Throwable
+    {
+        KillMatrix matrix = new MutationRunner(4, MutationRunner.DEFAULT_TIMEOUT, true)
+            .run(original, Arrays.asList(original.patch("copy", null)), suites);
+        assertEquals(0, matrix.killed());
+    }
+
+    private static int lastRun(KillMatrix matrix, int mutant, int suite)
+    {
+        int last = -1;
+        for (int t = 0; t < matrix.getTests().size(); t++) {
+            if (KillMatrix.suiteName(matrix.getTests().get(t)).equals(matrix.getSuites().get(suite))
+                && matrix.get(mutant, t) != KillMatrix.Outcome.NOT_RUN) {
+                last = t;
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,151 @@
+package swen90006.mfa.offheap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.UserState;
+
+public class OffHeapRecordsTest
+{
+    protected OffHeapArena arena;
+
+    @Before public void setUp() throws Throwable
+    {
+        arena = new OffHeapArena();
+    }
+
+    @After public void tearDown()
+    {
+        arena.close();
+    }
+
+    @Test public void arenaAccountsForAndReusesChunks() throws Throwable
+    {
+        long first = arena.allocate(100);
+        assertEquals(128, arena.allocatedBytes());
+        assertEquals(OffHeapArena.SEGMENT_SIZE, arena.reservedBytes());
+        arena.free(first, 100);
+        assertEquals(0, arena.allocatedBytes());
+        assertEquals(128, arena.freeBytes());
+        assertEquals(first, arena.allocate(128));
+
+        long large = arena.allocate(3 * OffHeapArena.SEGMENT_SIZE);
+        assertEquals(OffHeapArena.SEGMENT_SIZE + 4 * OffHeapArena.SEGMENT_SIZE,
+                     arena.reservedBytes());
+        arena.free(large, 3 * OffHeapArena.SEGMENT_SIZE);
+        assertEquals(OffHeapArena.SEGMENT_SIZE, arena.reservedBytes());
+        assertEquals(1, arena.chunkCount());
+    }
+
+    @Test public void recordsRoundTripAndAreFreed() throws Throwable
+    {
+        OffHeapRecords records = new OffHeapRecords(arena);
+        assertEquals(0, arena.allocatedBytes());
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            List<Integer> record = new ArrayList<Integer>();
+            for (int j = 0; j < i % 7; j++) {
+                record.add(i * j - 500);
+            }
+            records.add(record);
+            expected.add(record);
+        }
+        assertEquals(expected, records);
+        assertEquals(records.allocatedBytes(), arena.allocatedBytes());
+
+        long reserved = arena.reservedBytes();
+        records.free();
+        assertTrue(records.isEmpty());
+        assertEquals(0, arena.allocatedBytes());
+        assertEquals(expected, OffHeapRecords.copyOf(arena, expected));
+        assertEquals(reserved, arena.reservedBytes());
+        try {
+            records.add(Arrays.asList(1));
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+
+    @Test public void mfaHoldsRecordsOffHeap() throws Throwable
+    {
+        MFA mfa = new MFA(100, 0.01, arena);
+        mfa.register("alice", "password1!", null);
+        mfa.login("alice", "password1!");
+        mfa.addData("alice", Arrays.asList(1, 2, 3));
+        mfa.addData("alice", Arrays.asList());
+        assertEquals(Arrays.asList(1, 2, 3), mfa.getData("alice", 0));
+        assertEquals(Arrays.asList(), mfa.getData("alice", 1));
+        assertTrue(arena.allocatedBytes() > 0);
+
+        List<UserState> snapshot = mfa.snapshot();
+        UserState removed = mfa.removeUser("alice");
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList()), removed.getRecords());
+        assertEquals(0, arena.allocatedBytes());
+        assertTrue(snapshot.get(0).getRecords().isEmpty());
+
+        mfa.importUser(removed);
+        assertEquals(Arrays.asList(1, 2, 3), mfa.getData("alice", 0));
+    }
+
+    @Test public void recordsAreReadWhileTheArenaGrowsAndShrinks() throws Throwable
+    {
+        OffHeapRecords records = new OffHeapRecords(arena);
+        for (int i = 0; i < 1000; i++) {
+            records.add(Arrays.asList(i, -i));
+        }
+        AtomicBoolean reading = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        //Another server sharing the arena adds and drops whole segments
+        Thread allocator = new Thread(() -> {
+            try {
+                List<Long> large = new ArrayList<Long>();
+                while (reading.get()) {
+                    large.add(arena.allocate(2 * OffHeapArena.SEGMENT_SIZE));
+                    if (large.size() == 4) {
+                        for (long handle : large) {
+                            arena.free(handle, 2 * OffHeapArena.SEGMENT_SIZE);
+                        }
+                        large.clear();
+                    }
+                    arena.allocate(64);
+                }
+            }
+            catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        allocator.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                for (int i = 0; i < 1000; i += 7) {
+                    assertEquals(Arrays.asList(i, -i), records.get(i));
+                }
+            }
+        }
+        finally {
+            reading.set(false);
+            allocator.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedArenaCannotBeUsed() throws Throwable
+    {
+        OffHeapRecords records = new OffHeapRecords(arena);
+        records.add(Arrays.asList(1));
+        arena.close();
+        records.get(0);
+    }
+}
@@ -0,0 +1,215 @@
+package swen90006.mfa.replication;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.MFA;
+
+public class ReplicationTest
+{
+    protected Primary primary;
+    protected Replica replica;
+
+    @Before public void setUp() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("existing", "abc123@{", null);
+        mfa.login("existing", "abc123@{");
+        mfa.addData("existing", Arrays.asList(7));
+
+        primary = new Primary(mfa, new InetSocketAddress("localhost", 0));
+        primary.start();
+        replica = new Replica(primary.getAddress());
+        replica.start();
+    }
+
+    @After public void tearDown() throws Throwable
+    {
+        replica.close();
+        primary.close();
+    }
+
+    @Test public void replicaReplaysThePrimary() throws Throwable
+    {
+        primary.register("alice", "abc123@{", "phone");
+        primary.login("alice", "abc123@{");
+        primary.respondToPushNotification("alice", "phone");
+        for (int i = 0; i < 1000; i++) {
+            primary.addData("alice", Arrays.asList(i, -i));
+        }
+
+        assertTrue(replica.awaitSequence(primary.lastSequence(), 5000));
+        assertEquals(0, replica.lagEntries());
+        assertEquals(0, replica.lagMillis());
+        assertTrue(replica.isAuthenticated("alice"));
+        assertEquals(Arrays.asList(999, -999), replica.getData("alice", 999));
+        assertTrue(replica.isAuthenticated("existing"));
+        assertEquals(Arrays.asList(7), replica.getData("existing", 0));
+    }
+
+    @Test public void failedChangesAreNotReplicated() throws Throwable
+    {
+        primary.register("alice", "abc123@{", null);
+        long sequence = primary.lastSequence();
+        try {
+            primary.login("alice", "wrong123@{");
+            fail();
+        }
+        catch (IncorrectPasswordException e) {
+        }
+        assertEquals(sequence, primary.lastSequence());
+    }
+
+    @Test public void readYourWritesSessionsSeeTheirChanges() throws Throwable
+    {
+        Session session = new Session(primary, Collections.singletonList(replica),
+                                      Session.Consistency.READ_YOUR_WRITES, 5000);
+        for (int i = 0; i < 50; i++) {
+            String username = "user" + (char) ('a' + i % 26) + (char) ('a' + i / 26);
+            session.register(username, "abc123@{", null);
+            session.login(username, "abc123@{");
+            session.addData(username, Arrays.asList(i));
+            assertTrue(session.isAuthenticated(username));
+            assertEquals(Arrays.asList(i), session.getData(username, 0));
+        }
+        assertEquals(100, session.getReplicaReads());
+        assertEquals(0, session.getPrimaryReads());
+    }
+
+    @Test public void readYourWritesFallsBackToThePrimary() throws Throwable
+    {
+        replica.close();
+        Session session = new Session(primary, Collections.singletonList(replica),
+                                      Session.Consistency.READ_YOUR_WRITES, 50);
+        session.register("alice", "abc123@{", null);
+        session.login("alice", "abc123@{");
+        assertTrue(session.isAuthenticated("alice"));
+        assertEquals(1, session.getPrimaryReads());
+
+        Session eventual = new Session(primary, Collections.singletonList(replica),
+                                       Session.Consistency.EVENTUAL, 50);
+        assertFalse(eventual.isUser("alice"));
+        assertEquals(1, eventual.getReplicaReads());
+    }
+
+    @Test public void replicasReportLag() throws Throwable
+    {
+        assertTrue(replica.awaitSequence(primary.lastSequence(), 5000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!lags().equals(Arrays.asList(0L)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(0L), lags());
+
+        replica.close();
+        primary.register("alice", "abc123@{", null);
+        Replica late = new Replica(primary.getAddress());
+        late.start();
+        try {
+            assertTrue(late.awaitSequence(primary.lastSequence(), 5000));
+            assertTrue(late.isUser("alice"));
+            assertTrue(late.isUser("existing"));
+        }
+        finally {
+            late.close();
+        }
+    }
+
+    @Test public void divergedReplicasStopAndFailTheirWaiters() throws Throwable
+    {
+        MFA mfa = new MFA();
+        Primary diverging = new Primary(mfa, new InetSocketAddress("localhost", 0));
+        diverging.start();
+        Replica copy = new Replica(diverging.getAddress());
+        copy.start();
+        try {
+            //Made behind the primary's back, so never shipped
+            mfa.register("bobby", "abc123@{", null);
+            diverging.login("bobby", "abc123@{");
+            try {
+                copy.awaitSequence(diverging.lastSequence(), 5000);
+                fail("Expected the replica to diverge");
+            }
+            catch (IllegalStateException e) {
+                assertSame(copy.getFailure(), e.getCause());
+            }
+            assertFalse(copy.isConnected());
+            assertEquals(0, copy.appliedSequence());
+
+            Session session = new Session(diverging, Collections.singletonList(copy),
+                                          Session.Consistency.READ_YOUR_WRITES, 5000);
+            assertTrue(session.isUser("bobby"));
+            assertEquals(1, session.getPrimaryReads());
+        }
+        finally {
+            copy.close();
+            diverging.close();
+        }
+    }
+
+    @Test public void appliedChangesAreDropped() throws Throwable
+    {
+        for (int i = 0; i < 100; i++) {
+            primary.addData("existing", Arrays.asList(i));
+        }
+        assertTrue(replica.awaitSequence(primary.lastSequence(), 5000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (primary.retainedChanges() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, primary.retainedChanges());
+
+        //Kept while no replica is connected, for one to resume from
+        replica.close();
+        deadline = System.currentTimeMillis() + 5000;
+        while (!primary.getReplicaLag().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        primary.login("existing", "abc123@{");
+        assertEquals(1, primary.retainedChanges());
+    }
+
+    @Test public void replicasBehindTheLogStartFromASnapshot() throws Throwable
+    {
+        MFA mfa = new MFA();
+        mfa.register("existing", "abc123@{", null);
+        Primary small = new Primary(mfa, new InetSocketAddress("localhost", 0), 4);
+        small.start();
+        for (int i = 0; i < 10; i++) {
+            small.register("user" + (char) ('a' + i), "abc123@{", null);
+        }
+        small.login("usera", "abc123@{");
+        small.addData("usera", Arrays.asList(1, 2));
+        assertEquals(4, small.retainedChanges());
+
+        Replica late = new Replica(small.getAddress());
+        late.start();
+        try {
+            assertTrue(late.awaitSequence(small.lastSequence(), 5000));
+            assertEquals(small.lastSequence(), late.appliedSequence());
+            assertTrue(late.isUser("existing"));
+            assertTrue(late.isUser("userj"));
+            assertEquals(Arrays.asList(1, 2), late.getData("usera", 0));
+
+            //And follows the log from there
+            small.addData("usera", Arrays.asList(3));
+            assertTrue(late.awaitSequence(small.lastSequence(), 5000));
+            assertEquals(Arrays.asList(3), late.getData("usera", 1));
+        }
+        finally {
+            late.close();
+            small.close();
+        }
+    }
+
+    private List<Long> lags()
+    {
+        return Arrays.asList(primary.getReplicaLag().values().toArray(new Long[0]));
+    }
+}
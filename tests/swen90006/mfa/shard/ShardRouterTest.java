@@ -0,0 +1,120 @@
+package swen90006.mfa.shard;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.MFA;
+import swen90006.mfa.wire.MFAWireServer;
+
+public class ShardRouterTest
+{
+    protected ShardRouter router;
+    protected List<String> usernames;
+
+    @Before public void setUp() throws Throwable
+    {
+        router = new ShardRouter();
+        router.addNode("a", new LocalShardNode(new MFA()));
+        router.addNode("b", new LocalShardNode(new MFA()));
+        router.addNode("c", new LocalShardNode(new MFA()));
+
+        usernames = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            String username = "user" + letters(i);
+            usernames.add(username);
+            router.register(username, "abc123@{", null);
+            router.login(username, "abc123@{");
+            router.addData(username, Arrays.asList(i));
+        }
+    }
+
+    @Test public void usersArePartitionedAcrossShards() throws Throwable
+    {
+        int total = 0;
+        for (String id : router.getNodes()) {
+            int users = shard(id).getUsers().size();
+            assertTrue(id + " has " + users + " users", users > 50);
+            total += users;
+        }
+        assertEquals(usernames.size(), total);
+        for (String username : usernames) {
+            assertTrue(shard(router.ownerOf(username)).isUser(username));
+        }
+    }
+
+    @Test public void addingAShardMovesOnlyItsUsers() throws Throwable
+    {
+        LocalShardNode d = new LocalShardNode(new MFA());
+        int moved = router.addNode("d", d);
+        assertEquals(d.getUsers().size(), moved);
+        assertTrue(moved > 30 && moved < 150);
+        checkAllUsers();
+    }
+
+    @Test public void removingAShardMovesAllItsUsers() throws Throwable
+    {
+        int users = shard("b").getUsers().size();
+        assertEquals(users, router.removeNode("b"));
+        assertFalse(router.getNodes().contains("b"));
+        checkAllUsers();
+    }
+
+    @Test public void shardsCanBeRemoteNodes() throws Throwable
+    {
+        MFAWireServer server = new MFAWireServer(new MFA(), new InetSocketAddress("localhost", 0));
+        server.start();
+        try (RemoteShardNode remote = new RemoteShardNode(server.getAddress())) {
+            assertTrue(router.addNode("remote", remote) > 0);
+            router.removeNode("a");
+            checkAllUsers();
+            router.register("latecomer", "abc123@{", "phone");
+            router.login("latecomer", "abc123@{");
+            assertEquals(MFA.AuthenticationStatus.DOUBLE,
+                         router.respondToPushNotification("latecomer", "phone"));
+            router.removeNode("remote");
+            checkAllUsers();
+            assertTrue(router.isAuthenticated("latecomer"));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotRemoveTheLastShardWithUsers()
+    {
+        router.removeNode("a");
+        router.removeNode("b");
+        router.removeNode("c");
+    }
+
+    private void checkAllUsers() throws Throwable
+    {
+        for (int i = 0; i < usernames.size(); i++) {
+            String username = usernames.get(i);
+            assertTrue(router.isUser(username));
+            assertTrue(router.isAuthenticated(username));
+            assertEquals(Arrays.asList(i), router.getData(username, 0));
+        }
+    }
+
+    private ShardNode shard(String id)
+    {
+        return router.getNode(id);
+    }
+
+    private static String letters(int i)
+    {
+        StringBuilder s = new StringBuilder();
+        do {
+            s.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return s.toString();
+    }
+}
@@ -0,0 +1,191 @@
+package swen90006.mfa.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.DuplicateUserException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+
+public class SnapshotMFATest
+{
+    protected MFA mfa;
+    protected SnapshotMFA snapshots;
+
+    @Before public void setUp() throws Throwable
+    {
+        mfa = new MFA();
+        mfa.register("alice", "password1!", null);
+        snapshots = new SnapshotMFA(mfa);
+    }
+
+    @Test public void registeredUsersAreFoundWithoutRefreshing() throws Throwable
+    {
+        assertTrue(snapshots.isUser("alice"));
+        assertFalse(snapshots.isUser("bobby"));
+        snapshots.register("bobby", "password1!", "phone");
+        assertTrue(snapshots.isUser("bobby"));
+        assertTrue(mfa.isUser("bobby"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, snapshots.login("bobby", "password1!"));
+        assertFalse(snapshots.isAuthenticated("bobby"));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE,
+                     snapshots.respondToPushNotification("bobby", "phone"));
+        assertTrue(snapshots.isAuthenticated("bobby"));
+    }
+
+    @Test(expected = DuplicateUserException.class)
+    public void registrationFailuresAreRethrown() throws Throwable
+    {
+        snapshots.register("alice", "password1!", null);
+    }
+
+    @Test(expected = NoSuchUserException.class)
+    public void unknownUsersAreRejectedBeforeLoggingIn() throws Throwable
+    {
+        snapshots.login("bobby", "password1!");
+    }
+
+    @Test public void removedUsersAreNotFound() throws Throwable
+    {
+        snapshots.removeUser("alice");
+        assertFalse(snapshots.isUser("alice"));
+        try {
+            snapshots.isAuthenticated("alice");
+            fail("Expected NoSuchUserException");
+        }
+        catch (NoSuchUserException e) {
+        }
+        snapshots.register("alice", "password2!", null);
+        assertTrue(snapshots.isUser("alice"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, snapshots.login("alice", "password2!"));
+    }
+
+    @Test public void usersRegisteredElsewhereAreFoundAfterRefreshing() throws Throwable
+    {
+        String unpackable = "abcdefghijklmnopqrstuvwxyz";
+        mfa.register(unpackable, "password1!", null);
+        assertFalse(snapshots.isUser(unpackable));
+        snapshots.refresh();
+        assertTrue(snapshots.isUser(unpackable));
+        assertTrue(snapshots.isUser("alice"));
+    }
+
+    @Test public void recentUsersAreMergedIntoTheBase() throws Throwable
+    {
+        for (int i = 0; i < 3 * UserSnapshot.RECENT_LIMIT; i++) {
+            snapshots.register(name(i), "password1!", null);
+            assertTrue(snapshots.getSnapshot().recentSize() <= UserSnapshot.RECENT_LIMIT);
+        }
+        for (int i = 0; i < 3 * UserSnapshot.RECENT_LIMIT; i++) {
+            assertTrue(snapshots.isUser(name(i)));
+        }
+        snapshots.flush();
+        for (int i = 0; i < 3 * UserSnapshot.RECENT_LIMIT; i++) {
+            assertEquals(mfa.getUserID(name(i)), snapshots.getSnapshot().id(name(i)));
+        }
+        assertEquals(3 * UserSnapshot.RECENT_LIMIT + 1, snapshots.getSnapshot().size());
+    }
+
+    @Test public void registrationsArePublishedInBatches() throws Throwable
+    {
+        snapshots = new SnapshotMFA(mfa, 4, Long.MAX_VALUE / 1000000L);
+        for (int i = 0; i < 10; i++) {
+            snapshots.register(name(i), "password1!", null);
+            assertTrue(snapshots.isUser(name(i)));
+            assertEquals(MFA.AuthenticationStatus.SINGLE, snapshots.login(name(i), "password1!"));
+        }
+        assertEquals(2, snapshots.getBatches());
+        assertEquals(2, snapshots.getWaiting());
+        assertEquals(UserSnapshot.NO_USER, snapshots.getSnapshot().id(name(9)));
+        assertFalse(snapshots.isUser("bobby"));
+        snapshots.removeUser(name(9));
+        assertFalse(snapshots.isUser(name(9)));
+        snapshots.flush();
+        assertEquals(3, snapshots.getBatches());
+        assertEquals(0, snapshots.getWaiting());
+        assertEquals(mfa.getUserID(name(8)), snapshots.getSnapshot().id(name(8)));
+        assertEquals(UserSnapshot.NO_USER, snapshots.getSnapshot().id(name(9)));
+    }
+
+    @Test public void overdueRegistrationsArePublishedByLookups() throws Throwable
+    {
+        snapshots = new SnapshotMFA(mfa, 100, 0);
+        snapshots.register("bobby", "password1!", null);
+        assertEquals(1, snapshots.getBatches());
+        assertTrue(snapshots.isUser("bobby"));
+        snapshots = new SnapshotMFA(mfa, 100, 20);
+        snapshots.register("carol", "password1!", null);
+        assertEquals(1, snapshots.getWaiting());
+        Thread.sleep(40);
+        assertFalse(snapshots.isUser("david"));
+        assertEquals(0, snapshots.getWaiting());
+        assertEquals(mfa.getUserID("carol"), snapshots.getSnapshot().id("carol"));
+    }
+
+    @Test public void snapshotsDropRemovedUsersWhenRebuilt() throws Throwable
+    {
+        UserSnapshot snapshot = UserSnapshot.empty().with(Arrays.asList("alice", "bobby"),
+                                                          Arrays.asList(0, 1), id -> true);
+        UserSnapshot rebuilt = snapshot.with(new ArrayList<String>(), new ArrayList<Integer>(),
+                                             id -> id != 0);
+        assertEquals(0, snapshot.id("alice"));
+        assertEquals(UserSnapshot.NO_USER, rebuilt.id("alice"));
+        assertEquals(1, rebuilt.id("bobby"));
+    }
+
+    @Test public void concurrentRegistrationsAreAllPublished() throws Throwable
+    {
+        final int threads = 8;
+        final int each = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> registrars = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            registrars.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < each; i++) {
+                        String username = name(thread * each + i);
+                        snapshots.register(username, "password1!", null);
+                        assertTrue(snapshots.isUser(username));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        for (Thread registrar : registrars) {
+            registrar.start();
+        }
+        start.countDown();
+        for (Thread registrar : registrars) {
+            registrar.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (int i = 0; i < threads * each; i++) {
+            assertTrue(snapshots.isUser(name(i)));
+        }
+        assertTrue(snapshots.getBatches() <= threads * each);
+    }
+
+    //A distinct username of letters for each number
+    private static String name(int i)
+    {
+        StringBuilder name = new StringBuilder("user");
+        do {
+            name.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return name.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package swen90006.mfa.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import swen90006.mfa.IncorrectDeviceIDException;
+import swen90006.mfa.IncorrectPasswordException;
+import swen90006.mfa.IntRecord;
+import swen90006.mfa.InvalidPasswordException;
+import swen90006.mfa.MFA;
+import swen90006.mfa.NoSuchUserException;
+import swen90006.mfa.UnauthenticatedUserException;
+
+public class MFAWireServerTest
+{
+    protected MFA mfa;
+    protected MFAWireServer server;
+    protected MFAWireClient client;
+
+    @Before public void setUp() throws Exception
+    {
+        mfa = new MFA();
+        server = new MFAWireServer(mfa, new InetSocketAddress("localhost", 0));
+        server.start();
+        client = new MFAWireClient(server.getAddress());
+    }
+
+    @After public void tearDown() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    @Test public void registerLoginAndPush() throws Throwable
+    {
+        client.register("student", "abc123@{", "phone");
+        assertTrue(client.isUser("student"));
+        assertFalse(client.isUser("nobody"));
+        assertEquals(MFA.AuthenticationStatus.SINGLE, client.login("student", "abc123@{"));
+        assertFalse(client.isAuthenticated("student"));
+        assertEquals(MFA.AuthenticationStatus.DOUBLE,
+                     client.respondToPushNotification("student", new String("phone")));
+        assertTrue(client.isAuthenticated("student"));
+    }
+
+    @Test public void errorsAreRethrown() throws Throwable
+    {
+        try {
+            client.register("student", "short", null);
+            fail();
+        }
+        catch (InvalidPasswordException e) {
+        }
+        try {
+            client.login("nobody", "abc123@{");
+            fail();
+        }
+        catch (NoSuchUserException e) {
+        }
+        client.register("student", "abc123@{", "phone");
+        try {
+            client.login("student", "wrong123@{");
+            fail();
+        }
+        catch (IncorrectPasswordException e) {
+        }
+        client.login("student", "abc123@{");
+        try {
+            client.respondToPushNotification("student", "tablet");
+            fail();
+        }
+        catch (IncorrectDeviceIDException e) {
+        }
+        try {
+            client.addData("student", new int[] {1});
+            fail();
+        }
+        catch (UnauthenticatedUserException e) {
+        }
+        //The connection is still usable after errors
+        assertTrue(client.isUser("student"));
+    }
+
+    @Test public void pipelinedRecordsAreStoredAsIntRecords() throws Throwable
+    {
+        client.register("student", "abc123@{", null);
+        client.login("student", "abc123@{");
+        List<int[]> records = new ArrayList<int[]>();
+        for (int i = 0; i < 10000; i++) {
+            records.add(new int[] {i, -i, Integer.MAX_VALUE});
+        }
+        assertEquals(10000, client.addAll("student", records));
+
+        assertEquals(IntRecord.of(9999, -9999, Integer.MAX_VALUE), client.getData("student", 9999));
+        assertTrue(mfa.getData("student", 0) instanceof IntRecord);
+        try {
+            client.getData("student", 10000);
+            fail();
+        }
+        catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test public void largeRecordsGrowTheBuffers() throws Throwable
+    {
+        client.register("student", "abc123@{", null);
+        client.login("student", "abc123@{");
+        int[] large = new int[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = i;
+        }
+        client.addData("student", large);
+        client.addData("student", new int[] {7});
+        assertEquals(large.length, client.getData("student", 0).size());
+        assertEquals(99999, client.getData("student", 0).getInt(99999));
+        assertEquals(IntRecord.of(7), client.getData("student", 1));
+    }
+
+    @Test public void rejectedRecordsInPipelineAreReported() throws Throwable
+    {
+        client.register("student", "abc123@{", null);
+        List<int[]> records = new ArrayList<int[]>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new int[] {i});
+        }
+        try {
+            client.addAll("student", records);
+            fail();
+        }
+        catch (UnauthenticatedUserException e) {
+        }
+        assertTrue(client.isUser("student"));
+    }
+
+    @Test public void pipelinedResponsesBeyondTheHighWaterMarkAreAllSent() throws Throwable
+    {
+        client.register("student", "abc123@{", null);
+        client.login("student", "abc123@{");
+        int[] record = new int[100];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = i;
+        }
+        client.addData("student", record);
+        int requests = 200;
+        assertTrue(requests * (4 + 1 + 4 + 4 * record.length) > 2 * MFAWireServer.HIGH_WATER);
+
+        //Every request in one write, so the server holds more complete
+        //frames than it may answer before the high-water mark
+        byte[] username = "student".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream frames = new DataOutputStream(bytes);
+        for (int i = 0; i < requests; i++) {
+            frames.writeInt(1 + 4 + username.length + 4);
+            frames.writeByte(WireProtocol.GET_DATA);
+            frames.writeInt(username.length);
+            frames.write(username);
+            frames.writeInt(0);
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(server.getAddress());
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(bytes.toByteArray());
+            DataInputStream responses = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < requests; i++) {
+                assertEquals(1 + 4 + 4 * record.length, responses.readInt());
+                assertEquals(WireProtocol.OK, responses.readByte());
+                assertEquals(record.length, responses.readInt());
+                for (int j = 0; j < record.length; j++) {
+                    assertEquals(j, responses.readInt());
+                }
+            }
+        }
+    }
+}
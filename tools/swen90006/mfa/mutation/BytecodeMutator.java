@@ -0,0 +1,281 @@
+package swen90006.mfa.mutation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates mutants of a compiled class by applying mutation operators
+ * directly to its bytecode.
+ *
+ * Every operator replaces one instruction with another of the same
+ * length and operand types, so a mutant is just a few overwritten
+ * bytes:
+ *
+ *  - ROR (relational operator replacement) replaces a conditional
+ *    branch with each other branch on the same operands, such as
+ *    if_icmpge with if_icmpgt, or ifnull with ifnonnull;
+ *  - CRP (constant replacement) changes an int constant by one;
+ *  - AOR (arithmetic operator replacement) swaps +/- and * and /;
+ *  - INC changes the amount added by an iinc;
+ *  - SVR (scalar variable replacement) loads a different local
+ *    variable or field of the same type.
+ *
+ * SVR on local variables needs the class to be compiled with local
+ * variable tables (javac -g). Some SVR mutants still fail verification
+ * because the other variable is not yet assigned; these are stillborn
+ * and should be discarded.
+ */
+public class BytecodeMutator
+{
+    //Opcodes
+    static final int ICONST_M1 = 0x02;
+    static final int ICONST_5 = 0x08;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ILOAD_0 = 0x1a;
+    static final int ALOAD_3 = 0x2d;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IDIV = 0x6c;
+    static final int IINC = 0x84;
+    static final int IFEQ = 0x99;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPLE = 0xa4;
+    static final int IF_ACMPEQ = 0xa5;
+    static final int IF_ACMPNE = 0xa6;
+    static final int TABLESWITCH = 0xaa;
+    static final int LOOKUPSWITCH = 0xab;
+    static final int GETFIELD = 0xb4;
+    static final int WIDE = 0xc4;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private static final String[] CONDITIONS = {"eq", "ne", "lt", "ge", "gt", "le"};
+
+    //The length of each fixed-length instruction; 0 for the switches
+    //and wide, whose length depends on their operands
+    private static final int[] LENGTHS = new int[256];
+    static {
+        Arrays.fill(LENGTHS, 1);
+        fill(0x10, 0x10, 2);
+        fill(0x11, 0x11, 3);
+        fill(0x12, 0x12, 2);
+        fill(0x13, 0x14, 3);
+        fill(0x15, 0x19, 2);
+        fill(0x36, 0x3a, 2);
+        fill(0x84, 0x84, 3);
+        fill(0x99, 0xa8, 3);
+        fill(0xa9, 0xa9, 2);
+        fill(0xaa, 0xab, 0);
+        fill(0xb2, 0xb8, 3);
+        fill(0xb9, 0xba, 5);
+        fill(0xbb, 0xbb, 3);
+        fill(0xbc, 0xbc, 2);
+        fill(0xbd, 0xbd, 3);
+        fill(0xc0, 0xc1, 3);
+        fill(0xc4, 0xc4, 0);
+        fill(0xc5, 0xc5, 4);
+        fill(0xc6, 0xc7, 3);
+        fill(0xc8, 0xc9, 5);
+    }
+
+    private static void fill(int from, int to, int length)
+    {
+        for (int opcode = from; opcode <= to; opcode++) {
+            LENGTHS[opcode] = length;
+        }
+    }
+
+    /**
+     * @param c  a class file
+     * @return every mutation of its methods, in method and bytecode order
+     */
+    public List<Mutation> generate(ClassFile c)
+    {
+        List<Mutation> mutations = new ArrayList<Mutation>();
+        for (ClassFile.Method method : c.getMethods()) {
+            int pc = 0;
+            while (pc < method.codeLength) {
+                mutate(c, method, pc, mutations);
+                pc += length(c, method, pc);
+            }
+        }
+        return mutations;
+    }
+
+    private void mutate(ClassFile c, ClassFile.Method method, int pc, List<Mutation> mutations)
+    {
+        int offset = method.codeOffset + pc;
+        int opcode = c.u1(offset);
+        if (IFEQ <= opcode && opcode <= IFLE) {
+            for (int other = IFEQ; other <= IFLE; other++) {
+                if (other != opcode) {
+                    add(c, method, pc, "ROR", "if" + CONDITIONS[opcode - IFEQ] + " -> if"
+                        + CONDITIONS[other - IFEQ], mutations, offset, other);
+                }
+            }
+        }
+        else if (IF_ICMPEQ <= opcode && opcode <= IF_ICMPLE) {
+            for (int other = IF_ICMPEQ; other <= IF_ICMPLE; other++) {
+                if (other != opcode) {
+                    add(c, method, pc, "ROR", "if_icmp" + CONDITIONS[opcode - IF_ICMPEQ]
+                        + " -> if_icmp" + CONDITIONS[other - IF_ICMPEQ], mutations, offset, other);
+                }
+            }
+        }
+        else if (opcode == IF_ACMPEQ || opcode == IF_ACMPNE) {
+            add(c, method, pc, "ROR", opcode == IF_ACMPEQ ? "if_acmpeq -> if_acmpne"
+                : "if_acmpne -> if_acmpeq", mutations, offset, IF_ACMPEQ + IF_ACMPNE - opcode);
+        }
+        else if (opcode == IFNULL || opcode == IFNONNULL) {
+            add(c, method, pc, "ROR", opcode == IFNULL ? "ifnull -> ifnonnull"
+                : "ifnonnull -> ifnull", mutations, offset, IFNULL + IFNONNULL - opcode);
+        }
+        else if (ICONST_M1 <= opcode && opcode <= ICONST_5) {
+            int value = opcode - ICONST_M1 - 1;
+            for (int other : new int[] {value - 1, value + 1}) {
+                if (-1 <= other && other <= 5) {
+                    add(c, method, pc, "CRP", value + " -> " + other, mutations, offset,
+                        ICONST_M1 + 1 + other);
+                }
+            }
+        }
+        else if (opcode == BIPUSH) {
+            int value = (byte) c.u1(offset + 1);
+            for (int other : new int[] {value - 1, value + 1}) {
+                if (Byte.MIN_VALUE <= other && other <= Byte.MAX_VALUE) {
+                    add(c, method, pc, "CRP", value + " -> " + other, mutations, offset,
+                        BIPUSH, other);
+                }
+            }
+        }
+        else if (opcode == SIPUSH) {
+            int value = (short) c.u2(offset + 1);
+            for (int other : new int[] {value - 1, value + 1}) {
+                if (Short.MIN_VALUE <= other && other <= Short.MAX_VALUE) {
+                    add(c, method, pc, "CRP", value + " -> " + other, mutations, offset,
+                        SIPUSH, other >> 8, other);
+                }
+            }
+        }
+        else if (opcode == IADD || opcode == ISUB) {
+            add(c, method, pc, "AOR", opcode == IADD ? "+ -> -" : "- -> +", mutations, offset,
+                IADD + ISUB - opcode);
+        }
+        else if (opcode == IMUL || opcode == IDIV) {
+            add(c, method, pc, "AOR", opcode == IMUL ? "* -> /" : "/ -> *", mutations, offset,
+                IMUL + IDIV - opcode);
+        }
+        else if (opcode == IINC) {
+            int local = c.u1(offset + 1);
+            int delta = (byte) c.u1(offset + 2);
+            for (int other : new int[] {-delta, delta + 1}) {
+                if (other != delta && Byte.MIN_VALUE <= other && other <= Byte.MAX_VALUE) {
+                    add(c, method, pc, "INC", "+= " + delta + " -> += " + other, mutations,
+                        offset, IINC, local, other);
+                }
+            }
+        }
+        else if (ILOAD_0 <= opcode && opcode <= ALOAD_3) {
+            //iload_0 .. aload_3 are four consecutive opcodes per type
+            int first = opcode - (opcode - ILOAD_0) % 4;
+            int local = opcode - first;
+            for (int other = 0; other < 4; other++) {
+                if (other != local && sameType(method, pc, local, other)) {
+                    add(c, method, pc, "SVR", localName(method, pc, local) + " -> "
+                        + localName(method, pc, other), mutations, offset, first + other);
+                }
+            }
+        }
+        else if (ILOAD <= opcode && opcode <= ALOAD) {
+            int local = c.u1(offset + 1);
+            for (ClassFile.Local other : method.getLocals()) {
+                if (other.index != local && other.index > 3 && other.covers(pc)
+                    && sameType(method, pc, local, other.index)) {
+                    add(c, method, pc, "SVR", localName(method, pc, local) + " -> " + other.name,
+                        mutations, offset, opcode, other.index);
+                }
+            }
+        }
+        else if (opcode == GETFIELD) {
+            int field = c.u2(offset + 1);
+            for (int other = 1; other < c.constantCount(); other++) {
+                if (other != field && c.tag(other) == ClassFile.FIELDREF
+                    && c.memberOwner(other).equals(c.memberOwner(field))
+                    && c.memberDescriptor(other).equals(c.memberDescriptor(field))
+                    && !c.memberName(other).equals(c.memberName(field))) {
+                    add(c, method, pc, "SVR", c.memberName(field) + " -> " + c.memberName(other),
+                        mutations, offset, GETFIELD, other >> 8, other);
+                }
+            }
+        }
+    }
+
+    private static void add(ClassFile c, ClassFile.Method method, int pc, String operator,
+                            String description, List<Mutation> mutations, int offset,
+                            int... patch)
+    {
+        byte[] bytes = new byte[patch.length];
+        for (int i = 0; i < patch.length; i++) {
+            bytes[i] = (byte) patch[i];
+        }
+        mutations.add(new Mutation(c.getName(), method.name, pc, method.lineOf(pc), operator,
+                                   description, offset, bytes));
+    }
+
+    //Whether two locals in scope at pc have the same declared type
+    private static boolean sameType(ClassFile.Method method, int pc, int a, int b)
+    {
+        ClassFile.Local first = local(method, pc, a);
+        ClassFile.Local second = local(method, pc, b);
+        return first != null && second != null && first.descriptor.equals(second.descriptor);
+    }
+
+    private static String localName(ClassFile.Method method, int pc, int index)
+    {
+        ClassFile.Local local = local(method, pc, index);
+        return local == null ? "local" + index : local.name;
+    }
+
+    //The local variable with an index in scope at pc, or null
+    private static ClassFile.Local local(ClassFile.Method method, int pc, int index)
+    {
+        for (ClassFile.Local local : method.getLocals()) {
+            if (local.index == index && local.covers(pc)) {
+                return local;
+            }
+        }
+        return null;
+    }
+
+    private static int length(ClassFile c, ClassFile.Method method, int pc)
+    {
+        int offset = method.codeOffset + pc;
+        int opcode = c.u1(offset);
+        if (opcode == WIDE) {
+            return c.u1(offset + 1) == IINC ? 6 : 4;
+        }
+        else if (opcode == TABLESWITCH || opcode == LOOKUPSWITCH) {
+            //Operands are aligned to a multiple of four from the start of the code
+            int operands = method.codeOffset + ((pc + 4) & ~3);
+            if (opcode == TABLESWITCH) {
+                int low = readInt(c, operands + 4);
+                int high = readInt(c, operands + 8);
+                return operands - offset + 12 + 4 * (high - low + 1);
+            }
+            int pairs = readInt(c, operands + 4);
+            return operands - offset + 8 + 8 * pairs;
+        }
+        return LENGTHS[opcode];
+    }
+
+    private static int readInt(ClassFile c, int offset)
+    {
+        return c.u2(offset) << 16 | c.u2(offset + 2);
+    }
+}
@@ -0,0 +1,354 @@
+package swen90006.mfa.mutation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of a class file, parsed only as far as the mutant
+ * generator needs: the constant pool, and each method's bytecode with
+ * its line numbers and local variables.
+ *
+ * Nothing is copied; every offset is into the original bytes, so a
+ * mutation can be applied by overwriting bytes at a known offset.
+ */
+public final class ClassFile
+{
+    //Constant pool tags
+    static final int UTF8 = 1;
+    static final int INTEGER = 3;
+    static final int FLOAT = 4;
+    static final int LONG = 5;
+    static final int DOUBLE = 6;
+    static final int CLASS = 7;
+    static final int STRING = 8;
+    static final int FIELDREF = 9;
+    static final int METHODREF = 10;
+    static final int INTERFACE_METHODREF = 11;
+    static final int NAME_AND_TYPE = 12;
+    static final int METHOD_HANDLE = 15;
+    static final int METHOD_TYPE = 16;
+    static final int DYNAMIC = 17;
+    static final int INVOKE_DYNAMIC = 18;
+    static final int MODULE = 19;
+    static final int PACKAGE = 20;
+
+    /**
+     * One local variable's scope, from a LocalVariableTable.
+     */
+    public static final class Local
+    {
+        public final int index;
+        public final int start;
+        public final int end;
+        public final String name;
+        public final String descriptor;
+
+        Local(int index, int start, int end, String name, String descriptor)
+        {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * @return true if and only if the variable is in scope at pc
+         */
+        public boolean covers(int pc)
+        {
+            return start <= pc && pc < end;
+        }
+    }
+
+    /**
+     * A method with bytecode.
+     */
+    public static final class Method
+    {
+        public final String name;
+        public final String descriptor;
+
+        /** The offset of the first instruction in the class file */
+        public final int codeOffset;
+        public final int codeLength;
+
+        private final int[] lineStarts;
+        private final int[] lines;
+        private final List<Local> locals;
+
+        Method(String name, String descriptor, int codeOffset, int codeLength,
+               int[] lineStarts, int[] lines, List<Local> locals)
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.codeOffset = codeOffset;
+            this.codeLength = codeLength;
+            this.lineStarts = lineStarts;
+            this.lines = lines;
+            this.locals = Collections.unmodifiableList(locals);
+        }
+
+        /**
+         * @param pc  an instruction's offset in the method's code
+         * @return the source line of the instruction, or -1 if the
+         *         class was compiled without line numbers
+         */
+        public int lineOf(int pc)
+        {
+            int line = -1;
+            int best = -1;
+            for (int i = 0; i < lines.length; i++) {
+                if (lineStarts[i] <= pc && lineStarts[i] > best) {
+                    best = lineStarts[i];
+                    line = lines[i];
+                }
+            }
+            return line;
+        }
+
+        /**
+         * @return the local variables, which are empty if the class
+         *         was compiled without them
+         */
+        public List<Local> getLocals()
+        {
+            return locals;
+        }
+    }
+
+    private final byte[] bytes;
+    private final int[] tags;
+    private final int[] offsets;
+    private final String name;
+    private final List<Method> methods;
+
+    /**
+     * @param bytes  a class file
+     * @throws IllegalArgumentException if it is not a class file
+     */
+    public ClassFile(byte[] bytes)
+    {
+        this.bytes = bytes;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != 0xCAFEBABE) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        in.getInt();
+
+        int count = in.getShort() & 0xFFFF;
+        this.tags = new int[count];
+        this.offsets = new int[count];
+        for (int i = 1; i < count; i++) {
+            tags[i] = in.get() & 0xFF;
+            offsets[i] = in.position();
+            switch (tags[i]) {
+            case UTF8:
+                in.position(in.position() + 2 + (in.getShort(in.position()) & 0xFFFF));
+                break;
+            case LONG:
+            case DOUBLE:
+                in.position(in.position() + 8);
+                i++;
+                break;
+            case INTEGER:
+            case FLOAT:
+            case FIELDREF:
+            case METHODREF:
+            case INTERFACE_METHODREF:
+            case NAME_AND_TYPE:
+            case DYNAMIC:
+            case INVOKE_DYNAMIC:
+                in.position(in.position() + 4);
+                break;
+            case METHOD_HANDLE:
+                in.position(in.position() + 3);
+                break;
+            case CLASS:
+            case STRING:
+            case METHOD_TYPE:
+            case MODULE:
+            case PACKAGE:
+                in.position(in.position() + 2);
+                break;
+            default:
+                throw new IllegalArgumentException("Bad constant pool tag " + tags[i]);
+            }
+        }
+
+        in.getShort();
+        this.name = className(in.getShort() & 0xFFFF);
+        in.getShort();
+        int interfaces = in.getShort() & 0xFFFF;
+        in.position(in.position() + 2 * interfaces);
+
+        int fields = in.getShort() & 0xFFFF;
+        for (int i = 0; i < fields; i++) {
+            in.position(in.position() + 6);
+            skipAttributes(in);
+        }
+
+        int methodCount = in.getShort() & 0xFFFF;
+        List<Method> methods = new ArrayList<Method>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            in.getShort();
+            String methodName = utf8(in.getShort() & 0xFFFF);
+            String descriptor = utf8(in.getShort() & 0xFFFF);
+            int attributes = in.getShort() & 0xFFFF;
+            for (int a = 0; a < attributes; a++) {
+                String attribute = utf8(in.getShort() & 0xFFFF);
+                int length = in.getInt();
+                int end = in.position() + length;
+                if (attribute.equals("Code")) {
+                    methods.add(readCode(in, methodName, descriptor));
+                }
+                in.position(end);
+            }
+        }
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * @return the class's binary name, such as swen90006.mfa.MFA
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the methods that have bytecode
+     */
+    public List<Method> getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * @return the class file's bytes, which must not be modified
+     */
+    byte[] bytes()
+    {
+        return bytes;
+    }
+
+    int constantCount()
+    {
+        return tags.length;
+    }
+
+    int tag(int index)
+    {
+        return tags[index];
+    }
+
+    String utf8(int index)
+    {
+        int offset = offsets[index];
+        int length = u2(offset);
+        //Modified UTF-8 only differs from UTF-8 for NUL and supplementary
+        //characters, neither of which appear in names and descriptors
+        return new String(bytes, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    String className(int index)
+    {
+        return utf8(u2(offsets[index])).replace('/', '.');
+    }
+
+    /**
+     * @param index  a Fieldref, Methodref or InterfaceMethodref
+     * @return the binary name of the class owning the member
+     */
+    String memberOwner(int index)
+    {
+        return className(u2(offsets[index]));
+    }
+
+    /**
+     * @param index  a Fieldref, Methodref or InterfaceMethodref
+     * @return the member's name
+     */
+    String memberName(int index)
+    {
+        return utf8(u2(offsets[u2(offsets[index] + 2)]));
+    }
+
+    /**
+     * @param index  a Fieldref, Methodref or InterfaceMethodref
+     * @return the member's descriptor
+     */
+    String memberDescriptor(int index)
+    {
+        return utf8(u2(offsets[u2(offsets[index] + 2)] + 2));
+    }
+
+    int u1(int offset)
+    {
+        return bytes[offset] & 0xFF;
+    }
+
+    int u2(int offset)
+    {
+        return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+    }
+
+    private Method readCode(ByteBuffer in, String methodName, String descriptor)
+    {
+        in.getShort();
+        in.getShort();
+        int codeLength = in.getInt();
+        int codeOffset = in.position();
+        in.position(codeOffset + codeLength);
+        int handlers = in.getShort() & 0xFFFF;
+        in.position(in.position() + 8 * handlers);
+
+        List<int[]> lineTable = new ArrayList<int[]>();
+        List<Local> locals = new ArrayList<Local>();
+        int attributes = in.getShort() & 0xFFFF;
+        for (int a = 0; a < attributes; a++) {
+            String attribute = utf8(in.getShort() & 0xFFFF);
+            int length = in.getInt();
+            int end = in.position() + length;
+            if (attribute.equals("LineNumberTable")) {
+                int entries = in.getShort() & 0xFFFF;
+                for (int e = 0; e < entries; e++) {
+                    lineTable.add(new int[] {in.getShort() & 0xFFFF, in.getShort() & 0xFFFF});
+                }
+            }
+            else if (attribute.equals("LocalVariableTable")) {
+                int entries = in.getShort() & 0xFFFF;
+                for (int e = 0; e < entries; e++) {
+                    int start = in.getShort() & 0xFFFF;
+                    int scope = in.getShort() & 0xFFFF;
+                    String localName = utf8(in.getShort() & 0xFFFF);
+                    String localDescriptor = utf8(in.getShort() & 0xFFFF);
+                    int index = in.getShort() & 0xFFFF;
+                    locals.add(new Local(index, start, start + scope, localName, localDescriptor));
+                }
+            }
+            in.position(end);
+        }
+
+        int[] lineStarts = new int[lineTable.size()];
+        int[] lines = new int[lineTable.size()];
+        for (int i = 0; i < lineTable.size(); i++) {
+            lineStarts[i] = lineTable.get(i)[0];
+            lines[i] = lineTable.get(i)[1];
+        }
+        return new Method(methodName, descriptor, codeOffset, codeLength, lineStarts, lines, locals);
+    }
+
+    private static void skipAttributes(ByteBuffer in)
+    {
+        int attributes = in.getShort() & 0xFFFF;
+        for (int a = 0; a < attributes; a++) {
+            in.getShort();
+            int length = in.getInt();
+            in.position(in.position() + length);
+        }
+    }
+}
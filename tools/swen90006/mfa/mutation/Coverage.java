@@ -0,0 +1,120 @@
+package swen90006.mfa.mutation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The source lines of one class that each test executes.
+ *
+ * The file format has a line per test: the test's name, a tab, and the
+ * line numbers it reached, separated by commas.
+ */
+public class Coverage
+{
+    private final String className;
+    private final Map<String, BitSet> lines;
+
+    /**
+     * @param className  the binary name of the covered class
+     */
+    public Coverage(String className)
+    {
+        this.className = className;
+        this.lines = new LinkedHashMap<String, BitSet>();
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    /**
+     * Records that a test reached a line.
+     */
+    void add(String test, int line)
+    {
+        lines.computeIfAbsent(test, t -> new BitSet()).set(line);
+    }
+
+    /**
+     * Records a test, even if it reaches no lines.
+     */
+    void addTest(String test)
+    {
+        lines.computeIfAbsent(test, t -> new BitSet());
+    }
+
+    /**
+     * @return the tests, in the order they were run
+     */
+    public List<String> getTests()
+    {
+        return Collections.unmodifiableList(new ArrayList<String>(lines.keySet()));
+    }
+
+    /**
+     * @param test  a test, as Suite#method
+     * @param line  a source line
+     * @return true if and only if the test reached the line
+     */
+    public boolean reaches(String test, int line)
+    {
+        BitSet reached = lines.get(test);
+        return reached != null && line >= 0 && reached.get(line);
+    }
+
+    /**
+     * @param line  a source line
+     * @return the tests that reach it, in the order they were run
+     */
+    public List<String> testsReaching(int line)
+    {
+        List<String> tests = new ArrayList<String>();
+        for (Map.Entry<String, BitSet> entry : lines.entrySet()) {
+            if (line >= 0 && entry.getValue().get(line)) {
+                tests.add(entry.getKey());
+            }
+        }
+        return tests;
+    }
+
+    public void write(Appendable out) throws IOException
+    {
+        out.append(className).append('\n');
+        for (Map.Entry<String, BitSet> entry : lines.entrySet()) {
+            out.append(entry.getKey()).append('\t');
+            BitSet reached = entry.getValue();
+            for (int line = reached.nextSetBit(0); line >= 0; line = reached.nextSetBit(line + 1)) {
+                out.append(String.valueOf(line));
+                if (reached.nextSetBit(line + 1) >= 0) {
+                    out.append(',');
+                }
+            }
+            out.append('\n');
+        }
+    }
+
+    public static Coverage read(Reader reader) throws IOException
+    {
+        BufferedReader in = new BufferedReader(reader);
+        Coverage coverage = new Coverage(in.readLine());
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            int tab = line.indexOf('\t');
+            String test = line.substring(0, tab);
+            coverage.addTest(test);
+            for (String number : line.substring(tab + 1).split(",")) {
+                if (!number.isEmpty()) {
+                    coverage.add(test, Integer.parseInt(number));
+                }
+            }
+        }
+        return coverage;
+    }
+}
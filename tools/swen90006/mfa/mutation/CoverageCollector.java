@@ -0,0 +1,255 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.Bootstrap;
+import com.sun.jdi.IncompatibleThreadStateException;
+import com.sun.jdi.Location;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.connect.Connector;
+import com.sun.jdi.connect.IllegalConnectorArgumentsException;
+import com.sun.jdi.connect.LaunchingConnector;
+import com.sun.jdi.connect.VMStartException;
+import com.sun.jdi.event.BreakpointEvent;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.event.Event;
+import com.sun.jdi.event.EventSet;
+import com.sun.jdi.event.VMDeathEvent;
+import com.sun.jdi.event.VMDisconnectEvent;
+import com.sun.jdi.request.BreakpointRequest;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.EventRequestManager;
+
+/**
+ * Collects per-test line coverage of one class of the original program.
+ *
+ * The tests are run one at a time by CoverageDriver in a JVM launched
+ * under the debugger interface, with a breakpoint on every line of the
+ * class. A line's breakpoint is disabled once it has been hit, and all
+ * are enabled again when the next test starts, so each line costs at
+ * most one stop per test. The class must be compiled with line numbers.
+ */
+public class CoverageCollector
+{
+    private final String className;
+    private final String classPath;
+
+    /**
+     * @param className  the binary name of the class to cover
+     * @param classPath  the class path for the original program, the
+     *                   tests, the tools and JUnit
+     */
+    public CoverageCollector(String className, String classPath)
+    {
+        this.className = className;
+        this.classPath = classPath;
+    }
+
+    /**
+     * Creates a collector for a class of a compiled program, run with
+     * this JVM's class path for the tools and JUnit.
+     *
+     * @param className  the binary name of the class to cover
+     * @param classes    the directory holding the program's classes
+     * @param tests      the directory holding the compiled tests
+     * @return the collector
+     */
+    public static CoverageCollector forProgram(String className, File classes, File tests)
+    {
+        return new CoverageCollector(className, classes.getPath() + File.pathSeparator
+                                     + tests.getPath() + File.pathSeparator
+                                     + System.getProperty("java.class.path"));
+    }
+
+    /**
+     * Returns the coverage of a class of a compiled program, reading it
+     * from a cache file if that is newer than the class and the suites,
+     * and otherwise collecting it and updating the cache.
+     *
+     * @param cache      the cache file
+     * @param className  the binary name of the class to cover
+     * @param classes    the directory holding the program's classes
+     * @param tests      the directory holding the compiled tests
+     * @param suites     the suites' simple class names
+     * @return the coverage
+     */
+    public static Coverage cached(File cache, String className, File classes, File tests,
+                                  List<String> suites)
+        throws IOException, InterruptedException
+    {
+        List<File> inputs = new ArrayList<File>();
+        inputs.add(new File(classes, className.replace('.', '/') + ".class"));
+        for (String suite : suites) {
+            inputs.add(new File(tests, (MutationRunner.SUITE_PACKAGE + suite).replace('.', '/')
+                                + ".class"));
+        }
+        boolean fresh = cache.exists();
+        for (File input : inputs) {
+            fresh &= input.lastModified() < cache.lastModified();
+        }
+        if (fresh) {
+            try (Reader in = new FileReader(cache)) {
+                Coverage coverage = Coverage.read(in);
+                if (coverage.getClassName().equals(className)
+                    && coverage.getTests().containsAll(MutationRunner.listTests(
+                           Variant.fromDirectory("original", classes, tests), suites))) {
+                    return coverage;
+                }
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        Coverage coverage = forProgram(className, classes, tests).collect(suites);
+        File parent = cache.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer out = new FileWriter(cache)) {
+            coverage.write(out);
+        }
+        return coverage;
+    }
+
+    /**
+     * Runs the suites and records the lines each test reaches.
+     *
+     * @param suites  the suites' simple class names
+     * @return the coverage
+     * @throws IOException if the JVM cannot be launched
+     */
+    public Coverage collect(List<String> suites)
+        throws IOException, InterruptedException
+    {
+        VirtualMachine vm = launch(suites);
+        drain(vm.process().getInputStream());
+        drain(vm.process().getErrorStream());
+
+        EventRequestManager requests = vm.eventRequestManager();
+        for (String name : new String[] {className, CoverageDriver.class.getName()}) {
+            ClassPrepareRequest prepare = requests.createClassPrepareRequest();
+            prepare.addClassFilter(name);
+            prepare.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+            prepare.enable();
+        }
+
+        Coverage coverage = new Coverage(className);
+        List<BreakpointRequest> lines = new ArrayList<BreakpointRequest>();
+        String test = null;
+        vm.resume();
+        try {
+            while (true) {
+                EventSet events = vm.eventQueue().remove();
+                for (Event event : events) {
+                    if (event instanceof VMDeathEvent || event instanceof VMDisconnectEvent) {
+                        return coverage;
+                    }
+                    else if (event instanceof ClassPrepareEvent) {
+                        prepared(((ClassPrepareEvent) event).referenceType(), requests, lines);
+                    }
+                    else if (event instanceof BreakpointEvent) {
+                        BreakpointEvent breakpoint = (BreakpointEvent) event;
+                        Object line = breakpoint.request().getProperty("line");
+                        if (line == null) {
+                            //A test is starting
+                            test = ((StringReference) breakpoint.thread().frame(0)
+                                    .getArgumentValues().get(0)).value();
+                            coverage.addTest(test);
+                            for (BreakpointRequest request : lines) {
+                                request.enable();
+                            }
+                        }
+                        else {
+                            if (test != null) {
+                                coverage.add(test, (Integer) line);
+                            }
+                            breakpoint.request().disable();
+                        }
+                    }
+                }
+                events.resume();
+            }
+        }
+        catch (IncompatibleThreadStateException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (VMDisconnectedException e) {
+            return coverage;
+        }
+    }
+
+    //Sets the breakpoints in a newly loaded class: one per line of the
+    //covered class, or one on CoverageDriver.started
+    private void prepared(ReferenceType type, EventRequestManager requests,
+                          List<BreakpointRequest> lines)
+    {
+        try {
+            if (type.name().equals(className)) {
+                for (Location location : type.allLineLocations()) {
+                    BreakpointRequest request = requests.createBreakpointRequest(location);
+                    request.putProperty("line", location.lineNumber());
+                    request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                    request.enable();
+                    lines.add(request);
+                }
+                if (lines.isEmpty()) {
+                    throw new IllegalStateException(className + " has no line numbers");
+                }
+            }
+            else {
+                Location started = type.methodsByName("started").get(0).location();
+                BreakpointRequest request = requests.createBreakpointRequest(started);
+                request.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                request.enable();
+            }
+        }
+        catch (AbsentInformationException e) {
+            throw new IllegalStateException(className + " has no line numbers", e);
+        }
+    }
+
+    private VirtualMachine launch(List<String> suites)
+        throws IOException
+    {
+        LaunchingConnector connector = Bootstrap.virtualMachineManager().defaultConnector();
+        Map<String, Connector.Argument> arguments = connector.defaultArguments();
+        arguments.get("options").setValue("-cp \"" + classPath + "\"");
+        arguments.get("main").setValue(CoverageDriver.class.getName() + " " + String.join(" ", suites));
+        try {
+            return connector.launch(arguments);
+        }
+        catch (IllegalConnectorArgumentsException | VMStartException e) {
+            throw new IOException("Cannot launch the tests", e);
+        }
+    }
+
+    //The debuggee blocks if its output is not read
+    private static void drain(InputStream in)
+    {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[4096];
+            try {
+                while (in.read(buffer) >= 0) {
+                }
+            }
+            catch (IOException e) {
+            }
+        }, "coverage-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
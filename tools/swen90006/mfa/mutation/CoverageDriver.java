@@ -0,0 +1,35 @@
+package swen90006.mfa.mutation;
+
+import java.util.Arrays;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+
+/**
+ * The main class of the JVM that CoverageCollector debugs: runs each
+ * test on its own, announcing it first so that the collector can tell
+ * which test reached each line.
+ *
+ * Usage: CoverageDriver suite...
+ */
+public class CoverageDriver
+{
+    /**
+     * Called before each test; the collector sets a breakpoint here.
+     *
+     * @param test  the test about to run, as Suite#method
+     */
+    static void started(String test)
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        ClassLoader loader = CoverageDriver.class.getClassLoader();
+        for (String test : MutationRunner.listTests(loader, Arrays.asList(args))) {
+            started(test);
+            Class<?> c = Class.forName(MutationRunner.SUITE_PACKAGE + KillMatrix.suiteName(test));
+            new JUnitCore().run(Request.method(c, KillMatrix.methodName(test)));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs against each mutant only the tests that reach its mutated line,
+ * likeliest killers first.
+ *
+ * A test that never executes the mutated line behaves exactly as it
+ * does on the original, so it cannot kill the mutant and need not be
+ * run. A mutant whose line no test reaches runs no tests at all, and
+ * survives.
+ */
+public class CoverageSelection implements MutationRunner.Selection
+{
+    private final Coverage coverage;
+    private final KillHistory history;
+    private final int[] lines;
+
+    /**
+     * @param coverage  the per-test coverage of the mutated class
+     * @param history   the tests' past kills, used to order them
+     * @param lines     each mutant's mutated line, or -1 if unknown, in
+     *                  which case every test is run
+     */
+    public CoverageSelection(Coverage coverage, KillHistory history, int[] lines)
+    {
+        this.coverage = coverage;
+        this.history = history;
+        this.lines = lines.clone();
+    }
+
+    public List<String> select(int mutant, List<String> tests)
+    {
+        if (lines[mutant] < 0) {
+            return history.order(tests);
+        }
+        List<String> reaching = new ArrayList<String>();
+        for (String test : tests) {
+            if (coverage.reaches(test, lines[mutant])) {
+                reaching.add(test);
+            }
+        }
+        return history.order(reaching);
+    }
+
+    /**
+     * Finds the line a hand-written mutant changes.
+     *
+     * @param original  the original source file
+     * @param mutant    the mutant's source file
+     * @return the first line that differs, or -1 if the files have the
+     *         same lines or their line counts differ
+     */
+    public static int changedLine(File original, File mutant) throws IOException
+    {
+        List<String> a = Files.readAllLines(original.toPath());
+        List<String> b = Files.readAllLines(mutant.toPath());
+        if (a.size() != b.size()) {
+            return -1;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equals(b.get(i))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
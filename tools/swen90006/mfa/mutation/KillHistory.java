@@ -0,0 +1,108 @@
+package swen90006.mfa.mutation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How often each test has killed the mutants it was run against, kept
+ * across runs so that the likeliest killers can be tried first.
+ *
+ * The file format has a line per test: the test's name, then the
+ * number of kills and the number of runs, separated by tabs.
+ */
+public class KillHistory
+{
+    private final Map<String, long[]> counts;
+
+    public KillHistory()
+    {
+        this.counts = new TreeMap<String, long[]>();
+    }
+
+    /**
+     * @param test  a test, as Suite#method
+     * @return the estimated chance that the test kills a mutant it
+     *         reaches: (kills + 1) / (runs + 2), which is 1/2 for a
+     *         test with no history
+     */
+    public double killLikelihood(String test)
+    {
+        long[] count = counts.get(test);
+        return count == null ? 0.5 : (count[0] + 1.0) / (count[1] + 2.0);
+    }
+
+    /**
+     * Sorts tests by decreasing kill likelihood. The sort is stable, so
+     * tests with equal likelihood keep their order.
+     *
+     * @param tests  tests, as Suite#method
+     * @return a sorted copy
+     */
+    public List<String> order(List<String> tests)
+    {
+        List<String> ordered = new ArrayList<String>(tests);
+        ordered.sort(Comparator.comparingDouble((String test) -> killLikelihood(test)).reversed());
+        return ordered;
+    }
+
+    /**
+     * Adds every test run in a kill matrix to the history.
+     */
+    public void record(KillMatrix matrix)
+    {
+        for (int m = 0; m < matrix.getMutants().size(); m++) {
+            for (int t = 0; t < matrix.getTests().size(); t++) {
+                KillMatrix.Outcome outcome = matrix.get(m, t);
+                if (outcome != KillMatrix.Outcome.NOT_RUN) {
+                    long[] count = counts.computeIfAbsent(matrix.getTests().get(t),
+                                                          k -> new long[2]);
+                    count[0] += outcome.kills() ? 1 : 0;
+                    count[1]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the history in a file, or an empty history if there is
+     *         no such file
+     */
+    public static KillHistory read(File file) throws IOException
+    {
+        KillHistory history = new KillHistory();
+        if (!file.exists()) {
+            return history;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] fields = line.split("\t");
+                history.counts.put(fields[0], new long[] {Long.parseLong(fields[1]),
+                                                          Long.parseLong(fields[2])});
+            }
+        }
+        return history;
+    }
+
+    public void write(File file) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer out = new FileWriter(file)) {
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                out.write(entry.getKey() + "\t" + entry.getValue()[0] + "\t"
+                          + entry.getValue()[1] + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package swen90006.mfa.mutation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of running each test against each mutant.
+ *
+ * Tests are named Suite#method and grouped by suite. A mutant is
+ * killed by a suite if any of the suite's tests fails or times out on
+ * it. When the runner stops at the first kill, later tests of that
+ * suite are left NOT_RUN for that mutant.
+ */
+public class KillMatrix
+{
+    public enum Outcome
+    {
+        PASSED, FAILED, TIMED_OUT, NOT_RUN;
+
+        public boolean kills()
+        {
+            return this == FAILED || this == TIMED_OUT;
+        }
+    }
+
+    private final List<String> mutants;
+    private final List<String> suites;
+    private final List<String> tests;
+    private final int[] suiteOf;
+    private final List<String> broken;
+    private final Outcome[][] outcomes;
+
+    /**
+     * @param mutants  the mutants' names
+     * @param suites   the suites' names
+     * @param tests    the tests, as Suite#method, in suite order
+     * @param broken   tests that fail on the original, which are not run
+     */
+    KillMatrix(List<String> mutants, List<String> suites, List<String> tests, List<String> broken)
+    {
+        this.mutants = Collections.unmodifiableList(new ArrayList<String>(mutants));
+        this.suites = Collections.unmodifiableList(new ArrayList<String>(suites));
+        this.tests = Collections.unmodifiableList(new ArrayList<String>(tests));
+        this.broken = Collections.unmodifiableList(new ArrayList<String>(broken));
+        this.suiteOf = new int[tests.size()];
+        for (int t = 0; t < tests.size(); t++) {
+            suiteOf[t] = suites.indexOf(suiteName(tests.get(t)));
+        }
+        this.outcomes = new Outcome[mutants.size()][tests.size()];
+        for (Outcome[] row : outcomes) {
+            Arrays.fill(row, Outcome.NOT_RUN);
+        }
+    }
+
+    void set(int mutant, int test, Outcome outcome)
+    {
+        outcomes[mutant][test] = outcome;
+    }
+
+    public List<String> getMutants()
+    {
+        return mutants;
+    }
+
+    public List<String> getSuites()
+    {
+        return suites;
+    }
+
+    public List<String> getTests()
+    {
+        return tests;
+    }
+
+    /**
+     * @return the tests that fail on the original and so were not run
+     */
+    public List<String> getBrokenTests()
+    {
+        return broken;
+    }
+
+    public Outcome get(int mutant, int test)
+    {
+        return outcomes[mutant][test];
+    }
+
+    /**
+     * @param mutant  a mutant's index
+     * @param suite   a suite's index
+     * @return the index of the first test in the suite that kills the
+     *         mutant, or -1 if it survives the suite
+     */
+    public int killer(int mutant, int suite)
+    {
+        for (int t = 0; t < tests.size(); t++) {
+            if (suiteOf[t] == suite && outcomes[mutant][t].kills()) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param mutant  a mutant's index
+     * @return true if and only if some test kills the mutant
+     */
+    public boolean isKilled(int mutant)
+    {
+        for (Outcome outcome : outcomes[mutant]) {
+            if (outcome.kills()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of mutants killed by some test
+     */
+    public int killed()
+    {
+        int killed = 0;
+        for (int m = 0; m < mutants.size(); m++) {
+            if (isKilled(m)) {
+                killed++;
+            }
+        }
+        return killed;
+    }
+
+    /**
+     * @param suite  a suite's index
+     * @return the number of mutants the suite kills
+     */
+    public int killed(int suite)
+    {
+        int killed = 0;
+        for (int m = 0; m < mutants.size(); m++) {
+            if (killer(m, suite) >= 0) {
+                killed++;
+            }
+        }
+        return killed;
+    }
+
+    /**
+     * @return the number of (mutant, test) pairs that were run
+     */
+    public int runs()
+    {
+        int runs = 0;
+        for (Outcome[] row : outcomes) {
+            for (Outcome outcome : row) {
+                if (outcome != Outcome.NOT_RUN) {
+                    runs++;
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Writes one line per mutant and test that was run:
+     * mutant,test,outcome.
+     */
+    public void writeCsv(Appendable out) throws IOException
+    {
+        out.append("mutant,test,outcome\n");
+        for (int m = 0; m < mutants.size(); m++) {
+            for (int t = 0; t < tests.size(); t++) {
+                if (outcomes[m][t] != Outcome.NOT_RUN) {
+                    out.append(mutants.get(m)).append(',').append(tests.get(t)).append(',')
+                        .append(outcomes[m][t].name()).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a table with a row per mutant and a column per suite,
+     *         naming the test that first killed the mutant
+     */
+    @Override
+    public String toString()
+    {
+        int width = "mutant".length();
+        for (String mutant : mutants) {
+            width = Math.max(width, mutant.length());
+        }
+        String[][] cells = new String[mutants.size()][suites.size()];
+        int[] widths = new int[suites.size()];
+        for (int s = 0; s < suites.size(); s++) {
+            widths[s] = suites.get(s).length();
+            for (int m = 0; m < mutants.size(); m++) {
+                int t = killer(m, s);
+                cells[m][s] = t < 0 ? "survived"
+                    : methodName(tests.get(t))
+                      + (outcomes[m][t] == Outcome.TIMED_OUT ? " (timeout)" : "");
+                widths[s] = Math.max(widths[s], cells[m][s].length());
+            }
+        }
+
+        StringBuilder table = new StringBuilder();
+        pad(table, "mutant", width);
+        for (int s = 0; s < suites.size(); s++) {
+            pad(table.append("  "), suites.get(s), widths[s]);
+        }
+        table.append('\n');
+        for (int m = 0; m < mutants.size(); m++) {
+            pad(table, mutants.get(m), width);
+            for (int s = 0; s < suites.size(); s++) {
+                pad(table.append("  "), cells[m][s], widths[s]);
+            }
+            table.append('\n');
+        }
+        pad(table, "killed", width);
+        for (int s = 0; s < suites.size(); s++) {
+            pad(table.append("  "), killed(s) + "/" + mutants.size(), widths[s]);
+        }
+        return table.append('\n').toString();
+    }
+
+    static String suiteName(String test)
+    {
+        return test.substring(0, test.indexOf('#'));
+    }
+
+    static String methodName(String test)
+    {
+        return test.substring(test.indexOf('#') + 1);
+    }
+
+    private static void pad(StringBuilder table, String cell, int width)
+    {
+        table.append(cell);
+        for (int i = cell.length(); i < width; i++) {
+            table.append(' ');
+        }
+    }
+}
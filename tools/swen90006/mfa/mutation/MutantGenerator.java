@@ -0,0 +1,178 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates mutants of a class in the original program by patching its
+ * bytecode in memory, and runs the suites against all of them.
+ *
+ * No source is written and javac is never run: each mutant is the
+ * original class path with one class file replaced, loaded by its own
+ * VariantClassLoader. Mutants whose bytecode fails verification are
+ * stillborn and are dropped before the run.
+ */
+public class MutantGenerator
+{
+    private final BytecodeMutator mutator;
+
+    public MutantGenerator()
+    {
+        this.mutator = new BytecodeMutator();
+    }
+
+    /**
+     * Generates the mutants of one class of a variant.
+     *
+     * @param original   the variant to mutate
+     * @param className  the binary name of the class to mutate
+     * @return the live mutants, keyed by the mutation that made each
+     * @throws IOException if the class file cannot be read
+     */
+    public Map<Mutation, Variant> generate(Variant original, String className)
+        throws IOException
+    {
+        byte[] bytes = original.newClassLoader(getClass().getClassLoader()).readClassFile(className);
+        Map<Mutation, Variant> mutants = new LinkedHashMap<Mutation, Variant>();
+        for (Mutation mutation : mutator.generate(new ClassFile(bytes))) {
+            Variant mutant = original.patch(className + "." + mutation,
+                                            Collections.singletonMap(className,
+                                                                     mutation.apply(bytes)));
+            if (!isStillborn(mutant, className)) {
+                mutants.put(mutation, mutant);
+            }
+        }
+        return mutants;
+    }
+
+    //Whether a mutant fails verification, found by initialising the
+    //mutated class in a throwaway loader
+    private boolean isStillborn(Variant mutant, String className)
+    {
+        try {
+            Class.forName(className, true, mutant.newClassLoader(getClass().getClassLoader()));
+            return false;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return true;
+        }
+    }
+
+    /**
+     * Mutates the original MFA class and runs the suites against every
+     * mutant, printing the score per operator and the survivors.
+     *
+     * Usage: MutantGenerator [--threads n] [--timeout ms] [--csv file]
+     *                        [--class name] [--coverage] [--history file]
+     *                        [original-classes [test-classes [suite...]]]
+     *
+     * The defaults are classes/programs/original, classes/tests, the
+     * class swen90006.mfa.MFA and the suites BoundaryTests and
+     * PartitioningTests. The per-test timeout defaults to one second.
+     * --coverage runs against each mutant only the tests that reach
+     * its line, likeliest killers first, as for MutationRunner.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeout = 1000;
+        boolean coverage = false;
+        String csv = null;
+        String history = "results/kill-history.txt";
+        String className = "swen90006.mfa.MFA";
+        List<String> positional = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--timeout")) {
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--csv")) {
+                csv = args[++i];
+            }
+            else if (args[i].equals("--class")) {
+                className = args[++i];
+            }
+            else if (args[i].equals("--coverage")) {
+                coverage = true;
+            }
+            else if (args[i].equals("--history")) {
+                history = args[++i];
+            }
+            else {
+                positional.add(args[i]);
+            }
+        }
+        File classes = new File(positional.size() > 0 ? positional.get(0)
+                                : "classes/programs/original");
+        File tests = new File(positional.size() > 1 ? positional.get(1) : "classes/tests");
+        List<String> suites = positional.size() > 2 ? positional.subList(2, positional.size())
+            : Arrays.asList("BoundaryTests", "PartitioningTests");
+
+        long start = System.nanoTime();
+        Variant original = Variant.fromDirectory("original", classes, tests);
+        Map<Mutation, Variant> mutants = new MutantGenerator().generate(original, className);
+        List<Mutation> mutations = new ArrayList<Mutation>(mutants.keySet());
+        System.out.println("Generated " + mutants.size() + " mutants of " + className + " in "
+                           + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+        MutationRunner.Selection selection = MutationRunner.ALL_TESTS;
+        KillHistory kills = KillHistory.read(new File(history));
+        if (coverage) {
+            int[] lines = new int[mutations.size()];
+            for (int m = 0; m < mutations.size(); m++) {
+                lines[m] = mutations.get(m).getLine();
+            }
+            Coverage covered = CoverageCollector.cached(new File("results/coverage.txt"),
+                                                        className, classes, tests, suites);
+            selection = new CoverageSelection(covered, kills, lines);
+        }
+        KillMatrix matrix = new MutationRunner(threads, timeout, true)
+            .run(original, new ArrayList<Variant>(mutants.values()), suites, selection);
+        kills.record(matrix);
+        kills.write(new File(history));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Map<String, int[]> byOperator = new LinkedHashMap<String, int[]>();
+        List<Mutation> survivors = new ArrayList<Mutation>();
+        for (int m = 0; m < mutations.size(); m++) {
+            int[] score = byOperator.computeIfAbsent(mutations.get(m).getOperator(),
+                                                     k -> new int[2]);
+            score[1]++;
+            if (matrix.isKilled(m)) {
+                score[0]++;
+            }
+            else {
+                survivors.add(mutations.get(m));
+            }
+        }
+        for (String test : matrix.getBrokenTests()) {
+            System.out.println("Fails on the original, not run: " + test);
+        }
+        for (Map.Entry<String, int[]> entry : byOperator.entrySet()) {
+            System.out.println(entry.getKey() + ": killed " + entry.getValue()[0] + " of "
+                               + entry.getValue()[1]);
+        }
+        for (Mutation survivor : survivors) {
+            System.out.println("Survived: " + survivor);
+        }
+        System.out.println("Killed " + matrix.killed() + " of " + mutations.size()
+                           + " mutants with " + matrix.runs() + " test runs in " + elapsed
+                           + " ms on " + threads + " threads");
+        if (csv != null) {
+            try (Writer out = new FileWriter(csv)) {
+                matrix.writeCsv(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package swen90006.mfa.mutation;
+
+/**
+ * One small change to a class's bytecode: some bytes of one instruction
+ * overwritten in place. Since the instruction keeps its length, branch
+ * offsets and stack map frames stay valid, and the patched class needs
+ * no reassembly.
+ */
+public final class Mutation
+{
+    private final String className;
+    private final String method;
+    private final int pc;
+    private final int line;
+    private final String operator;
+    private final String description;
+    private final int offset;
+    private final byte[] patch;
+
+    /**
+     * @param className    the binary name of the mutated class
+     * @param method       the mutated method's name
+     * @param pc           the instruction's offset in the method's code
+     * @param line         the instruction's source line, or -1
+     * @param operator     the mutation operator, such as ROR
+     * @param description  what the mutation does, such as if_icmpge -> if_icmpgt
+     * @param offset       the offset in the class file to overwrite
+     * @param patch        the bytes to write there
+     */
+    Mutation(String className, String method, int pc, int line, String operator,
+             String description, int offset, byte[] patch)
+    {
+        this.className = className;
+        this.method = method;
+        this.pc = pc;
+        this.line = line;
+        this.operator = operator;
+        this.description = description;
+        this.offset = offset;
+        this.patch = patch;
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public int getPc()
+    {
+        return pc;
+    }
+
+    public int getLine()
+    {
+        return line;
+    }
+
+    public String getOperator()
+    {
+        return operator;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * @param original  the unmutated class file
+     * @return a mutated copy of it
+     */
+    public byte[] apply(byte[] original)
+    {
+        byte[] mutated = original.clone();
+        System.arraycopy(patch, 0, mutated, offset, patch.length);
+        return mutated;
+    }
+
+    /**
+     * @return a name for the mutant, unique within its class, such as
+     *         register:145@27 ROR if_icmpge -> if_icmpgt
+     */
+    @Override
+    public String toString()
+    {
+        return method + ":" + line + "@" + pc + " " + operator + " " + description;
+    }
+}
@@ -0,0 +1,367 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+import swen90006.mfa.mutation.KillMatrix.Outcome;
+
+/**
+ * Runs JUnit suites against every variant of the MFA program in one
+ * JVM.
+ *
+ * Each variant is loaded by its own VariantClassLoader, so all of them
+ * can be run side by side without forking. The original is run first,
+ * and any test that fails on it is left out, since it cannot tell a
+ * mutant from the original. Then every (mutant, test) pair is run on a
+ * pool of worker threads. Pairs are queued test by test, so the early
+ * tests of every mutant run first, and once a test in a suite kills a
+ * mutant, the suite's later tests are skipped for that mutant.
+ *
+ * Each test runs in a thread of its own and is abandoned if it takes
+ * longer than the timeout, which counts as a kill: mutants can turn
+ * loops into infinite ones.
+ */
+public class MutationRunner
+{
+    /** The default per-test timeout, in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    /** The package holding the suites */
+    public static final String SUITE_PACKAGE = "swen90006.mfa.";
+
+    private final int threads;
+    private final long timeout;
+    private final boolean stopAtFirstKill;
+
+    /**
+     * @param threads          the number of tests to run at once
+     * @param timeout          the per-test timeout, in milliseconds
+     * @param stopAtFirstKill  whether to skip a suite's remaining tests
+     *                         for a mutant once one has killed it
+     */
+    public MutationRunner(int threads, long timeout, boolean stopAtFirstKill)
+    {
+        this.threads = threads;
+        this.timeout = timeout;
+        this.stopAtFirstKill = stopAtFirstKill;
+    }
+
+    /**
+     * Lists the tests of some suites, in the order JUnit runs them.
+     *
+     * @param variant  a variant to load the suites with
+     * @param suites   the suites' simple class names, such as BoundaryTests
+     * @return the tests, as Suite#method
+     */
+    public static List<String> listTests(Variant variant, List<String> suites)
+        throws ClassNotFoundException
+    {
+        return listTests(variant.newClassLoader(MutationRunner.class.getClassLoader()), suites);
+    }
+
+    static List<String> listTests(ClassLoader loader, List<String> suites)
+        throws ClassNotFoundException
+    {
+        List<String> tests = new ArrayList<String>();
+        for (String suite : suites) {
+            Class<?> c = Class.forName(SUITE_PACKAGE + suite, false, loader);
+            Description description = Request.aClass(c).getRunner().getDescription();
+            for (Description child : description.getChildren()) {
+                tests.add(suite + "#" + child.getMethodName());
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Chooses which tests to run against each mutant, and in what order.
+     */
+    public interface Selection
+    {
+        /**
+         * @param mutant  the mutant's index
+         * @param tests   the tests that pass on the original, in suite order
+         * @return the tests to run against the mutant, in the order to run them
+         */
+        List<String> select(int mutant, List<String> tests);
+    }
+
+    /** Runs every test that passes on the original, in suite order */
+    public static final Selection ALL_TESTS = (mutant, tests) -> tests;
+
+    /**
+     * Runs every suite against the original and the mutants.
+     *
+     * @param original  the original program
+     * @param mutants   the mutants
+     * @param suites    the suites' simple class names
+     * @return the outcome of each test on each mutant
+     */
+    public KillMatrix run(Variant original, List<Variant> mutants, List<String> suites)
+        throws ClassNotFoundException, InterruptedException
+    {
+        return run(original, mutants, suites, ALL_TESTS);
+    }
+
+    /**
+     * Runs the selected tests against each mutant, after running every
+     * test against the original.
+     *
+     * @param original   the original program
+     * @param mutants    the mutants
+     * @param suites     the suites' simple class names
+     * @param selection  the tests to run against each mutant
+     * @return the outcome of each test on each mutant
+     */
+    public KillMatrix run(Variant original, List<Variant> mutants, List<String> suites,
+                          Selection selection)
+        throws ClassNotFoundException, InterruptedException
+    {
+        List<String> all = listTests(original, suites);
+        List<String> tests = new ArrayList<String>();
+        List<String> broken = new ArrayList<String>();
+        KillMatrix baseline = run(Arrays.asList(original), suites, all,
+                                  Arrays.asList(all), new ArrayList<String>());
+        for (int t = 0; t < all.size(); t++) {
+            (baseline.get(0, t) == Outcome.PASSED ? tests : broken).add(all.get(t));
+        }
+        List<List<String>> selected = new ArrayList<List<String>>();
+        for (int m = 0; m < mutants.size(); m++) {
+            selected.add(selection.select(m, Collections.unmodifiableList(tests)));
+        }
+        return run(mutants, suites, all, selected, broken);
+    }
+
+    //Runs each variant's tests in order, filling in a matrix over all
+    //tests. Tests are queued by their position in each variant's order,
+    //so that every variant's first tests run before any variant's later
+    //ones.
+    private KillMatrix run(List<Variant> variants, List<String> suites, List<String> all,
+                           List<List<String>> selected, List<String> broken)
+        throws InterruptedException
+    {
+        List<String> names = new ArrayList<String>();
+        List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+        for (Variant variant : variants) {
+            names.add(variant.getName());
+            loaders.add(variant.newClassLoader(MutationRunner.class.getClassLoader()));
+        }
+        KillMatrix matrix = new KillMatrix(names, suites, all, broken);
+
+        //The position of the first test known to kill each (variant, suite)
+        AtomicIntegerArray firstKill = new AtomicIntegerArray(variants.size() * suites.size());
+        for (int i = 0; i < firstKill.length(); i++) {
+            firstKill.set(i, Integer.MAX_VALUE);
+        }
+
+        int longest = 0;
+        for (List<String> tests : selected) {
+            longest = Math.max(longest, tests.size());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, daemonThreads("mutation"));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int r = 0; r < longest; r++) {
+                for (int v = 0; v < variants.size(); v++) {
+                    if (r >= selected.get(v).size()) {
+                        continue;
+                    }
+                    String test = selected.get(v).get(r);
+                    int t = all.indexOf(test);
+                    int cell = v * suites.size() + suites.indexOf(KillMatrix.suiteName(test));
+                    ClassLoader loader = loaders.get(v);
+                    int variant = v;
+                    int rank = r;
+                    futures.add(executor.submit(() -> {
+                        if (stopAtFirstKill && firstKill.get(cell) < rank) {
+                            return null;
+                        }
+                        Outcome outcome = runTest(loader, test);
+                        matrix.set(variant, t, outcome);
+                        if (outcome.kills()) {
+                            firstKill.accumulateAndGet(cell, rank, Math::min);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return matrix;
+    }
+
+    /**
+     * Runs one test in a fresh thread, giving up after the timeout.
+     *
+     * @param loader  the loader for the variant to test
+     * @param test    the test, as Suite#method
+     * @return PASSED, FAILED or TIMED_OUT
+     */
+    Outcome runTest(ClassLoader loader, String test)
+        throws InterruptedException
+    {
+        FutureTask<Result> task = new FutureTask<Result>(() -> {
+            Class<?> c = Class.forName(SUITE_PACKAGE + KillMatrix.suiteName(test), true, loader);
+            return new JUnitCore().run(Request.method(c, KillMatrix.methodName(test)));
+        });
+        Thread thread = new Thread(task, "mutation-test");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(loader);
+        thread.start();
+        try {
+            return task.get(timeout, TimeUnit.MILLISECONDS).wasSuccessful()
+                ? Outcome.PASSED : Outcome.FAILED;
+        }
+        catch (ExecutionException e) {
+            //The suite could not be loaded against this variant
+            return Outcome.FAILED;
+        }
+        catch (TimeoutException e) {
+            //A test stuck in a loop cannot be stopped, only abandoned
+            thread.interrupt();
+            return Outcome.TIMED_OUT;
+        }
+    }
+
+    static ThreadFactory daemonThreads(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs suites against every program compiled under a directory:
+     * "original" and each mutant beside it.
+     *
+     * Usage: MutationRunner [--threads n] [--timeout ms] [--all] [--csv file]
+     *                       [--coverage [--sources dir]] [--history file]
+     *                       [programs-classes [test-classes [suite...]]]
+     *
+     * The defaults are classes/programs, classes/tests, and the suites
+     * BoundaryTests and PartitioningTests. --all runs every test on
+     * every mutant instead of stopping at the first kill. --coverage
+     * runs against each mutant only the tests that reach the line it
+     * changes in MFA.java, found by comparing its source under
+     * --sources (default programs) with the original's. Tests are
+     * tried in order of how often they have killed mutants before, as
+     * recorded in the --history file (default results/kill-history.txt).
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeout = DEFAULT_TIMEOUT;
+        boolean all = false;
+        boolean coverage = false;
+        String csv = null;
+        String history = "results/kill-history.txt";
+        String sources = "programs";
+        List<String> positional = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--timeout")) {
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--all")) {
+                all = true;
+            }
+            else if (args[i].equals("--csv")) {
+                csv = args[++i];
+            }
+            else if (args[i].equals("--coverage")) {
+                coverage = true;
+            }
+            else if (args[i].equals("--history")) {
+                history = args[++i];
+            }
+            else if (args[i].equals("--sources")) {
+                sources = args[++i];
+            }
+            else {
+                positional.add(args[i]);
+            }
+        }
+        File programs = new File(positional.size() > 0 ? positional.get(0) : "classes/programs");
+        File tests = new File(positional.size() > 1 ? positional.get(1) : "classes/tests");
+        List<String> suites = positional.size() > 2 ? positional.subList(2, positional.size())
+            : Arrays.asList("BoundaryTests", "PartitioningTests");
+
+        Variant original = Variant.fromDirectory("original", new File(programs, "original"), tests);
+        List<Variant> mutants = new ArrayList<Variant>();
+        String[] names = programs.list();
+        Arrays.sort(names);
+        for (String name : names) {
+            if (!name.equals("original") && new File(programs, name).isDirectory()) {
+                mutants.add(Variant.fromDirectory(name, new File(programs, name), tests));
+            }
+        }
+
+        long start = System.nanoTime();
+        Selection selection = ALL_TESTS;
+        KillHistory kills = KillHistory.read(new File(history));
+        if (coverage) {
+            int[] lines = new int[mutants.size()];
+            File source = new File(sources, "original/swen90006/mfa/MFA.java");
+            for (int m = 0; m < mutants.size(); m++) {
+                lines[m] = CoverageSelection.changedLine(
+                    source, new File(sources, mutants.get(m).getName() + "/swen90006/mfa/MFA.java"));
+            }
+            Coverage covered = CoverageCollector.cached(new File("results/coverage.txt"),
+                                                        "swen90006.mfa.MFA",
+                                                        new File(programs, "original"), tests,
+                                                        suites);
+            selection = new CoverageSelection(covered, kills, lines);
+        }
+        KillMatrix matrix = new MutationRunner(threads, timeout, !all)
+            .run(original, mutants, suites, selection);
+        kills.record(matrix);
+        kills.write(new File(history));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        for (String test : matrix.getBrokenTests()) {
+            System.out.println("Fails on the original, not run: " + test);
+        }
+        System.out.print(matrix);
+        System.out.println("Killed " + matrix.killed() + " of " + mutants.size() + " mutants with "
+                           + matrix.runs() + " test runs in " + elapsed + " ms on " + threads
+                           + " threads");
+        if (csv != null) {
+            try (Writer out = new FileWriter(csv)) {
+                matrix.writeCsv(out);
+            }
+        }
+    }
+}
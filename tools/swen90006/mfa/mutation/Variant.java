@@ -0,0 +1,87 @@
+package swen90006.mfa.mutation;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A version of the MFA program to run the tests against: the original,
+ * a mutant compiled from source under programs/, or a mutant made by
+ * patching the original's bytecode.
+ */
+public final class Variant
+{
+    private final String name;
+    private final URL[] classPath;
+    private final Map<String, byte[]> patched;
+
+    /**
+     * @param name       the variant's name, such as mutant-1
+     * @param classPath  the variant's class directories, then the tests'
+     * @param patched    bytecode replacing classes on the class path,
+     *                   keyed by binary class name
+     */
+    public Variant(String name, URL[] classPath, Map<String, byte[]> patched)
+    {
+        this.name = name;
+        this.classPath = classPath.clone();
+        this.patched = patched == null ? Collections.<String, byte[]>emptyMap() : patched;
+    }
+
+    /**
+     * Creates a variant compiled into its own directory.
+     *
+     * @param name     the variant's name
+     * @param classes  the directory holding the variant's classes
+     * @param tests    the directory holding the compiled tests
+     * @return the variant
+     */
+    public static Variant fromDirectory(String name, File classes, File tests)
+    {
+        return new Variant(name, new URL[] {url(classes), url(tests)}, null);
+    }
+
+    /**
+     * Creates a variant that replaces some of this one's classes.
+     *
+     * @param name     the new variant's name
+     * @param patched  the replacement bytecode, keyed by binary class name
+     * @return the new variant
+     */
+    public Variant patch(String name, Map<String, byte[]> patched)
+    {
+        return new Variant(name, classPath, patched);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @param parent  the loader for JUnit and the runner
+     * @return a fresh class loader for this variant and the tests
+     */
+    public VariantClassLoader newClassLoader(ClassLoader parent)
+    {
+        return new VariantClassLoader(classPath, patched, parent);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    private static URL url(File directory)
+    {
+        try {
+            return directory.toURI().toURL();
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException(directory.toString(), e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package swen90006.mfa.mutation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Loads one variant of the MFA program, together with the tests, in
+ * isolation from every other variant.
+ *
+ * Classes in swen90006.mfa and its subpackages are loaded child-first,
+ * so that each variant gets its own copies even if another variant is
+ * on the parent's class path. Everything else, notably JUnit, comes
+ * from the parent, so that results can be read by the runner. Classes
+ * may be replaced by patched bytecode, which is how in-memory mutants
+ * are loaded.
+ */
+public class VariantClassLoader extends URLClassLoader
+{
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final String ISOLATED = "swen90006.mfa.";
+    private static final String SHARED = "swen90006.mfa.mutation.";
+
+    private final Map<String, byte[]> patched;
+
+    /**
+     * @param urls     the variant's class directories, then the tests'
+     * @param patched  bytecode to use instead of that on the class path,
+     *                 keyed by binary class name
+     * @param parent   the loader for JUnit and the runner
+     */
+    public VariantClassLoader(URL[] urls, Map<String, byte[]> patched, ClassLoader parent)
+    {
+        super(urls, parent);
+        this.patched = patched == null ? Collections.<String, byte[]>emptyMap() : patched;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException
+    {
+        if (!name.startsWith(ISOLATED) || name.startsWith(SHARED)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name)
+        throws ClassNotFoundException
+    {
+        byte[] bytes = patched.get(name);
+        if (bytes != null) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+        return super.findClass(name);
+    }
+
+    /**
+     * Reads the bytecode of a class from this loader's class path,
+     * ignoring any patches.
+     *
+     * @param name  the binary class name
+     * @return the class file's bytes
+     * @throws IOException if there is no such class
+     */
+    public byte[] readClassFile(String name)
+        throws IOException
+    {
+        String path = name.replace('.', '/') + ".class";
+        URL url = findResource(path);
+        if (url == null) {
+            throw new IOException("No class file for " + name);
+        }
+        try (InputStream in = url.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+}